@@ -56,6 +56,12 @@ public abstract class Articulation {
 	 */
 	protected double[] effectiveLinearVolume = new double[2];
 
+	/**
+	 * The temporary double precision buffer used by the default
+	 * implementation of process(FloatAudioBuffer), created when needed.
+	 */
+	private AudioBuffer processBuffer;
+
 	/**
 	 * Should be called by the constructors of subclasses.
 	 * 
@@ -65,6 +71,18 @@ public abstract class Articulation {
 	protected void init(AudioTime time, Patch patch, MidiChannel channel) {
 		this.patch = patch;
 		this.channel = channel;
+		this.initialPitchOffset = 0.0;
+		effectiveLinearVolume[0] = 0.0;
+		effectiveLinearVolume[1] = 0.0;
+	}
+
+	/**
+	 * Called when the NoteInput using this articulation is recycled.
+	 * Subclasses that pool their instances give this instance back to the
+	 * pool. The default implementation does nothing.
+	 */
+	public void recycle() {
+		// nothing
 	}
 
 	/**
@@ -84,12 +102,130 @@ public abstract class Articulation {
 	 */
 	public abstract void calculate(AudioTime time);
 
+	/**
+	 * Calculate the new volumeFactor and sampleRateFactor, with the time in
+	 * nanoseconds. This method is called for every rendered slice. The
+	 * default implementation creates an AudioTime object and calls
+	 * calculate(AudioTime), so subclasses should override it to not create
+	 * any objects.
+	 * 
+	 * @param nanoTime the current time in nanoseconds
+	 */
+	public void calculate(long nanoTime) {
+		calculate(new AudioTime(nanoTime));
+	}
+
+	/**
+	 * Calculate the articulation at the beginning of a control block. This
+	 * method is called every <code>controlSamples</code> samples when the
+	 * note is rendered with a control block size, see
+	 * Synthesizer.Params.setControlBlockSize(). Implementations should ramp
+	 * processing parameters like the filter cutoff from the previous values
+	 * to the new values over the control block. The default implementation
+	 * calls calculate(nanoTime).
+	 * 
+	 * @param nanoTime the time of the beginning of the control block
+	 * @param controlSamples the length of the control block in samples
+	 */
+	public void calculate(long nanoTime, int controlSamples) {
+		calculate(nanoTime);
+	}
+
 	/**
 	 * Apply further processing to the rendered buffer (like filters).
 	 * @param buffer the sample buffer
 	 */
 	public abstract void process(AudioBuffer buffer);
 
+	/**
+	 * Apply further processing to the rendered float buffer (like filters).
+	 * The default implementation copies the samples to a temporary double
+	 * precision buffer, calls process(AudioBuffer), and copies them back.
+	 * Subclasses should override it to process the float samples directly.
+	 * 
+	 * @param buffer the sample buffer
+	 */
+	public void process(FloatAudioBuffer buffer) {
+		int channels = buffer.getChannelCount();
+		int count = buffer.getSampleCount();
+		if (processBuffer == null
+				|| processBuffer.getChannelCount() != channels) {
+			processBuffer =
+					new AudioBuffer(channels, count, buffer.getSampleRate());
+		}
+		processBuffer.setSampleRate(buffer.getSampleRate());
+		processBuffer.changeSampleCount(count, false);
+		for (int c = 0; c < channels; c++) {
+			float[] src = buffer.getChannel(c);
+			double[] dest = processBuffer.getChannel(c);
+			for (int i = 0; i < count; i++) {
+				dest[i] = src[i];
+			}
+		}
+		process(processBuffer);
+		for (int c = 0; c < channels; c++) {
+			double[] src = processBuffer.getChannel(c);
+			float[] dest = buffer.getChannel(c);
+			for (int i = 0; i < count; i++) {
+				dest[i] = (float) src[i];
+			}
+		}
+	}
+
+	/**
+	 * Apply further processing to a part of the rendered buffer. This method
+	 * is called for every control block, in ascending order. The default
+	 * implementation calls process(buffer) once the end of the buffer is
+	 * reached, i.e. with the parameters of the last control block.
+	 * 
+	 * @param buffer the sample buffer
+	 * @param offset the first sample to process
+	 * @param count the number of samples to process
+	 */
+	public void process(AudioBuffer buffer, int offset, int count) {
+		if (offset + count >= buffer.getSampleCount()) {
+			process(buffer);
+		}
+	}
+
+	/**
+	 * Apply further processing to a part of the rendered float buffer.
+	 * 
+	 * @see #process(AudioBuffer, int, int)
+	 */
+	public void process(FloatAudioBuffer buffer, int offset, int count) {
+		if (offset + count >= buffer.getSampleCount()) {
+			process(buffer);
+		}
+	}
+
+	/**
+	 * Bypass the filters applied in process() to save processing time, or
+	 * enable them again. This is a hint for high load situations. The
+	 * default implementation does nothing.
+	 * 
+	 * @param bypass true to bypass the filters
+	 */
+	public void setFilterBypass(boolean bypass) {
+		// nothing
+	}
+
+	/**
+	 * Return true if this note is below the given linear volume factor and
+	 * cannot become louder anymore, even if controllers are changed. The
+	 * estimate must not depend on the current channel or master volume,
+	 * because they may be raised again. The synthesizer retires such
+	 * notes without rendering them to the end. The default implementation
+	 * returns false.
+	 * 
+	 * @param threshold the linear volume factor below which a note is
+	 *            inaudible
+	 * @return true if this note is inaudible from now on
+	 */
+	public boolean isInaudible(double threshold) {
+		return false;
+	}
+
 	/**
 	 * Must be called when releasing the note.
 	 * 
@@ -97,6 +233,18 @@ public abstract class Articulation {
 	 */
 	public abstract void release(AudioTime time);
 
+	/**
+	 * Must be called when releasing the note, with the time in nanoseconds.
+	 * The default implementation creates an AudioTime object and calls
+	 * release(AudioTime), so subclasses should override it to not create any
+	 * objects.
+	 * 
+	 * @param nanoTime the current time in nanoseconds
+	 */
+	public void release(long nanoTime) {
+		release(new AudioTime(nanoTime));
+	}
+
 	/**
 	 * @return Returns the channel.
 	 */
@@ -140,6 +288,31 @@ public abstract class Articulation {
 		return 0.0;
 	}
 
+	/**
+	 * Return the part of the effective volume factor that is modulated at
+	 * control rate, like envelopes and LFO's. The effective volume factor
+	 * of a channel is the product of getChannelVolumeFactor() and this
+	 * factor. When rendering with a control block size, this factor is
+	 * ramped over every control block, while the channel volume factor is
+	 * ramped over the slice. The default implementation returns 1.0.
+	 * 
+	 * @return the linear control rate volume factor
+	 */
+	public double getControlVolumeFactor() {
+		return 1.0;
+	}
+
+	/**
+	 * Return the effective volume factor of the given channel, without the
+	 * control rate volume factor. The default implementation returns the
+	 * effective volume factor.
+	 * 
+	 * @see #getControlVolumeFactor()
+	 */
+	public double getChannelVolumeFactor(int channel) {
+		return getEffectiveVolumeFactor(channel);
+	}
+
 	/**
 	 * Calculate the relative note offset to the base note, including pitch wheel, pitch eg,
 	 * pitch modulation, vibrato, etc. 
@@ -175,6 +348,18 @@ public abstract class Articulation {
 	 */
 	public abstract boolean endReached();
 
+	/**
+	 * Return the current level of this note's amplitude envelope, in the range
+	 * [0..1]. This is used by the synthesizer's voice stealing to find the
+	 * quietest note. Should be overriden in descendant classes; the default
+	 * implementation returns 1.0 (i.e. full level).
+	 * 
+	 * @return the current envelope level
+	 */
+	public double getCurrentLevel() {
+		return 1.0;
+	}
+
 	/**
 	 * Should be overriden in descendant classes to set meaningful values in
 	 * effectiveLinearVolume
@@ -25,12 +25,43 @@
  */
 package com.ibm.realtime.synth.engine;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ibm.realtime.synth.utils.Histogram;
+
 import static com.ibm.realtime.synth.utils.Debug.*;
 
 /**
  * A class to maintain a pool of threads which continously render a set of
  * Renderables. For that to work, the method dispatch() must be called for every
  * block to be rendered.
+ * <p>
+ * On dispatch, the Renderables are grouped into consecutive batches of
+ * approximately equal cost, using the render time measured for each
+ * Renderable in the previous slices. The rendering threads then claim the
+ * next unrendered batch with a compare-and-set of the slice's claim word,
+ * which holds the sequence number of the slice together with the index of the
+ * next batch. So a thread that finishes early just takes over more batches
+ * from the threads that render expensive voices, and a thread that comes late
+ * cannot claim a batch of a slice that was reused in the meantime. Batches
+ * are claimed in order of the Renderables array. This enables the mixer to
+ * start mixing together the first Renderables while the rendering threads
+ * are still busy with rendering the last Renderables.
+ * <p>
+ * Idle rendering threads first spin for a configurable time waiting for the
+ * next slice, and only then park, so that the start of a slice is not
+ * delayed by the wake-up latency of the operating system. After dispatching,
+ * the pull thread can join() the slice: it renders the batches that are not
+ * claimed yet, and then waits for the render threads to finish instead of
+ * blocking on the individual Renderables.
+ * <p>
+ * A slice dispatched with an AudioMixer holds a reader epoch of the mixer
+ * (see AudioMixer.enterReader()) until it is closed and all of its claimed
+ * batches are rendered. So a NoteInput is never recycled while a delayed
+ * render thread may still render it, even if join() stopped waiting for that
+ * thread. A slice is closed when the next slice is dispatched, or by join().
  * 
  * @author florian
  */
@@ -44,27 +75,32 @@ public class AsynchronousRenderer {
 	private static final int RENDERTHREAD_PRIORITY = AudioPullThread.PULLTHREAD_PRIORITY;
 
 	/**
-	 * Flag: if <code>true</code>, each render thread is assigned a pre-set
-	 * range of Renderables that it alone will render. If <code>false</code>,
-	 * each thread will try to render all Renderables from the beginning, using
-	 * synchronization to prevent concurrent access to the renderables array.
-	 * <p>
-	 * Partitioning works in a way that the first thread will render the 0th,
-	 * Nth, (2*N)th, etc. element, the second thread elements 1, (N+1), (2N+1),
-	 * etc. where N is the number of threads. This is to insure that rendering
-	 * goes approximately in order of the Renderables array. This enables the
-	 * mixer to start mixing together the first Renderables while the rendering
-	 * threads are still busy with rendering the last Renderables.
+	 * The default time in nanoseconds that an idle rendering thread spins
+	 * before parking.
+	 */
+	public static final long DEFAULT_SPIN_NANOS = 200000;
+
+	/**
+	 * The number of batches per thread that the Renderables are split into.
+	 * More batches give a better balance at the end of a slice, fewer batches
+	 * have less overhead for claiming them.
 	 */
-	private static final boolean PARTITION_RENDERABLES = true;
+	private static final int BATCHES_PER_THREAD = 4;
 
 	/**
-	 * Flag: if <code>true</code>, the rendering threads will call
-	 * <code>wait()</code> to wait for the synchronized start of a new slice.
-	 * Otherwise the threads will just call <code>yield()</code> until a new
-	 * set of Renderables is available.
+	 * The minimum estimated cost of a batch, in nanoseconds, so that claiming
+	 * a batch does not cost more than rendering it.
 	 */
-	private static final boolean USE_WAIT = true;
+	private static final long MIN_BATCH_COST_NANOS = 20000;
+
+	/**
+	 * The number of slice descriptions that are re-used in turn. A slice
+	 * description is only set up again when the rendering of its previous
+	 * slice is finished, otherwise the new slice is not dispatched. A rendering
+	 * thread that is late by more slices than this finds a slice description
+	 * with a different sequence number, so its claim fails.
+	 */
+	private static final int SLICE_RING_SIZE = 4;
 
 	private volatile boolean started = false;
 
@@ -91,21 +127,74 @@ public class AsynchronousRenderer {
 	private int threadCount;
 
 	/**
-	 * The time of the current or next block to be rendered.
+	 * The current slice to be rendered. Must never be null!
 	 */
-	private volatile AudioTime renderTime;
+	private volatile Slice slice;
 
 	/**
-	 * The array of Renderables that contain the most recent list of objects to
-	 * be rendered. Must never be null!
+	 * The pre-allocated slice descriptions, used in turn.
 	 */
-	private volatile Renderable[] renderables = new Renderable[0];
+	private final Slice[] sliceRing = new Slice[SLICE_RING_SIZE];
+
+	/**
+	 * The index in sliceRing of the current slice
+	 */
+	private int sliceRingIndex = 0;
+
+	/**
+	 * The sequence number of the last dispatched slice. Sequence numbers
+	 * identify a slice, even if a Slice instance is reused, or if two slices
+	 * are dispatched with the same time.
+	 */
+	private long sliceSequence = 0;
+
+	/**
+	 * The time in nanoseconds that idle threads spin before parking, and the
+	 * maximum time that join() waits for the render threads.
+	 */
+	private volatile long spinNanos = DEFAULT_SPIN_NANOS;
+
+	/**
+	 * If true, join() renders the remaining batches in the calling thread.
+	 */
+	private volatile boolean joinEnabled = true;
+
+	/**
+	 * The latency from dispatching a slice until a render thread starts
+	 * rendering it, in nanoseconds.
+	 */
+	private final Histogram startLatency = new Histogram();
+
+	/**
+	 * The metrics receiving the share of the joining thread, or null.
+	 */
+	private volatile RenderMetrics metrics;
+
+	/**
+	 * For performance metrics, how many batches were rendered in join().
+	 */
+	private volatile long joinBatchCount;
+
+	/**
+	 * For performance metrics, how often join() had to wait for render
+	 * threads, and how often it gave up waiting.
+	 */
+	private volatile long joinWaitCount;
+
+	private volatile long joinTimeoutCount;
+
+	/**
+	 * For performance metrics, how often a slice was not dispatched, because
+	 * a render thread was still rendering the slice that used the same slice
+	 * description.
+	 */
+	private volatile long dispatchSkipCount;
 
 	/**
 	 * Default constructor: by default, assigns defaultThreadCount threads.
 	 */
 	public AsynchronousRenderer() {
-		threadCount = defaultThreadCount;
+		this(defaultThreadCount);
 	}
 
 	/**
@@ -113,6 +202,10 @@ public class AsynchronousRenderer {
 	 */
 	public AsynchronousRenderer(int threadCount) {
 		this.threadCount = threadCount;
+		for (int i = 0; i < SLICE_RING_SIZE; i++) {
+			sliceRing[i] = new Slice();
+		}
+		slice = sliceRing[0];
 	}
 
 	/**
@@ -177,6 +270,11 @@ public class AsynchronousRenderer {
 				// nothing
 			}
 			threads = new RenderingThread[0];
+			// no more claims, release the slices that are rendered
+			for (Slice s : sliceRing) {
+				s.close();
+				s.releaseReader();
+			}
 		}
 	}
 
@@ -219,54 +317,641 @@ public class AsynchronousRenderer {
 	}
 
 	/**
-	 * Start a new slice in all threads
+	 * @return the time in nanoseconds that idle threads spin before parking
+	 */
+	public long getSpinNanos() {
+		return spinNanos;
+	}
+
+	/**
+	 * Set the time that idle render threads spin for the next slice before
+	 * they park. A value of 0 parks immediately. Spinning occupies the
+	 * processor cores, so it should not be longer than the slice time.
+	 * 
+	 * @param spinNanos the spin time in nanoseconds
+	 */
+	public void setSpinNanos(long spinNanos) {
+		if (spinNanos < 0) {
+			spinNanos = 0;
+		}
+		this.spinNanos = spinNanos;
+	}
+
+	/**
+	 * @return true if join() helps rendering
+	 */
+	public boolean isJoinEnabled() {
+		return joinEnabled;
+	}
+
+	/**
+	 * @param joinEnabled if true, join() renders the remaining batches of a
+	 *            slice in the calling thread. If false, join() returns
+	 *            immediately.
+	 */
+	public void setJoinEnabled(boolean joinEnabled) {
+		this.joinEnabled = joinEnabled;
+	}
+
+	/**
+	 * Start a new slice in all threads. The renderables array is not
+	 * modified, so it may be shared with the mixer. It may contain null
+	 * entries after the last Renderable.
+	 */
+	public void dispatch(AudioTime time, Renderable[] renderables) {
+		dispatch(time.getNanoTime(), renderables);
+	}
+
+	/**
+	 * Start a new slice in all threads, with the time in nanoseconds.
+	 * 
+	 * @see #dispatch(AudioTime, Renderable[])
+	 */
+	public void dispatch(long nanoTime, Renderable[] renderables) {
+		dispatch(nanoTime, renderables, null, 0);
+	}
+
+	/**
+	 * Start a new slice in all threads with the Renderables of the mixer. The
+	 * slice holds a reader epoch of the mixer, so that none of its
+	 * Renderables is recycled before the rendering threads have finished
+	 * rendering them.
+	 * 
+	 * @param nanoTime the time of the slice
+	 * @param mixer the mixer providing the Renderables
+	 */
+	public void dispatch(long nanoTime, AudioMixer mixer) {
+		long epoch = mixer.enterReader();
+		if (!dispatch(nanoTime, mixer.getRenderables(), mixer, epoch)) {
+			mixer.exitReader(epoch);
+		}
+	}
+
+	/**
+	 * Close the current slice, and set up and start the next one. If the next
+	 * slice description is still in use by a delayed rendering thread, the
+	 * slice is not dispatched, and all Renderables are rendered by the mixer.
+	 * 
+	 * @param mixer the mixer whose reader epoch the new slice holds, or null
+	 * @return true if the slice was dispatched
+	 */
+	private synchronized boolean dispatch(long nanoTime,
+			Renderable[] renderables, AudioMixer mixer, long readerEpoch) {
+		slice.close();
+		int nextIndex = (sliceRingIndex + 1) % SLICE_RING_SIZE;
+		Slice newSlice = sliceRing[nextIndex];
+		newSlice.releaseReader();
+		if (!newSlice.isFinished()) {
+			dispatchSkipCount++;
+			return false;
+		}
+		sliceRingIndex = nextIndex;
+		newSlice.setup(++sliceSequence, nanoTime, renderables, threads.length,
+				mixer, readerEpoch);
+		slice = newSlice;
+		for (RenderingThread rt : threads) {
+			rt.nextSlice();
+		}
+		return true;
+	}
+
+	/**
+	 * Close the slice, so that no more batches can be claimed.
+	 */
+	private synchronized void close(Slice s) {
+		s.close();
+	}
+
+	/**
+	 * Release the reader epoch of a closed slice after a rendering thread
+	 * finished its last batch. Only needed if join() stopped waiting for that
+	 * thread.
+	 */
+	private synchronized void release(Slice s) {
+		s.releaseReader();
+	}
+
+	/**
+	 * Help rendering the slice for the given time: claim and render the
+	 * batches that no render thread has claimed yet, then wait until the
+	 * render threads have finished their batches, and close the slice.
+	 * Waiting is bounded by the spin time: if a render thread is delayed
+	 * longer, this method returns and the mixer renders or waits for the
+	 * remaining Renderables itself.
+	 * 
+	 * @param time the time of the slice, as passed to dispatch()
 	 */
-	public synchronized void dispatch(AudioTime time, Renderable[] renderables) {
-		this.renderTime = time;
-		this.renderables = renderables;
-		if (PARTITION_RENDERABLES) {
-			int threadCount = threads.length;
-			for (int i = 0; i < threadCount; i++) {
-				threads[i].nextSlice(i, threadCount);
+	public void join(AudioTime time) {
+		join(time.getNanoTime());
+	}
+
+	/**
+	 * Help rendering the slice for the given time in nanoseconds.
+	 * 
+	 * @param nanoTime the time of the slice, as passed to dispatch()
+	 * @see #join(AudioTime)
+	 */
+	public void join(long nanoTime) {
+		if (!joinEnabled) {
+			return;
+		}
+		Slice s = slice;
+		long sequence = s.sequence;
+		if (s.nanoTime != nanoTime) {
+			return;
+		}
+		int batches = 0;
+		int batch;
+		while ((batch = s.claimBatch(sequence)) >= 0) {
+			if (s.renderBatch(batch, sequence) < 0) {
+				break;
 			}
-		} else {
-			for (RenderingThread rt : threads) {
-				rt.nextSlice();
+			batches++;
+		}
+		if (batches > 0) {
+			joinBatchCount += batches;
+		}
+		RenderMetrics localMetrics = metrics;
+		if (localMetrics != null) {
+			localMetrics.recordJoinShare(batches, s.batchCount);
+		}
+		// completion barrier
+		if (!s.isComplete(sequence)) {
+			joinWaitCount++;
+			long start = System.nanoTime();
+			long localSpinNanos = spinNanos;
+			while (!s.isComplete(sequence)) {
+				if (System.nanoTime() - start > localSpinNanos) {
+					joinTimeoutCount++;
+					break;
+				}
 			}
 		}
+		close(s);
+	}
+
+	/**
+	 * Set the metrics to receive the share of every slice that the thread
+	 * calling join() rendered itself. The metrics also report the busy time
+	 * of the render threads.
+	 * 
+	 * @param metrics the metrics, or null
+	 */
+	public void setMetrics(RenderMetrics metrics) {
+		RenderMetrics oldMetrics = this.metrics;
+		if (oldMetrics != null && oldMetrics != metrics) {
+			oldMetrics.setAsynchronousRenderer(null);
+		}
+		this.metrics = metrics;
+		if (metrics != null) {
+			metrics.setAsynchronousRenderer(this);
+		}
 	}
 
 	/**
-	 * A thread to call the render method of the inputs of a mixer. Note: only
-	 * this classes' run() method may wait on this object. Otherwise,
-	 * notifyAll() needs to be used.
+	 * @return the metrics set with setMetrics(), or null
+	 */
+	public RenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the number of rendering threads for which statistics are
+	 *         available
+	 */
+	public synchronized int getStatisticsThreadCount() {
+		return threads.length;
+	}
+
+	/**
+	 * @return the time in nanoseconds that the given rendering thread spent
+	 *         rendering since the last statistics reset
+	 */
+	public synchronized long getBusyNanos(int thread) {
+		return threads[thread].busyNanos;
+	}
+
+	/**
+	 * @return the time in nanoseconds that the given rendering thread spent
+	 *         waiting for a new slice since the last statistics reset
+	 */
+	public synchronized long getIdleNanos(int thread) {
+		return threads[thread].idleNanos;
+	}
+
+	/**
+	 * @return the number of batches that the given rendering thread claimed
+	 *         since the last statistics reset
+	 */
+	public synchronized long getBatchCount(int thread) {
+		return threads[thread].batchCount;
+	}
+
+	/**
+	 * @return the number of Renderables that the given rendering thread
+	 *         actually rendered since the last statistics reset
+	 */
+	public synchronized long getRenderCount(int thread) {
+		return threads[thread].renderCount;
+	}
+
+	/**
+	 * @return the number of Renderables that the given rendering thread tried
+	 *         to render, but were already rendered, e.g. by the mixer.
+	 */
+	public synchronized long getRenderMissCount(int thread) {
+		return threads[thread].renderMissCount;
+	}
+
+	/**
+	 * @return the histogram of the latency from dispatching a slice until a
+	 *         render thread starts rendering it
+	 */
+	public Histogram getStartLatencyHistogram() {
+		return startLatency;
+	}
+
+	/**
+	 * @return the number of batches that were rendered by the thread calling
+	 *         join() since the last statistics reset
+	 */
+	public long getJoinBatchCount() {
+		return joinBatchCount;
+	}
+
+	/**
+	 * @return how often join() waited for render threads to finish, since
+	 *         the last statistics reset
+	 */
+	public long getJoinWaitCount() {
+		return joinWaitCount;
+	}
+
+	/**
+	 * @return how often join() stopped waiting for the render threads because
+	 *         the spin time was exceeded, since the last statistics reset
+	 */
+	public long getJoinTimeoutCount() {
+		return joinTimeoutCount;
+	}
+
+	/**
+	 * @return how often a slice was not dispatched because a delayed render
+	 *         thread was still rendering an earlier slice, since the last
+	 *         statistics reset
+	 */
+	public long getDispatchSkipCount() {
+		return dispatchSkipCount;
+	}
+
+	/**
+	 * Reset the busy, idle, and render statistics of all threads, the join
+	 * statistics, and the latency histogram.
+	 */
+	public synchronized void resetStatistics() {
+		for (RenderingThread rt : threads) {
+			rt.resetStatistics = true;
+		}
+		joinBatchCount = 0;
+		joinWaitCount = 0;
+		joinTimeoutCount = 0;
+		dispatchSkipCount = 0;
+		startLatency.reset();
+	}
+
+	/**
+	 * @return a textual representation of the per-thread statistics, one line
+	 *         per thread
+	 */
+	public synchronized String getStatistics() {
+		StringBuffer sb = new StringBuffer();
+		for (RenderingThread rt : threads) {
+			long busy = rt.busyNanos;
+			long total = busy + rt.idleNanos;
+			sb.append(rt.getName() + ": busy " + format3(busy / 1000000.0)
+					+ "ms, idle " + format3(rt.idleNanos / 1000000.0) + "ms ("
+					+ format1(total > 0 ? (busy * 100.0 / total) : 0.0)
+					+ "% busy), " + rt.batchCount + " batches, "
+					+ rt.renderCount + " rendered, " + rt.renderMissCount
+					+ " already rendered\n");
+		}
+		sb.append("join: " + joinBatchCount + " batches, waited "
+				+ joinWaitCount + " times, " + joinTimeoutCount
+				+ " timeouts, " + dispatchSkipCount + " slices skipped\n");
+		sb.append("start latency: " + startLatency.toString(1000.0, "us")
+				+ "\n");
+		return sb.toString();
+	}
+
+	/**
+	 * The description of one slice: the time, the Renderables, and the
+	 * batches they are split into.
+	 */
+	private static class Slice {
+		/**
+		 * The sequence number of this slice, written last in setup(). 0 if
+		 * this slice was never dispatched.
+		 */
+		private volatile long sequence;
+
+		/**
+		 * The time of the block to be rendered, in nanoseconds.
+		 */
+		private long nanoTime;
+
+		/**
+		 * The Renderables to be rendered.
+		 */
+		private Renderable[] renderables = new Renderable[0];
+
+		/**
+		 * The end index (exclusive) in renderables of each batch. The start
+		 * index of a batch is the end index of the previous batch.
+		 */
+		private int[] batchEnd = new int[16];
+
+		/**
+		 * The number of valid entries in batchEnd.
+		 */
+		private int batchCount;
+
+		/**
+		 * The number of low bits of the claim word that hold the index of
+		 * the next batch. The remaining bits hold the sequence number.
+		 */
+		private static final int CLAIM_BATCH_BITS = 24;
+
+		private static final long CLAIM_BATCH_MASK = (1L << CLAIM_BATCH_BITS) - 1;
+
+		/**
+		 * The claim word: the sequence number of this slice, shifted by
+		 * CLAIM_BATCH_BITS, and the index of the next batch to be claimed by
+		 * a rendering thread. A batch is claimed with a compare-and-set of the
+		 * entire word, so a claim fails if the slice was set up again.
+		 */
+		private final AtomicLong claim = new AtomicLong();
+
+		/**
+		 * The number of batches that are completely rendered.
+		 */
+		private final AtomicInteger completedBatches = new AtomicInteger();
+
+		/**
+		 * The value of System.nanoTime() when this slice was dispatched.
+		 */
+		private long dispatchNanos;
+
+		/**
+		 * True from setup() until the slice is closed. Only written while
+		 * synchronized on the AsynchronousRenderer.
+		 */
+		private volatile boolean open;
+
+		/**
+		 * The number of batches that were claimed until the slice was closed.
+		 */
+		private volatile int claimedBatches;
+
+		/**
+		 * The mixer whose reader epoch this slice holds, or null if it does
+		 * not hold one (anymore). Only accessed while synchronized on the
+		 * AsynchronousRenderer.
+		 */
+		private AudioMixer readerMixer;
+
+		/**
+		 * The reader epoch of readerMixer.
+		 */
+		private long readerEpoch;
+
+		/**
+		 * Split the renderables into batches of approximately equal cost.
+		 * Renderables without cost information are assumed to cost the
+		 * average of the others.
+		 */
+		private void setup(long sequence, long nanoTime,
+				Renderable[] renderables, int threadCount, AudioMixer mixer,
+				long readerEpoch) {
+			// invalidate the claim word of the previous use of this slice,
+			// before changing the batches
+			claim.set((sequence << CLAIM_BATCH_BITS) | CLAIM_BATCH_MASK);
+			// first find the number of Renderables, and the total known cost
+			int count = 0;
+			int knownCount = 0;
+			long knownCost = 0;
+			while (count < renderables.length && renderables[count] != null) {
+				long cost = renderables[count].getRenderCost();
+				if (cost > 0) {
+					knownCost += cost;
+					knownCount++;
+				}
+				count++;
+			}
+			long averageCost = (knownCount > 0) ? knownCost / knownCount : 1;
+			long totalCost = knownCost + ((count - knownCount) * averageCost);
+			if (threadCount < 1) {
+				threadCount = 1;
+			}
+			long targetCost = totalCost / (threadCount * BATCHES_PER_THREAD);
+			if (knownCount > 0 && targetCost < MIN_BATCH_COST_NANOS) {
+				targetCost = MIN_BATCH_COST_NANOS;
+			}
+
+			// then assign the batches
+			int batches = 0;
+			long batchCost = 0;
+			for (int i = 0; i < count; i++) {
+				long cost = renderables[i].getRenderCost();
+				batchCost += (cost > 0) ? cost : averageCost;
+				if (batchCost >= targetCost || i == count - 1) {
+					if (batches == batchEnd.length) {
+						int[] newBatchEnd = new int[batchEnd.length * 2];
+						System.arraycopy(batchEnd, 0, newBatchEnd, 0, batches);
+						batchEnd = newBatchEnd;
+					}
+					batchEnd[batches++] = i + 1;
+					batchCost = 0;
+				}
+			}
+			this.renderables = renderables;
+			this.batchCount = batches;
+			this.completedBatches.set(0);
+			this.dispatchNanos = System.nanoTime();
+			this.nanoTime = nanoTime;
+			this.readerEpoch = readerEpoch;
+			this.readerMixer = mixer;
+			this.open = true;
+			// publish the slice
+			claim.set(sequence << CLAIM_BATCH_BITS);
+			this.sequence = sequence;
+		}
+
+		/**
+		 * Claim the next batch to be rendered.
+		 * 
+		 * @return the batch index, or -1 if all batches are claimed, or if
+		 *         this slice is not the slice with the given sequence number
+		 *         anymore
+		 */
+		private final int claimBatch(long sequence) {
+			long sequenceBits = sequence << CLAIM_BATCH_BITS;
+			while (true) {
+				long c = claim.get();
+				if ((c & ~CLAIM_BATCH_MASK) != sequenceBits) {
+					return -1;
+				}
+				int batch = (int) (c & CLAIM_BATCH_MASK);
+				if (batch >= batchCount || batch >= batchEnd.length) {
+					return -1;
+				}
+				if (claim.compareAndSet(c, c + 1)) {
+					return batch;
+				}
+			}
+		}
+
+		/**
+		 * Prevent further claims, remember how many batches were claimed,
+		 * and release the reader epoch if all of them are rendered. Only
+		 * called while synchronized on the AsynchronousRenderer.
+		 */
+		private final void close() {
+			if (!open) {
+				return;
+			}
+			long c;
+			do {
+				c = claim.get();
+			} while (!claim.compareAndSet(c, c | CLAIM_BATCH_MASK));
+			claimedBatches = (int) (c & CLAIM_BATCH_MASK);
+			open = false;
+			releaseReader();
+		}
+
+		/**
+		 * @return true if this slice is closed, and all claimed batches are
+		 *         rendered. Then no thread accesses its Renderables anymore.
+		 */
+		private final boolean isFinished() {
+			return !open && completedBatches.get() >= claimedBatches;
+		}
+
+		/**
+		 * If the slice is finished, exit the reader epoch of the mixer. Only
+		 * called while synchronized on the AsynchronousRenderer.
+		 */
+		private final void releaseReader() {
+			if (readerMixer != null && isFinished()) {
+				readerMixer.exitReader(readerEpoch);
+				readerMixer = null;
+			}
+		}
+
+		/**
+		 * @return true if this slice is still set up with the given sequence
+		 *         number
+		 */
+		private final boolean isSequence(long sequence) {
+			return (claim.get() & ~CLAIM_BATCH_MASK) == (sequence << CLAIM_BATCH_BITS);
+		}
+
+		/**
+		 * Render all Renderables of a claimed batch at the time of this
+		 * slice, and mark the batch as completed. The Renderables and the
+		 * time are read first and then verified against the sequence number,
+		 * so that a thread that was delayed after claiming does not render
+		 * the Renderables of a newer slice, or render at an older time.
+		 * 
+		 * @return the number of Renderables that actually rendered, or -1 if
+		 *         the slice was set up again since the batch was claimed
+		 */
+		private final int renderBatch(int batch, long sequence) {
+			Renderable[] rs = renderables;
+			long localNanoTime = nanoTime;
+			int start = (batch == 0) ? 0 : batchEnd[batch - 1];
+			int end = batchEnd[batch];
+			if (!isSequence(sequence)) {
+				return -1;
+			}
+			if (end > rs.length) {
+				end = rs.length;
+			}
+			int rendered = 0;
+			try {
+				for (int i = start; i < end; i++) {
+					Renderable r = rs[i];
+					if (r == null) {
+						break;
+					}
+					if (r.render(localNanoTime)) {
+						rendered++;
+					}
+				}
+			} finally {
+				completedBatches.incrementAndGet();
+			}
+			return rendered;
+		}
+
+		/**
+		 * @return true if all batches are rendered, or if this slice is not
+		 *         the slice with the given sequence number anymore
+		 */
+		private final boolean isComplete(long sequence) {
+			return sequence != this.sequence
+					|| completedBatches.get() >= batchCount;
+		}
+	}
+
+	/**
+	 * A thread to call the render method of the inputs of a mixer.
 	 */
 	private class RenderingThread implements Runnable {
 		private boolean running;
 		private volatile boolean doStop;
 
+		/**
+		 * Set while this thread is parked, or about to park.
+		 */
+		private volatile boolean parked;
+
+		/**
+		 * The thread executing this instance
+		 */
+		private Thread thread;
+
 		/**
 		 * For performance metrics, how many buffers were actually rendered.
 		 */
-		private int renderCount;
+		private volatile long renderCount;
 
 		/**
 		 * For performance metrics, how many buffers were tried to be rendered,
 		 * but were already rendered
 		 */
-		private int renderMissCount;
+		private volatile long renderMissCount;
 
 		/**
-		 * For partitioned rendering: the first element in renderables that is
-		 * to be rendered.
+		 * For performance metrics, how many batches were claimed.
 		 */
-		private int partitionStart;
+		private volatile long batchCount;
 
 		/**
-		 * For partitioned rendering: how many elements to skip.
+		 * For performance metrics, the time in nanoseconds spent rendering.
 		 */
-		private int partitionInc;
-		
+		private volatile long busyNanos;
+
+		/**
+		 * For performance metrics, the time in nanoseconds spent waiting for
+		 * the next slice.
+		 */
+		private volatile long idleNanos;
+
+		/**
+		 * Flag to reset the statistics in the rendering thread.
+		 */
+		private volatile boolean resetStatistics;
+
 		private String name;
 
 		/**
@@ -280,7 +965,7 @@ public class AsynchronousRenderer {
 			renderCount = 0;
 			renderMissCount = 0;
 			name = "Rendering thread " + threadNum;
-			ThreadFactory.createThread(this, name, RENDERTHREAD_PRIORITY);
+			thread = ThreadFactory.createThread(this, name, RENDERTHREAD_PRIORITY);
 		}
 
 		/**
@@ -304,125 +989,108 @@ public class AsynchronousRenderer {
 		 */
 		public synchronized void finish() {
 			this.doStop = true;
-			if (USE_WAIT) {
-				this.notify();
-			}
+			LockSupport.unpark(thread);
 		}
 
-		public synchronized void nextSlice() {
-			assert (!PARTITION_RENDERABLES);
-			if (USE_WAIT) {
-				this.notify();
-			}
-		}
-
-		public synchronized void nextSlice(int startIndex, int increment) {
-			assert (PARTITION_RENDERABLES);
-			this.partitionStart = startIndex;
-			this.partitionInc = increment;
-			if (USE_WAIT) {
-				this.notify();
+		/**
+		 * Wake up this thread if it is parked. If it is spinning, it will
+		 * see the new slice on its own.
+		 */
+		public void nextSlice() {
+			if (parked) {
+				LockSupport.unpark(thread);
 			}
 		}
 
 		/**
-		 * The method to actually call the render() method of all Renderables.
-		 * The method iterates from the first element to the last element. For
-		 * each element, it checks if it is non-null. If it is, the element is
-		 * stored locally and the entry in the array is set to null to prevent
-		 * other threads from trying to render it as well. Then it calls the
-		 * render() method of the Renderable.
-		 * <p>
-		 * It uses a local copy of renderables to be immune against intermittent
-		 * changes of the array instance. Access to the renderables array is
-		 * synchronized by the array instance.
+		 * Wait until a slice other than the one with sequence number
+		 * lastSequence is dispatched, or until this thread is stopped. First
+		 * spin for spinNanos, then park.
 		 */
-		private final void render(AudioTime time, Renderable[] rs) {
-			int count = rs.length;
-			for (int i = 0; i < count; i++) {
-				if (time != renderTime) {
-					break;
+		private final void waitForSlice(long lastSequence) {
+			long start = System.nanoTime();
+			long localSpinNanos = spinNanos;
+			while (!doStop && lastSequence == slice.sequence) {
+				if (System.nanoTime() - start < localSpinNanos) {
+					continue;
 				}
-				// get the next Renderable
-				Renderable r;
-				synchronized (rs) {
-					r = rs[i];
-					if (r != null) {
-						rs[i] = null;
-					} else {
-						// this Renderable is already set to null by another
-						// rendering thread
-						continue;
-					}
-				}
-				// when we reach this point, r must be set to a non-null
-				// Renderable
-				if (r.render(time)) {
-					renderCount++;
-				} else {
-					renderMissCount++;
+				// set the flag before checking again, so that dispatch()
+				// will either see the flag, or we will see the new slice
+				parked = true;
+				if (!doStop && lastSequence == slice.sequence) {
+					LockSupport.park(this);
 				}
+				parked = false;
 			}
 		}
 
 		/**
-		 * The render method for partitioned rendering.
-		 * 
-		 * @see #render(AudioTime, Renderable[])
-		 */
-		private final void render(AudioTime time, Renderable[] rs, int start,
-				int inc) {
-			int count = rs.length;
-			for (int i = start; i < count; i += inc) {
-				// get the next Renderable. Don't need to synchronize, since
-				// the renderables are assigned
-				Renderable r = rs[i];
-				if (r == null || time != renderTime) {
-					// if r is null, we have reached the "empty" remainder
-					// of the array
+		 * Claim and render batches of the slice until all batches are
+		 * claimed, or until a new slice is dispatched.
+		 */
+		private final void render(Slice s, long sequence) {
+			int localRenderCount = 0;
+			int localMissCount = 0;
+			int localBatchCount = 0;
+			int batch;
+			while ((batch = s.claimBatch(sequence)) >= 0) {
+				int start = (batch == 0) ? 0 : s.batchEnd[batch - 1];
+				int size = s.batchEnd[batch] - start;
+				int rendered = s.renderBatch(batch, sequence);
+				if (rendered < 0) {
 					break;
 				}
-				if (r.render(time)) {
-					renderCount++;
-				} else {
-					renderMissCount++;
-				}
-
+				localBatchCount++;
+				localRenderCount += rendered;
+				localMissCount += size - rendered;
+			}
+			if (localBatchCount > 0 && !s.open) {
+				// the slice was closed while this thread was rendering
+				release(s);
 			}
+			renderCount += localRenderCount;
+			renderMissCount += localMissCount;
+			batchCount += localBatchCount;
 		}
 
 		public void run() {
-			AudioTime lastRenderTime = null;
+			long lastSequence = 0;
 			if (DEBUG_ASYNCH_RENDERER) {
 				debug("Start " + getName());
 			}
+			long lastNanos = System.nanoTime();
 			while (!doStop) {
 				// double while loop for try..catch block,
 				// to prevent generation of try stack frame for every
 				// inner loop
 				try {
 					while (!doStop) {
-						if (USE_WAIT) {
-							synchronized (this) {
-								while (!doStop && lastRenderTime == renderTime) {
-									this.wait();
-								}
-							}
+						waitForSlice(lastSequence);
+						long nanos = System.nanoTime();
+						if (resetStatistics) {
+							resetStatistics = false;
+							renderCount = 0;
+							renderMissCount = 0;
+							batchCount = 0;
+							busyNanos = 0;
+							idleNanos = 0;
 						} else {
-							while (!doStop && lastRenderTime == renderTime) {
-								Thread.yield();
-							}
+							idleNanos += nanos - lastNanos;
 						}
-						while (!doStop && lastRenderTime != renderTime) {
+						lastNanos = nanos;
+						Slice s = slice;
+						while (!doStop && lastSequence != s.sequence) {
 							// TODO: TRACE: start render on thread (interval)
-							lastRenderTime = renderTime;
-							if (PARTITION_RENDERABLES) {
-								render(renderTime, renderables, partitionStart, partitionInc);
-							} else {
-								render(renderTime, renderables);
-							}
+							lastSequence = s.sequence;
+							startLatency.record(System.nanoTime()
+									- s.dispatchNanos);
+							render(s, lastSequence);
 							// end interval
+							s = slice;
 						}
+						nanos = System.nanoTime();
+						busyNanos += nanos - lastNanos;
+						lastNanos = nanos;
 					}
 				} catch (Throwable t) {
 					debug(t);
@@ -434,7 +1102,8 @@ public class AsynchronousRenderer {
 			}
 			if (DEBUG_ASYNCH_RENDERER) {
 				debug("Exit " + getName() + ". Rendered " + renderCount
-						+ " blocks, renderMissCount=" + renderMissCount);
+						+ " blocks in " + batchCount + " batches, renderMissCount="
+						+ renderMissCount);
 			}
 		}
 		
@@ -24,6 +24,8 @@
 
 package com.ibm.realtime.synth.engine;
 
+import java.nio.ByteBuffer;
+
 import javax.sound.sampled.AudioFormat;
 
 /**
@@ -407,6 +409,40 @@ public class AudioBuffer {
 		return byteCount;
 	}
 
+	/**
+	 * Writes this sample buffer's audio data to the ByteBuffer
+	 * <code>buffer</code> in interleaved format, starting at the absolute
+	 * byte index <code>offset</code>. The buffer's position and limit are
+	 * not changed. Usually, <code>buffer</code> is a direct buffer shared
+	 * with native code, so that no intermediate byte array is needed.
+	 * 
+	 * @throws IllegalArgumentException when buffer is too small or
+	 *             <code>format</code> doesn't match
+	 * @return number of bytes written to <code>buffer</code>
+	 * @see #convertToByteArray(byte[], int, AudioFormat)
+	 */
+	public int convertToByteBuffer(ByteBuffer buffer, int offset,
+			AudioFormat format) {
+		int lenInSamples = getSampleCount();
+		int byteCount = getByteArrayBufferSize(format, lenInSamples);
+		if (offset + byteCount > buffer.capacity()) {
+			throw new IllegalArgumentException(
+					"AudioBuffer.convertToByteBuffer: buffer too small.");
+		}
+		if (format.getSampleRate() != getSampleRate()) {
+			throw new IllegalArgumentException(
+					"AudioBuffer.convertToByteBuffer: different samplerates.");
+		}
+		if (format.getChannels() != this.channelCount) {
+			throw new IllegalArgumentException(
+					"AudioBuffer.convertToByteBuffer: different channel count.");
+		}
+		ConversionTool.double2byteBuffer(channels, 0, buffer, offset,
+				lenInSamples, format,
+				getConvertDitherBits(ConversionTool.getFormatType(format)));
+		return byteCount;
+	}
+
 	/**
 	 * Creates a new byte[] buffer, fills it with the audio data, and returns
 	 * it.
@@ -689,12 +725,9 @@ public class AudioBuffer {
 		if (channelCount1 > source.getChannelCount()) {
 			channelCount1 = source.getChannelCount();
 		}
+		MixKernels kernels = MixKernels.get();
 		for (int ch = 0; ch < channelCount1; ch++) {
-			double[] thisChannel = getChannel(ch);
-			double[] otherChannel = source.getChannel(ch);
-			for (int i = 0; i < count; i++) {
-				thisChannel[i] += otherChannel[i];
-			}
+			kernels.mix(source.getChannel(ch), 0, getChannel(ch), 0, count);
 		}
 	}
 	
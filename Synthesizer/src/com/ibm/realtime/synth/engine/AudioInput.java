@@ -43,6 +43,18 @@ public interface AudioInput {
 	 */
 	public void read(AudioTime time, AudioBuffer buffer, int offset, int count);
 
+	/**
+	 * Method 1 with the time given in nanoseconds. This is the method used by
+	 * the AudioPullThread and the mixer, it should not create any objects.
+	 * 
+	 * @param nanoTime - the start playback time of this buffer in nanoseconds
+	 * @param buffer - the buffer to be added to
+	 * @param offset - the offset in buffer where to start writing samples
+	 * @param count - how many samples to read to the buffer
+	 * @see #read(AudioTime, AudioBuffer, int, int)
+	 */
+	public void read(long nanoTime, AudioBuffer buffer, int offset, int count);
+
 	/**
 	 * Method 2 to fill a buffer. This method returns a buffer instance. 
 	 * Ownership of the returned buffer is passed away.
@@ -26,100 +26,434 @@
 package com.ibm.realtime.synth.engine;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 import static com.ibm.realtime.synth.utils.Debug.*;
 
 /**
  * An object that takes an arbitrary number of input audio streams and renders
  * them to the output buffer.
+ * <p>
+ * The list of streams is held in an immutable snapshot that is replaced as a
+ * whole whenever a stream is added or removed (copy-on-write). Modifications
+ * are published with a compare-and-set operation, so the audio thread reading
+ * the mixer never blocks on threads adding notes, and it does not need to copy
+ * the list for every slice.
+ * <p>
+ * Threads that use the NoteInput instances of a snapshot, like the thread
+ * reading the mixer, the render threads, and the thread dispatching MIDI
+ * events, enclose that use in enterReader() and exitReader(). A NoteInput
+ * removed by cleanUp() is only recycled once all readers that could have seen
+ * it have exited.
  * 
  * @author florian
  */
-public class AudioMixer implements AudioInput, Serviceable {
+public class AudioMixer implements FloatAudioInput, Serviceable {
 
 	public static boolean DEBUG_MIXER = false;
 
 	/**
-	 * Collection of currently active input streams
+	 * The current snapshot of active input streams. Never null.
 	 */
-	private LinkedList<AudioInput> streams;
+	private final AtomicReference<Snapshot> streams;
+
+	/**
+	 * statistics: the number of times that a modification of the list of
+	 * streams had to be retried because another thread modified it
+	 * concurrently.
+	 */
+	private final AtomicLong contentionCount = new AtomicLong();
+
+	/**
+	 * If true, the AudioPullThread should read this mixer with float buffers.
+	 */
+	private volatile boolean floatRendering = false;
+
+	/**
+	 * temporary buffer for mixing double precision streams into a float
+	 * buffer
+	 */
+	private AudioBuffer mixBuffer;
+
+	/**
+	 * The maximum number of linked NoteInput instances that are recycled
+	 * together.
+	 */
+	private final static int MAX_LINKED_RECYCLE = 128;
+
+	/**
+	 * The number of reader epochs after which a removed NoteInput that still
+	 * cannot be recycled is dropped from the pending list, and left to the
+	 * garbage collector. This happens if a linked instance is not removed by
+	 * cleanUp(), e.g. by way of removeAudioStream().
+	 */
+	private final static int MAX_PENDING_EPOCHS = 1000;
+
+	/**
+	 * The current reader epoch. It is only advanced by cleanUp(), when no
+	 * reader of the previous epoch is left. A NoteInput removed in epoch e is
+	 * recycled once the epoch is e+2: then all readers that entered in epoch
+	 * e or before have exited.
+	 */
+	private volatile long readerEpoch = 0;
+
+	/**
+	 * The number of readers that entered in an even, and in an odd epoch.
+	 */
+	private final AtomicInteger[] readers = new AtomicInteger[] {
+			new AtomicInteger(), new AtomicInteger()
+	};
+
+	/**
+	 * The NoteInput instances removed by cleanUp() and waiting to be
+	 * recycled. Only accessed while synchronized on the pending array.
+	 */
+	private NoteInput[] pending = new NoteInput[ObjectPool.DEFAULT_CAPACITY];
+
+	/**
+	 * The number of valid entries in the pending array.
+	 */
+	private int pendingCount = 0;
+
+	/**
+	 * The lock for the pending array. The pending array itself may be
+	 * replaced if it grows.
+	 */
+	private final Object pendingLock = new Object();
+
+	/**
+	 * The render metrics of this mixer, also used by the Synthesizer and the
+	 * AudioPullThread rendering this mixer.
+	 */
+	private final RenderMetrics metrics = new RenderMetrics();
+
+	/**
+	 * The sample rate of the last read buffer, or 0 if not read yet.
+	 */
+	private volatile double sampleRate = 0.0;
 
 	/**
 	 * Create an instance of a mixer
 	 */
 	public AudioMixer() {
-		streams = new LinkedList<AudioInput>();
+		streams = new AtomicReference<Snapshot>(Snapshot.EMPTY);
 	}
 
-	private AudioInput[] localStreams = new AudioInput[16];
-
 	/**
 	 * The actual mixing function type 1 (mix into the provided buffer)
 	 */
 	public void read(AudioTime time, AudioBuffer buffer, int offset, int count) {
-		// get a local copy of the input streams, so that we can call
-		// the potentially time-consuming rendering task unsynchronized
-		synchronized (streams) {
-			int size = streams.size();
-			if (localStreams.length < size) {
-				localStreams = new AudioInput[size + 8];
+		read(time.getNanoTime(), buffer, offset, count);
+	}
+
+	/**
+	 * The actual mixing function type 1, with the time in nanoseconds.
+	 */
+	public void read(long time, AudioBuffer buffer, int offset, int count) {
+		long start = System.nanoTime();
+		sampleRate = buffer.getSampleRate();
+		long epoch = enterReader();
+		// the snapshot is immutable, so no need to synchronize or copy
+		AudioInput[] localStreams = streams.get().streams;
+		try {
+			// read from all registered input streams
+			for (AudioInput stream : localStreams) {
+				// read from this source stream, it will add to
+				// the buffer
+				stream.read(time, buffer, offset, count);
 			}
-			localStreams = (AudioInput[]) streams.toArray(localStreams);
-			// localStreams must be null-terminated if it has more elements
-			// than size. toArray() does null-terminate!
+		} finally {
+			exitReader(epoch);
 		}
+		metrics.recordRead(System.nanoTime() - start, localStreams.length);
+	}
 
-		// read from all registered input streams
-		for (AudioInput stream : localStreams) {
-			if (stream == null) break;
-			// read from this source stream, it will add to
-			// the buffer
-			stream.read(time, buffer, offset, count);
+	/**
+	 * The mixing function for single precision buffers. Streams that do not
+	 * implement FloatAudioInput are rendered to a temporary double buffer and
+	 * mixed from there.
+	 */
+	public void read(AudioTime time, FloatAudioBuffer buffer, int offset,
+			int count) {
+		read(time.getNanoTime(), buffer, offset, count);
+	}
+
+	/**
+	 * The mixing function for single precision buffers, with the time in
+	 * nanoseconds.
+	 */
+	public void read(long time, FloatAudioBuffer buffer, int offset,
+			int count) {
+		long start = System.nanoTime();
+		sampleRate = buffer.getSampleRate();
+		long epoch = enterReader();
+		AudioInput[] localStreams = streams.get().streams;
+		try {
+			for (AudioInput stream : localStreams) {
+				if (stream instanceof FloatAudioInput) {
+					((FloatAudioInput) stream).read(time, buffer, offset, count);
+				} else {
+					if (mixBuffer == null
+							|| mixBuffer.getChannelCount() != buffer.getChannelCount()) {
+						mixBuffer =
+								new AudioBuffer(buffer.getChannelCount(), count,
+										buffer.getSampleRate());
+					}
+					mixBuffer.setSampleRate(buffer.getSampleRate());
+					mixBuffer.changeSampleCount(count, false);
+					mixBuffer.makeSilence();
+					stream.read(time, mixBuffer, 0, count);
+					buffer.mix(mixBuffer, offset, count);
+				}
+			}
+		} finally {
+			exitReader(epoch);
 		}
+		metrics.recordRead(System.nanoTime() - start, localStreams.length);
+	}
+
+	/**
+	 * @return true if this mixer should be read with float buffers
+	 */
+	public boolean isFloatRendering() {
+		return floatRendering;
+	}
+
+	/**
+	 * @param floatRendering if true, the AudioPullThread will read this mixer
+	 *            with float buffers
+	 */
+	public void setFloatRendering(boolean floatRendering) {
+		this.floatRendering = floatRendering;
 	}
 
 	/**
 	 * The actual mixing function type 2 (return a mixed buffer)
 	 */
 	public AudioBuffer read(AudioTime time, int sampleCount, int channelCount, double sampleRate) {
-		// get a local copy of the input streams, so that we can call
-		// the potentially time-consuming rendering task unsynchronized
-		AudioInput[] streamsCopy;
-		synchronized (streams) {
-			int size = streams.size();
-			streamsCopy = (AudioInput[]) streams.toArray(new AudioInput[size]);
-		}
-		
 		AudioBuffer returnBuffer = new AudioBuffer(channelCount, sampleCount, sampleRate);
 
-		// read from all registered input streams
-		for (AudioInput stream : streamsCopy) {
-			// read from this source stream, it will add to
-			// the buffer
-			AudioBuffer buffer = stream.read(time, sampleCount, channelCount, sampleRate);
-			returnBuffer.mix(buffer);
+		long epoch = enterReader();
+		AudioInput[] localStreams = streams.get().streams;
+		try {
+			// read from all registered input streams
+			for (AudioInput stream : localStreams) {
+				// read from this source stream, it will add to
+				// the buffer
+				AudioBuffer buffer = stream.read(time, sampleCount, channelCount, sampleRate);
+				returnBuffer.mix(buffer);
+			}
+		} finally {
+			exitReader(epoch);
 		}
 		return returnBuffer;
 	}
 
+	/**
+	 * Atomically replace the current snapshot with a new one. If another
+	 * thread replaced the snapshot in the meantime, return false and increase
+	 * the contention counter.
+	 */
+	private final boolean publish(Snapshot expect, AudioInput[] newStreams) {
+		if (streams.compareAndSet(expect, new Snapshot(newStreams))) {
+			return true;
+		}
+		contentionCount.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Register the calling thread as a reader of the NoteInput instances in
+	 * the current snapshot of streams, including the arrays returned by
+	 * getAudioStreamsArray(), getAudioStreams(), getNoteInputs(), and
+	 * getRenderables(). Until exitReader() is called with the returned epoch,
+	 * no NoteInput that the reader can see is recycled. The use should be
+	 * short, because it delays recycling of all removed NoteInput instances.
+	 * 
+	 * @return the epoch to pass to exitReader()
+	 */
+	public final long enterReader() {
+		while (true) {
+			long epoch = readerEpoch;
+			AtomicInteger r = readers[(int) (epoch & 1)];
+			r.incrementAndGet();
+			// if the epoch was advanced in the meantime, cleanUp() may not
+			// have seen this reader
+			if (readerEpoch == epoch) {
+				return epoch;
+			}
+			r.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Unregister a reader registered with enterReader(). The calling thread
+	 * must not use the NoteInput instances it got from the snapshot anymore.
+	 * This method may be called from a different thread than enterReader().
+	 * 
+	 * @param epoch the return value of enterReader()
+	 */
+	public final void exitReader(long epoch) {
+		readers[(int) (epoch & 1)].decrementAndGet();
+	}
+
 	/**
 	 * Cleans the list of streams from streams that are already done. Should be
-	 * called from time to time.
+	 * called from time to time. Removed NoteInput instances are recycled once
+	 * all readers that could access them have exited.
 	 */
 	public void cleanUp() {
-		synchronized (streams) {
-			Iterator<AudioInput> it = streams.listIterator(0);
-			while (it.hasNext()) {
-				AudioInput ai = it.next();
+		synchronized (pendingLock) {
+			removeDoneStreams();
+			advanceReaderEpoch();
+			recyclePending();
+		}
+	}
+
+	/**
+	 * Advance the reader epoch if no reader of the previous epoch is left. New
+	 * readers enter the current epoch, so the counter of the previous epoch
+	 * only decreases. Only called while synchronized on pendingLock.
+	 */
+	private final void advanceReaderEpoch() {
+		long epoch = readerEpoch;
+		if (readers[(int) ((epoch + 1) & 1)].get() == 0) {
+			readerEpoch = epoch + 1;
+		}
+	}
+
+	/**
+	 * Remove the streams that are done from the list of streams and add the
+	 * removed NoteInput instances to the pending list.
+	 */
+	private final void removeDoneStreams() {
+		while (true) {
+			Snapshot snapshot = streams.get();
+			AudioInput[] old = snapshot.streams;
+			int doneCount = 0;
+			for (AudioInput ai : old) {
 				if (ai.done()) {
-					it.remove();
-					if (DEBUG_MIXER) {
-						debug("Mixer.cleanUp: removed audio stream -- now "
-								+ streams.size() + "streams.");
-					}
+					doneCount++;
+				}
+			}
+			if (doneCount == 0) {
+				return;
+			}
+			AudioInput[] newStreams = new AudioInput[old.length - doneCount];
+			int i = 0;
+			int oldPendingCount = pendingCount;
+			for (AudioInput ai : old) {
+				// prevent overflow if a stream became done in the meantime
+				if (!ai.done() && i < newStreams.length) {
+					newStreams[i++] = ai;
+				} else if (ai instanceof NoteInput) {
+					addPending((NoteInput) ai);
+				}
+			}
+			if (i < newStreams.length) {
+				newStreams = Arrays.copyOf(newStreams, i);
+			}
+			if (publish(snapshot, newStreams)) {
+				if (DEBUG_MIXER) {
+					debug("Mixer.cleanUp: removed " + (old.length - i)
+							+ " audio streams -- now " + i + "streams.");
 				}
+				return;
+			}
+			// the removed streams were not removed after all
+			for (int p = oldPendingCount; p < pendingCount; p++) {
+				pending[p].recycleStamp = -1;
+				pending[p] = null;
+			}
+			pendingCount = oldPendingCount;
+		}
+	}
+
+	private final void addPending(NoteInput ni) {
+		if (pendingCount == pending.length) {
+			pending = Arrays.copyOf(pending, pending.length * 2);
+		}
+		// the epoch is only advanced with the lock held, so it is the same
+		// when the new snapshot is published
+		ni.recycleStamp = readerEpoch;
+		pending[pendingCount++] = ni;
+	}
+
+	/**
+	 * Recycle the pending NoteInput instances that no reader can access
+	 * anymore. Linked NoteInput instances are only recycled together, when all
+	 * of them are removed from the mixer.
+	 */
+	private final void recyclePending() {
+		if (pendingCount == 0) {
+			return;
+		}
+		long currEpoch = readerEpoch;
+		long minStamp = currEpoch - 2;
+		for (int p = 0; p < pendingCount; p++) {
+			NoteInput ni = pending[p];
+			if (ni.recycleStamp < 0) {
+				continue;
+			}
+			ni = ni.firstLinkedNoteInput;
+			if (!canRecycle(ni, minStamp)) {
+				continue;
+			}
+			// recycle all linked instances. Mark them first, because
+			// recycling clears the links
+			NoteInput linked = ni;
+			do {
+				linked.recycleStamp = -1;
+				linked = linked.getLinkedNoteInput();
+			} while (linked != null && linked != ni);
+			linked = ni;
+			do {
+				NoteInput next = linked.getLinkedNoteInput();
+				linked.recycle();
+				linked = next;
+			} while (linked != null && linked != ni);
+		}
+		// compact the pending array, and drop instances that waited too long
+		long staleStamp = currEpoch - MAX_PENDING_EPOCHS;
+		int newCount = 0;
+		for (int p = 0; p < pendingCount; p++) {
+			NoteInput ni = pending[p];
+			if (ni.recycleStamp >= 0 && ni.recycleStamp < staleStamp) {
+				ni.recycleStamp = -1;
+			}
+			if (ni.recycleStamp >= 0) {
+				pending[newCount++] = ni;
 			}
 		}
+		Arrays.fill(pending, newCount, pendingCount, null);
+		pendingCount = newCount;
+	}
+
+	/**
+	 * @return true if the first linked instance ni and all its linked
+	 *         instances were removed in the reader epoch minStamp or before
+	 */
+	private static final boolean canRecycle(NoteInput ni, long minStamp) {
+		NoteInput linked = ni;
+		int count = 0;
+		do {
+			if (linked.recycleStamp < 0 || linked.recycleStamp > minStamp
+					|| ++count > MAX_LINKED_RECYCLE) {
+				return false;
+			}
+			linked = linked.getLinkedNoteInput();
+		} while (linked != null && linked != ni);
+		return true;
+	}
+
+	/**
+	 * @return the number of removed NoteInput instances waiting to be
+	 *         recycled
+	 */
+	public final int getPendingRecycleCount() {
+		synchronized (pendingLock) {
+			return pendingCount;
+		}
 	}
 
 	/**
@@ -130,12 +464,19 @@ public class AudioMixer implements AudioInput, Serviceable {
 	}
 
 	public void addAudioStream(AudioInput stream) {
-		synchronized (streams) {
-			streams.add(stream);
+		int size;
+		while (true) {
+			Snapshot snapshot = streams.get();
+			AudioInput[] old = snapshot.streams;
+			AudioInput[] newStreams = Arrays.copyOf(old, old.length + 1);
+			newStreams[old.length] = stream;
+			if (publish(snapshot, newStreams)) {
+				size = newStreams.length;
+				break;
+			}
 		}
 		if (DEBUG_MIXER) {
-			debug("Mixer: added audio stream -- now " + streams.size()
-					+ "streams.");
+			debug("Mixer: added audio stream -- now " + size + "streams.");
 		}
 	}
 
@@ -147,12 +488,31 @@ public class AudioMixer implements AudioInput, Serviceable {
 	 * @param stream the stream to remove from this mixer
 	 */
 	public void removeAudioStream(AudioInput stream) {
-		synchronized (streams) {
-			streams.remove(stream);
+		int size;
+		while (true) {
+			Snapshot snapshot = streams.get();
+			AudioInput[] old = snapshot.streams;
+			int index = -1;
+			for (int i = 0; i < old.length; i++) {
+				if (old[i] == stream) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				return;
+			}
+			AudioInput[] newStreams = new AudioInput[old.length - 1];
+			System.arraycopy(old, 0, newStreams, 0, index);
+			System.arraycopy(old, index + 1, newStreams, index,
+					newStreams.length - index);
+			if (publish(snapshot, newStreams)) {
+				size = newStreams.length;
+				break;
+			}
 		}
 		if (DEBUG_MIXER) {
-			debug("Mixer: removed audio stream -- now " + streams.size()
-					+ "streams.");
+			debug("Mixer: removed audio stream -- now " + size + "streams.");
 		}
 	}
 
@@ -161,36 +521,52 @@ public class AudioMixer implements AudioInput, Serviceable {
 	 */
 	public void clear() {
 		if (DEBUG_MIXER) {
-			debug("Mixer: removing all "+streams.size()+" audio streams.");
-		}
-		synchronized (streams) {
-			streams.clear();
+			debug("Mixer: removing all " + getCount() + " audio streams.");
 		}
+		streams.set(Snapshot.EMPTY);
 	}
 
 	/**
 	 * @return the current number of streams
 	 */
 	public final int getCount() {
-		return streams.size();
+		return streams.get().streams.length;
+	}
+
+	/**
+	 * @return the sample rate of the last read buffer, or 0 if this mixer was
+	 *         not read yet
+	 */
+	public final double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * @return the render metrics of this mixer
+	 */
+	public final RenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the number of times that a modification of the list of streams
+	 *         had to be retried due to concurrent modification by another
+	 *         thread
+	 */
+	public final long getContentionCount() {
+		return contentionCount.get();
 	}
 
 	public final List<AudioInput> getAudioStreams() {
-		// TODO: optimization of the code that calls this method!
-		List<AudioInput> list;
-		synchronized (streams) {
-			list = new ArrayList<AudioInput>(streams);
-		}
-		return list;
+		return new ArrayList<AudioInput>(Arrays.asList(streams.get().streams));
 	}
 
 	/**
 	 * @return an array with the current audio streams
 	 */
 	public final AudioInput[] getAudioStreamsArray() {
-		synchronized (streams) {
-			return (AudioInput[]) streams.toArray(new AudioInput[streams.size()]);
-		}
+		AudioInput[] localStreams = streams.get().streams;
+		return Arrays.copyOf(localStreams, localStreams.length);
 	}
 
 	/**
@@ -203,11 +579,14 @@ public class AudioMixer implements AudioInput, Serviceable {
 	 * @return the array of audio streams
 	 */
 	public final AudioInput[] getAudioStreams(AudioInput[] template) {
-		synchronized (streams) {
-			if (template == null) {
-				template = new AudioInput[streams.size()];
-			}
-			template = (AudioInput[]) streams.toArray(template);
+		AudioInput[] localStreams = streams.get().streams;
+		int size = localStreams.length;
+		if (template == null || template.length < size) {
+			template = new AudioInput[size];
+		}
+		System.arraycopy(localStreams, 0, template, 0, size);
+		if (template.length > size) {
+			template[size] = null;
 		}
 		return template;
 	}
@@ -220,15 +599,12 @@ public class AudioMixer implements AudioInput, Serviceable {
 	 * @return the array of NoteInput objects
 	 */
 	public final NoteInput[] getNoteInputs() {
-		NoteInput[] result;
-		synchronized (streams) {
-			int size = streams.size();
-			result = new NoteInput[size];
-			int i = 0;
-			for (AudioInput ai : streams) {
-				if (!ai.done() && (ai instanceof NoteInput)) {
-					result[i++] = (NoteInput) ai;
-				}
+		AudioInput[] localStreams = streams.get().streams;
+		NoteInput[] result = new NoteInput[localStreams.length];
+		int i = 0;
+		for (AudioInput ai : localStreams) {
+			if (!ai.done() && (ai instanceof NoteInput)) {
+				result[i++] = (NoteInput) ai;
 			}
 		}
 		return result;
@@ -244,33 +620,29 @@ public class AudioMixer implements AudioInput, Serviceable {
 	 *         array
 	 */
 	public final int getRenderables(Renderable[] renderables) {
-		synchronized (streams) {
-			int size = streams.size();
-			if (renderables.length < size) {
-				return -size;
-			}
-			int i = 0;
-			for (AudioInput ai : streams) {
-				if (ai instanceof Renderable && !ai.done()) {
-					renderables[i++] = (Renderable) ai;
-				}
+		AudioInput[] localStreams = streams.get().streams;
+		int size = localStreams.length;
+		if (renderables.length < size) {
+			return -size;
+		}
+		int i = 0;
+		for (AudioInput ai : localStreams) {
+			if (ai instanceof Renderable && !ai.done()) {
+				renderables[i++] = (Renderable) ai;
 			}
-			return i;
 		}
+		return i;
 	}
 
+	/**
+	 * Returns all lines that are instance of the Renderable interface. The
+	 * returned array is shared and must not be modified. It may contain lines
+	 * that are already done.
+	 * 
+	 * @return the array of Renderable objects
+	 */
 	public final Renderable[] getRenderables() {
-		synchronized (streams) {
-			int size = streams.size();
-			Renderable[] renderables = new Renderable[size];
-			int i = 0;
-			for (AudioInput ai : streams) {
-				if (ai instanceof Renderable && !ai.done()) {
-					renderables[i++] = (Renderable) ai;
-				}
-			}
-			return renderables;
-		}
+		return streams.get().renderables;
 	}
 
 	/**
@@ -278,13 +650,16 @@ public class AudioMixer implements AudioInput, Serviceable {
 	 * purposes.
 	 */
 	public void removeLast(int num) {
-		synchronized (streams) {
-			int index = streams.size() - num;
+		while (true) {
+			Snapshot snapshot = streams.get();
+			AudioInput[] old = snapshot.streams;
+			int index = old.length - num;
 			if (index < 0) index = 0;
-			Iterator<AudioInput> it = streams.listIterator(index);
-			while (it.hasNext()) {
-				it.next();
-				it.remove();
+			if (index == old.length) {
+				return;
+			}
+			if (publish(snapshot, Arrays.copyOf(old, index))) {
+				return;
 			}
 		}
 	}
@@ -297,4 +672,32 @@ public class AudioMixer implements AudioInput, Serviceable {
 		cleanUp();
 	}
 
+	/**
+	 * An immutable list of streams, and the subset of them that is
+	 * Renderable.
+	 */
+	private static final class Snapshot {
+		private static final Snapshot EMPTY = new Snapshot(new AudioInput[0]);
+
+		private final AudioInput[] streams;
+		private final Renderable[] renderables;
+
+		public Snapshot(AudioInput[] streams) {
+			this.streams = streams;
+			int count = 0;
+			for (AudioInput ai : streams) {
+				if (ai instanceof Renderable) {
+					count++;
+				}
+			}
+			renderables = new Renderable[count];
+			int i = 0;
+			for (AudioInput ai : streams) {
+				if (ai instanceof Renderable) {
+					renderables[i++] = (Renderable) ai;
+				}
+			}
+		}
+	}
+
 }
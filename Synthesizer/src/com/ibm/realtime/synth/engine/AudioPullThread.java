@@ -35,6 +35,11 @@ import java.util.*;
  * AudioSink. By way of the implemented AudioClock interface, you can query the
  * start time of the currently filled audio buffer -- this is in steps of the
  * buffer size of the audio sink.
+ * <p>
+ * Any number of secondary sinks can be added, e.g. for recording or
+ * metering. They receive the same audio data as the primary sink, but each
+ * through a BufferedAudioSink with its own ring buffer and writer thread, so
+ * that a slow secondary sink does not stall the primary sink.
  * 
  * @author florian
  */
@@ -67,9 +72,15 @@ public class AudioPullThread implements Runnable, AudioClock {
 	private AudioSink sink;
 
 	/**
-	 * A secondary sink that receives everything that the master sink gets.
+	 * The secondary sinks. The array is replaced on every change, so that the
+	 * pull thread can iterate it without locking.
 	 */
-	private AudioSink slaveSink;
+	private volatile BufferedAudioSink[] secondarySinks = new BufferedAudioSink[0];
+
+	/**
+	 * The secondary sink set with setSlaveSink(), or null
+	 */
+	private BufferedAudioSink slaveSink;
 
 	private List<AudioRendererListener> listeners = new ArrayList<AudioRendererListener>();
 
@@ -102,6 +113,17 @@ public class AudioPullThread implements Runnable, AudioClock {
 	 */
 	private long resynchCounter = 0;
 
+	/**
+	 * The metrics receiving the slice render times and resynchronizations.
+	 */
+	private volatile RenderMetrics metrics = new RenderMetrics();
+
+	/**
+	 * If true, the metrics were set explicitly and are not replaced by the
+	 * metrics of a new input mixer.
+	 */
+	private boolean explicitMetrics = false;
+
 	public AudioPullThread() {
 		// nothing
 	}
@@ -127,10 +149,40 @@ public class AudioPullThread implements Runnable, AudioClock {
 	}
 
 	/**
+	 * Set the input. If the input is an AudioMixer, and no metrics were set
+	 * with setMetrics(), the slice render times are recorded to the
+	 * mixer's metrics.
+	 * 
 	 * @param input The input to set.
 	 */
 	public synchronized void setInput(AudioInput input) {
 		this.input = input;
+		if (!explicitMetrics && (input instanceof AudioMixer)) {
+			metrics = ((AudioMixer) input).getMetrics();
+		}
+	}
+
+	/**
+	 * @return the metrics receiving the render time of every slice and the
+	 *         resynchronizations of the sink
+	 */
+	public RenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the metrics to record the slice render times and
+	 * resynchronizations to. By default, the metrics of the input mixer are
+	 * used.
+	 * 
+	 * @param metrics the metrics to use, must not be null
+	 */
+	public synchronized void setMetrics(RenderMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("metrics must not be null");
+		}
+		this.metrics = metrics;
+		explicitMetrics = true;
 	}
 
 	/**
@@ -151,14 +203,126 @@ public class AudioPullThread implements Runnable, AudioClock {
 	 * @return Returns the second sink.
 	 */
 	public synchronized AudioSink getSlaveSink() {
-		return slaveSink;
+		if (slaveSink == null) {
+			return null;
+		}
+		return slaveSink.getTarget();
 	}
 
 	/**
+	 * Set the second sink that receives everything that the master sink gets.
+	 * It is added as a secondary sink with the blocking policy, so no audio
+	 * data is lost. Setting a new slave sink, or null, removes the previous
+	 * one after all its pending buffers are written, so the previous slave
+	 * sink should only be closed after this call.
+	 * 
 	 * @param sink The second sink to set.
 	 */
-	public synchronized void setSlaveSink(AudioSink sink) {
-		this.slaveSink = sink;
+	public void setSlaveSink(AudioSink sink) {
+		BufferedAudioSink oldSlave;
+		synchronized (this) {
+			oldSlave = slaveSink;
+			slaveSink = null;
+		}
+		if (oldSlave != null) {
+			removeSink(oldSlave);
+		}
+		if (sink != null) {
+			BufferedAudioSink newSlave =
+					addSink(sink, BufferedAudioSink.POLICY_BLOCK);
+			synchronized (this) {
+				slaveSink = newSlave;
+			}
+		}
+	}
+
+	/**
+	 * Add a secondary sink with the default ring buffer capacity.
+	 * 
+	 * @param sink the sink to add
+	 * @param policy the overflow policy, BufferedAudioSink.POLICY_DROP or
+	 *            POLICY_BLOCK
+	 * @return the buffered sink wrapping <code>sink</code>, e.g. for
+	 *         querying its statistics
+	 * @see #addSink(AudioSink, int, int)
+	 */
+	public BufferedAudioSink addSink(AudioSink sink, int policy) {
+		return addSink(sink, policy, BufferedAudioSink.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Add a secondary sink. It receives every buffer written to the primary
+	 * sink, through a ring buffer of <code>capacity</code> buffers, written
+	 * by its own thread.
+	 * 
+	 * @param sink the sink to add
+	 * @param policy the overflow policy, BufferedAudioSink.POLICY_DROP or
+	 *            POLICY_BLOCK
+	 * @param capacity the number of buffers in the ring buffer
+	 * @return the buffered sink wrapping <code>sink</code>, e.g. for
+	 *         querying its statistics
+	 */
+	public BufferedAudioSink addSink(AudioSink sink, int policy, int capacity) {
+		BufferedAudioSink buffered =
+				new BufferedAudioSink(sink, policy, capacity);
+		buffered.start();
+		synchronized (this) {
+			BufferedAudioSink[] oldSinks = secondarySinks;
+			BufferedAudioSink[] newSinks =
+					new BufferedAudioSink[oldSinks.length + 1];
+			System.arraycopy(oldSinks, 0, newSinks, 0, oldSinks.length);
+			newSinks[oldSinks.length] = buffered;
+			secondarySinks = newSinks;
+		}
+		if (DEBUG_PULLTHREAD) {
+			debug("AudioPullThread: added secondary sink " + buffered);
+		}
+		return buffered;
+	}
+
+	/**
+	 * Remove a secondary sink, after all its pending buffers are written.
+	 * The sink is not closed.
+	 * 
+	 * @param sink the sink to remove, either the sink passed to addSink(), or
+	 *            the returned BufferedAudioSink
+	 * @return true if the sink was found
+	 */
+	public boolean removeSink(AudioSink sink) {
+		BufferedAudioSink removed = null;
+		synchronized (this) {
+			BufferedAudioSink[] oldSinks = secondarySinks;
+			for (int i = 0; i < oldSinks.length; i++) {
+				if (oldSinks[i] == sink || oldSinks[i].getTarget() == sink) {
+					removed = oldSinks[i];
+					BufferedAudioSink[] newSinks =
+							new BufferedAudioSink[oldSinks.length - 1];
+					System.arraycopy(oldSinks, 0, newSinks, 0, i);
+					System.arraycopy(oldSinks, i + 1, newSinks, i,
+							newSinks.length - i);
+					secondarySinks = newSinks;
+					break;
+				}
+			}
+			if (removed != null && removed == slaveSink) {
+				slaveSink = null;
+			}
+		}
+		if (removed == null) {
+			return false;
+		}
+		removed.stop();
+		if (DEBUG_PULLTHREAD) {
+			debug("AudioPullThread: removed secondary sink " + removed);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the secondary sinks
+	 */
+	public List<BufferedAudioSink> getSecondarySinks() {
+		return Arrays.asList(secondarySinks.clone());
 	}
 
 	/**
@@ -324,7 +488,10 @@ public class AudioPullThread implements Runnable, AudioClock {
 			}
 			AudioTime oldOffset = sink.getTimeOffset();
 			if (adjust != 0) {
-				if (!reset) resynchCounter++;
+				if (!reset) {
+					resynchCounter++;
+					metrics.recordResync(adjust);
+				}
 				AudioTime adjustTime = new AudioTime(adjust,
 						sink.getSampleRate());
 				sink.setTimeOffset(oldOffset.add(adjustTime));
@@ -347,7 +514,10 @@ public class AudioPullThread implements Runnable, AudioClock {
 				adjust = (sinkSamplesTime - samples);
 			}
 			if (adjust != 0) {
-				if (!reset) resynchCounter++;
+				if (!reset) {
+					resynchCounter++;
+					metrics.recordResync(-adjust);
+				}
 				AudioTime adjustTime = new AudioTime(adjust,
 						sink.getSampleRate());
 				if (DEBUG_PULLTHREAD) {
@@ -390,6 +560,20 @@ public class AudioPullThread implements Runnable, AudioClock {
 		}
 	}
 
+	/**
+	 * Write the buffer to the given sink. If the slice was rendered in single
+	 * precision and the sink accepts float buffers, the float buffer is
+	 * written. Otherwise, buffer must already contain the audio data.
+	 */
+	private static final void write(AudioSink sink, AudioBuffer buffer,
+			FloatAudioBuffer floatBuffer, boolean useFloat) {
+		if (useFloat && (sink instanceof FloatAudioSink)) {
+			((FloatAudioSink) sink).write(floatBuffer);
+		} else {
+			sink.write(buffer);
+		}
+	}
+
 	/**
 	 * The actual loop of reading from the AudioInput and writing it to the
 	 * soundcard
@@ -411,7 +595,10 @@ public class AudioPullThread implements Runnable, AudioClock {
 			int bufferSampleCount = 0;
 			int sliceSampleCount = 0;
 			AudioBuffer buffer = null;
-			AudioTime duration = null;
+			// the buffer used if the input prefers single precision
+			FloatAudioBuffer floatBuffer = null;
+			boolean useFloat = false;
+			long durationNanos = 0;
 			int offset = 0;
 			long samples = 0;
 			int synchronizeCounter = 0;
@@ -448,7 +635,9 @@ public class AudioPullThread implements Runnable, AudioClock {
 						}
 						buffer = new AudioBuffer(sink.getChannels(),
 								bufferSampleCount, sampleRate);
-						duration = new AudioTime(sliceSampleCount, sampleRate);
+						floatBuffer = null;
+						useFloat = false;
+						durationNanos = samples2nanos(sliceSampleCount, sampleRate);
 						synchronizeSink(samples, bufferSampleCount, true);
 						if (offset > localBufferSampleCount) {
 							// adapt offset if in the middle of filling a buffer
@@ -456,10 +645,12 @@ public class AudioPullThread implements Runnable, AudioClock {
 						}
 					}
 
-					AudioTime time = new AudioTime(samples, sampleRate);
+					// no objects are created per slice
+					long time = samples2nanos(samples, sampleRate);
+					long sliceStart = System.nanoTime();
 
-					for (AudioRendererListener arl : listeners) {
-						arl.newAudioSlice(time, duration);
+					for (int i = 0; i < listeners.size(); i++) {
+						listeners.get(i).newAudioSlice(time, durationNanos);
 					}
 
 					// wait for input to become ready
@@ -483,12 +674,33 @@ public class AudioPullThread implements Runnable, AudioClock {
 					if (stopped) {
 						break;
 					}
+					// only switch precision at the beginning of a buffer
+					if (offset == 0) {
+						AudioInput localInput = input;
+						boolean newUseFloat = !DEBUG_USE_FUNCTIONAL_READ
+								&& (localInput instanceof FloatAudioInput)
+								&& ((FloatAudioInput) localInput).isFloatRendering();
+						if (useFloat && !newUseFloat) {
+							// buffer may contain a copy of the float buffer
+							buffer.makeSilence();
+						}
+						useFloat = newUseFloat;
+						if (useFloat && floatBuffer == null) {
+							floatBuffer = new FloatAudioBuffer(
+									buffer.getChannelCount(),
+									bufferSampleCount, sampleRate);
+						}
+					}
 					// read audio data from input
-					if (!DEBUG_USE_FUNCTIONAL_READ) {
+					if (useFloat) {
+						// this call will take some time
+						((FloatAudioInput) input).read(time, floatBuffer,
+								offset, sliceSampleCount);
+					} else if (!DEBUG_USE_FUNCTIONAL_READ) {
 						// this call will take some time
 						input.read(time, buffer, offset, sliceSampleCount);
 					} else {
-						AudioBuffer thisBuffer = input.read(time,
+						AudioBuffer thisBuffer = input.read(new AudioTime(time),
 								sliceSampleCount, buffer.getChannelCount(),
 								sampleRate);
 						// if we're doing synchronous read/write, just exchange
@@ -500,6 +712,8 @@ public class AudioPullThread implements Runnable, AudioClock {
 						}
 					}
 
+					metrics.recordSlice(System.nanoTime() - sliceStart,
+							durationNanos);
 					samples += sliceSampleCount;
 					offset += sliceSampleCount;
 					if (offset >= bufferSampleCount) {
@@ -510,8 +724,17 @@ public class AudioPullThread implements Runnable, AudioClock {
 						// write the audio data
 						if (!stopped) {
 
+							if (useFloat) {
+								// let the sinks convert from float directly
+								// (the secondary sinks accept float buffers)
+								if (!(sink instanceof FloatAudioSink)) {
+									floatBuffer.copyTo(buffer, 0,
+											bufferSampleCount);
+								}
+							}
+
 							// this is a blocking call
-							sink.write(buffer);
+							write(sink, buffer, floatBuffer, useFloat);
 
 							// since we always write a full buffer to the sink,
 							// we can assume that the sink's time must be
@@ -522,11 +745,16 @@ public class AudioPullThread implements Runnable, AudioClock {
 								synchronizeSink(samples, bufferSampleCount,
 										false);
 							}
-							if (slaveSink != null) {
-								slaveSink.write(buffer);
+							// the secondary sinks only copy the buffer
+							BufferedAudioSink[] localSinks = secondarySinks;
+							for (int i = 0; i < localSinks.length; i++) {
+								write(localSinks[i], buffer, floatBuffer,
+										useFloat);
 							}
 							offset = 0;
-							if (REUSE_AUDIO_BUFFERS) {
+							if (useFloat) {
+								floatBuffer.makeSilence();
+							} else if (REUSE_AUDIO_BUFFERS) {
 								if (!DEBUG_USE_FUNCTIONAL_READ) {
 									// functional read will always overwrite
 									buffer.makeSilence();
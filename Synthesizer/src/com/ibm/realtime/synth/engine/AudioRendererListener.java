@@ -34,6 +34,13 @@ package com.ibm.realtime.synth.engine;
  */
 public interface AudioRendererListener {
 
-	public void newAudioSlice(AudioTime time, AudioTime duration);
+	/**
+	 * Called before rendering the slice starting at the given time. Times are
+	 * passed as nanoseconds so that no objects need to be created per slice.
+	 * 
+	 * @param nanoTime the start time of the new slice, in nanoseconds
+	 * @param durationNanos the duration of the new slice, in nanoseconds
+	 */
+	public void newAudioSlice(long nanoTime, long durationNanos);
 
 }
@@ -0,0 +1,506 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An AudioSink that decouples a secondary sink, e.g. a DiskWriterSink, from
+ * the thread that writes to it. Written buffers are copied to a lock free
+ * single producer, single consumer ring of preallocated buffers. A writer
+ * thread with lower priority takes the buffers from the ring and writes them
+ * to the target sink. So a slow target does not delay the producer, usually
+ * the AudioPullThread, unless the ring is full.
+ * <p>
+ * If the ring is full, the overflow policy decides what happens:
+ * <ul>
+ * <li>POLICY_DROP: the buffer is discarded and the overflow counter is
+ * incremented. The producer never waits. Suitable for metering or network
+ * streams.
+ * <li>POLICY_BLOCK: the producer waits until the writer thread has written
+ * a buffer. No audio is lost, but a target that is slower than real time for
+ * longer than the ring can hold will eventually delay the producer.
+ * Suitable for recording.
+ * </ul>
+ * Only one thread may write to an instance at a time.
+ * 
+ * @author florian
+ */
+public class BufferedAudioSink implements FloatAudioSink, Runnable {
+
+	public static boolean DEBUG_BUFFERED_SINK = false;
+
+	/**
+	 * Overflow policy: discard buffers if the ring is full.
+	 */
+	public static final int POLICY_DROP = 0;
+
+	/**
+	 * Overflow policy: wait until the ring has space again.
+	 */
+	public static final int POLICY_BLOCK = 1;
+
+	/**
+	 * The default number of buffers in the ring.
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	/**
+	 * The priority of the writer threads, lower than the pull thread's
+	 */
+	public static final int WRITER_PRIORITY = 20;
+
+	/**
+	 * The time that a waiting thread parks before it checks again, in case a
+	 * wake-up was missed
+	 */
+	private static final long PARK_NANOS = 10000000L;
+
+	/**
+	 * The sink receiving the buffers
+	 */
+	private AudioSink target;
+
+	private int policy;
+
+	/**
+	 * The ring of buffers, the length is a power of 2
+	 */
+	private Slot[] slots;
+
+	private int mask;
+
+	/**
+	 * The number of buffers written to the ring. Only modified by the
+	 * producer.
+	 */
+	private volatile long writePos = 0;
+
+	/**
+	 * The number of buffers taken from the ring. Only modified by the writer
+	 * thread.
+	 */
+	private volatile long readPos = 0;
+
+	/**
+	 * Set while the writer thread is parked, or about to park
+	 */
+	private volatile boolean writerWaiting = false;
+
+	/**
+	 * The producer thread while it waits for space in the ring, or null
+	 */
+	private volatile Thread waitingProducer = null;
+
+	private volatile boolean stopped = false;
+
+	/**
+	 * The writer thread, or null if not started
+	 */
+	private volatile Thread writer;
+
+	private volatile long writtenCount = 0;
+
+	private volatile long overflowCount = 0;
+
+	private volatile long blockedCount = 0;
+
+	private volatile long errorCount = 0;
+
+	private volatile int maxFill = 0;
+
+	/**
+	 * Create a buffered sink with the default capacity. The writer thread is
+	 * started with start().
+	 * 
+	 * @param target the sink receiving the buffers
+	 * @param policy POLICY_DROP or POLICY_BLOCK
+	 */
+	public BufferedAudioSink(AudioSink target, int policy) {
+		this(target, policy, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a buffered sink. The writer thread is started with start().
+	 * 
+	 * @param target the sink receiving the buffers
+	 * @param policy POLICY_DROP or POLICY_BLOCK
+	 * @param capacity the number of buffers in the ring, rounded up to a power
+	 *            of 2
+	 */
+	public BufferedAudioSink(AudioSink target, int policy, int capacity) {
+		if (target == null) {
+			throw new IllegalArgumentException("target must not be null");
+		}
+		if (policy != POLICY_DROP && policy != POLICY_BLOCK) {
+			throw new IllegalArgumentException("illegal policy: " + policy);
+		}
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.target = target;
+		this.policy = policy;
+		slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Start the writer thread.
+	 */
+	public synchronized void start() {
+		if (writer == null) {
+			stopped = false;
+			writer = ThreadFactory.createThread(this,
+					"BufferedAudioSink writer for "
+							+ target.getClass().getSimpleName(),
+					WRITER_PRIORITY);
+		}
+	}
+
+	/**
+	 * Stop the writer thread after it has written all buffers in the ring,
+	 * and wait for it to finish. The target sink is not closed. Buffers
+	 * written after this call are discarded.
+	 */
+	public void stop() {
+		Thread localWriter;
+		synchronized (this) {
+			stopped = true;
+			localWriter = writer;
+			writer = null;
+		}
+		if (localWriter != null) {
+			LockSupport.unpark(localWriter);
+			try {
+				localWriter.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// release a blocked producer
+		Thread producer = waitingProducer;
+		if (producer != null) {
+			LockSupport.unpark(producer);
+		}
+	}
+
+	/**
+	 * Stop the writer thread like stop(), and close the target sink.
+	 */
+	public void close() {
+		stop();
+		target.close();
+	}
+
+	/**
+	 * @return the sink receiving the buffers
+	 */
+	public AudioSink getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return the overflow policy, POLICY_DROP or POLICY_BLOCK
+	 */
+	public int getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of buffers in the ring
+	 */
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	/**
+	 * @return the number of buffers waiting to be written to the target
+	 */
+	public int getFill() {
+		return (int) (writePos - readPos);
+	}
+
+	/**
+	 * @return the maximum number of buffers that waited in the ring
+	 */
+	public int getMaxFill() {
+		return maxFill;
+	}
+
+	/**
+	 * @return the number of buffers written to the target
+	 */
+	public long getWrittenCount() {
+		return writtenCount;
+	}
+
+	/**
+	 * @return the number of buffers dropped because the ring was full
+	 *         (POLICY_DROP)
+	 */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * @return how often the producer had to wait because the ring was full
+	 *         (POLICY_BLOCK)
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * @return the number of exceptions thrown by the target's write method
+	 */
+	public long getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Reset the overflow, blocked, error and maximum fill statistics.
+	 */
+	public void resetStatistics() {
+		overflowCount = 0;
+		blockedCount = 0;
+		errorCount = 0;
+		maxFill = 0;
+	}
+
+	/**
+	 * Wait until there is space in the ring, or drop the buffer, depending
+	 * on the policy.
+	 * 
+	 * @return true if a slot is available at writePos
+	 */
+	private boolean reserve() {
+		if (writePos - readPos <= mask) {
+			return true;
+		}
+		if (policy == POLICY_DROP) {
+			overflowCount++;
+			return false;
+		}
+		blockedCount++;
+		waitingProducer = Thread.currentThread();
+		try {
+			while (writePos - readPos > mask) {
+				if (stopped || writer == null) {
+					return false;
+				}
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		} finally {
+			waitingProducer = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Make the buffer in the slot at writePos available to the writer thread.
+	 */
+	private void publish() {
+		long pos = writePos + 1;
+		int fill = (int) (pos - readPos);
+		if (fill > maxFill) {
+			maxFill = fill;
+		}
+		writePos = pos;
+		if (writerWaiting) {
+			Thread localWriter = writer;
+			if (localWriter != null) {
+				LockSupport.unpark(localWriter);
+			}
+		}
+	}
+
+	/**
+	 * Copy the buffer to the ring. Depending on the policy, this method waits
+	 * if the ring is full or discards the buffer.
+	 */
+	public void write(AudioBuffer buffer) {
+		if (stopped || !reserve()) {
+			return;
+		}
+		Slot slot = slots[(int) (writePos & mask)];
+		slot.setFrom(buffer);
+		publish();
+	}
+
+	/**
+	 * Copy the buffer to the ring. Depending on the policy, this method waits
+	 * if the ring is full or discards the buffer.
+	 */
+	public void write(FloatAudioBuffer buffer) {
+		if (stopped || !reserve()) {
+			return;
+		}
+		Slot slot = slots[(int) (writePos & mask)];
+		slot.setFrom(buffer);
+		publish();
+	}
+
+	/**
+	 * The loop of the writer thread.
+	 */
+	public void run() {
+		if (DEBUG_BUFFERED_SINK) {
+			debug("BufferedAudioSink: writer thread started for " + target);
+		}
+		while (true) {
+			long pos = readPos;
+			if (pos == writePos) {
+				if (stopped) {
+					break;
+				}
+				writerWaiting = true;
+				if (pos == writePos && !stopped) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				writerWaiting = false;
+				continue;
+			}
+			try {
+				slots[(int) (pos & mask)].writeTo(target);
+				writtenCount++;
+			} catch (Throwable t) {
+				errorCount++;
+				if (DEBUG_BUFFERED_SINK) {
+					debug(t);
+				}
+			}
+			readPos = pos + 1;
+			Thread producer = waitingProducer;
+			if (producer != null) {
+				LockSupport.unpark(producer);
+			}
+		}
+		if (DEBUG_BUFFERED_SINK) {
+			debug("BufferedAudioSink: writer thread stopped for " + target
+					+ ": " + writtenCount + " buffers written, "
+					+ overflowCount + " overflows, max fill " + maxFill);
+		}
+	}
+
+	/**
+	 * @return true if the target is open and the writer thread is running
+	 */
+	public boolean isOpen() {
+		return !stopped && writer != null && target.isOpen();
+	}
+
+	public int getChannels() {
+		return target.getChannels();
+	}
+
+	public int getBufferSize() {
+		return target.getBufferSize();
+	}
+
+	public double getSampleRate() {
+		return target.getSampleRate();
+	}
+
+	public AudioTime getAudioTime() {
+		return target.getAudioTime();
+	}
+
+	public AudioTime getTimeOffset() {
+		return target.getTimeOffset();
+	}
+
+	public void setTimeOffset(AudioTime offset) {
+		target.setTimeOffset(offset);
+	}
+
+	public String toString() {
+		return "BufferedAudioSink[" + target + ", "
+				+ (policy == POLICY_DROP ? "drop" : "block") + ", fill "
+				+ getFill() + "/" + getCapacity() + ", overflows "
+				+ overflowCount + ", blocked " + blockedCount + "]";
+	}
+
+	/**
+	 * One buffer in the ring. The buffers are allocated when first used, or
+	 * when the size of the written buffers changes.
+	 */
+	private static class Slot {
+		private AudioBuffer buffer;
+		private FloatAudioBuffer floatBuffer;
+		private boolean isFloat;
+
+		private AudioBuffer getBuffer(int channels, int samples,
+				double sampleRate) {
+			if (buffer == null || buffer.getChannelCount() != channels) {
+				buffer = new AudioBuffer(channels, samples, sampleRate);
+			} else {
+				buffer.changeSampleCount(samples, false);
+				buffer.setSampleRate(sampleRate);
+			}
+			return buffer;
+		}
+
+		void setFrom(AudioBuffer source) {
+			int count = source.getSampleCount();
+			source.copyTo(getBuffer(source.getChannelCount(), count,
+					source.getSampleRate()), 0, count);
+			isFloat = false;
+		}
+
+		void setFrom(FloatAudioBuffer source) {
+			int count = source.getSampleCount();
+			if (floatBuffer == null
+					|| floatBuffer.getChannelCount() != source.getChannelCount()) {
+				floatBuffer = new FloatAudioBuffer(source.getChannelCount(),
+						count, source.getSampleRate());
+			} else {
+				floatBuffer.changeSampleCount(count, false);
+				floatBuffer.setSampleRate(source.getSampleRate());
+			}
+			source.copyTo(floatBuffer, 0, count);
+			isFloat = true;
+		}
+
+		void writeTo(AudioSink sink) {
+			if (!isFloat) {
+				sink.write(buffer);
+			} else if (sink instanceof FloatAudioSink) {
+				((FloatAudioSink) sink).write(floatBuffer);
+			} else {
+				int count = floatBuffer.getSampleCount();
+				floatBuffer.copyTo(getBuffer(floatBuffer.getChannelCount(),
+						count, floatBuffer.getSampleRate()), 0, count);
+				sink.write(buffer);
+			}
+		}
+	}
+}
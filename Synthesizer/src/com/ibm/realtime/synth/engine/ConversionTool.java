@@ -25,6 +25,8 @@
 //package org.tritonus.share.sampled;
 package com.ibm.realtime.synth.engine;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 import javax.sound.sampled.*;
 
@@ -604,6 +606,12 @@ public class ConversionTool {
 	public static void byte2doubleGenericLSRC(byte[] input, int inByteOffset,
 			int inSampleToByteFactor, double inSamplePos, double inSampleStep,
 			double[] output, int outOffset, int sampleCount, int formatType) {
+		if (formatType == CT_16SL && inSampleToByteFactor == 2) {
+			// the most common case: 16-bit mono samples
+			MixKernels.get().interpolate16SL(input, inByteOffset, inSamplePos,
+					inSampleStep, output, outOffset, sampleCount);
+			return;
+		}
 		int endCount = outOffset + sampleCount;
 		double sample1 = 0.0;
 		double sample2 = 0.0;
@@ -642,6 +650,310 @@ public class ConversionTool {
 		}
 	}
 
+	/**
+	 * Sample rate conversion with linear interpolation to a float array. The
+	 * interpolation is done in single precision.
+	 * 
+	 * @see #byte2doubleGenericLSRC(byte[], int, int, double, double, double[],
+	 *      int, int, int)
+	 */
+	public static void byte2floatGenericLSRC(byte[] input, int inByteOffset,
+			int inSampleToByteFactor, double inSamplePos, double inSampleStep,
+			float[] output, int outOffset, int sampleCount, int formatType) {
+		if (formatType == CT_16SL && inSampleToByteFactor == 2) {
+			MixKernels.get().interpolate16SL(input, inByteOffset, inSamplePos,
+					inSampleStep, output, outOffset, sampleCount);
+			return;
+		}
+		int endCount = outOffset + sampleCount;
+		float sample1 = 0.0f;
+		float sample2 = 0.0f;
+		int index1 = -2; // impossible value to make sure both initial
+		// samples are calculated
+
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			int newIndex1 = (int) inSamplePos;
+			if (newIndex1 != index1) {
+				int byteArrayIndex1 =
+						(newIndex1 * inSampleToByteFactor) + inByteOffset;
+				if ((index1 + 1) == newIndex1) {
+					sample1 = sample2;
+				} else {
+					sample1 =
+							(float) convertOneSample(input, byteArrayIndex1,
+									formatType);
+				}
+				sample2 =
+						(float) convertOneSample(input, byteArrayIndex1
+								+ inSampleToByteFactor, formatType);
+			}
+			index1 = newIndex1;
+
+			float factor2 = (float) (inSamplePos - index1);
+			output[outIndex] = sample1 + factor2 * (sample2 - sample1);
+		}
+	}
+
+	// /////////////////// PRE-DECODED SAMPLES //////////////////////////// //
+
+	/**
+	 * Decode signed 16-bit little endian mono samples to a short array.
+	 * 
+	 * @param input the input array
+	 * @param inByteOffset an initial offset to the input array
+	 * @param output the output array to be filled
+	 * @param outOffset where to start writing to output[]
+	 * @param sampleCount the number of samples to decode
+	 */
+	public static void byte16SL2short(byte[] input, int inByteOffset,
+			short[] output, int outOffset, int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inByteOffset +=
+				2) {
+			output[outIndex] =
+					(short) ((input[inByteOffset + 1] << 8) | (input[inByteOffset] & 0xFF));
+		}
+	}
+
+	/**
+	 * Decode signed 16-bit little endian mono samples to a normalized float
+	 * array in the range [-1..+1).
+	 * 
+	 * @see #byte16SL2short(byte[], int, short[], int, int)
+	 */
+	public static void byte16SL2float(byte[] input, int inByteOffset,
+			float[] output, int outOffset, int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		float factor = (float) invTwoPower15;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inByteOffset +=
+				2) {
+			output[outIndex] =
+					((input[inByteOffset + 1] << 8) | (input[inByteOffset] & 0xFF))
+							* factor;
+		}
+	}
+
+	/**
+	 * Sample rate conversion with linear interpolation from pre-decoded 16-bit
+	 * mono samples. Other than byte2doubleGenericLSRC, there is no format
+	 * dispatch and no byte assembly in the loop.
+	 * 
+	 * @param input the input array
+	 * @param inSamplePos the floating point position in the input array
+	 * @param inSampleStep how much increase inSamplePos for each output sample
+	 * @param output the output array to be filled
+	 * @param outOffset where to start writing to output[]
+	 * @param sampleCount the number of samples to generate
+	 * @see #byte2doubleGenericLSRC(byte[], int, int, double, double, double[],
+	 *      int, int, int)
+	 */
+	public static void short2doubleLSRC(short[] input, double inSamplePos,
+			double inSampleStep, double[] output, int outOffset,
+			int sampleCount) {
+		MixKernels.get().interpolate(input, inSamplePos, inSampleStep, output,
+				outOffset, sampleCount);
+	}
+
+	/**
+	 * Sample rate conversion with linear interpolation from pre-decoded 16-bit
+	 * mono samples to a float array.
+	 * 
+	 * @see #short2doubleLSRC(short[], double, double, double[], int, int)
+	 */
+	public static void short2floatLSRC(short[] input, double inSamplePos,
+			double inSampleStep, float[] output, int outOffset,
+			int sampleCount) {
+		MixKernels.get().interpolate(input, inSamplePos, inSampleStep, output,
+				outOffset, sampleCount);
+	}
+
+	/**
+	 * Sample rate conversion with linear interpolation from pre-decoded,
+	 * normalized float mono samples.
+	 * 
+	 * @see #short2doubleLSRC(short[], double, double, double[], int, int)
+	 */
+	public static void float2doubleLSRC(float[] input, double inSamplePos,
+			double inSampleStep, double[] output, int outOffset,
+			int sampleCount) {
+		MixKernels.get().interpolate(input, inSamplePos, inSampleStep, output,
+				outOffset, sampleCount);
+	}
+
+	/**
+	 * Sample rate conversion with linear interpolation from pre-decoded,
+	 * normalized float mono samples to a float array.
+	 * 
+	 * @see #short2doubleLSRC(short[], double, double, double[], int, int)
+	 */
+	public static void float2floatLSRC(float[] input, double inSamplePos,
+			double inSampleStep, float[] output, int outOffset,
+			int sampleCount) {
+		MixKernels.get().interpolate(input, inSamplePos, inSampleStep, output,
+				outOffset, sampleCount);
+	}
+
+	/**
+	 * Sample rate conversion with linear interpolation from 16-bit mono samples
+	 * in a ByteBuffer, e.g. a memory mapped file. The buffer must be set to
+	 * little endian byte order. Only absolute get methods are used, so the
+	 * buffer can be shared by several threads.
+	 * 
+	 * @param input the input buffer
+	 * @param inSamplePos the floating point sample position in the input
+	 *            buffer
+	 * @see #short2doubleLSRC(short[], double, double, double[], int, int)
+	 */
+	public static void byteBuffer16SL2doubleLSRC(ByteBuffer input,
+			double inSamplePos, double inSampleStep, double[] output,
+			int outOffset, int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			int index1 = (int) inSamplePos;
+			double sample1 = input.getShort(index1 << 1);
+			double sample2 = input.getShort((index1 << 1) + 2);
+			output[outIndex] =
+					(sample1 + (inSamplePos - index1) * (sample2 - sample1))
+							* invTwoPower15;
+		}
+	}
+
+	/**
+	 * Sample rate conversion with linear interpolation from 16-bit mono samples
+	 * in a ByteBuffer to a float array.
+	 * 
+	 * @see #byteBuffer16SL2doubleLSRC(ByteBuffer, double, double, double[],
+	 *      int, int)
+	 */
+	public static void byteBuffer16SL2floatLSRC(ByteBuffer input,
+			double inSamplePos, double inSampleStep, float[] output,
+			int outOffset, int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		float factor = (float) invTwoPower15;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			int index1 = (int) inSamplePos;
+			float sample1 = input.getShort(index1 << 1);
+			float sample2 = input.getShort((index1 << 1) + 2);
+			float factor2 = (float) (inSamplePos - index1);
+			output[outIndex] =
+					(sample1 + factor2 * (sample2 - sample1)) * factor;
+		}
+	}
+
+	// /////////////////// DROP SAMPLE CONVERSION ///////////////////////// //
+
+	/**
+	 * Sample rate conversion without interpolation ("drop sample") from
+	 * pre-decoded 16-bit mono samples: every output sample is the input
+	 * sample at or before the read position. This is cheaper than linear
+	 * interpolation, but adds aliasing.
+	 * 
+	 * @see #short2doubleLSRC(short[], double, double, double[], int, int)
+	 */
+	public static void short2doubleDSRC(short[] input, double inSamplePos,
+			double inSampleStep, double[] output, int outOffset,
+			int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			output[outIndex] = input[(int) inSamplePos] * invTwoPower15;
+		}
+	}
+
+	/**
+	 * Sample rate conversion without interpolation from pre-decoded 16-bit
+	 * mono samples to a float array.
+	 * 
+	 * @see #short2doubleDSRC(short[], double, double, double[], int, int)
+	 */
+	public static void short2floatDSRC(short[] input, double inSamplePos,
+			double inSampleStep, float[] output, int outOffset,
+			int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		float factor = (float) invTwoPower15;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			output[outIndex] = input[(int) inSamplePos] * factor;
+		}
+	}
+
+	/**
+	 * Sample rate conversion without interpolation from pre-decoded,
+	 * normalized float mono samples.
+	 * 
+	 * @see #short2doubleDSRC(short[], double, double, double[], int, int)
+	 */
+	public static void float2doubleDSRC(float[] input, double inSamplePos,
+			double inSampleStep, double[] output, int outOffset,
+			int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			output[outIndex] = input[(int) inSamplePos];
+		}
+	}
+
+	/**
+	 * Sample rate conversion without interpolation from pre-decoded,
+	 * normalized float mono samples to a float array.
+	 * 
+	 * @see #short2doubleDSRC(short[], double, double, double[], int, int)
+	 */
+	public static void float2floatDSRC(float[] input, double inSamplePos,
+			double inSampleStep, float[] output, int outOffset,
+			int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			output[outIndex] = input[(int) inSamplePos];
+		}
+	}
+
+	/**
+	 * Sample rate conversion without interpolation from signed 16-bit little
+	 * endian mono samples.
+	 * 
+	 * @param input the input array
+	 * @param inByteOffset an initial offset to the input array
+	 * @see #short2doubleDSRC(short[], double, double, double[], int, int)
+	 */
+	public static void byte16SL2doubleDSRC(byte[] input, int inByteOffset,
+			double inSamplePos, double inSampleStep, double[] output,
+			int outOffset, int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			int byteIndex = (((int) inSamplePos) << 1) + inByteOffset;
+			output[outIndex] =
+					((input[byteIndex + 1] << 8) | (input[byteIndex] & 0xFF))
+							* invTwoPower15;
+		}
+	}
+
+	/**
+	 * Sample rate conversion without interpolation from signed 16-bit little
+	 * endian mono samples to a float array.
+	 * 
+	 * @see #byte16SL2doubleDSRC(byte[], int, double, double, double[], int,
+	 *      int)
+	 */
+	public static void byte16SL2floatDSRC(byte[] input, int inByteOffset,
+			double inSamplePos, double inSampleStep, float[] output,
+			int outOffset, int sampleCount) {
+		int endCount = outOffset + sampleCount;
+		float factor = (float) invTwoPower15;
+		for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+				inSampleStep) {
+			int byteIndex = (((int) inSamplePos) << 1) + inByteOffset;
+			output[outIndex] =
+					((input[byteIndex + 1] << 8) | (input[byteIndex] & 0xFF))
+							* factor;
+		}
+	}
+
 	// /////////////////// double 2 BYTE /////////////////////////////////// //
 
 	private static byte quantize8(double sample, double ditherBits) {
@@ -956,4 +1268,374 @@ public class ConversionTool {
 			}
 		}
 	}
+
+	// /////////////////// float 2 BYTE /////////////////////////////////// //
+
+	/**
+	 * Conversion function to convert non-interleaved float audio data to an
+	 * interleaved byte array. Exactly <code>format.getChannels()</code>
+	 * channels are converted.
+	 * 
+	 * @param input an array of float[] arrays, one for each channel
+	 * @see #double2byte(Object[], int, byte[], int, int, AudioFormat, double)
+	 */
+	public static void float2byte(float[][] input, int inOffset,
+			byte[] output, int outByteOffset, int frameCount,
+			AudioFormat format, double ditherBits) {
+		int channels = format.getChannels();
+		int formatType = getFormatType(format);
+		for (int channel = 0; channel < channels; channel++) {
+			float2byteGeneric(input[channel], inOffset, output, outByteOffset,
+					format.getFrameSize(), frameCount, formatType, ditherBits);
+			outByteOffset += format.getFrameSize() / channels;
+		}
+	}
+
+	/**
+	 * Central conversion function from normalized float array to a byte array.
+	 * 
+	 * @see #double2byteGeneric(double[], int, byte[], int, int, int, int,
+	 *      double)
+	 */
+	static void float2byteGeneric(float[] input, int inOffset, byte[] output,
+			int outByteOffset, int outByteStep, int sampleCount,
+			int formatType, double ditherBits) {
+		if (inOffset < 0 || inOffset + sampleCount > input.length
+				|| sampleCount < 0) {
+			throw new IllegalArgumentException("invalid input index: "
+					+ "input.length=" + input.length + " inOffset=" + inOffset
+					+ " sampleCount=" + sampleCount);
+		}
+		if (outByteOffset < 0
+				|| outByteOffset + (sampleCount * outByteStep) >= (output.length + outByteStep)
+				|| outByteStep < getSampleSize(formatType)) {
+			throw new IllegalArgumentException("invalid output index: "
+					+ "output.length=" + output.length + " outByteOffset="
+					+ outByteOffset + " outByteStep=" + outByteStep
+					+ " sampleCount=" + sampleCount + " format="
+					+ formatType2Str(formatType));
+		}
+
+		if (ditherBits != 0.0 && random == null) {
+			// create the random number generator for dithering
+			random = new Random();
+		}
+		int endSample = inOffset + sampleCount;
+		int iSample;
+		int outIndex = outByteOffset;
+		if (formatType == CT_16SL && ditherBits == 0.0) {
+			// shortcut for the most common case
+			for (int inIndex = inOffset; inIndex < endSample; inIndex++, outIndex +=
+					outByteStep) {
+				float sample = input[inIndex] * 32768.0f;
+				if (sample >= 32767.0f) {
+					iSample = 32767;
+				} else if (sample <= -32768.0f) {
+					iSample = -32768;
+				} else {
+					iSample =
+							(int) (sample < 0 ? (sample - 0.5f)
+									: (sample + 0.5f));
+				}
+				output[outIndex + 1] = (byte) (iSample >> 8);
+				output[outIndex] = (byte) (iSample & 0xFF);
+			}
+			return;
+		}
+		for (int inIndex = inOffset; inIndex < endSample; inIndex++, outIndex +=
+				outByteStep) {
+			double sample = input[inIndex];
+			switch (formatType) {
+			case CT_8S:
+				output[outIndex] = quantize8(sample * twoPower7, ditherBits);
+				break;
+			case CT_8U:
+				output[outIndex] =
+						(byte) (quantize8((sample * twoPower7), ditherBits) + 128);
+				break;
+			case CT_16SB:
+				iSample = quantize16(sample * twoPower15, ditherBits);
+				output[outIndex] = (byte) (iSample >> 8);
+				output[outIndex + 1] = (byte) (iSample & 0xFF);
+				break;
+			case CT_16SL:
+				iSample = quantize16(sample * twoPower15, ditherBits);
+				output[outIndex + 1] = (byte) (iSample >> 8);
+				output[outIndex] = (byte) (iSample & 0xFF);
+				break;
+			case CT_24_3SB:
+				iSample = quantize24(sample * twoPower23, ditherBits);
+				output[outIndex] = (byte) (iSample >> 16);
+				output[outIndex + 1] = (byte) ((iSample >>> 8) & 0xFF);
+				output[outIndex + 2] = (byte) (iSample & 0xFF);
+				break;
+			case CT_24_3SL:
+				iSample = quantize24(sample * twoPower23, ditherBits);
+				output[outIndex + 2] = (byte) (iSample >> 16);
+				output[outIndex + 1] = (byte) ((iSample >>> 8) & 0xFF);
+				output[outIndex] = (byte) (iSample & 0xFF);
+				break;
+			case CT_24_4SB:
+				iSample = quantize24(sample * twoPower23, ditherBits);
+				output[outIndex + 0] = 0;
+				output[outIndex + 1] = (byte) (iSample >> 16);
+				output[outIndex + 2] = (byte) ((iSample >>> 8) & 0xFF);
+				output[outIndex + 3] = (byte) (iSample & 0xFF);
+				break;
+			case CT_24_4SL:
+				iSample = quantize24(sample * twoPower23, ditherBits);
+				output[outIndex + 3] = (byte) (iSample >> 16);
+				output[outIndex + 2] = (byte) ((iSample >>> 8) & 0xFF);
+				output[outIndex + 1] = (byte) (iSample & 0xFF);
+				output[outIndex + 0] = 0;
+				break;
+			case CT_32SB:
+				iSample = quantize32(sample * twoPower31, ditherBits);
+				output[outIndex] = (byte) (iSample >> 24);
+				output[outIndex + 1] = (byte) ((iSample >>> 16) & 0xFF);
+				output[outIndex + 2] = (byte) ((iSample >>> 8) & 0xFF);
+				output[outIndex + 3] = (byte) (iSample & 0xFF);
+				break;
+			case CT_32SL:
+				iSample = quantize32(sample * twoPower31, ditherBits);
+				output[outIndex + 3] = (byte) (iSample >> 24);
+				output[outIndex + 2] = (byte) ((iSample >>> 16) & 0xFF);
+				output[outIndex + 1] = (byte) ((iSample >>> 8) & 0xFF);
+				output[outIndex] = (byte) (iSample & 0xFF);
+				break;
+			default:
+				throw new IllegalArgumentException("unsupported format="
+						+ formatType2Str(formatType));
+			}
+		}
+	}
+
+	// /////////////////// double/float 2 ByteBuffer ///////////////////////// //
+
+	/**
+	 * Conversion function to convert non-interleaved double audio data to an
+	 * interleaved ByteBuffer, e.g. a direct buffer shared with native code.
+	 * The buffer's position and limit are not used or changed. The samples
+	 * are written in the byte order of <code>format</code>, regardless of the
+	 * buffer's byte order.
+	 * 
+	 * @param input an array of double[] arrays, one for each channel
+	 * @see #double2byte(Object[], int, byte[], int, int, AudioFormat, double)
+	 */
+	public static void double2byteBuffer(Object[] input, int inOffset,
+			ByteBuffer output, int outByteOffset, int frameCount,
+			AudioFormat format, double ditherBits) {
+		int channels = format.getChannels();
+		int formatType = getFormatType(format);
+		for (int channel = 0; channel < channels; channel++) {
+			double2byteBufferGeneric((double[]) input[channel], inOffset,
+					output, outByteOffset, format.getFrameSize(), frameCount,
+					formatType, ditherBits);
+			outByteOffset += format.getFrameSize() / channels;
+		}
+	}
+
+	/**
+	 * Conversion function to convert non-interleaved float audio data to an
+	 * interleaved ByteBuffer.
+	 * 
+	 * @param input an array of float[] arrays, one for each channel
+	 * @see #double2byteBuffer(Object[], int, ByteBuffer, int, int,
+	 *      AudioFormat, double)
+	 */
+	public static void float2byteBuffer(float[][] input, int inOffset,
+			ByteBuffer output, int outByteOffset, int frameCount,
+			AudioFormat format, double ditherBits) {
+		int channels = format.getChannels();
+		int formatType = getFormatType(format);
+		for (int channel = 0; channel < channels; channel++) {
+			float2byteBufferGeneric(input[channel], inOffset, output,
+					outByteOffset, format.getFrameSize(), frameCount,
+					formatType, ditherBits);
+			outByteOffset += format.getFrameSize() / channels;
+		}
+	}
+
+	/**
+	 * Check the parameters of a conversion to a ByteBuffer.
+	 */
+	private static void checkByteBufferIndexes(int inputLength, int inOffset,
+			ByteBuffer output, int outByteOffset, int outByteStep,
+			int sampleCount, int formatType, double ditherBits) {
+		if (inOffset < 0 || inOffset + sampleCount > inputLength
+				|| sampleCount < 0) {
+			throw new IllegalArgumentException("invalid input index: "
+					+ "input.length=" + inputLength + " inOffset=" + inOffset
+					+ " sampleCount=" + sampleCount);
+		}
+		if (outByteOffset < 0
+				|| outByteOffset + (sampleCount * outByteStep) >= (output.capacity() + outByteStep)
+				|| outByteStep < getSampleSize(formatType)) {
+			throw new IllegalArgumentException("invalid output index: "
+					+ "output.capacity=" + output.capacity()
+					+ " outByteOffset=" + outByteOffset + " outByteStep="
+					+ outByteStep + " sampleCount=" + sampleCount
+					+ " format=" + formatType2Str(formatType));
+		}
+		if (ditherBits != 0.0 && random == null) {
+			// create the random number generator for dithering
+			random = new Random();
+		}
+	}
+
+	/**
+	 * @return true if 16-bit samples of the given format type need to be
+	 *         byte swapped for writing them with output.putShort()
+	 */
+	private static boolean isSwapped16(ByteBuffer output, int formatType) {
+		return (output.order() == ByteOrder.BIG_ENDIAN) != (formatType == CT_16SB);
+	}
+
+	/**
+	 * Central conversion function from normalized double array to a
+	 * ByteBuffer.
+	 * 
+	 * @see #double2byteGeneric(double[], int, byte[], int, int, int, int,
+	 *      double)
+	 */
+	static void double2byteBufferGeneric(double[] input, int inOffset,
+			ByteBuffer output, int outByteOffset, int outByteStep,
+			int sampleCount, int formatType, double ditherBits) {
+		checkByteBufferIndexes(input.length, inOffset, output, outByteOffset,
+				outByteStep, sampleCount, formatType, ditherBits);
+		int endSample = inOffset + sampleCount;
+		int outIndex = outByteOffset;
+		if (formatType == CT_16SL || formatType == CT_16SB) {
+			// shortcut for the most common case
+			boolean swap = isSwapped16(output, formatType);
+			for (int inIndex = inOffset; inIndex < endSample; inIndex++, outIndex +=
+					outByteStep) {
+				short sample =
+						(short) quantize16(input[inIndex] * twoPower15,
+								ditherBits);
+				output.putShort(outIndex, swap ? Short.reverseBytes(sample)
+						: sample);
+			}
+			return;
+		}
+		for (int inIndex = inOffset; inIndex < endSample; inIndex++, outIndex +=
+				outByteStep) {
+			putSample(output, outIndex, input[inIndex], formatType,
+					ditherBits);
+		}
+	}
+
+	/**
+	 * Central conversion function from normalized float array to a
+	 * ByteBuffer.
+	 * 
+	 * @see #double2byteBufferGeneric(double[], int, ByteBuffer, int, int,
+	 *      int, int, double)
+	 */
+	static void float2byteBufferGeneric(float[] input, int inOffset,
+			ByteBuffer output, int outByteOffset, int outByteStep,
+			int sampleCount, int formatType, double ditherBits) {
+		checkByteBufferIndexes(input.length, inOffset, output, outByteOffset,
+				outByteStep, sampleCount, formatType, ditherBits);
+		int endSample = inOffset + sampleCount;
+		int outIndex = outByteOffset;
+		if ((formatType == CT_16SL || formatType == CT_16SB)
+				&& ditherBits == 0.0) {
+			// shortcut for the most common case
+			boolean swap = isSwapped16(output, formatType);
+			int iSample;
+			for (int inIndex = inOffset; inIndex < endSample; inIndex++, outIndex +=
+					outByteStep) {
+				float sample = input[inIndex] * 32768.0f;
+				if (sample >= 32767.0f) {
+					iSample = 32767;
+				} else if (sample <= -32768.0f) {
+					iSample = -32768;
+				} else {
+					iSample =
+							(int) (sample < 0 ? (sample - 0.5f)
+									: (sample + 0.5f));
+				}
+				output.putShort(outIndex, swap
+						? Short.reverseBytes((short) iSample) : (short) iSample);
+			}
+			return;
+		}
+		for (int inIndex = inOffset; inIndex < endSample; inIndex++, outIndex +=
+				outByteStep) {
+			putSample(output, outIndex, input[inIndex], formatType,
+					ditherBits);
+		}
+	}
+
+	/**
+	 * Quantize one normalized sample and write it to the ByteBuffer at the
+	 * given index.
+	 */
+	private static void putSample(ByteBuffer output, int outIndex,
+			double sample, int formatType, double ditherBits) {
+		int iSample;
+		switch (formatType) {
+		case CT_8S:
+			output.put(outIndex, quantize8(sample * twoPower7, ditherBits));
+			break;
+		case CT_8U:
+			output.put(outIndex,
+					(byte) (quantize8((sample * twoPower7), ditherBits) + 128));
+			break;
+		case CT_16SB:
+			iSample = quantize16(sample * twoPower15, ditherBits);
+			output.put(outIndex, (byte) (iSample >> 8));
+			output.put(outIndex + 1, (byte) (iSample & 0xFF));
+			break;
+		case CT_16SL:
+			iSample = quantize16(sample * twoPower15, ditherBits);
+			output.put(outIndex + 1, (byte) (iSample >> 8));
+			output.put(outIndex, (byte) (iSample & 0xFF));
+			break;
+		case CT_24_3SB:
+			iSample = quantize24(sample * twoPower23, ditherBits);
+			output.put(outIndex, (byte) (iSample >> 16));
+			output.put(outIndex + 1, (byte) ((iSample >>> 8) & 0xFF));
+			output.put(outIndex + 2, (byte) (iSample & 0xFF));
+			break;
+		case CT_24_3SL:
+			iSample = quantize24(sample * twoPower23, ditherBits);
+			output.put(outIndex + 2, (byte) (iSample >> 16));
+			output.put(outIndex + 1, (byte) ((iSample >>> 8) & 0xFF));
+			output.put(outIndex, (byte) (iSample & 0xFF));
+			break;
+		case CT_24_4SB:
+			iSample = quantize24(sample * twoPower23, ditherBits);
+			output.put(outIndex + 0, (byte) 0);
+			output.put(outIndex + 1, (byte) (iSample >> 16));
+			output.put(outIndex + 2, (byte) ((iSample >>> 8) & 0xFF));
+			output.put(outIndex + 3, (byte) (iSample & 0xFF));
+			break;
+		case CT_24_4SL:
+			iSample = quantize24(sample * twoPower23, ditherBits);
+			output.put(outIndex + 3, (byte) (iSample >> 16));
+			output.put(outIndex + 2, (byte) ((iSample >>> 8) & 0xFF));
+			output.put(outIndex + 1, (byte) (iSample & 0xFF));
+			output.put(outIndex + 0, (byte) 0);
+			break;
+		case CT_32SB:
+			iSample = quantize32(sample * twoPower31, ditherBits);
+			output.put(outIndex, (byte) (iSample >> 24));
+			output.put(outIndex + 1, (byte) ((iSample >>> 16) & 0xFF));
+			output.put(outIndex + 2, (byte) ((iSample >>> 8) & 0xFF));
+			output.put(outIndex + 3, (byte) (iSample & 0xFF));
+			break;
+		case CT_32SL:
+			iSample = quantize32(sample * twoPower31, ditherBits);
+			output.put(outIndex + 3, (byte) (iSample >> 24));
+			output.put(outIndex + 2, (byte) ((iSample >>> 16) & 0xFF));
+			output.put(outIndex + 1, (byte) ((iSample >>> 8) & 0xFF));
+			output.put(outIndex, (byte) (iSample & 0xFF));
+			break;
+		default:
+			throw new IllegalArgumentException("unsupported format="
+					+ formatType2Str(formatType));
+		}
+	}
 }
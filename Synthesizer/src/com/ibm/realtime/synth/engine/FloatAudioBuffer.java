@@ -0,0 +1,330 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+import java.nio.ByteBuffer;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A class for small buffers of samples in linear, 32-bit floating point
+ * format. This is the single precision counterpart of AudioBuffer, used for
+ * the float rendering path. Since the output of the synthesizer is usually
+ * 16-bit, single precision is sufficient, and it halves the memory bandwidth
+ * for each voice.
+ * <p>
+ * Like AudioBuffer, channels are separated and samples are normalized to the
+ * interval [-1.0...1.0]. Reducing the sample count is done lazily, i.e. the
+ * arrays returned by getChannel() may be larger than getSampleCount().
+ * 
+ * @see AudioBuffer
+ * @author florian
+ */
+public class FloatAudioBuffer {
+
+	private float[][] channels;
+
+	private int sampleCount = 0;
+
+	private double sampleRate;
+
+	private double ditherBits = 0.0;
+
+	/**
+	 * Create an empty FloatAudioBuffer with the specified number of channels,
+	 * samples, and the specified sample rate.
+	 */
+	public FloatAudioBuffer(int channelCount, int sampleCount, double sampleRate) {
+		if (channelCount < 0 || sampleCount < 0) {
+			throw new IllegalArgumentException(
+					"invalid parameters in initialization of FloatAudioBuffer.");
+		}
+		channels = new float[channelCount][sampleCount];
+		this.sampleCount = sampleCount;
+		setSampleRate(sampleRate);
+	}
+
+	public int getChannelCount() {
+		return channels.length;
+	}
+
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Sets the sample rate of this buffer. NOTE: no conversion is done. The
+	 * samples are only re-interpreted.
+	 */
+	public void setSampleRate(double sampleRate) {
+		if (sampleRate <= 0) {
+			throw new IllegalArgumentException(
+					"Invalid samplerate for FloatAudioBuffer.");
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * NOTE: the returned array may be larger than sampleCount. So in any case,
+	 * sampleCount is to be respected.
+	 */
+	public float[] getChannel(int channel) {
+		return channels[channel];
+	}
+
+	/**
+	 * Set the number of bits for dithering when converting to a byte array. 0
+	 * disables dithering (the default).
+	 */
+	public void setDitherBits(double ditherBits) {
+		if (ditherBits < 0) {
+			throw new IllegalArgumentException(
+					"DitherBits must not be negative");
+		}
+		this.ditherBits = ditherBits;
+	}
+
+	public double getDitherBits() {
+		return ditherBits;
+	}
+
+	/**
+	 * Resizes this buffer.
+	 * <p>
+	 * If <code>keepOldSamples</code> is true, as much as possible samples are
+	 * retained. If the buffer is enlarged, silence is added at the end. If
+	 * <code>keepOldSamples</code> is false, existing samples are discarded
+	 * and the buffer contains random samples.
+	 */
+	public void changeSampleCount(int newSampleCount, boolean keepOldSamples) {
+		int oldSampleCount = this.sampleCount;
+		this.sampleCount = newSampleCount;
+		if (oldSampleCount >= newSampleCount) {
+			return;
+		}
+		for (int c = 0; c < channels.length; c++) {
+			float[] ch = channels[c];
+			if (ch.length < newSampleCount) {
+				float[] newCh = new float[newSampleCount];
+				if (keepOldSamples && oldSampleCount > 0) {
+					System.arraycopy(ch, 0, newCh, 0, oldSampleCount);
+				}
+				channels[c] = newCh;
+			} else if (keepOldSamples) {
+				// silence out excess samples
+				for (int i = oldSampleCount; i < newSampleCount; i++) {
+					ch[i] = 0.0f;
+				}
+			}
+		}
+	}
+
+	public void makeSilence() {
+		for (int c = 0; c < channels.length; c++) {
+			float[] samples = channels[c];
+			for (int i = 0; i < sampleCount; i++) {
+				samples[i] = 0.0f;
+			}
+		}
+	}
+
+	/**
+	 * Mixes <code>source</code> to this buffer by adding all samples. At
+	 * most, <code>source</code>'s number of samples and channels are mixed.
+	 * 
+	 * @param source the buffer to be mixed to this buffer
+	 */
+	public void mix(FloatAudioBuffer source) {
+		int count = sampleCount;
+		if (count > source.getSampleCount()) {
+			count = source.getSampleCount();
+		}
+		int channelCount = channels.length;
+		if (channelCount > source.getChannelCount()) {
+			channelCount = source.getChannelCount();
+		}
+		MixKernels kernels = MixKernels.get();
+		for (int ch = 0; ch < channelCount; ch++) {
+			kernels.mix(source.getChannel(ch), 0, channels[ch], 0, count);
+		}
+	}
+
+	/**
+	 * Mixes the double precision buffer <code>source</code> to this buffer
+	 * at the given offset.
+	 * 
+	 * @param source the buffer to be mixed to this buffer
+	 * @param offset the position in this buffer where to start mixing
+	 * @param count the number of samples to mix
+	 */
+	public void mix(AudioBuffer source, int offset, int count) {
+		if (count > source.getSampleCount()) {
+			count = source.getSampleCount();
+		}
+		if (count + offset > sampleCount) {
+			count = sampleCount - offset;
+		}
+		int channelCount = channels.length;
+		if (channelCount > source.getChannelCount()) {
+			channelCount = source.getChannelCount();
+		}
+		MixKernels kernels = MixKernels.get();
+		for (int ch = 0; ch < channelCount; ch++) {
+			kernels.mix(source.getChannel(ch), 0, channels[ch], offset, count);
+		}
+	}
+
+	/**
+	 * Copies the contents of this buffer to the buffer <code>dest</code>.
+	 * None of the sample count, channel count or sample rate of either buffer
+	 * are changed.
+	 * 
+	 * @param dest the buffer to write to
+	 * @param offset the position in <code>dest</code> where to start writing
+	 *            the samples of this buffer
+	 * @param count the number of samples to be copied
+	 */
+	public void copyTo(FloatAudioBuffer dest, int offset, int count) {
+		if (count > sampleCount) {
+			count = sampleCount;
+		}
+		if (count + offset > dest.getSampleCount()) {
+			count = dest.getSampleCount() - offset;
+		}
+		int channelCount = channels.length;
+		if (channelCount > dest.getChannelCount()) {
+			channelCount = dest.getChannelCount();
+		}
+		for (int ch = 0; ch < channelCount; ch++) {
+			System.arraycopy(channels[ch], 0, dest.getChannel(ch), offset,
+					count);
+		}
+	}
+
+	/**
+	 * Copies the contents of this buffer to the double precision buffer
+	 * <code>dest</code>. None of the sample count, channel count or sample
+	 * rate of either buffer are changed.
+	 * 
+	 * @param dest the buffer to write to
+	 * @param offset the position in <code>dest</code> where to start writing
+	 *            the samples of this buffer
+	 * @param count the number of samples to be copied
+	 */
+	public void copyTo(AudioBuffer dest, int offset, int count) {
+		if (count > sampleCount) {
+			count = sampleCount;
+		}
+		if (count + offset > dest.getSampleCount()) {
+			count = dest.getSampleCount() - offset;
+		}
+		int channelCount = channels.length;
+		if (channelCount > dest.getChannelCount()) {
+			channelCount = dest.getChannelCount();
+		}
+		for (int ch = 0; ch < channelCount; ch++) {
+			float[] thisChannel = channels[ch];
+			double[] otherChannel = dest.getChannel(ch);
+			int localOffset = offset;
+			for (int i = 0; i < count; i++) {
+				otherChannel[localOffset++] = thisChannel[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the required size of the buffer for calling
+	 *         convertToByteArray(..)
+	 */
+	public int getByteArrayBufferSize(AudioFormat format) {
+		// make sure this format is supported
+		ConversionTool.getFormatType(format);
+		return format.getFrameSize() * getSampleCount();
+	}
+
+	/**
+	 * Writes this sample buffer's audio data to <code>buffer</code> as an
+	 * interleaved byte array. <code>buffer</code> must be large enough to
+	 * hold all data.
+	 * 
+	 * @throws IllegalArgumentException when buffer is too small or
+	 *             <code>format</code> doesn't match
+	 * @return number of bytes written to <code>buffer</code>
+	 */
+	public int convertToByteArray(byte[] buffer, int offset, AudioFormat format) {
+		int byteCount = getByteArrayBufferSize(format);
+		if (offset + byteCount > buffer.length) {
+			throw new IllegalArgumentException(
+					"FloatAudioBuffer.convertToByteArray: buffer too small.");
+		}
+		if (format.getSampleRate() != getSampleRate()) {
+			throw new IllegalArgumentException(
+					"FloatAudioBuffer.convertToByteArray: different samplerates.");
+		}
+		if (format.getChannels() != getChannelCount()) {
+			throw new IllegalArgumentException(
+					"FloatAudioBuffer.convertToByteArray: different channel count.");
+		}
+		ConversionTool.float2byte(channels, 0, buffer, offset, sampleCount,
+				format, ditherBits);
+		return byteCount;
+	}
+
+	/**
+	 * Writes this sample buffer's audio data to the ByteBuffer
+	 * <code>buffer</code> in interleaved format, starting at the absolute
+	 * byte index <code>offset</code>. The buffer's position and limit are
+	 * not changed.
+	 * 
+	 * @throws IllegalArgumentException when buffer is too small or
+	 *             <code>format</code> doesn't match
+	 * @return number of bytes written to <code>buffer</code>
+	 * @see AudioBuffer#convertToByteBuffer(ByteBuffer, int, AudioFormat)
+	 */
+	public int convertToByteBuffer(ByteBuffer buffer, int offset,
+			AudioFormat format) {
+		int byteCount = getByteArrayBufferSize(format);
+		if (offset + byteCount > buffer.capacity()) {
+			throw new IllegalArgumentException(
+					"FloatAudioBuffer.convertToByteBuffer: buffer too small.");
+		}
+		if (format.getSampleRate() != getSampleRate()) {
+			throw new IllegalArgumentException(
+					"FloatAudioBuffer.convertToByteBuffer: different samplerates.");
+		}
+		if (format.getChannels() != getChannelCount()) {
+			throw new IllegalArgumentException(
+					"FloatAudioBuffer.convertToByteBuffer: different channel count.");
+		}
+		ConversionTool.float2byteBuffer(channels, 0, buffer, offset,
+				sampleCount, format, ditherBits);
+		return byteCount;
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+/**
+ * Optional interface for AudioInput implementations that can render into
+ * single precision buffers.
+ * 
+ * @see FloatAudioBuffer
+ * @author florian
+ */
+public interface FloatAudioInput extends AudioInput {
+
+	/**
+	 * Fill the float buffer. Like the AudioBuffer version of read, this
+	 * method will <b>add</b> the data to buffer.
+	 * 
+	 * @param time - the start playback time of this buffer
+	 * @param buffer - the buffer to be added to
+	 * @param offset - the offset in buffer where to start writing samples
+	 * @param count - how many samples to read to the buffer
+	 */
+	public void read(AudioTime time, FloatAudioBuffer buffer, int offset,
+			int count);
+
+	/**
+	 * Fill the float buffer, with the time given in nanoseconds.
+	 * 
+	 * @param nanoTime - the start playback time of this buffer in nanoseconds
+	 * @param buffer - the buffer to be added to
+	 * @param offset - the offset in buffer where to start writing samples
+	 * @param count - how many samples to read to the buffer
+	 */
+	public void read(long nanoTime, FloatAudioBuffer buffer, int offset,
+			int count);
+
+	/**
+	 * @return true if this input should preferably be read with a
+	 *         FloatAudioBuffer
+	 */
+	public boolean isFloatRendering();
+}
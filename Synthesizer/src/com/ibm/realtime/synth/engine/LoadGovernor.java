@@ -0,0 +1,560 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.ibm.realtime.synth.utils.AsynchExec;
+
+/**
+ * Adapts the render quality of a synthesizer to the CPU load, so that a
+ * heavy MIDI stream on a busy machine degrades the sound instead of causing
+ * underruns.
+ * <p>
+ * The governor is notified of the render time of every slice by the mixer's
+ * RenderMetrics (see Synthesizer.setLoadGovernor()). It keeps a smoothed load,
+ * i.e. the render time in percent of the slice duration. If the load exceeds
+ * the high watermark, or a slice takes longer than its duration, the quality
+ * is stepped down one level, in this order:
+ * <ol>
+ * <li>LEVEL_DROP_SAMPLE: the oscillators do not interpolate</li>
+ * <li>LEVEL_FILTER_BYPASS: the filters are bypassed</li>
+ * <li>LEVEL_SHORT_RELEASE: release tails are cut after shortReleaseTime</li>
+ * <li>LEVEL_REDUCED_POLYPHONY: new notes steal voices beyond
+ * reducedPolyphony</li>
+ * </ol>
+ * Each level includes the measures of the lower levels. Between 2 steps
+ * down, at least stepDownMillis of audio time must pass, so that the
+ * previous step can take effect. The quality is stepped up again one level
+ * at a time, if the load stayed below the low watermark for stepUpMillis of
+ * audio time. The gap between the watermarks and the longer step up interval
+ * provide the hysteresis.
+ * <p>
+ * Every change of the level is delivered asynchronously to the registered
+ * listeners as an Event. When the quality is first reduced, the governor
+ * saves the interpolation, filter bypass and maximum release time settings
+ * of the synthesizer's Params, and restores them when it returns to full
+ * quality. Changes of these settings while the quality is reduced are lost.
+ * 
+ * @author florian
+ */
+public class LoadGovernor implements RenderMetrics.SliceListener,
+		AsynchExec.Listener<LoadGovernor.Event> {
+
+	public static boolean DEBUG_GOVERNOR = false;
+
+	/**
+	 * Quality level: full quality.
+	 */
+	public static final int LEVEL_FULL_QUALITY = 0;
+
+	/**
+	 * Quality level: drop sample interpolation in the oscillators.
+	 */
+	public static final int LEVEL_DROP_SAMPLE = 1;
+
+	/**
+	 * Quality level: additionally bypass the filters.
+	 */
+	public static final int LEVEL_FILTER_BYPASS = 2;
+
+	/**
+	 * Quality level: additionally cut long release tails.
+	 */
+	public static final int LEVEL_SHORT_RELEASE = 3;
+
+	/**
+	 * Quality level: additionally limit the polyphony.
+	 */
+	public static final int LEVEL_REDUCED_POLYPHONY = 4;
+
+	/**
+	 * The lowest quality level.
+	 */
+	public static final int MAX_LEVEL = LEVEL_REDUCED_POLYPHONY;
+
+	public static final int DEFAULT_HIGH_LOAD_PERCENT = 85;
+
+	public static final int DEFAULT_LOW_LOAD_PERCENT = 50;
+
+	public static final int DEFAULT_STEP_DOWN_MILLIS = 100;
+
+	public static final int DEFAULT_STEP_UP_MILLIS = 3000;
+
+	public static final double DEFAULT_SHORT_RELEASE_TIME = 0.25;
+
+	public static final int DEFAULT_REDUCED_POLYPHONY = 32;
+
+	/**
+	 * The time constant for smoothing the load, in nanoseconds.
+	 */
+	private static final long LOAD_TIME_CONSTANT_NANOS = 50000000L;
+
+	private static final String[] LEVEL_NAMES = {
+			"full quality", "drop sample interpolation", "filter bypass",
+			"short release", "reduced polyphony"
+	};
+
+	private final Synthesizer synth;
+
+	private volatile int highLoadPercent = DEFAULT_HIGH_LOAD_PERCENT;
+
+	private volatile int lowLoadPercent = DEFAULT_LOW_LOAD_PERCENT;
+
+	private volatile long stepDownNanos = DEFAULT_STEP_DOWN_MILLIS * 1000000L;
+
+	private volatile long stepUpNanos = DEFAULT_STEP_UP_MILLIS * 1000000L;
+
+	private volatile double shortReleaseTime = DEFAULT_SHORT_RELEASE_TIME;
+
+	private volatile int reducedPolyphony = DEFAULT_REDUCED_POLYPHONY;
+
+	/**
+	 * The current quality level.
+	 */
+	private volatile int level = LEVEL_FULL_QUALITY;
+
+	/**
+	 * The smoothed load in percent. Only accessed by the rendering thread.
+	 */
+	private double load = 0.0;
+
+	/**
+	 * The audio time since the last change of the level, in nanoseconds.
+	 * Only accessed by the rendering thread.
+	 */
+	private long sinceChangeNanos = 0;
+
+	/**
+	 * The audio time since the load is below the low watermark, in
+	 * nanoseconds. Only accessed by the rendering thread.
+	 */
+	private long lowLoadNanos = 0;
+
+	/**
+	 * Set by reset() to clear the load history in the rendering thread.
+	 */
+	private volatile boolean resetPending = false;
+
+	/**
+	 * Set by setLevel() to restart the step interval in the rendering thread.
+	 */
+	private volatile boolean levelSetPending = false;
+
+	/**
+	 * The settings in effect before the quality was reduced, saved when
+	 * leaving LEVEL_FULL_QUALITY. Only accessed while synchronized.
+	 */
+	private int savedInterpolation;
+
+	private boolean savedFilterBypass;
+
+	private double savedMaxReleaseTime;
+
+	private int savedPolyphonyLimit;
+
+	/**
+	 * The number of level changes.
+	 */
+	private volatile long changeCount = 0;
+
+	private final List<Listener> listeners =
+			new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * Delivers the events to the listeners, created with the first listener.
+	 */
+	private AsynchExec<Event> eventHandler;
+
+	/**
+	 * Create a load governor for the given synthesizer. It is not active
+	 * until it is set with Synthesizer.setLoadGovernor().
+	 */
+	public LoadGovernor(Synthesizer synth) {
+		this.synth = synth;
+	}
+
+	/**
+	 * @return the synthesizer controlled by this governor
+	 */
+	public Synthesizer getSynthesizer() {
+		return synth;
+	}
+
+	/**
+	 * @return the current quality level, one of the LEVEL_ constants
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return the number of quality level changes
+	 */
+	public long getChangeCount() {
+		return changeCount;
+	}
+
+	/**
+	 * @return the smoothed load in percent of the slice duration
+	 */
+	public double getLoadPercent() {
+		return load;
+	}
+
+	/**
+	 * @return the load in percent above which the quality is reduced
+	 */
+	public int getHighLoadPercent() {
+		return highLoadPercent;
+	}
+
+	/**
+	 * @param percent the load in percent above which the quality is reduced
+	 */
+	public void setHighLoadPercent(int percent) {
+		this.highLoadPercent = percent;
+	}
+
+	/**
+	 * @return the load in percent below which the quality is increased again
+	 */
+	public int getLowLoadPercent() {
+		return lowLoadPercent;
+	}
+
+	/**
+	 * @param percent the load in percent below which the quality is
+	 *            increased again. Should be well below the high watermark.
+	 */
+	public void setLowLoadPercent(int percent) {
+		this.lowLoadPercent = percent;
+	}
+
+	/**
+	 * @return the minimum audio time between 2 steps down, in milliseconds
+	 */
+	public int getStepDownMillis() {
+		return (int) (stepDownNanos / 1000000L);
+	}
+
+	/**
+	 * @param millis the minimum audio time between 2 steps down
+	 */
+	public void setStepDownMillis(int millis) {
+		this.stepDownNanos = millis * 1000000L;
+	}
+
+	/**
+	 * @return the audio time of low load before stepping up, in milliseconds
+	 */
+	public int getStepUpMillis() {
+		return (int) (stepUpNanos / 1000000L);
+	}
+
+	/**
+	 * @param millis the audio time the load must stay below the low watermark
+	 *            before the quality is increased by one level
+	 */
+	public void setStepUpMillis(int millis) {
+		this.stepUpNanos = millis * 1000000L;
+	}
+
+	/**
+	 * @return the maximum release time at LEVEL_SHORT_RELEASE, in seconds
+	 */
+	public double getShortReleaseTime() {
+		return shortReleaseTime;
+	}
+
+	/**
+	 * @param seconds the maximum release time at LEVEL_SHORT_RELEASE
+	 */
+	public void setShortReleaseTime(double seconds) {
+		this.shortReleaseTime = seconds;
+	}
+
+	/**
+	 * @return the polyphony limit at LEVEL_REDUCED_POLYPHONY
+	 */
+	public int getReducedPolyphony() {
+		return reducedPolyphony;
+	}
+
+	/**
+	 * @param voices the polyphony limit at LEVEL_REDUCED_POLYPHONY
+	 */
+	public void setReducedPolyphony(int voices) {
+		this.reducedPolyphony = voices;
+	}
+
+	/**
+	 * Add a listener to be notified of quality level changes.
+	 */
+	public synchronized void addListener(Listener l) {
+		listeners.add(l);
+		if (eventHandler == null) {
+			eventHandler = new AsynchExec<Event>(this, "Load governor events");
+			eventHandler.start();
+		}
+	}
+
+	/**
+	 * Remove a listener.
+	 */
+	public synchronized void removeListener(Listener l) {
+		listeners.remove(l);
+		if (listeners.isEmpty() && eventHandler != null) {
+			eventHandler.stop();
+			eventHandler = null;
+		}
+	}
+
+	/**
+	 * Stop the delivery of events and remove all listeners.
+	 */
+	public synchronized void close() {
+		listeners.clear();
+		if (eventHandler != null) {
+			eventHandler.stop();
+			eventHandler = null;
+		}
+	}
+
+	/**
+	 * Restore full quality and clear the load history. The load history is
+	 * cleared by the rendering thread before it processes the next slice.
+	 */
+	public void reset() {
+		resetPending = true;
+		setLevel(LEVEL_FULL_QUALITY);
+	}
+
+	/**
+	 * Set the quality level and apply it to the synthesizer.
+	 * 
+	 * @param newLevel the new level, one of the LEVEL_ constants
+	 */
+	public void setLevel(int newLevel) {
+		levelSetPending = true;
+		changeLevel(newLevel, load);
+	}
+
+	/**
+	 * Called by RenderMetrics for every rendered slice.
+	 */
+	public void sliceRendered(long renderNanos, long sliceNanos) {
+		if (sliceNanos <= 0) {
+			return;
+		}
+		if (resetPending) {
+			resetPending = false;
+			load = 0.0;
+			lowLoadNanos = 0;
+		}
+		if (levelSetPending) {
+			levelSetPending = false;
+			sinceChangeNanos = 0;
+		}
+		// exponential moving average with the time constant
+		// LOAD_TIME_CONSTANT_NANOS, independent of the slice duration
+		double sliceLoad = renderNanos * 100.0 / sliceNanos;
+		double alpha =
+				((double) sliceNanos) / (sliceNanos + LOAD_TIME_CONSTANT_NANOS);
+		load += alpha * (sliceLoad - load);
+		sinceChangeNanos += sliceNanos;
+
+		int localLevel = level;
+		if (renderNanos > sliceNanos || load > highLoadPercent) {
+			lowLoadNanos = 0;
+			if (localLevel < MAX_LEVEL && sinceChangeNanos >= stepDownNanos) {
+				changeLevel(localLevel + 1, load);
+				sinceChangeNanos = 0;
+			}
+		} else if (load < lowLoadPercent) {
+			lowLoadNanos += sliceNanos;
+			if (localLevel > LEVEL_FULL_QUALITY && lowLoadNanos >= stepUpNanos
+					&& sinceChangeNanos >= stepUpNanos) {
+				lowLoadNanos = 0;
+				changeLevel(localLevel - 1, load);
+				sinceChangeNanos = 0;
+			}
+		} else {
+			lowLoadNanos = 0;
+		}
+	}
+
+	private synchronized void changeLevel(int newLevel, double atLoad) {
+		if (newLevel < LEVEL_FULL_QUALITY) {
+			newLevel = LEVEL_FULL_QUALITY;
+		} else if (newLevel > MAX_LEVEL) {
+			newLevel = MAX_LEVEL;
+		}
+		int oldLevel = level;
+		Synthesizer.Params params = synth.getParams();
+		if (oldLevel == LEVEL_FULL_QUALITY) {
+			if (newLevel == LEVEL_FULL_QUALITY) {
+				// nothing to restore
+				return;
+			}
+			savedInterpolation = params.getInterpolation();
+			savedFilterBypass = params.isFilterBypass();
+			savedMaxReleaseTime = params.getMaxReleaseTime();
+			savedPolyphonyLimit = synth.getPolyphonyLimit();
+		}
+		params.setInterpolation((newLevel >= LEVEL_DROP_SAMPLE)
+				? Oscillator.INTERPOLATION_DROP_SAMPLE : savedInterpolation);
+		params.setFilterBypass(savedFilterBypass
+				|| newLevel >= LEVEL_FILTER_BYPASS);
+		params.setMaxReleaseTime((newLevel >= LEVEL_SHORT_RELEASE)
+				? lowerLimit(savedMaxReleaseTime, shortReleaseTime)
+				: savedMaxReleaseTime);
+		synth.setPolyphonyLimit((newLevel >= LEVEL_REDUCED_POLYPHONY)
+				? (int) lowerLimit(savedPolyphonyLimit, reducedPolyphony)
+				: savedPolyphonyLimit);
+
+		if (newLevel == oldLevel) {
+			return;
+		}
+		level = newLevel;
+		changeCount++;
+		if (DEBUG_GOVERNOR) {
+			debug("LoadGovernor: load " + format1(atLoad) + "%: "
+					+ levelToString(oldLevel) + " -> "
+					+ levelToString(newLevel));
+		}
+		if (eventHandler != null) {
+			eventHandler.invokeLater(new Event(changeCount, oldLevel,
+					newLevel, atLoad));
+		}
+	}
+
+	/**
+	 * @return the lower one of the 2 limits, where 0 means no limit
+	 */
+	private static double lowerLimit(double limit1, double limit2) {
+		if (limit1 <= 0.0 || (limit2 > 0.0 && limit2 < limit1)) {
+			return limit2;
+		}
+		return limit1;
+	}
+
+	// interface AsynchExec.Listener
+	public void onAsynchronousExecution(Event event) {
+		for (Listener l : listeners) {
+			l.qualityChanged(this, event);
+		}
+	}
+
+	/**
+	 * @return a descriptive name of the quality level
+	 */
+	public static String levelToString(int level) {
+		if (level >= 0 && level < LEVEL_NAMES.length) {
+			return LEVEL_NAMES[level];
+		}
+		return "level " + level;
+	}
+
+	public String toString() {
+		return "LoadGovernor: " + levelToString(level) + ", load "
+				+ format1(load) + "%, " + changeCount + " changes";
+	}
+
+	/**
+	 * A change of the quality level.
+	 */
+	public static class Event implements Comparable<Event> {
+		private final long sequence;
+		private final int oldLevel;
+		private final int newLevel;
+		private final double loadPercent;
+
+		Event(long sequence, int oldLevel, int newLevel, double loadPercent) {
+			this.sequence = sequence;
+			this.oldLevel = oldLevel;
+			this.newLevel = newLevel;
+			this.loadPercent = loadPercent;
+		}
+
+		/**
+		 * @return the running number of this change, starting with 1
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return the quality level before the change
+		 */
+		public int getOldLevel() {
+			return oldLevel;
+		}
+
+		/**
+		 * @return the quality level after the change
+		 */
+		public int getNewLevel() {
+			return newLevel;
+		}
+
+		/**
+		 * @return the smoothed load in percent that caused the change
+		 */
+		public double getLoadPercent() {
+			return loadPercent;
+		}
+
+		/**
+		 * @return true if the quality was reduced
+		 */
+		public boolean isDegradation() {
+			return newLevel > oldLevel;
+		}
+
+		public int compareTo(Event e) {
+			return (sequence < e.sequence) ? -1
+					: ((sequence == e.sequence) ? 0 : 1);
+		}
+
+		public String toString() {
+			return "#" + sequence + ": load " + format1(loadPercent) + "%: "
+					+ levelToString(oldLevel) + " -> "
+					+ levelToString(newLevel);
+		}
+	}
+
+	/**
+	 * Listener interface for quality level changes. The listeners are called
+	 * asynchronously, i.e. not in the rendering thread.
+	 */
+	public interface Listener {
+		public void qualityChanged(LoadGovernor governor, Event event);
+	}
+}
@@ -38,6 +38,7 @@ import java.util.*;
  */
 public class MaintenanceThread implements Runnable {
 	public static boolean DEBUG_MAINTENANCE = false;
+	public static boolean DEBUG_POOLS = false;
 	
 	/**
 	 * flag to notify the thread to stop
@@ -270,6 +271,11 @@ public class MaintenanceThread implements Runnable {
 				} catch (Exception e) {
 					debug(e);
 				}
+				if (DEBUG_POOLS) {
+					for (ObjectPool<?> pool : ObjectPool.getPools()) {
+						debug("Mainten: " + pool);
+					}
+				}
 			}
 		}
 
@@ -78,4 +78,28 @@ public interface MidiIn extends AdjustableAudioClock {
 		 */
 		public void midiInReceived(MidiEvent event);
 	}
+
+	/**
+	 * Extended listener interface for listeners that can receive short MIDI
+	 * messages as primitive values. MidiIn implementations should call this
+	 * method instead of midiInReceived(MidiEvent) for short messages, so
+	 * that no MidiEvent object needs to be created for every incoming
+	 * message.
+	 */
+	public interface ShortMessageListener extends Listener {
+		/**
+		 * Sent to the listener upon an incoming short MIDI message.
+		 *
+		 * @param source the MidiIn instance that received the message, or
+		 *            null
+		 * @param nanoTime the time of the message in nanoseconds, or 0 for
+		 *            "now"
+		 * @param channel the 0-based MIDI channel
+		 * @param status the status byte, without channel for channel messages
+		 * @param data1 1st MIDI data byte
+		 * @param data2 2nd MIDI data byte
+		 */
+		public void midiInReceived(MidiIn source, long nanoTime, int channel,
+				int status, int data1, int data2);
+	}
 }
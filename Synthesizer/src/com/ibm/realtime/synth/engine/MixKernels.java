@@ -0,0 +1,685 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+/**
+ * The inner loops (kernels) for mixing voices and for sample rate conversion
+ * with linear interpolation. All voices of the synthesizer pass through
+ * these loops for every rendered slice, so they dominate the render time at
+ * high polyphony.
+ * <p>
+ * There are 2 implementations:
+ * <ul>
+ * <li>SCALAR: straight-forward loops, the reference implementation.</li>
+ * <li>UNROLLED: the single precision gain ramps and interpolation loops are
+ * unrolled 4 times. The gain ramps are calculated in 4 independent lanes,
+ * removing the dependency of every sample on the previous sample's gain, so
+ * that the JIT compiler can schedule (or vectorize) the lanes in parallel.
+ * Because of that, the gain values of the ramps may differ from the SCALAR
+ * version in the last bits. All other kernels give identical results.</li>
+ * </ul>
+ * The implementation is selected at startup with the system property
+ * <code>synth.kernels</code> (<code>scalar</code>, <code>unrolled</code>, or
+ * <code>auto</code>, which is the default). In auto mode, the unrolled kernels
+ * are used unless the VM runs in interpreted mode. Further implementations,
+ * e.g. based on explicit vector instructions, can be added as subclasses and
+ * set with set().
+ * 
+ * @author florian
+ */
+public abstract class MixKernels {
+
+	public static boolean DEBUG_KERNELS = false;
+
+	/**
+	 * The name of the system property to select the kernels.
+	 */
+	public static final String PROPERTY_NAME = "synth.kernels";
+
+	private static final double INV_TWO_POWER_15 = 1.0 / 32768.0;
+
+	/**
+	 * The reference implementation with simple loops.
+	 */
+	public static final MixKernels SCALAR = new Scalar();
+
+	/**
+	 * The implementation with 4 times unrolled loops.
+	 */
+	public static final MixKernels UNROLLED = new Unrolled();
+
+	private static final MixKernels[] all = {
+			SCALAR, UNROLLED
+	};
+
+	/**
+	 * The currently used kernels.
+	 */
+	private static volatile MixKernels current = select();
+
+	private final String name;
+
+	protected MixKernels(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Select the kernels according to the system property and the
+	 * capabilities of the VM.
+	 */
+	private static MixKernels select() {
+		String prop = null;
+		try {
+			prop = System.getProperty(PROPERTY_NAME);
+		} catch (SecurityException se) {
+			// use auto mode
+		}
+		MixKernels result = null;
+		if (prop != null && !prop.equals("auto")) {
+			result = forName(prop);
+			if (result == null) {
+				error("MixKernels: unknown kernels '" + prop
+						+ "', using auto selection");
+			}
+		}
+		if (result == null) {
+			String vmInfo = System.getProperty("java.vm.info", "");
+			if (vmInfo.indexOf("interpreted") >= 0) {
+				// unrolling does not help the interpreter
+				result = SCALAR;
+			} else {
+				result = UNROLLED;
+			}
+		}
+		if (DEBUG_KERNELS) {
+			debug("MixKernels: using " + result.getName() + " kernels");
+		}
+		return result;
+	}
+
+	/**
+	 * @return the currently used kernels
+	 */
+	public static MixKernels get() {
+		return current;
+	}
+
+	/**
+	 * Set the kernels to be used from now on.
+	 * 
+	 * @param kernels the new kernels
+	 */
+	public static void set(MixKernels kernels) {
+		if (kernels == null) {
+			throw new NullPointerException("kernels must not be null");
+		}
+		if (DEBUG_KERNELS) {
+			debug("MixKernels: switching to " + kernels.getName() + " kernels");
+		}
+		current = kernels;
+	}
+
+	/**
+	 * @return all available kernel implementations
+	 */
+	public static MixKernels[] getAll() {
+		MixKernels[] result = new MixKernels[all.length];
+		System.arraycopy(all, 0, result, 0, all.length);
+		return result;
+	}
+
+	/**
+	 * @param name the name of the kernels, case insensitive
+	 * @return the kernels with the given name, or null if not found
+	 */
+	public static MixKernels forName(String name) {
+		for (MixKernels k : all) {
+			if (k.getName().equalsIgnoreCase(name)) {
+				return k;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the name of these kernels
+	 */
+	public String getName() {
+		return name;
+	}
+
+	public String toString() {
+		return name;
+	}
+
+	// MIXING
+
+	/**
+	 * Add <code>count</code> samples of src to dest.
+	 */
+	public abstract void mix(double[] src, int srcOffset, double[] dest,
+			int destOffset, int count);
+
+	/**
+	 * Add <code>count</code> samples of src to dest.
+	 */
+	public abstract void mix(float[] src, int srcOffset, float[] dest,
+			int destOffset, int count);
+
+	/**
+	 * Add <code>count</code> samples of src to the single precision dest.
+	 */
+	public abstract void mix(double[] src, int srcOffset, float[] dest,
+			int destOffset, int count);
+
+	/**
+	 * Add <code>count</code> samples of src, multiplied with a linear gain
+	 * ramp, to dest. The gain of the first sample is vol, and it is increased
+	 * by volInc for every sample.
+	 */
+	public abstract void mixRamp(double[] src, double[] dest,
+			int destOffset, int count, double vol, double volInc);
+
+	/**
+	 * Add the single precision src with a gain ramp to dest.
+	 * 
+	 * @see #mixRamp(double[], double[], int, int, double, double)
+	 */
+	public abstract void mixRamp(float[] src, double[] dest, int destOffset,
+			int count, double vol, double volInc);
+
+	/**
+	 * Add src with a gain ramp to the single precision dest. The product is
+	 * calculated in double precision.
+	 * 
+	 * @see #mixRamp(double[], double[], int, int, double, double)
+	 */
+	public abstract void mixRamp(double[] src, float[] dest, int destOffset,
+			int count, double vol, double volInc);
+
+	/**
+	 * Add src with a gain ramp to dest, in single precision.
+	 * 
+	 * @see #mixRamp(double[], double[], int, int, double, double)
+	 */
+	public abstract void mixRamp(float[] src, float[] dest, int destOffset,
+			int count, float vol, float volInc);
+
+	/**
+	 * Add the mono src with 2 different gain ramps to the stereo channels
+	 * dest1 and dest2.
+	 * 
+	 * @see #mixRamp(double[], double[], int, int, double, double)
+	 */
+	public abstract void mixRampStereo(double[] src, double[] dest1,
+			double[] dest2, int destOffset, int count, double vol1,
+			double volInc1, double vol2, double volInc2);
+
+	/**
+	 * Add the mono src with 2 different gain ramps to the stereo channels
+	 * dest1 and dest2, in single precision.
+	 * 
+	 * @see #mixRamp(double[], double[], int, int, double, double)
+	 */
+	public abstract void mixRampStereo(float[] src, float[] dest1,
+			float[] dest2, int destOffset, int count, float vol1,
+			float volInc1, float vol2, float volInc2);
+
+	// INTERPOLATION
+
+	/**
+	 * Sample rate conversion with linear interpolation from 16-bit samples.
+	 * 
+	 * @see ConversionTool#short2doubleLSRC(short[], double, double, double[],
+	 *      int, int)
+	 */
+	public abstract void interpolate(short[] input, double inSamplePos,
+			double inSampleStep, double[] output, int outOffset,
+			int sampleCount);
+
+	/**
+	 * @see ConversionTool#short2floatLSRC(short[], double, double, float[],
+	 *      int, int)
+	 */
+	public abstract void interpolate(short[] input, double inSamplePos,
+			double inSampleStep, float[] output, int outOffset,
+			int sampleCount);
+
+	/**
+	 * @see ConversionTool#float2doubleLSRC(float[], double, double, double[],
+	 *      int, int)
+	 */
+	public abstract void interpolate(float[] input, double inSamplePos,
+			double inSampleStep, double[] output, int outOffset,
+			int sampleCount);
+
+	/**
+	 * @see ConversionTool#float2floatLSRC(float[], double, double, float[],
+	 *      int, int)
+	 */
+	public abstract void interpolate(float[] input, double inSamplePos,
+			double inSampleStep, float[] output, int outOffset,
+			int sampleCount);
+
+	/**
+	 * Sample rate conversion with linear interpolation from 16-bit signed
+	 * little endian mono samples in a byte array.
+	 * 
+	 * @see ConversionTool#byte2doubleGenericLSRC(byte[], int, int, double,
+	 *      double, double[], int, int, int)
+	 */
+	public abstract void interpolate16SL(byte[] input, int inByteOffset,
+			double inSamplePos, double inSampleStep, double[] output,
+			int outOffset, int sampleCount);
+
+	/**
+	 * @see ConversionTool#byte2floatGenericLSRC(byte[], int, int, double,
+	 *      double, float[], int, int, int)
+	 */
+	public abstract void interpolate16SL(byte[] input, int inByteOffset,
+			double inSamplePos, double inSampleStep, float[] output,
+			int outOffset, int sampleCount);
+
+	private static final int sample16SL(byte[] input, int index) {
+		return (input[index + 1] << 8) | (input[index] & 0xFF);
+	}
+
+	/**
+	 * The reference implementation.
+	 */
+	private static class Scalar extends MixKernels {
+
+		Scalar() {
+			super("scalar");
+		}
+
+		Scalar(String name) {
+			super(name);
+		}
+
+		public void mix(double[] src, int srcOffset, double[] dest,
+				int destOffset, int count) {
+			for (int i = 0; i < count; i++) {
+				dest[destOffset + i] += src[srcOffset + i];
+			}
+		}
+
+		public void mix(float[] src, int srcOffset, float[] dest,
+				int destOffset, int count) {
+			for (int i = 0; i < count; i++) {
+				dest[destOffset + i] += src[srcOffset + i];
+			}
+		}
+
+		public void mix(double[] src, int srcOffset, float[] dest,
+				int destOffset, int count) {
+			for (int i = 0; i < count; i++) {
+				dest[destOffset + i] += (float) src[srcOffset + i];
+			}
+		}
+
+		public void mixRamp(double[] src, double[] dest, int destOffset,
+				int count, double vol, double volInc) {
+			for (int i = 0; i < count; i++) {
+				dest[i + destOffset] += (vol * src[i]);
+				vol += volInc;
+			}
+		}
+
+		public void mixRamp(float[] src, double[] dest, int destOffset,
+				int count, double vol, double volInc) {
+			for (int i = 0; i < count; i++) {
+				dest[i + destOffset] += (vol * src[i]);
+				vol += volInc;
+			}
+		}
+
+		public void mixRamp(double[] src, float[] dest, int destOffset,
+				int count, double vol, double volInc) {
+			for (int i = 0; i < count; i++) {
+				dest[i + destOffset] += (float) (vol * src[i]);
+				vol += volInc;
+			}
+		}
+
+		public void mixRamp(float[] src, float[] dest, int destOffset,
+				int count, float vol, float volInc) {
+			for (int i = 0; i < count; i++) {
+				dest[i + destOffset] += (vol * src[i]);
+				vol += volInc;
+			}
+		}
+
+		public void mixRampStereo(double[] src, double[] dest1,
+				double[] dest2, int destOffset, int count, double vol1,
+				double volInc1, double vol2, double volInc2) {
+			int index = destOffset;
+			for (int i = 0; i < count; i++) {
+				double sample = src[i];
+				dest1[index] += (vol1 * sample);
+				dest2[index++] += (vol2 * sample);
+				vol1 += volInc1;
+				vol2 += volInc2;
+			}
+		}
+
+		public void mixRampStereo(float[] src, float[] dest1, float[] dest2,
+				int destOffset, int count, float vol1, float volInc1,
+				float vol2, float volInc2) {
+			int index = destOffset;
+			for (int i = 0; i < count; i++) {
+				float sample = src[i];
+				dest1[index] += (vol1 * sample);
+				dest2[index++] += (vol2 * sample);
+				vol1 += volInc1;
+				vol2 += volInc2;
+			}
+		}
+
+		public void interpolate(short[] input, double inSamplePos,
+				double inSampleStep, double[] output, int outOffset,
+				int sampleCount) {
+			int endCount = outOffset + sampleCount;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+					inSampleStep) {
+				int index1 = (int) inSamplePos;
+				double sample1 = input[index1];
+				double sample2 = input[index1 + 1];
+				output[outIndex] =
+						(sample1 + (inSamplePos - index1) * (sample2 - sample1))
+								* INV_TWO_POWER_15;
+			}
+		}
+
+		public void interpolate(short[] input, double inSamplePos,
+				double inSampleStep, float[] output, int outOffset,
+				int sampleCount) {
+			int endCount = outOffset + sampleCount;
+			float factor = (float) INV_TWO_POWER_15;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+					inSampleStep) {
+				int index1 = (int) inSamplePos;
+				float sample1 = input[index1];
+				float sample2 = input[index1 + 1];
+				float factor2 = (float) (inSamplePos - index1);
+				output[outIndex] =
+						(sample1 + factor2 * (sample2 - sample1)) * factor;
+			}
+		}
+
+		public void interpolate(float[] input, double inSamplePos,
+				double inSampleStep, double[] output, int outOffset,
+				int sampleCount) {
+			int endCount = outOffset + sampleCount;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+					inSampleStep) {
+				int index1 = (int) inSamplePos;
+				double sample1 = input[index1];
+				double sample2 = input[index1 + 1];
+				output[outIndex] =
+						sample1 + (inSamplePos - index1) * (sample2 - sample1);
+			}
+		}
+
+		public void interpolate(float[] input, double inSamplePos,
+				double inSampleStep, float[] output, int outOffset,
+				int sampleCount) {
+			int endCount = outOffset + sampleCount;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+					inSampleStep) {
+				int index1 = (int) inSamplePos;
+				float sample1 = input[index1];
+				float sample2 = input[index1 + 1];
+				float factor2 = (float) (inSamplePos - index1);
+				output[outIndex] = sample1 + factor2 * (sample2 - sample1);
+			}
+		}
+
+		public void interpolate16SL(byte[] input, int inByteOffset,
+				double inSamplePos, double inSampleStep, double[] output,
+				int outOffset, int sampleCount) {
+			int endCount = outOffset + sampleCount;
+			double sample1 = 0.0;
+			double sample2 = 0.0;
+			int index1 = -2; // impossible value to make sure both initial
+			// samples are calculated
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+					inSampleStep) {
+				int newIndex1 = (int) inSamplePos;
+				if (newIndex1 != index1) {
+					int byteIndex1 = (newIndex1 << 1) + inByteOffset;
+					if ((index1 + 1) == newIndex1) {
+						sample1 = sample2;
+					} else {
+						sample1 = ((double) sample16SL(input, byteIndex1))
+								* INV_TWO_POWER_15;
+					}
+					sample2 = ((double) sample16SL(input, byteIndex1 + 2))
+							* INV_TWO_POWER_15;
+				}
+				index1 = newIndex1;
+				double factor2 = inSamplePos - index1;
+				double factor1 = 1.0 - factor2;
+				output[outIndex] = ((factor1 * sample1) + (factor2 * sample2));
+			}
+		}
+
+		public void interpolate16SL(byte[] input, int inByteOffset,
+				double inSamplePos, double inSampleStep, float[] output,
+				int outOffset, int sampleCount) {
+			int endCount = outOffset + sampleCount;
+			float sample1 = 0.0f;
+			float sample2 = 0.0f;
+			int index1 = -2;
+			for (int outIndex = outOffset; outIndex < endCount; outIndex++, inSamplePos +=
+					inSampleStep) {
+				int newIndex1 = (int) inSamplePos;
+				if (newIndex1 != index1) {
+					int byteIndex1 = (newIndex1 << 1) + inByteOffset;
+					if ((index1 + 1) == newIndex1) {
+						sample1 = sample2;
+					} else {
+						sample1 = (float) (((double) sample16SL(input,
+								byteIndex1)) * INV_TWO_POWER_15);
+					}
+					sample2 = (float) (((double) sample16SL(input,
+							byteIndex1 + 2)) * INV_TWO_POWER_15);
+				}
+				index1 = newIndex1;
+				float factor2 = (float) (inSamplePos - index1);
+				output[outIndex] = sample1 + factor2 * (sample2 - sample1);
+			}
+		}
+	}
+
+	/**
+	 * The implementation with unrolled loops for the single precision
+	 * kernels. The remainder of the count that is not a multiple of 4 is processed
+	 * in a simple loop.
+	 */
+	private static class Unrolled extends Scalar {
+
+		Unrolled() {
+			super("unrolled");
+		}
+
+		// The simple mixing loops and all double precision kernels are
+		// inherited from the scalar kernels: the server compiler vectorizes
+		// the simple loops on its own, and manual unrolling prevents that.
+		// The double precision kernels did not profit from unrolling.
+
+		public void mixRamp(float[] src, float[] dest, int destOffset,
+				int count, float vol, float volInc) {
+			int i = 0;
+			int end4 = count & ~3;
+			int d = destOffset;
+			float inc4 = 4.0f * volInc;
+			float v0 = vol;
+			float v1 = vol + volInc;
+			float v2 = vol + 2.0f * volInc;
+			float v3 = vol + 3.0f * volInc;
+			for (; i < end4; i += 4, d += 4) {
+				dest[d] += v0 * src[i];
+				dest[d + 1] += v1 * src[i + 1];
+				dest[d + 2] += v2 * src[i + 2];
+				dest[d + 3] += v3 * src[i + 3];
+				v0 += inc4;
+				v1 += inc4;
+				v2 += inc4;
+				v3 += inc4;
+			}
+			for (; i < count; i++) {
+				dest[d++] += v0 * src[i];
+				v0 += volInc;
+			}
+		}
+
+		public void mixRampStereo(float[] src, float[] dest1, float[] dest2,
+				int destOffset, int count, float vol1, float volInc1,
+				float vol2, float volInc2) {
+			int i = 0;
+			int end4 = count & ~3;
+			int d = destOffset;
+			float inc41 = 4.0f * volInc1;
+			float inc42 = 4.0f * volInc2;
+			float v10 = vol1;
+			float v11 = vol1 + volInc1;
+			float v12 = vol1 + 2.0f * volInc1;
+			float v13 = vol1 + 3.0f * volInc1;
+			float v20 = vol2;
+			float v21 = vol2 + volInc2;
+			float v22 = vol2 + 2.0f * volInc2;
+			float v23 = vol2 + 3.0f * volInc2;
+			for (; i < end4; i += 4, d += 4) {
+				float s0 = src[i];
+				float s1 = src[i + 1];
+				float s2 = src[i + 2];
+				float s3 = src[i + 3];
+				dest1[d] += v10 * s0;
+				dest1[d + 1] += v11 * s1;
+				dest1[d + 2] += v12 * s2;
+				dest1[d + 3] += v13 * s3;
+				dest2[d] += v20 * s0;
+				dest2[d + 1] += v21 * s1;
+				dest2[d + 2] += v22 * s2;
+				dest2[d + 3] += v23 * s3;
+				v10 += inc41;
+				v11 += inc41;
+				v12 += inc41;
+				v13 += inc41;
+				v20 += inc42;
+				v21 += inc42;
+				v22 += inc42;
+				v23 += inc42;
+			}
+			for (; i < count; i++, d++) {
+				float sample = src[i];
+				dest1[d] += v10 * sample;
+				dest2[d] += v20 * sample;
+				v10 += volInc1;
+				v20 += volInc2;
+			}
+		}
+
+		// the interpolation kernels advance the sample position serially like
+		// the scalar kernels, so that the results are identical. In single
+		// precision, the 4 independent conversions help the compiler.
+
+		public void interpolate(short[] input, double inSamplePos,
+				double inSampleStep, float[] output, int outOffset,
+				int sampleCount) {
+			float factor = (float) INV_TWO_POWER_15;
+			int o = outOffset;
+			int end = outOffset + sampleCount;
+			int end4 = outOffset + (sampleCount & ~3);
+			for (; o < end4; o += 4) {
+				double p0 = inSamplePos;
+				double p1 = p0 + inSampleStep;
+				double p2 = p1 + inSampleStep;
+				double p3 = p2 + inSampleStep;
+				inSamplePos = p3 + inSampleStep;
+				int i0 = (int) p0;
+				int i1 = (int) p1;
+				int i2 = (int) p2;
+				int i3 = (int) p3;
+				float a0 = input[i0];
+				float a1 = input[i1];
+				float a2 = input[i2];
+				float a3 = input[i3];
+				output[o] = (a0 + ((float) (p0 - i0)) * (input[i0 + 1] - a0))
+						* factor;
+				output[o + 1] = (a1 + ((float) (p1 - i1)) * (input[i1 + 1] - a1))
+						* factor;
+				output[o + 2] = (a2 + ((float) (p2 - i2)) * (input[i2 + 1] - a2))
+						* factor;
+				output[o + 3] = (a3 + ((float) (p3 - i3)) * (input[i3 + 1] - a3))
+						* factor;
+			}
+			for (; o < end; o++, inSamplePos += inSampleStep) {
+				int i0 = (int) inSamplePos;
+				float a0 = input[i0];
+				output[o] = (a0 + ((float) (inSamplePos - i0))
+						* (input[i0 + 1] - a0))
+						* factor;
+			}
+		}
+
+		public void interpolate(float[] input, double inSamplePos,
+				double inSampleStep, float[] output, int outOffset,
+				int sampleCount) {
+			int o = outOffset;
+			int end = outOffset + sampleCount;
+			int end4 = outOffset + (sampleCount & ~3);
+			for (; o < end4; o += 4) {
+				double p0 = inSamplePos;
+				double p1 = p0 + inSampleStep;
+				double p2 = p1 + inSampleStep;
+				double p3 = p2 + inSampleStep;
+				inSamplePos = p3 + inSampleStep;
+				int i0 = (int) p0;
+				int i1 = (int) p1;
+				int i2 = (int) p2;
+				int i3 = (int) p3;
+				float a0 = input[i0];
+				float a1 = input[i1];
+				float a2 = input[i2];
+				float a3 = input[i3];
+				output[o] = a0 + ((float) (p0 - i0)) * (input[i0 + 1] - a0);
+				output[o + 1] = a1 + ((float) (p1 - i1)) * (input[i1 + 1] - a1);
+				output[o + 2] = a2 + ((float) (p2 - i2)) * (input[i2 + 1] - a2);
+				output[o + 3] = a3 + ((float) (p3 - i3)) * (input[i3 + 1] - a3);
+			}
+			for (; o < end; o++, inSamplePos += inSampleStep) {
+				int i0 = (int) inSamplePos;
+				float a0 = input[i0];
+				output[o] = a0 + ((float) (inSamplePos - i0))
+						* (input[i0 + 1] - a0);
+			}
+		}
+	}
+}
@@ -28,6 +28,8 @@ package com.ibm.realtime.synth.engine;
 import static com.ibm.realtime.synth.utils.AudioUtils.*;
 import static com.ibm.realtime.synth.utils.Debug.*;
 
+import java.util.Arrays;
+
 import com.ibm.realtime.synth.engine.Synthesizer.Params;
 
 /**
@@ -58,7 +60,7 @@ import com.ibm.realtime.synth.engine.Synthesizer.Params;
  * 
  * @author florian
  */
-public class NoteInput implements AudioInput, Renderable {
+public class NoteInput implements FloatAudioInput, Renderable {
 
 	public static boolean DEBUG_NOTEINPUT = false;
 	public static boolean DEBUG_NOTEINPUT_IO = false;
@@ -69,7 +71,9 @@ public class NoteInput implements AudioInput, Renderable {
 	private final static int MAX_OUTPUT_CHANNELS = 16;
 
 	/**
-	 * Pitch changes are only recognized in this interval, in nanoseconds
+	 * Pitch changes are only recognized in this interval, in nanoseconds, if
+	 * the conversion tables are disabled. Otherwise, the pitch is calculated
+	 * for every slice, or for every control block.
 	 */
 	private final static int PITCH_CHANGE_INTERVAL = 10000000;
 
@@ -106,9 +110,16 @@ public class NoteInput implements AudioInput, Renderable {
 	private Patch patch;
 
 	/**
-	 * The temporary rendering buffer
+	 * The temporary rendering buffer. Null if this note renders in single
+	 * precision.
 	 */
-	private AudioBuffer tempBuffer = new AudioBuffer(1, 0, 44100.0);
+	private AudioBuffer tempBuffer;
+
+	/**
+	 * The temporary rendering buffer for single precision rendering. Null if
+	 * this note renders in double precision.
+	 */
+	private FloatAudioBuffer floatTempBuffer;
 
 	/**
 	 * The oscillator for rendering
@@ -142,6 +153,38 @@ public class NoteInput implements AudioInput, Renderable {
 	 */
 	private long insertionTime;
 
+	/**
+	 * the time when this note was started, in nanoseconds. Other than
+	 * insertionTime, this field is not reset once the note is playing.
+	 */
+	private long startTime;
+
+	/**
+	 * flag set once the release segment was entered (i.e. the note off was
+	 * processed and not inhibited by sustain or sostenuto).
+	 */
+	private boolean released = false;
+
+	/**
+	 * The time when the release segment was entered, in nanoseconds.
+	 */
+	private long releaseTime;
+
+	/**
+	 * Set if this note was found inaudible. The remaining slice is faded out
+	 * without rendering.
+	 */
+	private boolean silent = false;
+
+	/**
+	 * Set while the channel gain of this note is at or below the silence
+	 * threshold, e.g. because of a volume controller or a master volume of
+	 * 0. The articulation is still calculated, but the oscillator is not
+	 * converted. Other than a silent note, the note is rendered again when
+	 * the gain is raised.
+	 */
+	private boolean muted = false;
+
 	/**
 	 * Initial rendering volume of the buffer. Each value is for an output
 	 * channel. For stereo, the first element is for the left channel, and the
@@ -190,11 +233,87 @@ public class NoteInput implements AudioInput, Renderable {
 	 */
 	private long nextPitchChange = 0;
 
+	/**
+	 * The control block size in samples, or 0 if the articulation is
+	 * calculated once per slice. Fixed when the note is started.
+	 */
+	private int controlBlockSize = 0;
+
+	/**
+	 * The number of samples left in the current control block.
+	 */
+	private int controlSamplesLeft = 0;
+
+	/**
+	 * The current control rate volume factor, ramped per sample.
+	 */
+	private double controlGain = 0.0;
+
+	/**
+	 * The increment of controlGain per sample in the current control block.
+	 */
+	private double controlGainInc = 0.0;
+
+	/**
+	 * The sample rate factor of the current control block, including master
+	 * tuning.
+	 */
+	private double controlSampleRateFactor = 0.0;
+
 	/**
 	 * The number of samples rendered in the render method.
 	 */
 	private int renderSampleCount = 0;
 
+	/**
+	 * The duration of rendering the last slice, in nanoseconds
+	 */
+	private volatile long renderCost = 0;
+
+	/**
+	 * The start time of the slice that is currently rendered, or that was
+	 * rendered last. A slice may be rendered in several parts, see
+	 * renderUntil().
+	 */
+	private long sliceTime = -1;
+
+	/**
+	 * The number of samples of the current slice, including outSampleOffset.
+	 */
+	private int sliceCount = 0;
+
+	/**
+	 * The position in the temporary buffer up to which the current slice is
+	 * rendered.
+	 */
+	private int slicePos = 0;
+
+	/**
+	 * The accumulated time spent rendering the parts of the current slice, in
+	 * nanoseconds.
+	 */
+	private long sliceRenderNanos = 0;
+
+	/**
+	 * The pool of recycled NoteInput instances
+	 */
+	private static final ObjectPool<NoteInput> pool =
+			new ObjectPool<NoteInput>("NoteInput", ObjectPool.DEFAULT_CAPACITY);
+
+	/**
+	 * The mixer's reader epoch when this instance was removed from the mixer,
+	 * or -1 if it is not waiting to be recycled. Only accessed by the
+	 * AudioMixer.
+	 */
+	long recycleStamp = -1;
+
+	/**
+	 * The first instance of the linked instances this instance belongs to, or
+	 * this instance if it is not linked. Used by the AudioMixer to recycle
+	 * linked instances together.
+	 */
+	NoteInput firstLinkedNoteInput = this;
+
 	/**
 	 * Create a NoteInput stream.
 	 * 
@@ -209,20 +328,128 @@ public class NoteInput implements AudioInput, Renderable {
 	public NoteInput(Synthesizer.Params params, AudioTime time,
 			MidiChannel channel, Patch patch, Oscillator osc, Articulation art,
 			int note, int vel) {
+		init(params, time, channel, patch, osc, art, note, vel);
+	}
+
+	/**
+	 * Return a NoteInput stream, either a recycled instance from the pool, or
+	 * a new instance. The parameters are the same as for the constructor.
+	 */
+	public static NoteInput obtain(Synthesizer.Params params, AudioTime time,
+			MidiChannel channel, Patch patch, Oscillator osc, Articulation art,
+			int note, int vel) {
+		NoteInput result = pool.obtain();
+		if (result == null) {
+			return new NoteInput(params, time, channel, patch, osc, art, note,
+					vel);
+		}
+		result.init(params, time, channel, patch, osc, art, note, vel);
+		return result;
+	}
+
+	/**
+	 * @return the pool of recycled NoteInput instances
+	 */
+	public static ObjectPool<NoteInput> getPool() {
+		return pool;
+	}
+
+	/**
+	 * (Re-)initialize all fields of this instance.
+	 */
+	private final void init(Synthesizer.Params params, AudioTime time,
+			MidiChannel channel, Patch patch, Oscillator osc, Articulation art,
+			int note, int vel) {
 		this.synthParams = params;
 		this.channel = channel;
 		this.patch = patch;
 		this.osc = osc;
 		this.art = art;
 		this.note = note;
+		this.triggerNote = 0;
 		this.insertionTime = time.getNanoTime();
+		this.startTime = insertionTime;
+		// keep the temp buffer of a recycled instance, if the precision
+		// did not change
+		if (params.isFloatRendering()) {
+			if (floatTempBuffer == null) {
+				floatTempBuffer = new FloatAudioBuffer(1, 0, 44100.0);
+			} else {
+				floatTempBuffer.changeSampleCount(0, false);
+			}
+			tempBuffer = null;
+		} else {
+			if (tempBuffer == null) {
+				tempBuffer = new AudioBuffer(1, 0, 44100.0);
+			} else {
+				tempBuffer.changeSampleCount(0, false);
+			}
+			floatTempBuffer = null;
+		}
+		outSampleOffset = 0;
+		lastRenderTime = -1;
+		eofReached = false;
+		doFadeOut = false;
+		released = false;
+		releaseTime = 0;
+		silent = false;
+		muted = false;
+		linkedNoteInput = null;
+		inhibitedRelease = false;
+		sostenuto = false;
+		lastRelativePitch = -100000.0;
+		lastSampleRateFactor = 0.0;
+		nextPitchChange = 0;
+		controlBlockSize = params.getControlBlockSize();
+		controlSamplesLeft = 0;
+		controlGainInc = 0.0;
+		controlSampleRateFactor = 0.0;
+		renderSampleCount = 0;
+		renderCost = 0;
+		sliceTime = -1;
+		sliceCount = 0;
+		slicePos = 0;
+		sliceRenderNanos = 0;
+		recycleStamp = -1;
+		firstLinkedNoteInput = this;
+		for (int i = 0; i < MAX_OUTPUT_CHANNELS; i++) {
+			initialVolFactor[i] = 0.0;
+			finalVolFactor[i] = 0.0;
+		}
 		art.setup(note, vel);
 		// setup initial volume. Use the "finalVolFactor" values
 		// because that will become the initialVolFactor after rendering
 		// the first buffer
 		double masterVolume = synthParams.getMasterVolumeInternal();
-		finalVolFactor[0] = masterVolume * art.getEffectiveVolumeFactor(0);
-		finalVolFactor[1] = masterVolume * art.getEffectiveVolumeFactor(1);
+		if (controlBlockSize > 0) {
+			// the control rate factor is applied while rendering
+			finalVolFactor[0] = masterVolume * art.getChannelVolumeFactor(0);
+			finalVolFactor[1] = masterVolume * art.getChannelVolumeFactor(1);
+			controlGain = art.getControlVolumeFactor();
+		} else {
+			finalVolFactor[0] = masterVolume * art.getEffectiveVolumeFactor(0);
+			finalVolFactor[1] = masterVolume * art.getEffectiveVolumeFactor(1);
+			controlGain = 1.0;
+		}
+	}
+
+	/**
+	 * Give this instance, its articulation and its oscillator back to their
+	 * pools. Called by the mixer once no thread can access this instance
+	 * anymore. This instance remains done() until it is re-initialized.
+	 */
+	void recycle() {
+		eofReached = true;
+		art.recycle();
+		osc.recycle();
+		synthParams = null;
+		channel = null;
+		patch = null;
+		osc = null;
+		art = null;
+		linkedNoteInput = null;
+		firstLinkedNoteInput = this;
+		pool.recycle(this);
 	}
 
 	/**
@@ -297,38 +524,91 @@ public class NoteInput implements AudioInput, Renderable {
 	 */
 	public void setLinkedNoteInput(NoteInput linkedNoteInput) {
 		this.linkedNoteInput = linkedNoteInput;
+		if (linkedNoteInput != null && linkedNoteInput != firstLinkedNoteInput) {
+			linkedNoteInput.firstLinkedNoteInput = firstLinkedNoteInput;
+		}
 	}
 
 	/**
-	 * Read a rendered buffer (type 1).
+	 * Render this note, if necessary, and return the number of samples that
+	 * can be mixed to the output buffer at position outSampleOffset.
 	 */
-	public synchronized final void read(AudioTime time, AudioBuffer buffer,
-			int offset, int count) {
-
-		if (done()) return;
-
+	private final int prepareRead(long nanoTime, double sampleRate, int count) {
 		// store current sample rate and sample count for the render() method
-		tempBuffer.setSampleRate(buffer.getSampleRate());
+		if (floatTempBuffer != null) {
+			floatTempBuffer.setSampleRate(sampleRate);
+		} else {
+			tempBuffer.setSampleRate(sampleRate);
+		}
 		this.renderSampleCount = count;
 
 		// on-demand rendering
-		if (lastRenderTime + 125000 < time.getNanoTime()) {
-			renderImpl(time, count);
+		if (lastRenderTime + 125000 < nanoTime) {
+			renderImpl(nanoTime, count);
 		}
 
 		// use the temp buffer's sample count, in case it rendered fewer samples
-		int thisCount = tempBuffer.getSampleCount();
-		offset += outSampleOffset;
-
-		if (thisCount == 0) return;
+		int thisCount = getTempSampleCount();
+		if (thisCount == 0) return 0;
 		if (thisCount + outSampleOffset > count) {
 			thisCount = count - outSampleOffset;
 		}
+		return thisCount;
+	}
+
+	private final int getTempSampleCount() {
+		if (floatTempBuffer != null) {
+			return floatTempBuffer.getSampleCount();
+		}
+		return tempBuffer.getSampleCount();
+	}
+
+	/**
+	 * Read a rendered buffer (type 1).
+	 */
+	public final void read(AudioTime time, AudioBuffer buffer, int offset,
+			int count) {
+		read(time.getNanoTime(), buffer, offset, count);
+	}
+
+	/**
+	 * Read a rendered buffer (type 1), with the time in nanoseconds.
+	 */
+	public synchronized final void read(long nanoTime, AudioBuffer buffer,
+			int offset, int count) {
+
+		if (done()) return;
+
+		int thisCount = prepareRead(nanoTime, buffer.getSampleRate(), count);
+		if (thisCount <= 0) return;
+		offset += outSampleOffset;
 
-		assert (tempBuffer.getChannelCount() == 1);
 		assert (thisCount + offset <= buffer.getSampleCount());
 
-		double[] tempSamples = tempBuffer.getChannel(0);
+		if (floatTempBuffer != null) {
+			// single precision rendering, double precision mixing
+			float[] tempSamples = floatTempBuffer.getChannel(0);
+			MixKernels kernels = MixKernels.get();
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				double volFactor = initialVolFactor[c];
+				kernels.mixRamp(tempSamples, buffer.getChannel(c), offset,
+						thisCount, volFactor,
+						(finalVolFactor[c] - volFactor) / thisCount);
+			}
+		} else {
+			mix(tempBuffer.getChannel(0), buffer, offset, thisCount);
+		}
+		// stop note generation if this last slice was a fade out
+		if (doFadeOut) {
+			eofReached = true;
+		}
+	}
+
+	/**
+	 * Mix the rendered samples to the double precision buffer.
+	 */
+	private final void mix(double[] tempSamples, AudioBuffer buffer,
+			int offset, int thisCount) {
 		// add the rendered buffer to this buffer
 
 		// for the stereo case, an optimized version:
@@ -339,30 +619,80 @@ public class NoteInput implements AudioInput, Renderable {
 			double volFactorInc1 = (finalVolFactor[0] - volFactor1) / thisCount;
 			double volFactor2 = initialVolFactor[1];
 			double volFactorInc2 = (finalVolFactor[1] - volFactor2) / thisCount;
-			int index = offset;
 			// $$fb added this extra check -- happened apparently in a 
 			// race condition when lowering the buffer size 
 			if (thisCount > samples1.length - offset) {
 				thisCount = samples1.length - offset;
 			}
-			for (int i = 0; i < thisCount; i++) {
-				double sample = tempSamples[i];
-				samples1[index] += (volFactor1 * sample);
-				samples2[index++] += (volFactor2 * sample);
-				volFactor1 += volFactorInc1;
-				volFactor2 += volFactorInc2;
-			}
+			MixKernels.get().mixRampStereo(tempSamples, samples1, samples2,
+					offset, thisCount, volFactor1, volFactorInc1, volFactor2,
+					volFactorInc2);
 		} else {
 			// ... or the generic version
+			MixKernels kernels = MixKernels.get();
 			for (int c = 0; c < buffer.getChannelCount(); c++) {
-				double[] samples = buffer.getChannel(c);
 				double volFactor = initialVolFactor[c];
-				double volFactorInc =
-						(finalVolFactor[c] - volFactor) / thisCount;
-				for (int i = 0; i < thisCount; i++) {
-					samples[i + offset] += (volFactor * tempSamples[i]);
-					volFactor += volFactorInc;
-				}
+				kernels.mixRamp(tempSamples, buffer.getChannel(c), offset,
+						thisCount, volFactor,
+						(finalVolFactor[c] - volFactor) / thisCount);
+			}
+		}
+	}
+
+	/**
+	 * Read a rendered buffer into a single precision buffer.
+	 */
+	public final void read(AudioTime time, FloatAudioBuffer buffer,
+			int offset, int count) {
+		read(time.getNanoTime(), buffer, offset, count);
+	}
+
+	/**
+	 * Read a rendered buffer into a single precision buffer, with the time in
+	 * nanoseconds.
+	 */
+	public synchronized final void read(long nanoTime,
+			FloatAudioBuffer buffer, int offset, int count) {
+
+		if (done()) return;
+
+		int thisCount = prepareRead(nanoTime, buffer.getSampleRate(), count);
+		if (thisCount <= 0) return;
+		offset += outSampleOffset;
+
+		if (floatTempBuffer == null) {
+			// double precision rendering, single precision mixing
+			double[] tempSamples = tempBuffer.getChannel(0);
+			MixKernels kernels = MixKernels.get();
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				double volFactor = initialVolFactor[c];
+				kernels.mixRamp(tempSamples, buffer.getChannel(c), offset,
+						thisCount, volFactor,
+						(finalVolFactor[c] - volFactor) / thisCount);
+			}
+		} else if (buffer.getChannelCount() == 2) {
+			float[] tempSamples = floatTempBuffer.getChannel(0);
+			float[] samples1 = buffer.getChannel(0);
+			float[] samples2 = buffer.getChannel(1);
+			float volFactor1 = (float) initialVolFactor[0];
+			float volFactorInc1 =
+					(float) ((finalVolFactor[0] - initialVolFactor[0]) / thisCount);
+			float volFactor2 = (float) initialVolFactor[1];
+			float volFactorInc2 =
+					(float) ((finalVolFactor[1] - initialVolFactor[1]) / thisCount);
+			if (thisCount > samples1.length - offset) {
+				thisCount = samples1.length - offset;
+			}
+			MixKernels.get().mixRampStereo(tempSamples, samples1, samples2,
+					offset, thisCount, volFactor1, volFactorInc1, volFactor2,
+					volFactorInc2);
+		} else {
+			float[] tempSamples = floatTempBuffer.getChannel(0);
+			MixKernels kernels = MixKernels.get();
+			for (int c = 0; c < buffer.getChannelCount(); c++) {
+				kernels.mixRamp(tempSamples, buffer.getChannel(c), offset,
+						thisCount, (float) initialVolFactor[c],
+						(float) ((finalVolFactor[c] - initialVolFactor[c]) / thisCount));
 			}
 		}
 		// stop note generation if this last slice was a fade out
@@ -371,6 +701,13 @@ public class NoteInput implements AudioInput, Renderable {
 		}
 	}
 
+	/**
+	 * @return true if this note renders in single precision
+	 */
+	public boolean isFloatRendering() {
+		return floatTempBuffer != null;
+	}
+
 	/**
 	 * Read a rendered buffer (type 2).
 	 */
@@ -388,9 +725,38 @@ public class NoteInput implements AudioInput, Renderable {
 	 *         rendered
 	 */
 	public final boolean alreadyRendered(AudioTime currTime) {
+		return alreadyRendered(currTime.getNanoTime());
+	}
+
+	/**
+	 * This method must not be synchronized!
+	 * 
+	 * @param nanoTime the time to be tested, in nanoseconds
+	 * @return returns true if the block starting at time nanoTime is already
+	 *         rendered
+	 */
+	public final boolean alreadyRendered(long nanoTime) {
 		// add 125 microseconds (1 sample at 8000Hz) to account for rounding
 		// errors
-		return lastRenderTime + 125000 >= currTime.getNanoTime();
+		return lastRenderTime + 125000 >= nanoTime;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see com.ibm.realtime.synth.engine.Renderable#getRenderCost()
+	 */
+	public final long getRenderCost() {
+		return renderCost;
+	}
+
+	/**
+	 * Render a block of audio data for the given time.
+	 * 
+	 * @see #render(long)
+	 */
+	public final boolean render(AudioTime time) {
+		return render(time.getNanoTime());
 	}
 
 	/**
@@ -401,39 +767,196 @@ public class NoteInput implements AudioInput, Renderable {
 	 * This method will not (and must not) set the eofReached flag. Instead, it
 	 * can set the doFadeOut flag to cause the read() method to set eofReached.
 	 * 
-	 * @param time the start time of the next buffer to be filled
+	 * @param nanoTime the start time of the next buffer to be filled, in
+	 *            nanoseconds
 	 */
-	public synchronized final boolean render(AudioTime time) {
+	public synchronized final boolean render(long nanoTime) {
 		// do not render if already done or if no render sample count is set
 		if (done() || renderSampleCount <= 0) {
-			tempBuffer.changeSampleCount(0, false);
+			if (floatTempBuffer != null) {
+				floatTempBuffer.changeSampleCount(0, false);
+			} else {
+				tempBuffer.changeSampleCount(0, false);
+			}
 			return false;
 		}
 
 		// account for race conditions (when a render thread blocks because
 		// the read() method is calling this render instance)
-		if (lastRenderTime + 125000 >= time.getNanoTime()) {
+		if (lastRenderTime + 125000 >= nanoTime) {
 			// buffer is already rendered
 			return false;
 		}
-		return renderImpl(time, renderSampleCount);
+		return renderImpl(nanoTime, renderSampleCount);
+	}
+
+	/**
+	 * Render the slice starting at nanoTime up to the sample position end,
+	 * relative to the start of the slice, so that an event at that position
+	 * takes effect at its exact sample. The articulation is calculated anew
+	 * for the remainder of the slice, which is rendered as usual by render()
+	 * or read(). This method is called by the synthesizer before it
+	 * dispatches an event that falls inside the slice.
+	 * <p>
+	 * Partial rendering requires control block rendering. Otherwise, the
+	 * articulation is calculated only once per slice anyway, and this method
+	 * does nothing.
+	 * 
+	 * @param nanoTime the start time of the slice, in nanoseconds
+	 * @param sampleRate the sample rate of the slice
+	 * @param count the number of samples of the slice
+	 * @param end the sample position up to which to render
+	 */
+	synchronized final void renderUntil(long nanoTime, double sampleRate,
+			int count, int end) {
+		if (controlBlockSize <= 0 || end <= 0 || end >= count || done()) {
+			return;
+		}
+		if (lastRenderTime + 125000 >= nanoTime) {
+			// slice is already completely rendered
+			return;
+		}
+		if (floatTempBuffer != null) {
+			floatTempBuffer.setSampleRate(sampleRate);
+		} else {
+			tempBuffer.setSampleRate(sampleRate);
+		}
+		this.renderSampleCount = count;
+		renderPart(nanoTime, count, end);
 	}
 
 	/**
 	 * Private implementation of render() which does not check if this buffer is
 	 * already rendered.
 	 * 
-	 * @param time
+	 * @param nanoTime
 	 * @return
 	 */
-	private final boolean renderImpl(AudioTime time, int count) {
-		long nanoTime = time.getNanoTime();
+	private final boolean renderImpl(long nanoTime, int count) {
 		// set the lastRenderTime as fast as possible:
 		// method read() will block anyway until termination of this method,
 		// and other threads accessing alreadyRendered() should have the most
 		// accurate value to prevent as much as possible redundant calls to
 		// render().
 		lastRenderTime = nanoTime;
+		renderPart(nanoTime, count, count);
+		return true;
+	}
+
+	/**
+	 * Render the slice starting at nanoTime from the position where a
+	 * previous call to renderUntil() stopped (or from the beginning), up to
+	 * the sample position end. If end is the slice size, the slice is
+	 * complete.
+	 */
+	private final void renderPart(long nanoTime, int count, int end) {
+		long startNanos = System.nanoTime();
+		double sampleRate =
+				(floatTempBuffer != null) ? floatTempBuffer.getSampleRate()
+						: tempBuffer.getSampleRate();
+		if (nanoTime != sliceTime) {
+			startSlice(nanoTime, count, sampleRate);
+		} else if (count != sliceCount) {
+			// the slice is completed with a different size than it was
+			// started with in renderUntil()
+			sliceCount = count;
+			if (insertionTime == 0) {
+				int newCount = count - outSampleOffset;
+				if (newCount < slicePos) {
+					newCount = slicePos;
+				}
+				if (floatTempBuffer != null) {
+					floatTempBuffer.changeSampleCount(newCount, true);
+				} else {
+					tempBuffer.changeSampleCount(newCount, true);
+				}
+			}
+		}
+		int tempCount = getTempSampleCount();
+		int tempEnd = (end >= count) ? tempCount : end - outSampleOffset;
+		if (tempEnd > tempCount) {
+			tempEnd = tempCount;
+		}
+		if (tempEnd > slicePos) {
+			// the time of the first rendered sample: the articulation must
+			// not be calculated for a time before the start of the note
+			long renderTime = nanoTime;
+			if (outSampleOffset > 0) {
+				renderTime += samples2nanos(outSampleOffset, sampleRate);
+			}
+			if (silent) {
+				if (floatTempBuffer != null) {
+					Arrays.fill(floatTempBuffer.getChannel(0), slicePos,
+							tempEnd, 0.0f);
+				} else {
+					Arrays.fill(tempBuffer.getChannel(0), slicePos, tempEnd,
+							0.0);
+				}
+			} else if (controlBlockSize > 0) {
+				renderControlBlocks(renderTime, slicePos, tempEnd, sampleRate);
+			} else {
+				renderSlice(renderTime, tempEnd);
+			}
+			slicePos = tempEnd;
+		}
+		sliceRenderNanos += System.nanoTime() - startNanos;
+		if (end < count) {
+			// start a new control block with the next part, so that the
+			// event at the end of this part takes effect immediately
+			controlSamplesLeft = 0;
+		} else if (tempCount > 0) {
+			if (controlBlockSize > 0) {
+				updateChannelVolume();
+			}
+			renderCost = sliceRenderNanos;
+		}
+	}
+
+	/**
+	 * Start rendering a new slice: calculate the insertion point of a new
+	 * note and initialize the temporary render buffer.
+	 */
+	private final void startSlice(long nanoTime, int count, double sampleRate) {
+		sliceTime = nanoTime;
+		sliceCount = count;
+		slicePos = 0;
+		sliceRenderNanos = 0;
+
+		// apply the current render quality settings
+		osc.setInterpolation(synthParams.getInterpolation());
+		art.setFilterBypass(synthParams.isFilterBypass());
+		long maxReleaseNanos = synthParams.getMaxReleaseNanos();
+		if (released && maxReleaseNanos > 0
+				&& nanoTime - releaseTime >= maxReleaseNanos) {
+			// cut the release tail: fade out during this slice
+			doFadeOut = true;
+		}
+		if (!doFadeOut) {
+			double threshold = synthParams.getSilenceThresholdLinear();
+			// the master and channel volume may be raised again, so only
+			// the articulation decides if the note is retired. A low
+			// volume mutes the note instead, see isChannelMuted().
+			if (threshold > 0.0 && controlBlockSize > 0) {
+				// the gain ramp of the current control block may still be
+				// above the articulation's volume
+				double artGain = art.getControlVolumeFactor();
+				if (controlGain > artGain) {
+					threshold = (artGain > 0.0)
+							? threshold * artGain / controlGain : 0.0;
+				}
+			}
+			if (threshold > 0.0 && art.isInaudible(threshold)) {
+				// retire this note: it is faded out, without
+				// rendering it anymore
+				silent = true;
+				doFadeOut = true;
+				synthParams.voiceSilenced();
+				if (DEBUG_NOTEINPUT) {
+					debug("NoteInput: retiring inaudible note " + note);
+				}
+			}
+		}
+		muted = !silent && isChannelMuted();
 
 		// adjust insertion point
 		outSampleOffset = 0;
@@ -441,13 +964,13 @@ public class NoteInput implements AudioInput, Renderable {
 			// calculate the sample position
 			long nanoOffset = (insertionTime - nanoTime);
 			outSampleOffset =
-					(int) nanos2samples(nanoOffset, tempBuffer.getSampleRate());
+					(int) nanos2samples(nanoOffset, sampleRate);
 			if (outSampleOffset < count) {
 				// OK, we can (and should) start inserting the instrument in
 				// *this* buffer
 				if (outSampleOffset < 0) {
 					if (DEBUG_NOTEINPUT) {
-						debug("NoteInput: time=" + time.getMicroTime()
+						debug("NoteInput: time=" + (nanoTime / 1000L)
 						+ "us, insertion time=" + (insertionTime)
 						+ "us, offset=" + (nanoOffset / 1000L)
 						+ "us, outSampleOffset=" + outSampleOffset
@@ -461,13 +984,15 @@ public class NoteInput implements AudioInput, Renderable {
 				} else {
 					count -= outSampleOffset;
 					if (DEBUG_NOTEINPUT_IO) {
-						debug("NoteInput: Insert Note at time "+time+" with offset "+outSampleOffset+" samples."); 
+						debug("NoteInput: Insert Note at time "+new AudioTime(nanoTime)+" with offset "+outSampleOffset+" samples."); 
 					}
 				}
 				insertionTime = 0;
 				// force calculation of pitch
 				lastRelativePitch = -100000.0;
 				nextPitchChange = 0;
+				// align the control blocks to the start of the note
+				controlSamplesLeft = 0;
 			} else {
 				// if (DEBUG_NOTEINPUT) {
 				// debug("MidiInput: time=" + time.getMicroTime()
@@ -483,63 +1008,231 @@ public class NoteInput implements AudioInput, Renderable {
 		}
 
 		// initialize the temporary render buffer
-		tempBuffer.changeSampleCount(count, false);
-		if (count > 0) {
-			// calculate articulation data
-			// calculate volume level
-			// calculate sample rate factor
-			art.calculate(time);
-
-			// sampleRateFactor does not include master tuning
-			double sampleRateFactor;
-
-			if (nanoTime >= nextPitchChange) {
-				// retrieve instantaneous pitch for this note and calculate the
-				// resulting sample rate factor
+		if (floatTempBuffer != null) {
+			floatTempBuffer.changeSampleCount(count, false);
+		} else {
+			tempBuffer.changeSampleCount(count, false);
+		}
+	}
+
+	/**
+	 * @return true if the channel gain, including the master volume, at the
+	 *         end of the previous slice and now is at or below the silence
+	 *         threshold, so that this slice does not need to be converted
+	 */
+	private final boolean isChannelMuted() {
+		double threshold = synthParams.getSilenceThresholdLinear();
+		if (Math.max(finalVolFactor[0], finalVolFactor[1]) > threshold) {
+			return false;
+		}
+		double masterVolume = synthParams.getMasterVolumeInternal();
+		return masterVolume * art.getChannelVolumeFactor(0) <= threshold
+				&& masterVolume * art.getChannelVolumeFactor(1) <= threshold;
+	}
+
+	/**
+	 * Render the slice with the articulation calculated once for the entire
+	 * slice. The volume is ramped over the slice in read().
+	 */
+	private final void renderSlice(long nanoTime, int count) {
+		// calculate articulation data
+		// calculate volume level
+		// calculate sample rate factor
+		art.calculate(nanoTime);
+
+		// sampleRateFactor does not include master tuning
+		double sampleRateFactor;
+
+		if (nanoTime >= nextPitchChange) {
+			// retrieve instantaneous pitch for this note and calculate the
+			// resulting sample rate factor
+			double relativePitch =
+					art.getEffectivePitchOffset(note - patch.getRootKey());
+			if (relativePitch != lastRelativePitch) {
+				lastRelativePitch = relativePitch;
+				sampleRateFactor =
+						getSamplerateFactorFromRelativeNote(relativePitch);
+				lastSampleRateFactor = sampleRateFactor;
+			} else {
+				sampleRateFactor = lastSampleRateFactor;
+			}
+			nextPitchChange = nanoTime + PITCH_CHANGE_INTERVAL;
+		} else {
+			sampleRateFactor = lastSampleRateFactor;
+		}
+
+		// convert from native applying these things at once:
+		// - convert from native format
+		// - convert sample-rate (if necessary)
+		// - apply any further processing like filters
+		double effectiveFactor =
+				sampleRateFactor * synthParams.getMasterTuningFactor();
+		if (muted) {
+			if (floatTempBuffer != null) {
+				Arrays.fill(floatTempBuffer.getChannel(0), 0, count, 0.0f);
+			} else {
+				Arrays.fill(tempBuffer.getChannel(0), 0, count, 0.0);
+			}
+		} else if (floatTempBuffer != null) {
+			int newCount =
+					osc.convert(floatTempBuffer, 0, count, effectiveFactor);
+			if (newCount < count) {
+				// silence the remainder: it may contain samples of the
+				// previous slice, or of a previous note if this
+				// instance was recycled
+				floatTempBuffer.changeSampleCount(newCount, true);
+				floatTempBuffer.changeSampleCount(count, true);
+			}
+			// let the articulation block further process this buffer
+			// (filters, ...).
+			art.process(floatTempBuffer);
+		} else {
+			int newCount =
+					osc.convert(tempBuffer, 0, count, effectiveFactor);
+			if (newCount < count) {
+				// silence the remainder: it may contain samples of the
+				// previous slice, or of a previous note if this
+				// instance was recycled
+				tempBuffer.changeSampleCount(newCount, true);
+				tempBuffer.changeSampleCount(count, true);
+			}
+			// let the articulation block further process this buffer
+			// (filters, ...).
+			art.process(tempBuffer);
+		}
+
+		// take care of volume changes.
+		// for now: just stereo
+		double masterVolume = synthParams.getMasterVolumeInternal();
+		initialVolFactor[0] = finalVolFactor[0];
+		finalVolFactor[0] = masterVolume * art.getEffectiveVolumeFactor(0);
+		initialVolFactor[1] = finalVolFactor[1];
+		finalVolFactor[1] = masterVolume * art.getEffectiveVolumeFactor(1);
+		if (doFadeOut) {
+			// just set final volume to 0
+			finalVolFactor[0] = 0.0;
+			finalVolFactor[1] = 0.0;
+		}
+	}
+
+	/**
+	 * Render the samples from position <code>from</code> to
+	 * <code>to</code> of the temporary buffer in control blocks of
+	 * controlBlockSize samples, independent of the slice size. The
+	 * articulation is calculated at the beginning of every control block,
+	 * which may have started in a previous slice. Within a control block, the
+	 * pitch is constant, and the control rate volume factor (envelope and
+	 * LFO) is ramped linearly to its new value. The channel volume factors
+	 * (pan, controllers, master volume) are ramped over the slice in read().
+	 * 
+	 * @param nanoTime the time of the first sample in the temporary buffer
+	 */
+	private final void renderControlBlocks(long nanoTime, int from, int to,
+			double sampleRate) {
+		int pos = from;
+		while (pos < to) {
+			if (controlSamplesLeft <= 0) {
+				art.calculate(nanoTime + samples2nanos(pos, sampleRate),
+						controlBlockSize);
 				double relativePitch =
 						art.getEffectivePitchOffset(note - patch.getRootKey());
 				if (relativePitch != lastRelativePitch) {
 					lastRelativePitch = relativePitch;
-					sampleRateFactor =
+					lastSampleRateFactor =
 							getSamplerateFactorFromRelativeNote(relativePitch);
-					lastSampleRateFactor = sampleRateFactor;
+				}
+				controlSampleRateFactor =
+						lastSampleRateFactor
+								* synthParams.getMasterTuningFactor();
+				controlGainInc =
+						(art.getControlVolumeFactor() - controlGain)
+								/ controlBlockSize;
+				controlSamplesLeft = controlBlockSize;
+			}
+			int thisCount = to - pos;
+			if (thisCount > controlSamplesLeft) {
+				thisCount = controlSamplesLeft;
+			}
+			if (muted) {
+				if (floatTempBuffer != null) {
+					Arrays.fill(floatTempBuffer.getChannel(0), pos, pos
+							+ thisCount, 0.0f);
 				} else {
-					sampleRateFactor = lastSampleRateFactor;
+					Arrays.fill(tempBuffer.getChannel(0), pos, pos + thisCount,
+							0.0);
+				}
+				controlGain += controlGainInc * thisCount;
+			} else if (floatTempBuffer != null) {
+				float[] samples = floatTempBuffer.getChannel(0);
+				int newCount = osc.convert(floatTempBuffer, pos, thisCount,
+						controlSampleRateFactor);
+				if (newCount < thisCount) {
+					// silence the remainder, see renderSlice()
+					Arrays.fill(samples, pos + newCount, pos + thisCount, 0.0f);
 				}
-				nextPitchChange = nanoTime + PITCH_CHANGE_INTERVAL;
+				art.process(floatTempBuffer, pos, thisCount);
+				controlGain = applyGainRamp(samples, pos, thisCount,
+						controlGain, controlGainInc);
 			} else {
-				sampleRateFactor = lastSampleRateFactor;
+				double[] samples = tempBuffer.getChannel(0);
+				int newCount = osc.convert(tempBuffer, pos, thisCount,
+						controlSampleRateFactor);
+				if (newCount < thisCount) {
+					Arrays.fill(samples, pos + newCount, pos + thisCount, 0.0);
+				}
+				art.process(tempBuffer, pos, thisCount);
+				controlGain = applyGainRamp(samples, pos, thisCount,
+						controlGain, controlGainInc);
 			}
+			controlSamplesLeft -= thisCount;
+			pos += thisCount;
+		}
+	}
 
-			// convert from native applying these things at once:
-			// - convert from native format
-			// - convert sample-rate (if necessary)
-			// - apply any further processing like filters
-			int newCount =
-					osc.convert(tempBuffer, 0, count, sampleRateFactor
-							* synthParams.getMasterTuningFactor());
-			if (newCount < count) {
-				tempBuffer.changeSampleCount(count, true);
-			}
+	/**
+	 * Calculate the channel volume factors at the end of a slice rendered in
+	 * control blocks.
+	 */
+	private final void updateChannelVolume() {
+		double masterVolume = synthParams.getMasterVolumeInternal();
+		initialVolFactor[0] = finalVolFactor[0];
+		finalVolFactor[0] = masterVolume * art.getChannelVolumeFactor(0);
+		initialVolFactor[1] = finalVolFactor[1];
+		finalVolFactor[1] = masterVolume * art.getChannelVolumeFactor(1);
+		if (doFadeOut) {
+			finalVolFactor[0] = 0.0;
+			finalVolFactor[1] = 0.0;
+		}
+	}
 
-			// let the articulation block further process this buffer (filters,
-			// ...).
-			art.process(tempBuffer);
+	/**
+	 * Multiply the samples with a linear ramp.
+	 * 
+	 * @return the gain after the last sample
+	 */
+	private static final double applyGainRamp(float[] samples, int offset,
+			int count, double gain, double gainInc) {
+		int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			samples[i] *= gain;
+			gain += gainInc;
+		}
+		return gain;
+	}
 
-			// take care of volume changes.
-			// for now: just stereo
-			double masterVolume = synthParams.getMasterVolumeInternal();
-			initialVolFactor[0] = finalVolFactor[0];
-			finalVolFactor[0] = masterVolume * art.getEffectiveVolumeFactor(0);
-			initialVolFactor[1] = finalVolFactor[1];
-			finalVolFactor[1] = masterVolume * art.getEffectiveVolumeFactor(1);
-			if (doFadeOut) {
-				// just set final volume to 0
-				finalVolFactor[0] = 0.0;
-				finalVolFactor[1] = 0.0;
-			}
+	/**
+	 * Multiply the samples with a linear ramp.
+	 * 
+	 * @return the gain after the last sample
+	 */
+	private static final double applyGainRamp(double[] samples, int offset,
+			int count, double gain, double gainInc) {
+		int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			samples[i] *= gain;
+			gain += gainInc;
 		}
-		return true;
+		return gain;
 	}
 
 	/**
@@ -547,14 +1240,38 @@ public class NoteInput implements AudioInput, Renderable {
 	 * to the time when the release segment is being entered.
 	 */
 	public void release(AudioTime time) {
+		release(time.getNanoTime());
+	}
+
+	/**
+	 * Enters the release segment of this note, with the current time in
+	 * nanoseconds.
+	 */
+	public void release(long nanoTime) {
 		if (channel.sustainDown() || sostenuto) {
 			inhibitedRelease = true;
 		} else {
-			art.release(time);
-			osc.release(time);
+			art.release(nanoTime);
+			osc.release(nanoTime);
+			released = true;
+			releaseTime = nanoTime;
 		}
 	}
 
+	/**
+	 * @return true if this note has entered the release segment
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+	/**
+	 * @return the time when this note was started, in nanoseconds
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
 	/**
 	 * @return true if the note should have already released, but sustain or
 	 *         sostenuto prevented it.
@@ -576,9 +1293,18 @@ public class NoteInput implements AudioInput, Renderable {
 	 * sustain pedal is down).
 	 */
 	public void setSostenuto(AudioTime time, boolean active) {
+		setSostenuto(time.getNanoTime(), active);
+	}
+
+	/**
+	 * Activate or end sostenuto state, with the current time in nanoseconds.
+	 * 
+	 * @see #setSostenuto(AudioTime, boolean)
+	 */
+	public void setSostenuto(long nanoTime, boolean active) {
 		sostenuto = active;
 		if (!active) {
-			release(time);
+			release(nanoTime);
 		}
 	}
 
@@ -590,6 +1316,14 @@ public class NoteInput implements AudioInput, Renderable {
 		doFadeOut = true;
 	}
 
+	/**
+	 * @return true if stopAsap() was called, i.e. this note will be done
+	 *         after the next rendered slice.
+	 */
+	public boolean isStopping() {
+		return doFadeOut;
+	}
+
 	/**
 	 * Returns true if this input stream has finished rendering data and further
 	 * calls to read would just return silence.
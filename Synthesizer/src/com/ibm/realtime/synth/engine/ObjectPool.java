@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+import java.util.*;
+
+/**
+ * A simple, bounded pool of reusable objects. The voice objects (NoteInput,
+ * articulation, oscillator, etc.) are taken from pools on note on and given
+ * back once the note is removed from the mixer, so that steady state playback
+ * does not allocate new objects.
+ * <p>
+ * The pool does not create or reset objects: obtain() returns null if the pool
+ * is empty, and the caller then creates a new instance. The caller also
+ * re-initializes a pooled instance. All methods are thread safe.
+ * 
+ * @author florian
+ */
+public class ObjectPool<T> {
+
+	/**
+	 * The default maximum number of free objects held by a pool
+	 */
+	public final static int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * Global switch for pooling. If false, obtain() always returns null and
+	 * recycled objects are discarded.
+	 */
+	private static volatile boolean enabled = true;
+
+	/**
+	 * All pools, for statistics
+	 */
+	private static final List<ObjectPool<?>> pools =
+			new ArrayList<ObjectPool<?>>();
+
+	/**
+	 * A descriptive name for statistics
+	 */
+	private final String name;
+
+	/**
+	 * The stack of free objects
+	 */
+	private final Object[] free;
+
+	/**
+	 * The number of free objects in the free array
+	 */
+	private int size = 0;
+
+	/**
+	 * statistics: number of calls to obtain() that returned a pooled object
+	 */
+	private long hitCount = 0;
+
+	/**
+	 * statistics: number of calls to obtain() that returned null
+	 */
+	private long missCount = 0;
+
+	/**
+	 * statistics: number of objects given back to this pool
+	 */
+	private long recycleCount = 0;
+
+	/**
+	 * statistics: number of recycled objects that were dropped because the
+	 * pool was full or disabled
+	 */
+	private long discardCount = 0;
+
+	/**
+	 * Create a pool and register it for statistics.
+	 * 
+	 * @param name the name of this pool
+	 * @param capacity the maximum number of free objects to keep
+	 */
+	public ObjectPool(String name, int capacity) {
+		this.name = name;
+		this.free = new Object[capacity];
+		synchronized (pools) {
+			pools.add(this);
+		}
+	}
+
+	/**
+	 * Take a free object from this pool.
+	 * 
+	 * @return a previously recycled object, or null if the pool is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized T obtain() {
+		if (size == 0 || !enabled) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		size--;
+		T result = (T) free[size];
+		free[size] = null;
+		return result;
+	}
+
+	/**
+	 * Give an object back to this pool. The object must not be used anymore
+	 * by the caller.
+	 */
+	public synchronized void recycle(T obj) {
+		recycleCount++;
+		if (size == free.length || !enabled) {
+			discardCount++;
+			return;
+		}
+		free[size++] = obj;
+	}
+
+	/**
+	 * Remove all free objects from this pool.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(free, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * @return the name of this pool
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the maximum number of free objects in this pool
+	 */
+	public int getCapacity() {
+		return free.length;
+	}
+
+	/**
+	 * @return the current number of free objects in this pool
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the number of calls to obtain() that returned a pooled object
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of calls to obtain() that required a new object to
+	 *         be allocated
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of objects given back to this pool
+	 */
+	public synchronized long getRecycleCount() {
+		return recycleCount;
+	}
+
+	/**
+	 * @return the number of recycled objects that were not kept because the
+	 *         pool was full or disabled
+	 */
+	public synchronized long getDiscardCount() {
+		return discardCount;
+	}
+
+	/**
+	 * Reset the hit, miss, recycle, and discard counters.
+	 */
+	public synchronized void resetStatistics() {
+		hitCount = 0;
+		missCount = 0;
+		recycleCount = 0;
+		discardCount = 0;
+	}
+
+	public synchronized String toString() {
+		return name + " pool: " + size + "/" + free.length + " free, "
+				+ hitCount + " hits, " + missCount + " misses, "
+				+ recycleCount + " recycled, " + discardCount + " discarded";
+	}
+
+	/**
+	 * @return true if pooling is enabled
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Globally enable or disable pooling. Disabling pooling also empties all
+	 * pools.
+	 */
+	public static void setEnabled(boolean enabled) {
+		ObjectPool.enabled = enabled;
+		if (!enabled) {
+			for (ObjectPool<?> pool : getPools()) {
+				pool.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return all pools that were created so far
+	 */
+	public static ObjectPool<?>[] getPools() {
+		synchronized (pools) {
+			return pools.toArray(new ObjectPool<?>[pools.size()]);
+		}
+	}
+
+	/**
+	 * Reset the statistics of all pools.
+	 */
+	public static void resetAllStatistics() {
+		for (ObjectPool<?> pool : getPools()) {
+			pool.resetStatistics();
+		}
+	}
+}
@@ -65,6 +65,19 @@ public abstract class Oscillator {
 	 */
 	public final static int LOOPMODE_UNTIL_RELEASE = 2;
 
+	/**
+	 * Value for interpolation: linear interpolation between the 2 native
+	 * samples around the read position.
+	 */
+	public final static int INTERPOLATION_LINEAR = 0;
+
+	/**
+	 * Value for interpolation: use the native sample at or before the read
+	 * position ("drop sample"). Cheaper than linear interpolation, at the
+	 * cost of aliasing.
+	 */
+	public final static int INTERPOLATION_DROP_SAMPLE = 1;
+
 	/**
 	 * The current read position in the native samples array nativeSamples. This
 	 * is a sample position, not an array index.
@@ -149,6 +162,20 @@ public abstract class Oscillator {
 	 */
 	protected double loopEnd;
 
+	/**
+	 * The interpolation mode (see the INTERPOLATION_ constants above).
+	 * Implementations that do not support drop sample interpolation may
+	 * ignore this field.
+	 */
+	protected int interpolation = INTERPOLATION_LINEAR;
+
+	/**
+	 * The temporary double precision buffer used by the default
+	 * implementation of convertOneBlock(FloatAudioBuffer, int, int), created
+	 * when needed.
+	 */
+	private AudioBuffer convertBuffer;
+
 	/**
 	 * Protected default constructor so that descending classes can instantiate
 	 * an instance without using the public simple constructor below.
@@ -181,6 +208,47 @@ public abstract class Oscillator {
 		this.nativePos = nativeSamplesStartPos;
 	}
 
+	/**
+	 * Reset the runtime state and the loop settings to the initial values of
+	 * a new instance. Used by subclasses that reuse their instances.
+	 */
+	protected void reset() {
+		nativePos = 0.0;
+		nativePosDelta = 0.0;
+		outSampleRate = 0.0;
+		sampleRateFactor = 0.0;
+		effectiveSampleRateFactor = 0.0;
+		loopMode = LOOPMODE_NONE;
+		loopStart = 0.0;
+		loopEnd = 0.0;
+		interpolation = INTERPOLATION_LINEAR;
+	}
+
+	/**
+	 * @return the interpolation mode, one of the INTERPOLATION_ constants
+	 */
+	public int getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * Set the interpolation mode for the next calls to convert().
+	 * 
+	 * @param interpolation one of the INTERPOLATION_ constants
+	 */
+	public void setInterpolation(int interpolation) {
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * Called when the NoteInput using this oscillator is recycled. Subclasses
+	 * that pool their instances give this instance back to the pool. The
+	 * default implementation does nothing.
+	 */
+	public void recycle() {
+		// nothing
+	}
+
 	/**
 	 * Writes count samples to the buffer at position offset. Samples in buffer
 	 * are always overwritten. If there are not enough native samples to fill
@@ -195,10 +263,32 @@ public abstract class Oscillator {
 	 */
 	public int convert(AudioBuffer buffer, int offset, int count,
 			double sampleRateFactor) {
+		return convertImpl(buffer, null, buffer.getSampleRate(), offset,
+				count, sampleRateFactor);
+	}
+
+	/**
+	 * Writes count samples to the float buffer at position offset.
+	 * 
+	 * @see #convert(AudioBuffer, int, int, double)
+	 */
+	public int convert(FloatAudioBuffer buffer, int offset, int count,
+			double sampleRateFactor) {
+		return convertImpl(null, buffer, buffer.getSampleRate(), offset,
+				count, sampleRateFactor);
+	}
+
+	/**
+	 * Common implementation of the convert() methods. Exactly one of buffer
+	 * and floatBuffer is non-null.
+	 */
+	private final int convertImpl(AudioBuffer buffer,
+			FloatAudioBuffer floatBuffer, double bufferSampleRate, int offset,
+			int count, double sampleRateFactor) {
 		// first check if the output sample rate has changed. If so, init
-		if (buffer.getSampleRate() != outSampleRate
+		if (bufferSampleRate != outSampleRate
 				|| sampleRateFactor != this.sampleRateFactor) {
-			initSampleRate(buffer.getSampleRate(), sampleRateFactor);
+			initSampleRate(bufferSampleRate, sampleRateFactor);
 		}
 		if (sampleRateFactor == 0.0 || count == 0) {
 			return 0;
@@ -266,10 +356,14 @@ public abstract class Oscillator {
 			}
 
 			// do the actual conversion
-			convertOneBlock(buffer, offset, thisCount);
+			if (buffer != null) {
+				convertOneBlock(buffer, offset, thisCount);
+			} else {
+				convertOneBlock(floatBuffer, offset, thisCount);
+			}
 			converted += thisCount;
 			offset += thisCount;
-			if (DEBUG_OSC) {
+			if (DEBUG_OSC && buffer != null) {
 				float sample1 =
 						(float) ((int) (buffer.getChannel(0)[0] * 1000.0)) / 1000.0f;
 				float sample2 =
@@ -298,6 +392,35 @@ public abstract class Oscillator {
 	protected abstract void convertOneBlock(AudioBuffer buffer, int offset,
 			int count);
 
+	/**
+	 * Convert and write into the float buffer <code>count</code> output
+	 * samples. The default implementation converts to a temporary double
+	 * precision buffer with convertOneBlock(AudioBuffer, int, int), and
+	 * copies the samples to buffer. Subclasses should override it to write
+	 * the float samples directly.
+	 * 
+	 * @see #convertOneBlock(AudioBuffer, int, int)
+	 */
+	protected void convertOneBlock(FloatAudioBuffer buffer, int offset,
+			int count) {
+		int channels = buffer.getChannelCount();
+		if (convertBuffer == null
+				|| convertBuffer.getChannelCount() != channels) {
+			convertBuffer =
+					new AudioBuffer(channels, count, buffer.getSampleRate());
+		}
+		convertBuffer.setSampleRate(buffer.getSampleRate());
+		convertBuffer.changeSampleCount(count, false);
+		convertOneBlock(convertBuffer, 0, count);
+		for (int c = 0; c < channels; c++) {
+			double[] src = convertBuffer.getChannel(c);
+			float[] dest = buffer.getChannel(c);
+			for (int i = 0; i < count; i++) {
+				dest[offset + i] = (float) src[i];
+			}
+		}
+	}
+
 	private void initSampleRate(double newSampleRate, double newSampleRateFactor) {
 		if (isAlmost(newSampleRate, 0.0) || isAlmost(newSampleRateFactor, 0.0)) {
 			sampleRateFactor = 0.0;
@@ -315,6 +438,25 @@ public abstract class Oscillator {
 	}
 
 	public void release(AudioTime time) {
+		endReleaseLoop();
+	}
+
+	/**
+	 * Release the note, with the time in nanoseconds. The default
+	 * implementation creates an AudioTime object and calls
+	 * release(AudioTime), so subclasses should override it to not create any
+	 * objects.
+	 * 
+	 * @param nanoTime the current time in nanoseconds
+	 */
+	public void release(long nanoTime) {
+		release(new AudioTime(nanoTime));
+	}
+
+	/**
+	 * End the loop if it is only played until the note is released.
+	 */
+	protected final void endReleaseLoop() {
 		if (loopMode == LOOPMODE_UNTIL_RELEASE) {
 			loopMode = LOOPMODE_NONE;
 		}
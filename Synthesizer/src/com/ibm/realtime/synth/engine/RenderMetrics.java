@@ -0,0 +1,634 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.realtime.synth.utils.Histogram;
+
+/**
+ * Always-on render timing metrics. The AudioPullThread records the render
+ * time of every slice against the slice time (the budget), the AudioMixer
+ * records the time of its read() method and the number of active voices,
+ * the Synthesizer records the depth of its event queue and how late events
+ * are dispatched with respect to the audio time, and the
+ * AsynchronousRenderer records how much of a slice the pull thread rendered
+ * itself.
+ * <p>
+ * All values are recorded into lock-free histograms without allocating
+ * objects, so recording is cheap enough to stay enabled in realtime use.
+ * The metrics can be read with snapshot(), or by way of JMX after calling
+ * registerMBean(). The headroom, i.e. 100% minus the 99th percentile of
+ * the render load, allows to notice an approaching overload before it
+ * becomes audible.
+ * <p>
+ * Every AudioMixer has a RenderMetrics instance. The Synthesizer and the
+ * AudioPullThread use the instance of the mixer they render.
+ * 
+ * @author florian
+ */
+public class RenderMetrics implements RenderMetricsMBean {
+
+	/**
+	 * The JMX domain used by registerMBean().
+	 */
+	public static final String JMX_DOMAIN = "com.ibm.realtime.synth";
+
+	private final Histogram sliceNanos = new Histogram();
+
+	private final Histogram loadPercent = new Histogram();
+
+	private final Histogram readNanos = new Histogram();
+
+	private final Histogram voices = new Histogram();
+
+	private final Histogram queueDepth = new Histogram();
+
+	private final Histogram dispatchLagNanos = new Histogram();
+
+	private final Histogram resyncSamples = new Histogram();
+
+	private final Histogram joinSharePercent = new Histogram();
+
+	private final AtomicLong overrunCount = new AtomicLong();
+
+	/**
+	 * The duration of the last slice, in nanoseconds.
+	 */
+	private volatile long budgetNanos;
+
+	/**
+	 * The render threads, for retrieving their busy time.
+	 */
+	private volatile AsynchronousRenderer renderer;
+
+	/**
+	 * The name under which this instance is registered, or null.
+	 */
+	private ObjectName objectName;
+
+	/**
+	 * The listener notified of every recorded slice, or null.
+	 */
+	private volatile SliceListener sliceListener;
+
+	/**
+	 * Record the time needed to render one slice.
+	 * 
+	 * @param renderNanos the time used for rendering the slice
+	 * @param sliceNanos the duration of the slice
+	 */
+	public void recordSlice(long renderNanos, long sliceNanos) {
+		this.sliceNanos.record(renderNanos);
+		if (sliceNanos > 0) {
+			loadPercent.record(renderNanos * 100 / sliceNanos);
+			if (renderNanos > sliceNanos) {
+				overrunCount.incrementAndGet();
+			}
+			if (budgetNanos != sliceNanos) {
+				budgetNanos = sliceNanos;
+			}
+		}
+		SliceListener listener = sliceListener;
+		if (listener != null) {
+			listener.sliceRendered(renderNanos, sliceNanos);
+		}
+	}
+
+	/**
+	 * @return the listener notified of every recorded slice, or null
+	 */
+	public SliceListener getSliceListener() {
+		return sliceListener;
+	}
+
+	/**
+	 * Set the listener that is notified of the render time of every slice,
+	 * e.g. a LoadGovernor.
+	 * 
+	 * @param listener the listener, or null
+	 */
+	public void setSliceListener(SliceListener listener) {
+		this.sliceListener = listener;
+	}
+
+	/**
+	 * Record the time of one call to AudioMixer.read().
+	 * 
+	 * @param nanos the time used by read()
+	 * @param voiceCount the number of mixed streams
+	 */
+	public void recordRead(long nanos, int voiceCount) {
+		readNanos.record(nanos);
+		voices.record(voiceCount);
+	}
+
+	/**
+	 * Record the number of events in the event queue at the beginning of a
+	 * slice.
+	 */
+	public void recordEventQueueDepth(int depth) {
+		queueDepth.record(depth);
+	}
+
+	/**
+	 * Record how late an event is dispatched, i.e. the audio time of the
+	 * dispatching slice minus the time of the event. Events that are
+	 * dispatched early count as 0.
+	 */
+	public void recordDispatchLag(long lagNanos) {
+		dispatchLagNanos.record(lagNanos);
+	}
+
+	/**
+	 * Record a resynchronization of the audio sink's time.
+	 * 
+	 * @param samples the adjustment in samples
+	 */
+	public void recordResync(long samples) {
+		resyncSamples.record(samples < 0 ? -samples : samples);
+	}
+
+	/**
+	 * Record the batches of a slice that the pull thread rendered itself
+	 * when joining the render threads.
+	 * 
+	 * @param callerBatches the number of batches rendered by the caller
+	 * @param totalBatches the number of batches of the slice
+	 */
+	public void recordJoinShare(int callerBatches, int totalBatches) {
+		if (totalBatches > 0) {
+			joinSharePercent.record(callerBatches * 100 / totalBatches);
+		}
+	}
+
+	/**
+	 * Set the render threads for which the busy time is reported.
+	 */
+	void setAsynchronousRenderer(AsynchronousRenderer renderer) {
+		this.renderer = renderer;
+	}
+
+	/**
+	 * @return the histogram of slice render times, in nanoseconds
+	 */
+	public Histogram getSliceHistogram() {
+		return sliceNanos;
+	}
+
+	/**
+	 * @return the histogram of the render load, in percent of the slice time
+	 */
+	public Histogram getLoadHistogram() {
+		return loadPercent;
+	}
+
+	/**
+	 * @return the histogram of AudioMixer.read() times, in nanoseconds
+	 */
+	public Histogram getReadHistogram() {
+		return readNanos;
+	}
+
+	/**
+	 * @return the histogram of active voices
+	 */
+	public Histogram getVoicesHistogram() {
+		return voices;
+	}
+
+	/**
+	 * @return the histogram of event queue depths
+	 */
+	public Histogram getEventQueueDepthHistogram() {
+		return queueDepth;
+	}
+
+	/**
+	 * @return the histogram of event dispatch lags, in nanoseconds
+	 */
+	public Histogram getDispatchLagHistogram() {
+		return dispatchLagNanos;
+	}
+
+	/**
+	 * @return the histogram of sink resynchronizations, in samples
+	 */
+	public Histogram getResyncHistogram() {
+		return resyncSamples;
+	}
+
+	/**
+	 * @return the histogram of the pull thread's share of a slice, in
+	 *         percent
+	 */
+	public Histogram getJoinShareHistogram() {
+		return joinSharePercent;
+	}
+
+	/**
+	 * Take a copy of all metrics. This method allocates objects,
+	 * so it should not be called from a realtime thread.
+	 * 
+	 * @return a copy of the current metrics
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this, true);
+	}
+
+	/**
+	 * @return a snapshot with the live histograms, for the MBean getters
+	 */
+	private Snapshot live() {
+		return new Snapshot(this, false);
+	}
+
+	/**
+	 * Clear all metrics.
+	 */
+	public void reset() {
+		sliceNanos.reset();
+		loadPercent.reset();
+		readNanos.reset();
+		voices.reset();
+		queueDepth.reset();
+		dispatchLagNanos.reset();
+		resyncSamples.reset();
+		joinSharePercent.reset();
+		overrunCount.set(0);
+	}
+
+	/**
+	 * Register this instance with the platform MBean server, so that it can
+	 * be monitored with JMX clients. The object name is
+	 * <code>com.ibm.realtime.synth:type=RenderMetrics,name=</code><i>name</i>.
+	 * 
+	 * @param name the name to distinguish several synthesizers
+	 * @return true if successfully registered
+	 */
+	public synchronized boolean registerMBean(String name) {
+		unregisterMBean();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName(JMX_DOMAIN
+					+ ":type=RenderMetrics,name=" + ObjectName.quote(name));
+			server.registerMBean(this, on);
+			objectName = on;
+			return true;
+		} catch (Exception e) {
+			error(e);
+		}
+		return false;
+	}
+
+	/**
+	 * Remove this instance from the platform MBean server, if registered.
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					objectName);
+		} catch (Exception e) {
+			error(e);
+		}
+		objectName = null;
+	}
+
+	// interface RenderMetricsMBean
+
+	public long getSliceCount() {
+		return sliceNanos.getTotalCount();
+	}
+
+	public long getOverrunCount() {
+		return overrunCount.get();
+	}
+
+	public double getSliceBudgetMicros() {
+		return budgetNanos / 1000.0;
+	}
+
+	public double getSliceAverageMicros() {
+		return sliceNanos.getAverage() / 1000.0;
+	}
+
+	public double getSliceP99Micros() {
+		return sliceNanos.getPercentile(99.0) / 1000.0;
+	}
+
+	public double getSliceP999Micros() {
+		return sliceNanos.getPercentile(99.9) / 1000.0;
+	}
+
+	public double getSliceMaxMicros() {
+		return sliceNanos.getMax() / 1000.0;
+	}
+
+	public double getLoadAveragePercent() {
+		return loadPercent.getAverage();
+	}
+
+	public long getLoadP99Percent() {
+		return loadPercent.getPercentile(99.0);
+	}
+
+	public long getLoadMaxPercent() {
+		return loadPercent.getMax();
+	}
+
+	public long getHeadroomPercent() {
+		return live().getHeadroomPercent();
+	}
+
+	public double getReadAverageMicros() {
+		return readNanos.getAverage() / 1000.0;
+	}
+
+	public double getReadP99Micros() {
+		return readNanos.getPercentile(99.0) / 1000.0;
+	}
+
+	public double getReadMaxMicros() {
+		return readNanos.getMax() / 1000.0;
+	}
+
+	public double getVoicesAverage() {
+		return voices.getAverage();
+	}
+
+	public long getVoicesP99() {
+		return voices.getPercentile(99.0);
+	}
+
+	public long getVoicesMax() {
+		return voices.getMax();
+	}
+
+	public long getEventQueueDepthP99() {
+		return queueDepth.getPercentile(99.0);
+	}
+
+	public long getEventQueueDepthMax() {
+		return queueDepth.getMax();
+	}
+
+	public double getDispatchLagP99Micros() {
+		return dispatchLagNanos.getPercentile(99.0) / 1000.0;
+	}
+
+	public double getDispatchLagMaxMicros() {
+		return dispatchLagNanos.getMax() / 1000.0;
+	}
+
+	public long getResyncCount() {
+		return resyncSamples.getTotalCount();
+	}
+
+	public double getJoinShareAveragePercent() {
+		return joinSharePercent.getAverage();
+	}
+
+	public double[] getRenderThreadBusyPercent() {
+		return computeBusyPercent(renderer);
+	}
+
+	public String getSummary() {
+		return live().toString();
+	}
+
+	/**
+	 * @return the share of each render thread in the busy time of all render
+	 *         threads, in percent
+	 */
+	private static double[] computeBusyPercent(
+			AsynchronousRenderer renderer) {
+		if (renderer == null) {
+			return new double[0];
+		}
+		long[] busy;
+		synchronized (renderer) {
+			busy = new long[renderer.getStatisticsThreadCount()];
+			for (int i = 0; i < busy.length; i++) {
+				busy[i] = renderer.getBusyNanos(i);
+			}
+		}
+		long total = 0;
+		for (int i = 0; i < busy.length; i++) {
+			total += busy[i];
+		}
+		double[] result = new double[busy.length];
+		for (int i = 0; i < busy.length; i++) {
+			result[i] = (total > 0) ? (busy[i] * 100.0 / total) : 0.0;
+		}
+		return result;
+	}
+
+	/**
+	 * A copy of the metrics at a given time.
+	 */
+	public static class Snapshot {
+		private final long nanoTime;
+		private final long budgetNanos;
+		private final long overrunCount;
+		private final Histogram sliceNanos;
+		private final Histogram loadPercent;
+		private final Histogram readNanos;
+		private final Histogram voices;
+		private final Histogram queueDepth;
+		private final Histogram dispatchLagNanos;
+		private final Histogram resyncSamples;
+		private final Histogram joinSharePercent;
+		private final double[] threadBusyPercent;
+
+		private Snapshot(RenderMetrics metrics, boolean copy) {
+			nanoTime = System.nanoTime();
+			budgetNanos = metrics.budgetNanos;
+			overrunCount = metrics.overrunCount.get();
+			sliceNanos = get(metrics.sliceNanos, copy);
+			loadPercent = get(metrics.loadPercent, copy);
+			readNanos = get(metrics.readNanos, copy);
+			voices = get(metrics.voices, copy);
+			queueDepth = get(metrics.queueDepth, copy);
+			dispatchLagNanos = get(metrics.dispatchLagNanos, copy);
+			resyncSamples = get(metrics.resyncSamples, copy);
+			joinSharePercent = get(metrics.joinSharePercent, copy);
+			threadBusyPercent = computeBusyPercent(metrics.renderer);
+		}
+
+		private static Histogram get(Histogram h, boolean copy) {
+			return copy ? h.copy() : h;
+		}
+
+		/**
+		 * @return the value of System.nanoTime() when this snapshot was
+		 *         taken
+		 */
+		public long getNanoTime() {
+			return nanoTime;
+		}
+
+		/**
+		 * @return the duration of the last slice, in nanoseconds
+		 */
+		public long getBudgetNanos() {
+			return budgetNanos;
+		}
+
+		/**
+		 * @return the number of slices that took longer than the slice time
+		 */
+		public long getOverrunCount() {
+			return overrunCount;
+		}
+
+		/**
+		 * @return the headroom of the render load in percent, i.e. 100
+		 *         minus the 99th percentile of the load
+		 */
+		public long getHeadroomPercent() {
+			return 100 - loadPercent.getPercentile(99.0);
+		}
+
+		/**
+		 * @return the slice render times, in nanoseconds
+		 */
+		public Histogram getSliceHistogram() {
+			return sliceNanos;
+		}
+
+		/**
+		 * @return the render load, in percent of the slice time
+		 */
+		public Histogram getLoadHistogram() {
+			return loadPercent;
+		}
+
+		/**
+		 * @return the AudioMixer.read() times, in nanoseconds
+		 */
+		public Histogram getReadHistogram() {
+			return readNanos;
+		}
+
+		/**
+		 * @return the number of active voices
+		 */
+		public Histogram getVoicesHistogram() {
+			return voices;
+		}
+
+		/**
+		 * @return the event queue depths
+		 */
+		public Histogram getEventQueueDepthHistogram() {
+			return queueDepth;
+		}
+
+		/**
+		 * @return the event dispatch lags, in nanoseconds
+		 */
+		public Histogram getDispatchLagHistogram() {
+			return dispatchLagNanos;
+		}
+
+		/**
+		 * @return the sink resynchronizations, in samples
+		 */
+		public Histogram getResyncHistogram() {
+			return resyncSamples;
+		}
+
+		/**
+		 * @return the pull thread's share of a slice, in percent
+		 */
+		public Histogram getJoinShareHistogram() {
+			return joinSharePercent;
+		}
+
+		/**
+		 * @return the share of each render thread in the busy time of all
+		 *         render threads, in percent
+		 */
+		public double[] getRenderThreadBusyPercent() {
+			return threadBusyPercent.clone();
+		}
+
+		/**
+		 * @return a multi-line summary of the metrics
+		 */
+		public String toString() {
+			StringBuffer sb = new StringBuffer();
+			sb.append("slices:       " + sliceNanos.getTotalCount()
+					+ ", budget " + format3(budgetNanos / 1000.0) + "us, "
+					+ overrunCount + " overruns, headroom "
+					+ getHeadroomPercent() + "%\n");
+			sb.append("render time:  " + sliceNanos.toString(1000.0, "us")
+					+ "\n");
+			sb.append("render load:  " + loadPercent.toString(1.0, "%")
+					+ "\n");
+			sb.append("mixer read:   " + readNanos.toString(1000.0, "us")
+					+ "\n");
+			sb.append("voices:       " + voices.toString(1.0, "") + "\n");
+			sb.append("event queue:  " + queueDepth.toString(1.0, "") + "\n");
+			sb.append("dispatch lag: "
+					+ dispatchLagNanos.toString(1000.0, "us") + "\n");
+			sb.append("resyncs:      " + resyncSamples.toString(1.0, " samples")
+					+ "\n");
+			sb.append("join share:   " + joinSharePercent.toString(1.0, "%"));
+			if (threadBusyPercent.length > 0) {
+				sb.append("\nrender threads busy:");
+				for (int i = 0; i < threadBusyPercent.length; i++) {
+					sb.append(" " + format1(threadBusyPercent[i]) + "%");
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Listener interface for classes that react to the render time of every
+	 * slice. The listener is called in the rendering thread, so it must
+	 * return quickly and should not create objects.
+	 */
+	public interface SliceListener {
+		/**
+		 * Called after a slice was rendered.
+		 * 
+		 * @param renderNanos the time used for rendering the slice
+		 * @param sliceNanos the duration of the slice
+		 */
+		public void sliceRendered(long renderNanos, long sliceNanos);
+	}
+}
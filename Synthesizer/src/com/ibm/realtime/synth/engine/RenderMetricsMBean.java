@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.engine;
+
+/**
+ * The management interface of RenderMetrics, for monitoring the render
+ * timing of a running synthesizer with JMX clients like jconsole. Times are
+ * in microseconds, loads in percent of the slice time.
+ * 
+ * @author florian
+ * @see RenderMetrics#registerMBean(String)
+ */
+public interface RenderMetricsMBean {
+
+	/** @return the number of rendered slices */
+	public long getSliceCount();
+
+	/** @return the number of slices that took longer than the slice time */
+	public long getOverrunCount();
+
+	/** @return the duration of the last slice, in microseconds */
+	public double getSliceBudgetMicros();
+
+	/** @return the average render time of a slice, in microseconds */
+	public double getSliceAverageMicros();
+
+	/** @return the 99th percentile of the slice render time */
+	public double getSliceP99Micros();
+
+	/** @return the 99.9th percentile of the slice render time */
+	public double getSliceP999Micros();
+
+	/** @return the longest slice render time, in microseconds */
+	public double getSliceMaxMicros();
+
+	/** @return the average render load, in percent of the slice time */
+	public double getLoadAveragePercent();
+
+	/** @return the 99th percentile of the render load */
+	public long getLoadP99Percent();
+
+	/** @return the highest render load, in percent of the slice time */
+	public long getLoadMaxPercent();
+
+	/**
+	 * @return the headroom of the render load: 100 minus the 99th percentile
+	 *         of the render load. A value close to or below 0 indicates that
+	 *         dropouts are imminent.
+	 */
+	public long getHeadroomPercent();
+
+	/** @return the average time of AudioMixer.read(), in microseconds */
+	public double getReadAverageMicros();
+
+	/** @return the 99th percentile of the AudioMixer.read() time */
+	public double getReadP99Micros();
+
+	/** @return the longest AudioMixer.read() time, in microseconds */
+	public double getReadMaxMicros();
+
+	/** @return the average number of active voices per slice */
+	public double getVoicesAverage();
+
+	/** @return the 99th percentile of the number of active voices */
+	public long getVoicesP99();
+
+	/** @return the maximum number of active voices */
+	public long getVoicesMax();
+
+	/** @return the 99th percentile of the event queue depth */
+	public long getEventQueueDepthP99();
+
+	/** @return the maximum event queue depth */
+	public long getEventQueueDepthMax();
+
+	/** @return the 99th percentile of the event dispatch lag */
+	public double getDispatchLagP99Micros();
+
+	/** @return the maximum event dispatch lag, in microseconds */
+	public double getDispatchLagMaxMicros();
+
+	/** @return the number of resynchronizations of the audio sink */
+	public long getResyncCount();
+
+	/**
+	 * @return the average share of the batches of a slice that the pull
+	 *         thread rendered itself, in percent
+	 */
+	public double getJoinShareAveragePercent();
+
+	/**
+	 * @return the share of each render thread in the total busy time of the
+	 *         render threads, in percent
+	 */
+	public double[] getRenderThreadBusyPercent();
+
+	/** @return a multi-line summary of all metrics */
+	public String getSummary();
+
+	/** Clear all metrics */
+	public void reset();
+}
@@ -44,6 +44,15 @@ public interface Renderable {
 	 */
 	public boolean render(AudioTime time);
 
+	/**
+	 * Render the next buffer for the passed time in nanoseconds.
+	 * 
+	 * @param nanoTime the time of the buffer to be rendered, in nanoseconds
+	 * @return true if the method actually rendered
+	 * @see #render(AudioTime)
+	 */
+	public boolean render(long nanoTime);
+
 	/**
 	 * Checks if this Renderable has already rendered a buffer for the 
 	 * specified time. This method should allow for 125microseconds grace time
@@ -55,4 +64,25 @@ public interface Renderable {
 	 */
 	public boolean alreadyRendered(AudioTime currTime);
 
+	/**
+	 * Checks if this Renderable has already rendered a buffer for the
+	 * specified time in nanoseconds.
+	 * 
+	 * @param nanoTime the time to be tested, in nanoseconds
+	 * @return true if this Renderable has already rendered a block of audio
+	 *         data for the specified time.
+	 * @see #alreadyRendered(AudioTime)
+	 */
+	public boolean alreadyRendered(long nanoTime);
+
+	/**
+	 * Return the time it took to render the last buffer. This is used as an
+	 * estimate for the cost of rendering the next buffer, so that the work
+	 * can be distributed evenly to several threads.
+	 * 
+	 * @return the duration of the last render() call that actually rendered,
+	 *         in nanoseconds, or 0 if not known
+	 */
+	public long getRenderCost();
+
 }
@@ -28,8 +28,12 @@ package com.ibm.realtime.synth.engine;
 import static com.ibm.realtime.synth.utils.Debug.*;
 
 import com.ibm.realtime.synth.utils.AsynchExec;
+import com.ibm.realtime.synth.utils.AudioUtils;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /*
  * TODO: Note On events (and controller events?) should be dispatched *before*
@@ -106,7 +110,8 @@ import java.util.*;
  * 
  * @author florian
  */
-public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
+public class Synthesizer implements MidiIn.ShortMessageListener,
+		AudioRendererListener,
 		AsynchExec.Listener<MidiEvent> {
 
 	public static boolean DEBUG_SYNTH = false;
@@ -132,6 +137,12 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 */
 	public static int ASYNCH_RENDER_STREAM_THRESHOLD = 10;
 
+	/**
+	 * The default maximum number of simultaneously playing NoteInput
+	 * instances. Note that a stereo note counts as 2 voices.
+	 */
+	public static final int DEFAULT_MAX_POLYPHONY = 256;
+
 	/**
 	 * Mode for setNoteDispatcherMode: do not use a separate thread
 	 */
@@ -178,16 +189,17 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	/**
 	 * The end time of the last rendered audio slice i.e. the start time of the
 	 * next slice to be rendered. So this time has already passed and all events
-	 * to be scheduled before this time must be immediately processed
+	 * to be scheduled before this time must be immediately processed. In
+	 * nanoseconds.
 	 */
-	private volatile AudioTime nextAudioSliceTime = new AudioTime(0);
+	private volatile long nextAudioSliceNanos = 0;
 
 	/**
 	 * Keep track of the duration of the last audio slice in order to
 	 * extrapolate the duration of the next audio slice. This is used in the
-	 * asynchronous event dispatcher.
+	 * asynchronous event dispatcher. In nanoseconds.
 	 */
-	private AudioTime nextAudioSliceDuration = new AudioTime(0);
+	private volatile long nextAudioSliceDurationNanos = 0;
 
 	/**
 	 * An optional pointer to the audio clock of the rendering device, with
@@ -233,6 +245,19 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 */
 	private boolean schedulingOfRealtimeEvents = true;
 
+	/**
+	 * If set, slices are split at the time stamps of the dispatched events,
+	 * so that note offs, controllers and pitch wheel changes take effect at
+	 * their exact sample.
+	 */
+	private volatile boolean sampleAccurateEvents = true;
+
+	/**
+	 * Temporary array of the mixer's streams, used for splitting slices.
+	 * Only accessed by the thread dispatching the events.
+	 */
+	private AudioInput[] splitStreams = null;
+
 	/**
 	 * the MIDI note number mapped in benchmark mode. This should be a drum note
 	 * with sharp attack.
@@ -243,6 +268,27 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 
 	private boolean started = false;
 
+	/**
+	 * The maximum number of playing voices. If a new note would exceed this
+	 * number, other voices are stolen. 0 for unlimited polyphony.
+	 */
+	private int maxPolyphony = DEFAULT_MAX_POLYPHONY;
+
+	/**
+	 * An additional polyphony limit imposed by the load governor, or 0.
+	 */
+	private volatile int polyphonyLimit = 0;
+
+	/**
+	 * The load governor adapting the render quality, or null.
+	 */
+	private LoadGovernor loadGovernor = null;
+
+	/**
+	 * statistics: the number of voices stopped by voice stealing
+	 */
+	private int stolenVoiceCount = 0;
+
 	/**
 	 * Constructor without parameters. This will create a default mixer to be
 	 * used.
@@ -342,7 +388,73 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 			throw new IllegalArgumentException(
 					"may not set the synth's mixer to null");
 		}
+		if (aMixer != null && loadGovernor != null
+				&& aMixer.getMetrics().getSliceListener() == loadGovernor) {
+			aMixer.getMetrics().setSliceListener(null);
+		}
 		this.aMixer = mixer;
+		mixer.setFloatRendering(params.isFloatRendering());
+		if (asynchRenderer != null) {
+			asynchRenderer.setMetrics(mixer.getMetrics());
+		}
+		if (loadGovernor != null) {
+			mixer.getMetrics().setSliceListener(loadGovernor);
+		}
+	}
+
+	/**
+	 * @return the load governor, or null if the render quality is not
+	 *         adapted to the load
+	 */
+	public synchronized LoadGovernor getLoadGovernor() {
+		return loadGovernor;
+	}
+
+	/**
+	 * Set the load governor that adapts the render quality to the load of
+	 * the slices rendered from this synthesizer's mixer. The previous
+	 * governor, if any, is detached and full quality is restored.
+	 * 
+	 * @param governor the governor for this synthesizer, or null
+	 */
+	public synchronized void setLoadGovernor(LoadGovernor governor) {
+		if (governor != null && governor.getSynthesizer() != this) {
+			throw new IllegalArgumentException(
+					"the load governor belongs to another synthesizer");
+		}
+		if (loadGovernor != null) {
+			if (aMixer != null
+					&& aMixer.getMetrics().getSliceListener() == loadGovernor) {
+				aMixer.getMetrics().setSliceListener(null);
+			}
+			loadGovernor.reset();
+		}
+		loadGovernor = governor;
+		if (governor != null && aMixer != null) {
+			aMixer.getMetrics().setSliceListener(governor);
+		}
+	}
+
+	/**
+	 * @return true if notes are rendered and mixed in single precision
+	 */
+	public boolean isFloatRendering() {
+		return params.isFloatRendering();
+	}
+
+	/**
+	 * Select single precision (float) or double precision rendering. In float
+	 * mode, new notes are rendered into FloatAudioBuffers, and the mixer
+	 * requests the AudioPullThread to mix into a FloatAudioBuffer. Notes that
+	 * are already playing keep their current precision.
+	 * 
+	 * @param floatRendering true for single precision rendering
+	 */
+	public synchronized void setFloatRendering(boolean floatRendering) {
+		params.setFloatRendering(floatRendering);
+		if (aMixer != null) {
+			aMixer.setFloatRendering(floatRendering);
+		}
 	}
 
 	/**
@@ -380,6 +492,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		} else {
 			if (asynchRenderer == null) {
 				asynchRenderer = new AsynchronousRenderer(count);
+				asynchRenderer.setMetrics(getMixer().getMetrics());
 			} else {
 				asynchRenderer.setThreadCount(count);
 			}
@@ -403,6 +516,14 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 				: asynchRenderer.getThreadCount();
 	}
 
+	/**
+	 * @return the asynchronous renderer, e.g. for retrieving its statistics,
+	 *         or null if no render threads were ever used
+	 */
+	public synchronized AsynchronousRenderer getAsynchronousRenderer() {
+		return asynchRenderer;
+	}
+
 	/**
 	 * Either enable the asynchronous note dispatcher or disable it. If it is
 	 * disabled, note dispatching is done from the newAudioSlice callback.
@@ -580,6 +701,93 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		this.schedulingOfRealtimeEvents = value;
 	}
 
+	/**
+	 * @return the polyphony limit imposed by the load governor, or 0
+	 */
+	int getPolyphonyLimit() {
+		return polyphonyLimit;
+	}
+
+	/**
+	 * Set an additional polyphony limit, used by the load governor. The
+	 * lower one of this limit and maxPolyphony is effective.
+	 * 
+	 * @param limit the number of voices, or 0 for no additional limit
+	 */
+	void setPolyphonyLimit(int limit) {
+		if (limit < 0) {
+			limit = 0;
+		}
+		this.polyphonyLimit = limit;
+	}
+
+	/**
+	 * @return true if events are rendered sample accurately
+	 * @see #setSampleAccurateEvents(boolean)
+	 */
+	public boolean isSampleAccurateEvents() {
+		return sampleAccurateEvents;
+	}
+
+	/**
+	 * Enable sample accurate rendering of events. If enabled, the playing
+	 * notes on a channel are rendered up to the position of an event inside
+	 * the current slice before the event is dispatched, so that note offs,
+	 * controllers and pitch wheel changes take effect at their exact sample
+	 * rather than at the start of the slice. Note ons are always inserted at
+	 * their exact sample. This allows large slices without losing timing
+	 * accuracy.
+	 * <p>
+	 * Sample accurate events require control block rendering (see
+	 * Params.setControlBlockSize()), and are only available if the events are
+	 * dispatched in newAudioSlice(), i.e. without note dispatcher thread.
+	 * Changes of the channel volume and pan are still ramped over the slice.
+	 */
+	public void setSampleAccurateEvents(boolean value) {
+		this.sampleAccurateEvents = value;
+	}
+
+	/**
+	 * @return the maximum number of simultaneously playing voices, or 0 for
+	 *         unlimited polyphony
+	 */
+	public int getMaxPolyphony() {
+		return maxPolyphony;
+	}
+
+	/**
+	 * Set the maximum number of simultaneously playing voices. If a new note
+	 * exceeds this number, playing voices are stolen: first the oldest
+	 * released voices, then the quietest voices (by current volume envelope
+	 * level), then the oldest voices. Linked voices (e.g. stereo pairs) are
+	 * always stolen together.
+	 * 
+	 * @param maxPolyphony the number of voices, or 0 for unlimited polyphony
+	 */
+	public void setMaxPolyphony(int maxPolyphony) {
+		if (maxPolyphony < 0) {
+			maxPolyphony = 0;
+		}
+		this.maxPolyphony = maxPolyphony;
+	}
+
+	/**
+	 * @return the number of voices that were stopped by voice stealing since
+	 *         the start of this synthesizer
+	 */
+	public int getStolenVoiceCount() {
+		return stolenVoiceCount;
+	}
+
+	/**
+	 * @return the number of voices that were retired early because they were
+	 *         inaudible, since the start of this synthesizer
+	 * @see Params#setSilenceThreshold(double)
+	 */
+	public int getSilentVoiceCount() {
+		return params.getSilentVoiceCount();
+	}
+
 	// ////////////////////////////////////////////////////
 
 	/**
@@ -596,7 +804,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 			}
 		}
 		reset();
-		nextAudioSliceTime = new AudioTime(0);
+		nextAudioSliceNanos = 0;
 	}
 
 	/**
@@ -609,11 +817,16 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	public void reset() {
 		AudioMixer localMixer = getMixer();
 		if (localMixer == null) return;
-		AudioInput[] lines = localMixer.getAudioStreamsArray();
-		for (AudioInput ai : lines) {
-			if (ai instanceof NoteInput) {
-				((NoteInput) ai).stopAsap();
+		long readerEpoch = localMixer.enterReader();
+		try {
+			AudioInput[] lines = localMixer.getAudioStreamsArray();
+			for (AudioInput ai : lines) {
+				if (ai instanceof NoteInput) {
+					((NoteInput) ai).stopAsap();
+				}
 			}
+		} finally {
+			localMixer.exitReader(readerEpoch);
 		}
 		for (MidiChannel channel : channels) {
 			if (channel != null) {
@@ -663,7 +876,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 						&& patch.getBank() == bank
 						&& patch.getProgram() == program && !ni.done()) {
 					if (DEBUG_SYNTH) {
-						debug("Synth " + nextAudioSliceTime.getMillisTime()
+						debug("Synth " + (nextAudioSliceNanos / 1000000L)
 								+ ": stopping exclusive note, level="
 								+ patch.getExclusiveLevel() + " note:" + ni);
 					}
@@ -679,10 +892,10 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 * <li>localMixer!=null
 	 * 
 	 * @param channel
-	 * @param time
+	 * @param nanoTime
 	 */
 	private void releaseSustainedNotes(AudioMixer localMixer,
-			MidiChannel channel, AudioTime time) {
+			MidiChannel channel, long nanoTime) {
 		AudioInput[] lines = localMixer.getAudioStreamsArray();
 		for (AudioInput ai : lines) {
 			if (ai instanceof NoteInput) {
@@ -690,9 +903,9 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 				if (ni.getMidiChannel() == channel && ni.isReleaseInhibited()
 						&& !ni.done()) {
 					// no need to check linked notes
-					ni.release(time);
+					ni.release(nanoTime);
 					if (DEBUG_SYNTH) {
-						debug("Synth " + nextAudioSliceTime.getMillisTime()
+						debug("Synth " + (nextAudioSliceNanos / 1000000L)
 								+ ": releasing sustained note:" + ni);
 					}
 				}
@@ -705,20 +918,20 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 * <li>localMixer!=null
 	 * 
 	 * @param channel
-	 * @param time
+	 * @param nanoTime
 	 * @param active
 	 */
 	private void handleSostenuto(AudioMixer localMixer, MidiChannel channel,
-			AudioTime time, boolean active) {
+			long nanoTime, boolean active) {
 		AudioInput[] lines = localMixer.getAudioStreamsArray();
 		for (AudioInput ai : lines) {
 			if (ai instanceof NoteInput) {
 				NoteInput ni = (NoteInput) ai;
 				if (ni.getMidiChannel() == channel && !ni.done()) {
 					// no need to check linked notes
-					ni.setSostenuto(time, active);
+					ni.setSostenuto(nanoTime, active);
 					if (DEBUG_SYNTH) {
-						debug("Synth " + nextAudioSliceTime.getMillisTime()
+						debug("Synth " + (nextAudioSliceNanos / 1000000L)
 								+ ": " + "setting sostenuto to " + active
 								+ ": note:" + ni);
 					}
@@ -735,7 +948,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 */
 	private void handleAllSoundOff(AudioMixer localMixer, MidiChannel channel) {
 		if (DEBUG_SYNTH) {
-			debug("Synth " + nextAudioSliceTime.getMillisTime()
+			debug("Synth " + (nextAudioSliceNanos / 1000000L)
 					+ ": all sound off channel " + channel);
 		}
 		AudioInput[] lines = localMixer.getAudioStreamsArray();
@@ -755,12 +968,12 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 * <li>localMixer!=null
 	 * 
 	 * @param channel
-	 * @param time
+	 * @param nanoTime
 	 */
 	private void handleAllNotesOff(AudioMixer localMixer, MidiChannel channel,
-			AudioTime time) {
+			long nanoTime) {
 		if (DEBUG_SYNTH) {
-			debug("Synth " + nextAudioSliceTime.getMillisTime()
+			debug("Synth " + (nextAudioSliceNanos / 1000000L)
 					+ ": all notes off channel " + channel);
 		}
 		AudioInput[] lines = localMixer.getAudioStreamsArray();
@@ -769,25 +982,137 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 				NoteInput ni = (NoteInput) ai;
 				if (ni.getMidiChannel() == channel && !ni.done()) {
 					// no need to check linked notes
-					ni.release(time);
+					ni.release(nanoTime);
 				}
 			}
 		}
 	}
 
-	private void stopAsap(NoteInput ni) {
+	/**
+	 * Stop ni and all NoteInputs linked with it, starting with the first
+	 * one of the chain, so that stereo pairs and layers stop together.
+	 * 
+	 * @return the number of voices of the chain that were playing, i.e. not
+	 *         stopping and not done
+	 */
+	private int stopAsap(NoteInput ni) {
+		ni = ni.firstLinkedNoteInput;
 		NoteInput firstNI = ni;
+		int count = 0;
 		do {
+			if (!ni.isStopping() && !ni.done()) {
+				count++;
+			}
 			ni.stopAsap();
 			ni = ni.getLinkedNoteInput();
 		} while (ni != null && ni != firstNI);
+		return count;
+	}
+
+	/**
+	 * @return the number of voices in the chain of linked NoteInputs that ni
+	 *         belongs to
+	 */
+	private static int getLinkedCount(NoteInput ni) {
+		ni = ni.firstLinkedNoteInput;
+		NoteInput firstNI = ni;
+		int count = 0;
+		do {
+			count++;
+			ni = ni.getLinkedNoteInput();
+		} while (ni != null && ni != firstNI);
+		return count;
+	}
+
+	/**
+	 * @return true if ni is a better candidate for voice stealing than
+	 *         current.
+	 */
+	private static boolean isBetterVictim(NoteInput ni, NoteInput current) {
+		if (current == null) {
+			return true;
+		}
+		// 1. released notes first
+		if (ni.isReleased() != current.isReleased()) {
+			return ni.isReleased();
+		}
+		// 2. quietest notes first (released notes are only sorted by age)
+		if (!ni.isReleased()) {
+			double level = ni.getArticulation().getCurrentLevel();
+			double currLevel = current.getArticulation().getCurrentLevel();
+			if (level != currLevel) {
+				return level < currLevel;
+			}
+		}
+		// 3. oldest notes first
+		return ni.getStartTime() < current.getStartTime();
+	}
+
+	/**
+	 * Make sure that the number of playing voices, plus newVoices, does not
+	 * exceed maxPolyphony (or the polyphony limit of the load governor) by
+	 * stopping playing voices.
+	 * <p>
+	 * pre-conditions:
+	 * <li>localMixer!=null
+	 * 
+	 * @param newVoices the number of voices about to be added to the mixer
+	 */
+	private void stealVoices(AudioMixer localMixer, int newVoices) {
+		int localMaxPolyphony = maxPolyphony;
+		int limit = polyphonyLimit;
+		if (limit > 0 && (localMaxPolyphony <= 0 || limit < localMaxPolyphony)) {
+			localMaxPolyphony = limit;
+		}
+		if (localMaxPolyphony <= 0) return;
+		AudioInput[] lines = localMixer.getAudioStreamsArray();
+		int playing = 0;
+		for (AudioInput ai : lines) {
+			if (ai instanceof NoteInput) {
+				NoteInput ni = (NoteInput) ai;
+				if (!ni.isStopping() && !ni.done()) {
+					playing++;
+				}
+			}
+		}
+		while (playing + newVoices > localMaxPolyphony) {
+			NoteInput victim = null;
+			for (AudioInput ai : lines) {
+				if (ai instanceof NoteInput) {
+					NoteInput ni = (NoteInput) ai;
+					if (!ni.isStopping() && !ni.done()) {
+						// linked voices are ranked and stolen as one chain,
+						// represented by its first voice
+						ni = ni.firstLinkedNoteInput;
+						if (isBetterVictim(ni, victim)) {
+							victim = ni;
+						}
+					}
+				}
+			}
+			if (victim == null) {
+				break;
+			}
+			if (DEBUG_SYNTH) {
+				debug("Synth " + (nextAudioSliceNanos / 1000000L)
+						+ ": stealing voice "
+						+ victim
+						+ (victim.isReleased() ? " (released)" : ", level="
+								+ format3(victim.getArticulation().getCurrentLevel())));
+			}
+			int count = stopAsap(victim);
+			playing -= count;
+			stolenVoiceCount += count;
+		}
 	}
 
-	private void noteOn(AudioTime time, MidiChannel channel, int note, int vel) {
+	private void noteOn(long nanoTime, MidiChannel channel, int note, int vel) {
 		Soundbank localSoundbank = getSoundbank();
 		AudioMixer localMixer = getMixer();
 		if (localSoundbank == null || localMixer == null) return;
 
+		// the Soundbank interface takes the time as an AudioTime object
+		AudioTime time = new AudioTime(nanoTime);
 		NoteInput firstNoteStream = localSoundbank.createNoteInput(params,
 				time, channel, note, vel);
 		NoteInput thisNoteStream = firstNoteStream;
@@ -805,7 +1130,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 				NoteInput ni = getNoteFromMixer(localMixer, channel, note);
 				if (ni != null) {
 					if (DEBUG_SYNTH) {
-						debug("Synth " + nextAudioSliceTime.getMillisTime()
+						debug("Synth " + (nextAudioSliceNanos / 1000000L)
 								+ ": " + "stopping self-exclusive note " + ni);
 					}
 					stopAsap(ni);
@@ -814,13 +1139,15 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 
 			if (patch.getExclusiveLevel() != 0) {
 				if (DEBUG_SYNTH) {
-					debug("Synth " + nextAudioSliceTime.getMillisTime() + ": "
+					debug("Synth " + (nextAudioSliceNanos / 1000000L) + ": "
 							+ "playing exclusive note, level="
 							+ patch.getExclusiveLevel());
 				}
 				stopExclusiveNotes(localMixer, patch.getExclusiveLevel(),
 						channel.getProgram(), channel.getBank());
 			}
+			// enforce the polyphony limit
+			stealVoices(localMixer, getLinkedCount(firstNoteStream));
 			// loop through all linked streams
 			do {
 				// allow identification of this NoteInput with the corresponding
@@ -831,15 +1158,15 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 				if (DEBUG_SYNTH_TIMING) {
 					if (thisNoteStream != firstNoteStream) {
 						debug("Synth NoteOn: nextAudioSlice="
-								+ nextAudioSliceTime.getMillisTime() + "ms. "
+								+ (nextAudioSliceNanos / 1000000L) + "ms. "
 								+ "adding linked instrument with "
-								+ time.subtract(nextAudioSliceTime)
+								+ time.subtract(nextAudioSliceNanos)
 								+ " delay: " + thisNoteStream);
 					} else {
 						debug("Synth NoteOn: nextAudioSlice="
-								+ nextAudioSliceTime.getMillisTime() + "ms. "
+								+ (nextAudioSliceNanos / 1000000L) + "ms. "
 								+ "adding instrument with "
-								+ time.subtract(nextAudioSliceTime)
+								+ time.subtract(nextAudioSliceNanos)
 								+ " delay: " + thisNoteStream);
 					}
 				}
@@ -852,7 +1179,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		}
 	}
 
-	private void noteOff(AudioTime time, MidiChannel channel, int note) {
+	private void noteOff(long nanoTime, MidiChannel channel, int note) {
 		AudioMixer localMixer = getMixer();
 		if (localMixer == null) return;
 
@@ -873,7 +1200,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 						}
 					}
 					if (!ni.done()) {
-						ni.release(time);
+						ni.release(nanoTime);
 					}
 				}
 			}
@@ -882,50 +1209,59 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 
 	/**
 	 * The main MIDI event parsing and dispatching method
-	 * 
-	 * @param event the event to get dispatched
 	 */
-	private final void dispatchEvent(MidiEvent event) {
+	private final void dispatchEvent(MidiIn source, long nanoTime,
+			int channel, int status, int data1, int data2) {
 		if (DEBUG_SYNTH_IO) {
-			debug("Synth: Dispatching MIDI event " + event);
+			debug("Synth: Dispatching MIDI event "
+					+ eventToString(nanoTime, channel, status, data1, data2));
 		}
-		MidiChannel channel = getChannel(event.getChannel());
-		switch (event.getStatus()) {
-		case 0x80: // NOTE OFF
-			noteOff(event.getTime(), channel, event.getData1());
-			break;
-		case 0x90: // NOTE ON
-			if (event.getData2() == 0) {
-				// NOTE ON with velocity=0 is equivalent to NOTE OFF
-				noteOff(event.getTime(), channel, event.getData1());
-			} else {
-				noteOn(event.getTime(), channel, event.getData1(),
-						event.getData2());
+		// the voices found in the mixer must not be recycled while this event
+		// is dispatched
+		AudioMixer readerMixer = getMixer();
+		long readerEpoch = (readerMixer != null) ? readerMixer.enterReader() : 0;
+		try {
+			MidiChannel midiChannel = getChannel(channel);
+			switch (status) {
+			case 0x80: // NOTE OFF
+				noteOff(nanoTime, midiChannel, data1);
+				break;
+			case 0x90: // NOTE ON
+				if (data2 == 0) {
+					// NOTE ON with velocity=0 is equivalent to NOTE OFF
+					noteOff(nanoTime, midiChannel, data1);
+				} else {
+					noteOn(nanoTime, midiChannel, data1, data2);
+				}
+				break;
+			case 0xB0: // Controller Change
+				midiChannel.parseController(data1, data2);
+				handleControlChange(nanoTime, midiChannel, data1, data2);
+				break;
+			case 0xC0: // Program Change
+				midiChannel.parseProgramChange(data1);
+				break;
+			case 0xD0: // Channel Pressure
+				midiChannel.parseChannelPressure(data1);
+				break;
+			case 0xE0: // Pitch Wheel
+				midiChannel.setPitchWheel(data2, data1);
+				handlePitchWheel(midiChannel);
+				break;
+			}
+		} finally {
+			if (readerMixer != null) {
+				readerMixer.exitReader(readerEpoch);
 			}
-			break;
-		case 0xB0: // Controller Change
-			channel.parseController(event.getData1(), event.getData2());
-			handleControlChange(event.getTime(), channel, event.getData1(),
-					event.getData2());
-			break;
-		case 0xC0: // Program Change
-			channel.parseProgramChange(event.getData1());
-			break;
-		case 0xD0: // Channel Pressure
-			channel.parseChannelPressure(event.getData1());
-			break;
-		case 0xE0: // Pitch Wheel
-			channel.setPitchWheel(event.getData2(), event.getData1());
-			handlePitchWheel(channel);
-			break;
 		}
 		if (listeners.size() > 0) {
 			// send this event to all listeners (asynchronously)
-			listenerHandler.invokeLater(event);
+			listenerHandler.invokeLater(new MidiEvent(source, nanoTime,
+					channel, status, data1, data2));
 		}
 	}
 
-	private void handleControlChange(AudioTime time, MidiChannel channel,
+	private void handleControlChange(long nanoTime, MidiChannel channel,
 			int num, int data) {
 		AudioMixer localMixer = getMixer();
 		if (localMixer == null) return;
@@ -933,11 +1269,11 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		switch (num) {
 		case MidiChannel.SUSTAIN_PEDAL:
 			if (data < 64) {
-				releaseSustainedNotes(localMixer, channel, time);
+				releaseSustainedNotes(localMixer, channel, nanoTime);
 			}
 			break;
 		case MidiChannel.SOSTENUTO_PEDAL:
-			handleSostenuto(localMixer, channel, time, data >= 64);
+			handleSostenuto(localMixer, channel, nanoTime, data >= 64);
 			break;
 		case MidiChannel.ALL_SOUND_OFF:
 			handleAllSoundOff(localMixer, channel);
@@ -947,7 +1283,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 			// controllers?
 			break;
 		case MidiChannel.ALL_NOTES_OFF:
-			handleAllNotesOff(localMixer, channel, time);
+			handleAllNotesOff(localMixer, channel, nanoTime);
 			break;
 		}
 		// notify the articulation modules of all playing notes on this channel
@@ -984,61 +1320,76 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	// listener MidiIn.Listener
 
 	/**
-	 * Receive an event. The event's time should be aligned with the time of the
-	 * Mixer, i.e. with the time passed to newAudioSlice().
+	 * Receive an event. Long events and real time events are ignored, all
+	 * other events are passed on to the primitive version of this method.
+	 * 
+	 * @see #midiInReceived(MidiIn, long, int, int, int, int)
+	 */
+	public void midiInReceived(MidiEvent event) {
+		if (event.isLong() || event.isRealtimeEvent()) {
+			if (DEBUG_SYNTH_IO) {
+				debug("Synth: Ignoring incoming MIDI event: " + event);
+			}
+			return;
+		}
+		midiInReceived(event.getSource(), event.getTime().getNanoTime(),
+				event.getChannel(), event.getStatus(), event.getData1(),
+				event.getData2());
+	}
+
+	// listener MidiIn.ShortMessageListener
+
+	/**
+	 * Receive a short event. The event's time should be aligned with the time
+	 * of the Mixer, i.e. with the time passed to newAudioSlice().
 	 * <p>
-	 * The event's time (plus the FixedDelayOffset) is compared to the last
-	 * audio slice's time. If it is smaller, it should have already been played
-	 * and it is dispatched and parsed immediately. All other events (except
-	 * long events and real time events) are added to the scheduler queue which
-	 * is processed in newAudioSlice().
+	 * The event's time plus the FixedDelayOffset is used to schedule the
+	 * event. All events (except real time events) are added to the scheduler
+	 * queue which is processed in newAudioSlice(), or by the asynchronous note
+	 * dispatcher. This method does not allocate objects.
 	 */
 	// note: this method must not be synchronized, otherwise deadlock with
 	// newAudioSlice()!
-	public void midiInReceived(MidiEvent event) {
+	public void midiInReceived(MidiIn source, long nanoTime, int channel,
+			int status, int data1, int data2) {
+		if (status > 0xF0) {
+			// real time events are not scheduled
+			return;
+		}
 
 		// add the fixed delay to the event's time
-		AudioTime eventTime;
-		if (event.getTime().getNanoTime() == 0) {
+		long eventTime;
+		if (nanoTime == 0) {
 			// time==0 means to schedule immediately
 			if (masterClock != null && schedulingOfRealtimeEvents) {
-				eventTime = masterClock.getAudioTime().add(fixedDelayNanos);
+				eventTime = masterClock.getAudioTime().getNanoTime()
+						+ fixedDelayNanos;
 			} else {
 				// just insert it at the beginning of the next buffer
-				eventTime = event.getTime();
+				eventTime = 0;
 			}
 		} else {
-			eventTime = event.getTime().add(fixedDelayNanos);
+			eventTime = nanoTime + fixedDelayNanos;
 		}
 		if (DEBUG_SYNTH_IO) {
-			// if (event.getStatus() == 0x90 && startDebugTime == 0) {
-			// startDebugTime = System.nanoTime();
-			// }
-			// debug("Synth "+((System.nanoTime() - startDebugTime)/1000000)+":
-			// Incoming MIDI event " + event);
-			debug("Synth: Incoming MIDI event: " + event);
-		}
-		// patch the event so that it has the corrected time
+			debug("Synth: Incoming MIDI event: "
+					+ eventToString(eventTime, channel, status, data1, data2));
+		}
 		if (benchmarkMode) {
 			// in benchmark mode, set channel to 10, note to 32 and velocity to
 			// 127 */
-			int status = event.getStatus() & 0xF0;
-			if (status == 0x90 && event.getData2() > 0) {
-				event = new MidiEvent(event.getSource(), eventTime,
-						9 /* 0-based */, event.getStatus(), BENCHMARK_NOTE,
-						0x7F);
-			} else {
-				// just change channel to 10
-				event = event.cloneNewTimeChannel(eventTime, 9 /* 0-based */);
+			if (status == 0x90 && data2 > 0) {
+				data1 = BENCHMARK_NOTE;
+				data2 = 0x7F;
 			}
-		} else {
-			event = event.clone(eventTime);
+			// change channel to 10
+			channel = 9; /* 0-based */
 		}
 		if (DEBUG_SYNTH_TIMING) {
 			String add = "";
 			if (masterClock != null) {
 				long master = masterClock.getAudioTime().getMillisTime();
-				long masterSliceDiff = nextAudioSliceTime.getMillisTime()
+				long masterSliceDiff = (nextAudioSliceNanos / 1000000L)
 						- master;
 				add = " | master=" + master + "ms, masterSliceDiff="
 						+ masterSliceDiff + "ms";
@@ -1047,11 +1398,11 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 							+ "ms!";
 				}
 			}
-			long eventSliceDiff = eventTime.getMillisTime()
-					- nextAudioSliceTime.getMillisTime();
+			long eventSliceDiff = (eventTime / 1000000L)
+					- (nextAudioSliceNanos / 1000000L);
 			debug("Synth: Incoming: " + "adjustedEventTime="
-					+ eventTime.getMillisTime() + "ms, " + "nextSlice="
-					+ nextAudioSliceTime.getMillisTime() + "ms, "
+					+ (eventTime / 1000000L) + "ms, " + "nextSlice="
+					+ (nextAudioSliceNanos / 1000000L) + "ms, "
 					+ "eventSliceDiff=" + eventSliceDiff + "ms" + add);
 			if (DEBUG_SYNTH) debugShowAudioTime += 2;
 		}
@@ -1062,19 +1413,16 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		// before the next audio slice anyway, in which case it will
 		// be retrieved from the queue anyway. Enqueuing all events
 		// increases predictability.
-		// // don't queue if the event is already too late
-		// if (nextAudioSliceTime.laterOrEqualThan(eventTime)) {
-		// if (DEBUG_SYNTH) {
-		// debug("## Synth: event comes too late for correct scheduling! "
-		// + "event=" + event);
-		// }
-		// dispatchEvent(event);
-		// } else {
-		if (!event.isLong() && !event.isRealtimeEvent()) {
-			// schedule this event for usage by newAudioSlice callback
-			eventQueue.offer(event);
-		}
-		// }
+		// schedule this event for usage by newAudioSlice callback
+		eventQueue.offer(source, eventTime, channel, status, data1, data2);
+	}
+
+	/**
+	 * @return a string representation of a short MIDI event, for debugging
+	 */
+	private static String eventToString(long nanoTime, int channel,
+			int status, int data1, int data2) {
+		return new MidiEvent(null, nanoTime, channel, status, data1, data2).toString();
 	}
 
 	// listener AudioRendererListener
@@ -1082,18 +1430,18 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	 * goes through the queued MIDI events and dispatch/execute them. If an
 	 * asynchronous renderer is used, start rendering the new slice.
 	 */
-	public final void newAudioSlice(AudioTime time, AudioTime duration) {
-		AudioTime nextNextAudioSliceTime = time.add(duration);
-		nextAudioSliceDuration = duration;
+	public final void newAudioSlice(long nanoTime, long durationNanos) {
+		long nextNextAudioSliceNanos = nanoTime + durationNanos;
+		nextAudioSliceDurationNanos = durationNanos;
 
 		if (DEBUG_SYNTH) {
 			if (debugShowAudioTime > 0) {
 				debug("Synth.newAudioSlice: Audio Time: "
-						+ time.getMillisTime() + "ms, queue size="
+						+ (nanoTime / 1000000L) + "ms, queue size="
 						+ eventQueue.size());
 				if (masterClock != null) {
 					long master = masterClock.getAudioTime().getMillisTime();
-					long diff = (time.getMillisTime() - master);
+					long diff = ((nanoTime / 1000000L) - master);
 					debug("           master:" + master
 							+ "ms, masterSliceDiff=" + diff + "ms.");
 					if (diff > (fixedDelayNanos / 1000000)) {
@@ -1105,23 +1453,102 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 			}
 		}
 
-		if (!isNoteDispatcherRunning()) {
-			synchronized (eventQueue) {
-				while (eventQueue.lastIsEarlier(nextNextAudioSliceTime)) {
-					dispatchEvent(eventQueue.poll());
+		AudioMixer sliceMixer = getMixer();
+		RenderMetrics metrics = sliceMixer.getMetrics();
+		metrics.recordEventQueueDepth(eventQueue.size());
+		if (!isNoteDispatcherRunning() && eventQueue.startConsuming()) {
+			try {
+				// the slice size in samples for sample accurate events, or 0
+				double sampleRate = sliceMixer.getSampleRate();
+				int sliceSamples = 0;
+				if (sampleAccurateEvents && sampleRate > 0.0) {
+					sliceSamples =
+							(int) Math.round(durationNanos * sampleRate
+									/ 1000000000.0);
+				}
+				EventQueue.Slot event;
+				while ((event = eventQueue.pollIfEarlier(nextNextAudioSliceNanos)) != null) {
+					if (event.nanoTime != 0) {
+						metrics.recordDispatchLag(nanoTime - event.nanoTime);
+					}
+					if (sliceSamples > 0 && event.nanoTime > nanoTime) {
+						renderUntilEvent(sliceMixer, nanoTime, sampleRate,
+								sliceSamples, event);
+					}
+					dispatchEvent(event.source, event.nanoTime, event.channel,
+							event.status, event.data1, event.data2);
 				}
+			} finally {
+				eventQueue.stopConsuming();
 			}
 		}
 
 		if (asynchRenderer != null) {
 			AudioMixer localMixer = getMixer();
 			if (localMixer.getCount() > ASYNCH_RENDER_STREAM_THRESHOLD) {
-				asynchRenderer.dispatch(time, localMixer.getRenderables());
+				asynchRenderer.dispatch(nanoTime, localMixer);
+				// render what the render threads did not claim yet, and wait
+				// for them to finish, instead of blocking in the mixer
+				asynchRenderer.join(nanoTime);
 			}
 		}
 
 		// eventually, commit the new nextAudioSlice time
-		nextAudioSliceTime = nextNextAudioSliceTime;
+		nextAudioSliceNanos = nextNextAudioSliceNanos;
+	}
+
+	/**
+	 * Render the notes affected by the event up to the event's position in
+	 * the slice, so that the event takes effect at its exact sample.
+	 */
+	private void renderUntilEvent(AudioMixer localMixer, long nanoTime,
+			double sampleRate, int sliceSamples, EventQueue.Slot event) {
+		switch (event.status) {
+		case 0x90: // NOTE ON
+			if (event.data2 > 0) {
+				// new notes are inserted at their exact sample anyway
+				return;
+			}
+			break;
+		case 0x80: // NOTE OFF
+		case 0xB0: // Controller Change
+		case 0xD0: // Channel Pressure
+		case 0xE0: // Pitch Wheel
+			break;
+		default:
+			// no effect on playing notes
+			return;
+		}
+		int end =
+				(int) AudioUtils.nanos2samples(event.nanoTime - nanoTime,
+						sampleRate);
+		if (end <= 0 || end >= sliceSamples) {
+			return;
+		}
+		MidiChannel channel = getChannel(event.channel);
+		long readerEpoch = localMixer.enterReader();
+		try {
+			splitStreams = localMixer.getAudioStreams(splitStreams);
+			for (AudioInput ai : splitStreams) {
+				if (ai == null) break;
+				if (ai instanceof NoteInput) {
+					NoteInput ni = (NoteInput) ai;
+					if (ni.getMidiChannel() == channel) {
+						ni.renderUntil(nanoTime, sampleRate, sliceSamples, end);
+					}
+				}
+			}
+		} finally {
+			localMixer.exitReader(readerEpoch);
+		}
+	}
+
+	/**
+	 * Convenience version of newAudioSlice(long, long) with AudioTime
+	 * parameters.
+	 */
+	public final void newAudioSlice(AudioTime time, AudioTime duration) {
+		newAudioSlice(time.getNanoTime(), duration.getNanoTime());
 	}
 
 	// listener EventDispatcher
@@ -1149,17 +1576,16 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 	public void preLoad() {
 		// a buffer with arbitrary format for reading from the mixer
 		AudioBuffer b = new AudioBuffer(2, 44, 44100.0);
-		AudioTime time = new AudioTime(0);
-		AudioTime duration = new AudioTime(b.getSampleCount(),
-				b.getSampleRate());
+		long time = 0;
+		long duration = new AudioTime(b.getSampleCount(), b.getSampleRate()).getNanoTime();
 		// play 20 notes
 		for (int note = 0; note < 20; note++) {
 			// "play" the note
-			noteOn(new AudioTime(0), getChannel(0), 30 + (note * 2), 120);
+			noteOn(0, getChannel(0), 30 + (note * 2), 120);
 			// "render" the note for half a second
 			for (int i = 0; i < 500; i++) {
 				getMixer().read(time, b, 0, b.getSampleCount());
-				time = time.add(duration);
+				time += duration;
 			}
 		}
 		// clean up and load java.util.Iterator in cleanUp()
@@ -1198,6 +1624,61 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 
 		private double masterTuningFactor = 1.0f;
 
+		/**
+		 * if true, new notes are rendered in single precision
+		 */
+		private volatile boolean floatRendering = false;
+
+		/**
+		 * The default control block size, in samples.
+		 */
+		public static final int DEFAULT_CONTROL_BLOCK_SIZE = 64;
+
+		/**
+		 * The number of samples after which the articulation (envelopes,
+		 * LFO's, filter) is calculated, or 0 to calculate it once per slice.
+		 */
+		private volatile int controlBlockSize = DEFAULT_CONTROL_BLOCK_SIZE;
+
+		/**
+		 * The interpolation of the oscillators, one of the
+		 * Oscillator.INTERPOLATION_ constants.
+		 */
+		private volatile int interpolation = Oscillator.INTERPOLATION_LINEAR;
+
+		/**
+		 * If set, the filters of the playing notes are bypassed.
+		 */
+		private volatile boolean filterBypass = false;
+
+		/**
+		 * The maximum duration of a release tail in nanoseconds, or 0 for
+		 * unlimited release tails.
+		 */
+		private volatile long maxReleaseNanos = 0;
+
+		/**
+		 * The default level below which notes are inaudible, in decibel.
+		 */
+		public static final double DEFAULT_SILENCE_THRESHOLD = -96.0;
+
+		/**
+		 * The level below which notes are retired, in decibel.
+		 */
+		private volatile double silenceThreshold = DEFAULT_SILENCE_THRESHOLD;
+
+		/**
+		 * The silence threshold as linear factor, or 0 if disabled.
+		 */
+		private volatile double silenceThresholdLinear =
+				AudioUtils.decibel2linear(DEFAULT_SILENCE_THRESHOLD);
+
+		/**
+		 * statistics: the number of notes retired because they were
+		 * inaudible
+		 */
+		private final AtomicInteger silentVoiceCount = new AtomicInteger();
+
 		double getMasterVolumeInternal() {
 			return masterVolume;
 		}
@@ -1246,166 +1727,492 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		public double getMasterTuningFactor() {
 			return masterTuningFactor;
 		}
+
+		/**
+		 * @return true if new notes are rendered in single precision
+		 */
+		public boolean isFloatRendering() {
+			return floatRendering;
+		}
+
+		void setFloatRendering(boolean floatRendering) {
+			this.floatRendering = floatRendering;
+		}
+
+		/**
+		 * @return the control block size in samples, or 0 if the
+		 *         articulation is calculated once per slice
+		 * @see #setControlBlockSize(int)
+		 */
+		public int getControlBlockSize() {
+			return controlBlockSize;
+		}
+
+		/**
+		 * Set the control block size for new notes. The articulation of a
+		 * note (envelopes, LFO's, modulators) is calculated every
+		 * <code>samples</code> samples, independent of the slice size, and
+		 * the resulting gain and filter cutoff are ramped linearly over the
+		 * control block. The pitch is constant within a control block.
+		 * <p>
+		 * If set to 0, the articulation is calculated once per slice and only
+		 * the volume is ramped over the slice, so that smooth modulation
+		 * requires small slices.
+		 * 
+		 * @param samples the control block size in samples, or 0
+		 */
+		public void setControlBlockSize(int samples) {
+			if (samples < 0) {
+				samples = 0;
+			}
+			this.controlBlockSize = samples;
+		}
+
+		/**
+		 * @return the interpolation of the oscillators, one of the
+		 *         Oscillator.INTERPOLATION_ constants
+		 */
+		public int getInterpolation() {
+			return interpolation;
+		}
+
+		/**
+		 * Set the interpolation of the oscillators of all playing notes,
+		 * effective with the next slice.
+		 * 
+		 * @param interpolation one of the Oscillator.INTERPOLATION_ constants
+		 */
+		public void setInterpolation(int interpolation) {
+			this.interpolation = interpolation;
+		}
+
+		/**
+		 * @return true if the filters of the playing notes are bypassed
+		 */
+		public boolean isFilterBypass() {
+			return filterBypass;
+		}
+
+		/**
+		 * Bypass the filters of all playing notes, effective with the next
+		 * slice.
+		 */
+		public void setFilterBypass(boolean filterBypass) {
+			this.filterBypass = filterBypass;
+		}
+
+		/**
+		 * @return the maximum duration of the release segment in seconds, or
+		 *         0 for unlimited release
+		 */
+		public double getMaxReleaseTime() {
+			return maxReleaseNanos / 1000000000.0;
+		}
+
+		/**
+		 * Limit the duration of the release segment of all notes. Notes that
+		 * are released for a longer time are faded out during the next slice.
+		 * 
+		 * @param seconds the maximum release time, or 0 for unlimited release
+		 */
+		public void setMaxReleaseTime(double seconds) {
+			if (seconds < 0.0) {
+				seconds = 0.0;
+			}
+			this.maxReleaseNanos = (long) (seconds * 1000000000.0);
+		}
+
+		long getMaxReleaseNanos() {
+			return maxReleaseNanos;
+		}
+
+		/**
+		 * @return the level below which notes are retired, in decibel
+		 */
+		public double getSilenceThreshold() {
+			return silenceThreshold;
+		}
+
+		/**
+		 * Set the level below which notes are retired early. A note is
+		 * inaudible if its envelope level, multiplied with the channel gain
+		 * and the master volume, is below this level, and it cannot become
+		 * louder anymore. Such a note is faded out during the next slice
+		 * without rendering its samples. A note retired while the channel
+		 * volume or expression is zero does not resume when the controller
+		 * is raised again.
+		 * 
+		 * @param decibel the threshold in decibel full scale, or
+		 *            Double.NEGATIVE_INFINITY to play all notes until the
+		 *            end of their envelope or sample
+		 */
+		public void setSilenceThreshold(double decibel) {
+			this.silenceThreshold = decibel;
+			if (decibel == Double.NEGATIVE_INFINITY) {
+				silenceThresholdLinear = 0.0;
+			} else {
+				silenceThresholdLinear = Math.pow(10.0, decibel / 20.0);
+			}
+		}
+
+		double getSilenceThresholdLinear() {
+			return silenceThresholdLinear;
+		}
+
+		/**
+		 * @return the number of notes retired because they were inaudible
+		 */
+		public int getSilentVoiceCount() {
+			return silentVoiceCount.get();
+		}
+
+		void voiceSilenced() {
+			silentVoiceCount.incrementAndGet();
+		}
 	}
 
 	/**
-	 * A queue implementation to maintain a sorted FIFO list of MidiEvents. The
-	 * MidiEvents are inserted at the beginning of the queue. If the Comparable
-	 * of the inserted event is higher than the first element, it is inserted at
-	 * the next index, etc.
-	 * <p>
-	 * An own class for this functionality is necessary in order to maintain
-	 * FIFO sorting of elements with the same time (i.e. Comparable.compareTo()
-	 * returns 0). Also, this class can use an optimal implementation for the
-	 * only 2 used methods: offer() (sorted insert at the beginning) and poll()
-	 * (remove last element). Internally, it uses a double-linked list to assure
-	 * that.
+	 * A queue to maintain a time-ordered FIFO list of short MIDI events,
+	 * without allocating objects for the events.
 	 * <p>
-	 * Java's PriorityQueue and PriorityBlockingQueue could not be used for
-	 * this, because the ordering is not maintained, causing e.g. program change
-	 * messages to be dispatched after the note on message if the program change
-	 * and the note on message were delivered with the same time stamp, but the
-	 * program change message was delivered first.
+	 * Incoming events are written by the producers into a preallocated ring
+	 * of mutable slots, and the time stamps are kept as primitive
+	 * nanoseconds. The consumer, i.e. newAudioSlice() or the NoteDispatcher,
+	 * moves the events from the ring into its own preallocated, sorted list of
+	 * pending events. Events are usually delivered in chronological order, so
+	 * they are just appended; only events with an earlier time than the last
+	 * pending event are moved backwards to their sorted position. Events with
+	 * the same time maintain FIFO order, so that e.g. a program change message
+	 * is dispatched before the note on message if both were delivered with
+	 * the same time stamp, but the program change message was delivered
+	 * first.
 	 * <p>
-	 * This implementation is synchronized.
+	 * The consumer side does not use locks. Because there can be several MIDI
+	 * input devices, the producers are serialized among each other by
+	 * synchronizing on this queue, which is never contended by the consumer
+	 * in normal operation. If the ring is full (e.g. when an entire MIDI file
+	 * is pushed to the synth before rendering starts), events are appended to
+	 * an overflow list, and the consumer synchronizes to collect them. Only
+	 * one thread may consume at a time, see startConsuming().
 	 * 
 	 * @author florian
 	 */
 	private static class EventQueue {
 
-		private LinkedList<MidiEvent> list;
+		/**
+		 * The number of preallocated slots in the ring and in the list of
+		 * pending events. Must be a power of 2.
+		 */
+		private static final int DEFAULT_CAPACITY = 1024;
+
+		/**
+		 * A mutable, reusable short MIDI event.
+		 */
+		private static final class Slot {
+			long nanoTime;
+			MidiIn source;
+			int channel;
+			int status;
+			int data1;
+			int data2;
+
+			void set(MidiIn source, long nanoTime, int channel, int status,
+					int data1, int data2) {
+				this.source = source;
+				this.nanoTime = nanoTime;
+				this.channel = channel;
+				this.status = status;
+				this.data1 = data1;
+				this.data2 = data2;
+			}
+
+			void set(Slot slot) {
+				set(slot.source, slot.nanoTime, slot.channel, slot.status,
+						slot.data1, slot.data2);
+			}
+		}
+
+		/**
+		 * The ring of slots written by the producers.
+		 */
+		private final Slot[] ring;
+
+		/**
+		 * The next ring position to be written by the producers.
+		 */
+		private volatile long tail = 0;
+
+		/**
+		 * The next ring position to be read by the consumer.
+		 */
+		private volatile long head = 0;
+
+		/**
+		 * Events that did not fit into the ring. Guarded by this.
+		 */
+		private final ArrayDeque<Slot> overflow = new ArrayDeque<Slot>();
+
+		/**
+		 * The number of events in the overflow list, for the consumer to check
+		 * without synchronization.
+		 */
+		private volatile int overflowCount = 0;
+
+		/**
+		 * The sorted pending events, only accessed by the consumer. The
+		 * earliest event is at pendingHead.
+		 */
+		private Slot[] pending;
+
+		private int pendingHead = 0;
+
+		private int pendingCount = 0;
+
+		/**
+		 * incremented by clear() to ask the consumer to discard all events
+		 * up to clearTail
+		 */
+		private volatile int clearRequests = 0;
+
+		private volatile long clearTail = 0;
+
+		/**
+		 * the number of clear requests already executed by the consumer
+		 */
+		private int clearRequestsDone = 0;
+
+		private final AtomicBoolean consuming = new AtomicBoolean(false);
+
+		/**
+		 * the consumer thread waiting in waitForEvent(), or null
+		 */
+		private volatile Thread waiter = null;
 
 		private volatile boolean closed = false;
 
 		public EventQueue() {
-			list = new LinkedList<MidiEvent>();
+			ring = createSlots(DEFAULT_CAPACITY);
+			pending = createSlots(DEFAULT_CAPACITY);
+		}
+
+		private static Slot[] createSlots(int count) {
+			Slot[] slots = new Slot[count];
+			for (int i = 0; i < count; i++) {
+				slots[i] = new Slot();
+			}
+			return slots;
 		}
 
 		/**
 		 * close operation on this queue, so any thread waiting in
 		 * waitForEvent() will be released
 		 */
-		public synchronized void close() {
+		public void close() {
 			closed = true;
-			this.notifyAll();
+			wakeUp();
 		}
 
 		/**
-		 * Inserts the MidiEvent into the queue. It is sorted in a correct
-		 * interpretation of MIDI timing.
-		 * 
-		 * @param me the element to insert
+		 * Release the thread waiting in waitForEvent(), if any.
 		 */
-		public synchronized void offer(MidiEvent me) {
-			if (!list.isEmpty()) {
-				// go through all elements until it finds one with higher time
-				ListIterator<MidiEvent> it = list.listIterator(0);
-				long nanoTime = me.getTime().getNanoTime();
-				while (it.hasNext()) {
-					MidiEvent lme = it.next();
-					if (lme.getTime().getNanoTime() <= nanoTime) {
-						it.previous();
-						// out("inserting at index "+it.nextIndex()+": "+me);
-						it.add(me);
-						// for (int i=0; i<list.size(); i++) {
-						// out(" "+i+": "+list.get(i)); }
-						this.notifyAll();
-						return;
-					}
-				}
+		public void wakeUp() {
+			Thread thread = waiter;
+			if (thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		/**
+		 * Inserts the event into the queue. It is sorted in a correct
+		 * interpretation of MIDI timing by the consumer.
+		 */
+		public synchronized void offer(MidiIn source, long nanoTime,
+				int channel, int status, int data1, int data2) {
+			long localTail = tail;
+			if (overflowCount == 0 && localTail - head < ring.length) {
+				ring[(int) localTail & (ring.length - 1)].set(source,
+						nanoTime, channel, status, data1, data2);
+				// publish the slot to the consumer
+				tail = localTail + 1;
+			} else {
+				// keep arrival order: once overflowing, continue to use the
+				// overflow list until the consumer has collected it
+				Slot slot = new Slot();
+				slot.set(source, nanoTime, channel, status, data1, data2);
+				overflow.add(slot);
+				overflowCount = overflow.size();
 			}
-			// if the list is empty, or it could not be inserted in the
-			// loop above, insert at the end
-			// out("inserting at index "+list.size()+": "+me);
-			list.add(me);
-			this.notifyAll();
-			// for (int i=0; i<list.size(); i++) {
-			// out(" "+i+": "+list.get(i)); }
+			wakeUp();
 		}
 
 		/**
-		 * Returns true if the queue has at least one element, and if the last
-		 * element is earlier than the specified time.
+		 * Claim the consumer side of this queue. Only the thread that
+		 * successfully claimed the queue may call pollIfEarlier(),
+		 * isEmpty(), and waitForEvent().
 		 * 
-		 * @param time the time to test the last element for
-		 * @return true if the last element exists and is earlier than
-		 *         <code>time</code>
+		 * @return true if the calling thread is the consumer now, false if
+		 *         another thread is currently consuming
 		 */
-		public synchronized boolean lastIsEarlier(AudioTime time) {
-			return ((list.size() > 0) && (list.getLast().getTime().earlierThan(time)));
+		public boolean startConsuming() {
+			return consuming.compareAndSet(false, true);
 		}
 
 		/**
-		 * @return Retrieves and removes the head of this queue, or null if this
-		 *         queue is empty.
+		 * Release the consumer side of this queue.
 		 */
-		public synchronized MidiEvent poll() {
-			return list.removeLast();
+		public void stopConsuming() {
+			consuming.set(false);
 		}
 
 		/**
-		 * @return Retrieves and removes the head of this queue if its time is
-		 *         earlier than the given time, or null otherwise
+		 * Retrieve and remove the earliest event of this queue if its time is
+		 * earlier than the given time. The returned slot is only valid until
+		 * the next call to pollIfEarlier().
+		 * 
+		 * @return the earliest event, or null if the queue is empty or the
+		 *         earliest event is not earlier than <code>nanoTime</code>
 		 */
-		public synchronized MidiEvent pollIfEarlier(AudioTime time) {
-			if (list.size() > 0) {
-				MidiEvent event = list.getLast();
-				if ((event.getTime().earlierThan(time))) {
-					return list.removeLast();
+		public Slot pollIfEarlier(long nanoTime) {
+			collect();
+			if (pendingCount > 0) {
+				Slot slot = pending[pendingHead];
+				if (slot.nanoTime < nanoTime) {
+					pendingHead = (pendingHead + 1) & (pending.length - 1);
+					pendingCount--;
+					return slot;
 				}
 			}
 			return null;
 		}
 
 		/**
-		 * @return Retrieves and removes the head of this queue if its time is
-		 *         earlier than the given time, or null otherwise
+		 * Move all newly offered events to the list of pending events.
 		 */
-		public synchronized MidiEvent pollIfEarlier(long nanoTime) {
-			if (list.size() > 0) {
-				MidiEvent event = list.getLast();
-				if ((event.getTime().getNanoTime() < nanoTime)) {
-					return list.removeLast();
+		private void collect() {
+			int requests = clearRequests;
+			if (requests != clearRequestsDone) {
+				clearRequestsDone = requests;
+				long localClearTail = clearTail;
+				if (localClearTail - head > 0) {
+					head = localClearTail;
 				}
+				pendingCount = 0;
 			}
-			return null;
+			collectRing();
+			if (overflowCount > 0) {
+				synchronized (this) {
+					// the ring's events were offered before the overflow
+					collectRing();
+					for (Slot slot : overflow) {
+						insert(slot);
+					}
+					overflow.clear();
+					overflowCount = 0;
+				}
+			}
+		}
+
+		private void collectRing() {
+			long localHead = head;
+			long localTail = tail;
+			if (localHead != localTail) {
+				int mask = ring.length - 1;
+				while (localHead != localTail) {
+					insert(ring[(int) localHead & mask]);
+					localHead++;
+				}
+				// release the slots to the producers
+				head = localHead;
+			}
+		}
+
+		/**
+		 * Copy the event to the end of the pending list and, if it is earlier
+		 * than the last pending event, move it back to its sorted position.
+		 */
+		private void insert(Slot event) {
+			if (pendingCount == pending.length) {
+				growPending();
+			}
+			int mask = pending.length - 1;
+			int index = (pendingHead + pendingCount) & mask;
+			Slot slot = pending[index];
+			slot.set(event);
+			pendingCount++;
+			for (int i = pendingCount - 1; i > 0; i--) {
+				int prevIndex = (index - 1) & mask;
+				Slot prev = pending[prevIndex];
+				if (prev.nanoTime <= slot.nanoTime) {
+					break;
+				}
+				pending[index] = prev;
+				pending[prevIndex] = slot;
+				index = prevIndex;
+			}
+		}
+
+		/**
+		 * Double the size of the pending list. This only happens if more
+		 * events are scheduled in advance than fit in the list.
+		 */
+		private void growPending() {
+			Slot[] newPending = new Slot[pending.length * 2];
+			int mask = pending.length - 1;
+			for (int i = 0; i < pendingCount; i++) {
+				newPending[i] = pending[(pendingHead + i) & mask];
+			}
+			for (int i = pendingCount; i < newPending.length; i++) {
+				newPending[i] = new Slot();
+			}
+			if (DEBUG_SYNTH) {
+				debug("Synth: growing event queue to " + newPending.length
+						+ " pending events");
+			}
+			pending = newPending;
+			pendingHead = 0;
 		}
 
 		/**
-		 * Cleans this queue.
+		 * Cleans this queue. The events are discarded by the consumer with its
+		 * next poll.
 		 */
 		public synchronized void clear() {
-			list.clear();
+			clearTail = tail;
+			overflow.clear();
+			overflowCount = 0;
+			clearRequests++;
 		}
 
 		/**
-		 * @return the size of the list
+		 * @return the approximate number of events in the queue
 		 */
-		public synchronized int size() {
-			return list.size();
+		public int size() {
+			return (int) (tail - head) + overflowCount + pendingCount;
 		}
 
 		/**
-		 * Returns true if there are no events in the queue.
+		 * Returns true if there are no events in the queue. Only to be called
+		 * by the consumer.
 		 * 
-		 * @return true if the list is empty
+		 * @return true if the queue is empty
 		 */
-		public synchronized boolean isEmpty() {
-			return (list.size() > 0);
+		public boolean isEmpty() {
+			return pendingCount == 0 && head == tail && overflowCount == 0;
 		}
 
 		/**
-		 * Wait until an event is added to the queue.
+		 * Wait until an event is added to the queue. This method may return
+		 * early, e.g. when the queue is closed or wakeUp() is called. Only to
+		 * be called by the consumer.
 		 */
-		public synchronized void waitForEvent() {
-			if (!closed) {
-				try {
-					while (list.size() == 0) {
-						this.wait();
-					}
-				} catch (InterruptedException ie) {
-				}
+		public void waitForEvent() {
+			waiter = Thread.currentThread();
+			// re-check after publishing the waiter, so that a concurrent
+			// offer() cannot get lost
+			if (!closed && isEmpty()) {
+				LockSupport.park(this);
 			}
+			waiter = null;
 		}
 	}
 
@@ -1429,6 +2236,7 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 		 */
 		public void stop() {
 			doStop = true;
+			eventQueue.wakeUp();
 			synchronized (this) {
 				try {
 					thread.join(2000);
@@ -1442,25 +2250,44 @@ public class Synthesizer implements MidiIn.Listener, AudioRendererListener,
 			if (DEBUG_SYNTH) {
 				debug("Synthesizer: starting asynchronous note dispatcher");
 			}
-			MidiEvent event = null;
 			while (!doStop) {
 				try {
 					// 2 loops to not enter the try block for every loop
 					while (!doStop) {
-						// asynchronous note dispatcher needs to insert up to
-						// one buffer after "nextAudioSliceTime"!
-						// also start events a little ahead so that they can't
-						// come too late
-						event = eventQueue.pollIfEarlier(nextAudioSliceTime.getNanoTime()
-								+ nextAudioSliceDuration.getNanoTime());
-						if (event != null) {
-							dispatchEvent(event);
-						} else {
-							if (eventQueue.isEmpty()) {
+						if (!eventQueue.startConsuming()) {
+							// newAudioSlice() did not notice yet that this
+							// dispatcher is running
+							Thread.sleep(0, SLEEP_MICROSECONDS * 1000);
+							continue;
+						}
+						boolean empty;
+						try {
+							// asynchronous note dispatcher needs to insert up
+							// to one buffer after "nextAudioSliceTime"!
+							// also start events a little ahead so that they
+							// can't come too late
+							EventQueue.Slot event = eventQueue.pollIfEarlier(nextAudioSliceNanos
+									+ nextAudioSliceDurationNanos);
+							if (event != null) {
+								if (event.nanoTime != 0) {
+									getMixer().getMetrics().recordDispatchLag(
+											nextAudioSliceNanos
+													- event.nanoTime);
+								}
+								dispatchEvent(event.source, event.nanoTime,
+										event.channel, event.status,
+										event.data1, event.data2);
+								continue;
+							}
+							empty = eventQueue.isEmpty();
+							if (empty) {
 								eventQueue.waitForEvent();
-							} else {
-								Thread.sleep(0, SLEEP_MICROSECONDS * 1000);
 							}
+						} finally {
+							eventQueue.stopConsuming();
+						}
+						if (!empty) {
+							Thread.sleep(0, SLEEP_MICROSECONDS * 1000);
 						}
 					}
 				} catch (Exception e) {
@@ -2522,8 +2522,9 @@ public class HarmoniconPane implements SynthesizerListener, SMFMidiInListener {
 	 */
 	private synchronized void stopRecorder() {
 		if (recorder != null) {
-			recorder.close();
+			// remove first, so that all pending audio is written
 			pullThread.setSlaveSink(null);
+			recorder.close();
 			recorder = null;
 			status("Wave recording stopped.");
 		}
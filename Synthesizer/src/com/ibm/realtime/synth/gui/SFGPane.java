@@ -1660,8 +1660,9 @@ public class SFGPane extends JPanel implements ItemListener, ActionListener,
 	 */
 	private synchronized void stopRecorder() {
 		if (recorder != null) {
-			recorder.close();
+			// remove first, so that all pending audio is written
 			pullThread.setSlaveSink(null);
+			recorder.close();
 			recorder = null;
 			status("Wave recording stopped.");
 		}
@@ -32,14 +32,24 @@ import com.ibm.realtime.synth.utils.*;
 
 import javax.sound.sampled.AudioFormat;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
 
 /**
  * An AudioSink with optimized latency using ALSA drivers directly.
+ * <p>
+ * By default, the samples are converted into a direct ByteBuffer that is
+ * shared with the native library, so that no byte array needs to be pinned or
+ * copied by JNI for every period (TRANSFER_DIRECT_BUFFER). With TRANSFER_MMAP,
+ * the device is additionally opened with mmap access, so that ALSA copies the
+ * samples directly into the hardware buffer instead of passing them through
+ * the write system call. If the device does not support mmap access, it
+ * falls back to read/write access.
  * 
  * @author florian
  */
-public class DirectAudioSink implements AudioSink {
+public class DirectAudioSink implements FloatAudioSink {
 
 	public static boolean DEBUG_DIRECTSINK = false;
 
@@ -69,6 +79,24 @@ public class DirectAudioSink implements AudioSink {
 	/** the mask includes all format flags, excluding the big endian flag */
 	private static final int BIT_TYPE_MASK = 0xFFF;
 
+	/**
+	 * Transfer mode: convert the samples to a Java byte array, which is then
+	 * accessed by the native library.
+	 */
+	public static final int TRANSFER_ARRAY = 0;
+
+	/**
+	 * Transfer mode: convert the samples to a direct ByteBuffer shared with
+	 * the native library.
+	 */
+	public static final int TRANSFER_DIRECT_BUFFER = 1;
+
+	/**
+	 * Transfer mode: like TRANSFER_DIRECT_BUFFER, but use mmap access to the
+	 * ALSA device.
+	 */
+	public static final int TRANSFER_MMAP = 2;
+
 	/**
 	 * The native audio format to be used
 	 */
@@ -79,6 +107,18 @@ public class DirectAudioSink implements AudioSink {
 	 */
 	private byte[] byteBuffer;
 
+	/**
+	 * The direct buffer shared with the native library, or null if the
+	 * byteBuffer array is used
+	 */
+	private ByteBuffer directBuffer;
+
+	/**
+	 * The transfer mode used for the next open, one of the TRANSFER_*
+	 * constants
+	 */
+	private int transferMode = TRANSFER_DIRECT_BUFFER;
+
 	/**
 	 * Native handle to the device
 	 */
@@ -178,12 +218,20 @@ public class DirectAudioSink implements AudioSink {
 		// eventually try to open the device
 		handle = nOpen(devName, (int) format.getSampleRate(),
 				format.getChannels(), format.getSampleSizeInBits(),
-				bufferSizeInSamples, periodSizeInSamples, blockingIO);
+				bufferSizeInSamples, periodSizeInSamples, blockingIO,
+				transferMode == TRANSFER_MMAP);
 		if (handle != 0) {
 			this.devName = devName;
 			periodSize = nGetPeriodSize(handle);
 			int sampleBitType = nGetSampleBitType(handle);
 			this.format = makeFormat(format, sampleBitType);
+			if (transferMode != TRANSFER_ARRAY) {
+				setupDirectBuffer(periodSize * this.format.getFrameSize());
+			}
+			if (DEBUG_DIRECTSINK) {
+				debug("DirectAudioSink: using transfer mode "
+						+ transferMode2Str(getTransferMode()));
+			}
 		} else {
 			throw new Exception("Cannot open direct audio device");
 		}
@@ -234,6 +282,7 @@ public class DirectAudioSink implements AudioSink {
 		if (handle != 0) {
 			nClose(handle);
 			handle = 0;
+			directBuffer = null;
 			if (DEBUG_DIRECTSINK) {
 				debug("closed direct soundcard: " + devName);
 			}
@@ -241,6 +290,75 @@ public class DirectAudioSink implements AudioSink {
 		}
 	}
 
+	/**
+	 * Allocate the direct buffer with at least the given size in bytes and
+	 * pass it to the native library. If that fails, the byte array is used
+	 * for transfer.
+	 * 
+	 * @return true if the direct buffer can be used
+	 */
+	private boolean setupDirectBuffer(int size) {
+		if (directBuffer != null && directBuffer.capacity() >= size) {
+			return true;
+		}
+		ByteBuffer newBuffer = ByteBuffer.allocateDirect(size);
+		newBuffer.order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN
+				: ByteOrder.LITTLE_ENDIAN);
+		if (nSetDirectBuffer(handle, newBuffer)) {
+			directBuffer = newBuffer;
+			return true;
+		}
+		if (DEBUG_DIRECTSINK) {
+			debug("DirectAudioSink: cannot use direct buffer, using byte array");
+		}
+		directBuffer = null;
+		return false;
+	}
+
+	/**
+	 * Set the transfer mode, one of the TRANSFER_* constants. The new mode is
+	 * used when the device is opened the next time.
+	 */
+	public void setTransferMode(int mode) {
+		if (mode < TRANSFER_ARRAY || mode > TRANSFER_MMAP) {
+			throw new IllegalArgumentException("illegal transfer mode: "
+					+ mode);
+		}
+		this.transferMode = mode;
+	}
+
+	/**
+	 * @return the transfer mode actually used by the open device, or the
+	 *         transfer mode for the next open if the device is not open
+	 */
+	public synchronized int getTransferMode() {
+		if (handle == 0) {
+			return transferMode;
+		}
+		if (nIsMmap(handle)) {
+			return TRANSFER_MMAP;
+		}
+		if (directBuffer != null) {
+			return TRANSFER_DIRECT_BUFFER;
+		}
+		return TRANSFER_ARRAY;
+	}
+
+	/**
+	 * @return a string representation of the transfer mode
+	 */
+	public static String transferMode2Str(int mode) {
+		switch (mode) {
+		case TRANSFER_ARRAY:
+			return "array";
+		case TRANSFER_DIRECT_BUFFER:
+			return "direct buffer";
+		case TRANSFER_MMAP:
+			return "mmap";
+		}
+		return "unknown";
+	}
+
 	/**
 	 * @return the format used with this sink
 	 */
@@ -259,19 +377,61 @@ public class DirectAudioSink implements AudioSink {
 			return;
 		}
 		AudioFormat format = getFormat();
+		int requiredSize = buffer.getByteArrayBufferSize(format);
+		if (directBuffer != null && setupDirectBuffer(requiredSize)) {
+			writeDirect(buffer.convertToByteBuffer(directBuffer, 0, format));
+			return;
+		}
 		// set up the temporary buffer that receives the converted
 		// samples in bytes
-		int requiredSize = buffer.getByteArrayBufferSize(format);
 		if (byteBuffer == null || byteBuffer.length < requiredSize) {
 			byteBuffer = new byte[requiredSize];
 		}
 		int len = buffer.convertToByteArray(byteBuffer, 0, format);
 		// debug("Trying to write "+len+" bytes. Sample buffer holds
 		// "+buffer.getSampleCount()+" samples");
+		writeBytes(len);
+	}
+
+	public synchronized void write(FloatAudioBuffer buffer) {
+		if (!isOpen()) {
+			return;
+		}
+		AudioFormat format = getFormat();
+		int requiredSize = buffer.getByteArrayBufferSize(format);
+		if (directBuffer != null && setupDirectBuffer(requiredSize)) {
+			writeDirect(buffer.convertToByteBuffer(directBuffer, 0, format));
+			return;
+		}
+		if (byteBuffer == null || byteBuffer.length < requiredSize) {
+			byteBuffer = new byte[requiredSize];
+		}
+		writeBytes(buffer.convertToByteArray(byteBuffer, 0, format));
+	}
+
+	/**
+	 * Write len bytes from byteBuffer to the device.
+	 */
+	private void writeBytes(int len) {
+		writeImpl(false, len);
+	}
+
+	/**
+	 * Write len bytes from directBuffer to the device.
+	 */
+	private void writeDirect(int len) {
+		writeImpl(true, len);
+	}
+
+	private void writeImpl(boolean direct, int len) {
 		int offset = 0;
 		int written;
 		do {
-			written = nWrite(handle, byteBuffer, offset, len);
+			if (direct) {
+				written = nWriteDirect(handle, offset, len);
+			} else {
+				written = nWrite(handle, byteBuffer, offset, len);
+			}
 			if ((written & UNDERRUN_FLAG) != 0) {
 				// clear the underrun flag
 				written = written ^ UNDERRUN_FLAG;
@@ -448,10 +608,11 @@ public class DirectAudioSink implements AudioSink {
 	 * 
 	 * @param bufferSize the buffer size in samples
 	 * @param blocking if the device is opened in synchronous way
+	 * @param mmap if the device should be opened with mmap access
 	 */
 	private native static long nOpen(String devName, int sampleRate,
 			int channels, int sampleWidth, int bufferSize, int periodSize,
-			boolean blocking);
+			boolean blocking, boolean mmap);
 
 	/**
 	 * @return the buffer size in samples
@@ -479,6 +640,26 @@ public class DirectAudioSink implements AudioSink {
 	 */
 	native static int nWrite(long handle, Object byteArray, int offset, int len);
 
+	/**
+	 * Set the direct buffer used by nWriteDirect. The buffer must remain
+	 * referenced as long as it is used by the native library.
+	 * 
+	 * @return false if the buffer's address cannot be accessed
+	 */
+	private native static boolean nSetDirectBuffer(long handle,
+			ByteBuffer buffer);
+
+	/**
+	 * Like nWrite, but write from the direct buffer set with
+	 * nSetDirectBuffer.
+	 */
+	private native static int nWriteDirect(long handle, int offset, int len);
+
+	/**
+	 * @return true if the device is opened with mmap access
+	 */
+	private native static boolean nIsMmap(long handle);
+
 	/**
 	 * Returns the number of samples (not bytes) played by this device
 	 */
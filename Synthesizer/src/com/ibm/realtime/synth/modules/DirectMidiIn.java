@@ -444,15 +444,20 @@ public class DirectMidiIn implements Runnable, MidiIn {
 						}
 					} else {
 						// short event
-						MidiEvent me = new MidiEvent(this, time, status & 0x0F,
-								status > 0xF0 ? status : status & 0xF0,
-								(int) ((ret >> 8) & 0x7F),
-								(int) ((ret >> 15) & 0x7F));
+						int channel = status & 0x0F;
+						int data1 = (int) ((ret >> 8) & 0x7F);
+						int data2 = (int) ((ret >> 15) & 0x7F);
+						if (status < 0xF0) {
+							status &= 0xF0;
+						}
 						if (l != null) {
-							l.midiInReceived(me);
+							dispatchShortMessage(l, null, time, channel,
+									status, data1, data2);
 						} else {
+							MidiEvent me = null;
 							for (Listener li : ls) {
-								li.midiInReceived(me);
+								me = dispatchShortMessage(li, me, time,
+										channel, status, data1, data2);
 							}
 						}
 					}
@@ -468,6 +473,28 @@ public class DirectMidiIn implements Runnable, MidiIn {
 		}
 	}
 
+	/**
+	 * Send a short message to the listener. If the listener does not accept
+	 * primitive short messages, a MidiEvent is created, unless one was
+	 * already created for a previous listener.
+	 *
+	 * @param me the MidiEvent already created for this message, or null
+	 * @return the MidiEvent created for this message, or null
+	 */
+	private MidiEvent dispatchShortMessage(Listener l, MidiEvent me,
+			long time, int channel, int status, int data1, int data2) {
+		if (l instanceof ShortMessageListener) {
+			((ShortMessageListener) l).midiInReceived(this, time, channel,
+					status, data1, data2);
+		} else {
+			if (me == null) {
+				me = new MidiEvent(this, time, channel, status, data1, data2);
+			}
+			l.midiInReceived(me);
+		}
+		return me;
+	}
+
 	// ------------ NATIVE METHODS
 
 	/**
@@ -27,6 +27,9 @@ package com.ibm.realtime.synth.modules;
 
 import static com.ibm.realtime.synth.utils.Debug.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
 
 import com.ibm.realtime.synth.engine.*;
 
@@ -34,18 +37,98 @@ import javax.sound.sampled.*;
 
 /**
  * An AudioSink implementation that writes its output to a file on disk.
+ * <p>
+ * In asynchronous mode, the write methods only convert the audio data into
+ * large preallocated blocks in memory. A background thread writes the full
+ * blocks to the file with a FileChannel, so that the thread calling write()
+ * never waits for the disk, and there is only one system call per block
+ * instead of one per buffer. If the disk cannot keep up and all blocks are
+ * waiting to be written, the audio data is discarded and counted as an
+ * overflow. Optionally, the file can be preallocated when it is opened.
+ * <p>
+ * Asynchronous mode is meant for writing directly from the audio thread. A
+ * sink attached to the AudioPullThread with setSlaveSink() is already written
+ * by the thread of a BufferedAudioSink that blocks instead of discarding
+ * audio data, so it should use the default synchronous mode.
  * 
  * @author florian
  */
-public class DiskWriterSink implements AudioSink {
+public class DiskWriterSink implements FloatAudioSink, Runnable {
 
 	private static boolean DEBUG_WAVESINK = false;
 
 	/**
-	 * The file to write
+	 * The default size of the blocks written in asynchronous mode, in bytes
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * The default number of blocks in asynchronous mode
+	 */
+	public static final int DEFAULT_BLOCK_COUNT = 4;
+
+	/**
+	 * The priority of the background writer thread
+	 */
+	public static final int WRITER_PRIORITY = BufferedAudioSink.WRITER_PRIORITY;
+
+	/**
+	 * The file to write in synchronous mode
 	 */
 	private OutputStream output;
 
+	/**
+	 * The file to write in asynchronous mode
+	 */
+	private FileChannel channel;
+
+	/**
+	 * If true, the next open() uses asynchronous mode
+	 */
+	private boolean asynchronous = false;
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private int blockCount = DEFAULT_BLOCK_COUNT;
+
+	/**
+	 * The number of bytes to preallocate in open()
+	 */
+	private long preallocationSize = 0;
+
+	/**
+	 * The blocks in asynchronous mode. The number of blocks is a power of 2.
+	 */
+	private ByteBuffer[] blocks;
+
+	/**
+	 * The number of blocks handed to the writer thread. Only modified by the
+	 * thread calling write().
+	 */
+	private volatile long submittedBlocks;
+
+	/**
+	 * The number of blocks written to the file. Only modified by the writer
+	 * thread.
+	 */
+	private volatile long writtenBlocks;
+
+	private volatile boolean writerWaiting;
+
+	private volatile boolean writerStopped;
+
+	private Thread writer;
+
+	/**
+	 * The number of writes that were discarded because all blocks were full
+	 */
+	private volatile long overflowCount;
+
+	/**
+	 * The number of I/O errors in the writer thread
+	 */
+	private volatile long errorCount;
+
 	private AudioFormat format;
 
 	private File file;
@@ -99,28 +182,101 @@ public class DiskWriterSink implements AudioSink {
 	 */
 	public synchronized void open(File file, AudioFormat format)
 			throws Exception {
-		if (output != null) {
+		if (output != null || channel != null) {
 			close();
 		}
-		output = new FileOutputStream(file);
-		this.format = format;
 		if (!format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED)
 				&& !format.getEncoding().equals(
 						AudioFormat.Encoding.PCM_UNSIGNED)) {
 			throw new Exception("Unsupported format for wave writing: "
 					+ format);
 		}
+		this.format = format;
 		this.file = file;
 		writtenBytes = 0;
+		overflowCount = 0;
+		errorCount = 0;
 		patchHeader();
-		output.write(header);
+		if (asynchronous) {
+			openAsynchronous();
+		} else {
+			output = new FileOutputStream(file);
+			output.write(header);
+		}
 		open = true;
 		if (DEBUG_WAVESINK) {
-			debug("DiskWriterSink: opened output file " + file);
+			debug("DiskWriterSink: opened output file " + file
+					+ (asynchronous ? " in asynchronous mode" : ""));
+		}
+	}
+
+	/**
+	 * Open the file channel, preallocate the file, allocate the blocks and
+	 * start the writer thread.
+	 */
+	private void openAsynchronous() throws IOException {
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		try {
+			channel.truncate(0);
+			channel.write(ByteBuffer.wrap(header));
+			int count = 2;
+			while (count < blockCount) {
+				count <<= 1;
+			}
+			if (blocks == null || blocks.length != count
+					|| blocks[0].capacity() != blockSize) {
+				blocks = new ByteBuffer[count];
+				for (int i = 0; i < count; i++) {
+					blocks[i] = ByteBuffer.allocateDirect(blockSize);
+				}
+			}
+			for (int i = 0; i < blocks.length; i++) {
+				blocks[i].clear();
+			}
+			if (preallocationSize > 0) {
+				preallocate();
+			}
+		} catch (IOException ioe) {
+			channel.close();
+			channel = null;
+			throw ioe;
+		}
+		submittedBlocks = 0;
+		writtenBlocks = 0;
+		writerStopped = false;
+		writer = ThreadFactory.createThread(this, "DiskWriterSink writer",
+				WRITER_PRIORITY);
+	}
+
+	/**
+	 * Write zeros after the header so that the file system allocates the
+	 * space now, and not while recording.
+	 */
+	private void preallocate() throws IOException {
+		ByteBuffer zeros = blocks[0];
+		for (int i = 0; i < zeros.capacity(); i++) {
+			zeros.put(i, (byte) 0);
+		}
+		long pos = header.length;
+		long end = pos + preallocationSize;
+		while (pos < end) {
+			zeros.clear();
+			if (end - pos < zeros.capacity()) {
+				zeros.limit((int) (end - pos));
+			}
+			pos += channel.write(zeros, pos);
+		}
+		zeros.clear();
+		if (DEBUG_WAVESINK) {
+			debug("DiskWriterSink: preallocated " + preallocationSize
+					+ " bytes");
 		}
 	}
 
 	public synchronized void close() {
+		if (channel != null) {
+			closeAsynchronous();
+		}
 		try {
 			if (output != null) {
 				output.close();
@@ -147,10 +303,137 @@ public class DiskWriterSink implements AudioSink {
 		}
 	}
 
+	/**
+	 * Hand the last block to the writer thread, wait until all blocks are
+	 * written, and finish the file.
+	 */
+	private void closeAsynchronous() {
+		// if all blocks are submitted, there is no current block
+		if (submittedBlocks - writtenBlocks < blocks.length
+				&& blocks[(int) (submittedBlocks & (blocks.length - 1))].position() > 0) {
+			submitBlock();
+		}
+		writerStopped = true;
+		if (writer != null) {
+			LockSupport.unpark(writer);
+			try {
+				writer.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			writer = null;
+		}
+		try {
+			try {
+				// remove preallocated space, and patch the header
+				channel.truncate(header.length + writtenBytes);
+				patchHeader();
+				channel.write(ByteBuffer.wrap(header), 0);
+				if (DEBUG_WAVESINK) {
+					debug("DiskWriterSink: patched WAVE header");
+				}
+			} finally {
+				channel.close();
+			}
+		} catch (IOException ioe) {
+			error(ioe);
+		}
+		channel = null;
+		if (DEBUG_WAVESINK && overflowCount > 0) {
+			debug("DiskWriterSink: " + overflowCount
+					+ " buffers discarded because of overflows");
+		}
+	}
+
 	public boolean isOpen() {
 		return open;
 	}
 
+	/**
+	 * Set asynchronous mode. It is used when the file is opened the next
+	 * time.
+	 */
+	public void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+
+	/**
+	 * @return true if the next file is written in asynchronous mode
+	 */
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	/**
+	 * Set the size of the blocks in asynchronous mode. It is used when the
+	 * file is opened the next time.
+	 * 
+	 * @param bytes the block size in bytes
+	 */
+	public void setBlockSize(int bytes) {
+		if (bytes < 4096) {
+			bytes = 4096;
+		}
+		this.blockSize = bytes;
+	}
+
+	/**
+	 * @return the size of the blocks in asynchronous mode, in bytes
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Set the number of blocks in asynchronous mode, i.e. how much audio data
+	 * can wait for the disk. It is rounded up to a power of 2, and used when
+	 * the file is opened the next time.
+	 */
+	public void setBlockCount(int count) {
+		this.blockCount = count;
+	}
+
+	/**
+	 * @return the number of blocks in asynchronous mode
+	 */
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Set the number of bytes to preallocate when the file is opened in
+	 * asynchronous mode. Preallocation writes zeros, so it takes some time
+	 * in open(). When the file is closed, it is truncated to the actually
+	 * written size.
+	 * 
+	 * @param bytes the number of bytes, or 0 to not preallocate
+	 */
+	public void setPreallocationSize(long bytes) {
+		this.preallocationSize = bytes;
+	}
+
+	/**
+	 * @return the number of bytes preallocated in asynchronous mode
+	 */
+	public long getPreallocationSize() {
+		return preallocationSize;
+	}
+
+	/**
+	 * @return the number of buffers discarded in asynchronous mode because
+	 *         the disk did not keep up
+	 */
+	public long getOverflowCount() {
+		return overflowCount;
+	}
+
+	/**
+	 * @return the number of I/O errors of the writer thread
+	 */
+	public long getErrorCount() {
+		return errorCount;
+	}
+
 	public AudioFormat getFormat() {
 		return format;
 	}
@@ -190,6 +473,21 @@ public class DiskWriterSink implements AudioSink {
 	 * @see com.ibm.realtime.synth.engine.AudioSink#write(com.ibm.realtime.synth.engine.AudioBuffer)
 	 */
 	public synchronized void write(AudioBuffer buffer) {
+		if (channel != null) {
+			int requiredSize = buffer.getByteArrayBufferSize(getFormat());
+			ByteBuffer block = getBlock(requiredSize);
+			if (block != null) {
+				block.position(block.position()
+						+ buffer.convertToByteBuffer(block, block.position(),
+								getFormat()));
+				writtenBytes += requiredSize;
+			} else if (requiredSize > blockSize) {
+				buffer.convertToByteArray(getByteBuffer(requiredSize), 0,
+						getFormat());
+				putBytes(requiredSize);
+			}
+			return;
+		}
 		// set up the temporary buffer that receives the converted
 		// samples in bytes
 		if (output != null) {
@@ -198,15 +496,154 @@ public class DiskWriterSink implements AudioSink {
 				byteBuffer = new byte[requiredSize];
 			}
 			buffer.convertToByteArray(byteBuffer, 0, getFormat());
-			try {
-				output.write(byteBuffer, 0, requiredSize);
+			writeBytes(requiredSize);
+		}
+	}
+
+	public synchronized void write(FloatAudioBuffer buffer) {
+		if (channel != null) {
+			int requiredSize = buffer.getByteArrayBufferSize(getFormat());
+			ByteBuffer block = getBlock(requiredSize);
+			if (block != null) {
+				block.position(block.position()
+						+ buffer.convertToByteBuffer(block, block.position(),
+								getFormat()));
 				writtenBytes += requiredSize;
+			} else if (requiredSize > blockSize) {
+				buffer.convertToByteArray(getByteBuffer(requiredSize), 0,
+						getFormat());
+				putBytes(requiredSize);
+			}
+			return;
+		}
+		if (output != null) {
+			int requiredSize = buffer.getByteArrayBufferSize(getFormat());
+			if (byteBuffer == null || byteBuffer.length < requiredSize) {
+				byteBuffer = new byte[requiredSize];
+			}
+			buffer.convertToByteArray(byteBuffer, 0, getFormat());
+			writeBytes(requiredSize);
+		}
+	}
+
+	/**
+	 * @return the temporary byte buffer with at least the given size
+	 */
+	private byte[] getByteBuffer(int requiredSize) {
+		if (byteBuffer == null || byteBuffer.length < requiredSize) {
+			byteBuffer = new byte[requiredSize];
+		}
+		return byteBuffer;
+	}
+
+	/**
+	 * Return the current block if it can take size more bytes. Otherwise
+	 * hand the current block to the writer thread and return the next one.
+	 * 
+	 * @return the block, or null if size is larger than a block, or if all
+	 *         blocks are waiting to be written (overflow)
+	 */
+	private ByteBuffer getBlock(int size) {
+		if (size > blockSize) {
+			return null;
+		}
+		int mask = blocks.length - 1;
+		if (submittedBlocks - writtenBlocks >= blocks.length) {
+			overflowCount++;
+			return null;
+		}
+		ByteBuffer block = blocks[(int) (submittedBlocks & mask)];
+		if (block.remaining() >= size) {
+			return block;
+		}
+		submitBlock();
+		if (submittedBlocks - writtenBlocks >= blocks.length) {
+			overflowCount++;
+			return null;
+		}
+		return blocks[(int) (submittedBlocks & mask)];
+	}
+
+	/**
+	 * Copy size bytes from byteBuffer to the blocks, for buffers that are
+	 * larger than a block.
+	 */
+	private void putBytes(int size) {
+		int offset = 0;
+		while (offset < size) {
+			ByteBuffer block = getBlock(1);
+			if (block == null) {
+				// overflow: discard the rest
+				break;
+			}
+			int count = Math.min(block.remaining(), size - offset);
+			block.put(byteBuffer, offset, count);
+			offset += count;
+			writtenBytes += count;
+		}
+	}
+
+	/**
+	 * Hand the current block to the writer thread.
+	 */
+	private void submitBlock() {
+		blocks[(int) (submittedBlocks & (blocks.length - 1))].flip();
+		submittedBlocks++;
+		if (writerWaiting) {
+			Thread localWriter = writer;
+			if (localWriter != null) {
+				LockSupport.unpark(localWriter);
+			}
+		}
+	}
+
+	/**
+	 * The loop of the writer thread in asynchronous mode: write the
+	 * submitted blocks to the file.
+	 */
+	public void run() {
+		FileChannel localChannel = channel;
+		int mask = blocks.length - 1;
+		while (true) {
+			long pos = writtenBlocks;
+			if (pos == submittedBlocks) {
+				if (writerStopped) {
+					break;
+				}
+				writerWaiting = true;
+				if (pos == submittedBlocks && !writerStopped) {
+					LockSupport.parkNanos(this, 10000000L);
+				}
+				writerWaiting = false;
+				continue;
+			}
+			ByteBuffer block = blocks[(int) (pos & mask)];
+			try {
+				int size = block.remaining();
+				while (block.hasRemaining()) {
+					localChannel.write(block);
+				}
 				if (DEBUG_WAVESINK) {
-					debug("WaveSink: Wrote "+requiredSize+" bytes -> "+(requiredSize / getFormat().getFrameSize())+" samples");
+					debug("DiskWriterSink: wrote block of " + size + " bytes");
 				}
 			} catch (IOException ioe) {
+				errorCount++;
 				error(ioe);
 			}
+			block.clear();
+			writtenBlocks = pos + 1;
+		}
+	}
+
+	private void writeBytes(int requiredSize) {
+		try {
+			output.write(byteBuffer, 0, requiredSize);
+			writtenBytes += requiredSize;
+			if (DEBUG_WAVESINK) {
+				debug("WaveSink: Wrote "+requiredSize+" bytes -> "+(requiredSize / getFormat().getFrameSize())+" samples");
+			}
+		} catch (IOException ioe) {
+			error(ioe);
 		}
 	}
 
@@ -129,9 +129,18 @@ public class JavaSoundReceiver implements Receiver {
 					(microTime * 1000L) + owner.getTimeOffset().getNanoTime();
 		}
 		synchronized (listeners) {
+			MidiEvent event = null;
 			for (MidiIn.Listener listener : listeners) {
-				listener.midiInReceived(new MidiEvent(owner, nanoTime, channel,
-						status, data1, data2));
+				if (listener instanceof MidiIn.ShortMessageListener) {
+					((MidiIn.ShortMessageListener) listener).midiInReceived(
+							owner, nanoTime, channel, status, data1, data2);
+				} else {
+					if (event == null) {
+						event = new MidiEvent(owner, nanoTime, channel,
+								status, data1, data2);
+					}
+					listener.midiInReceived(event);
+				}
 			}
 		}
 	}
@@ -161,8 +170,9 @@ public class JavaSoundReceiver implements Receiver {
 					(microTime * 1000L) + owner.getTimeOffset().getNanoTime();
 		}
 		synchronized (listeners) {
+			MidiEvent event = new MidiEvent(owner, nanoTime, msg);
 			for (MidiIn.Listener listener : listeners) {
-				listener.midiInReceived(new MidiEvent(owner, nanoTime, msg));
+				listener.midiInReceived(event);
 			}
 		}
 	}
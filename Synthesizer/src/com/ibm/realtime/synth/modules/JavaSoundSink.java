@@ -47,7 +47,7 @@ import static com.ibm.realtime.synth.utils.Debug.*;
  * 
  * @author florian
  */
-public class JavaSoundSink implements AudioSink, AdjustableAudioClock {
+public class JavaSoundSink implements FloatAudioSink, AdjustableAudioClock {
 
 	public static boolean DEBUG_SINK = false;
 
@@ -218,6 +218,24 @@ public class JavaSoundSink implements AudioSink, AdjustableAudioClock {
 		sdl.write(byteBuffer, 0, length);
 	}
 
+	public synchronized void write(FloatAudioBuffer buffer) {
+		if (!isOpen()) {
+			return;
+		}
+		// if the device is not started, start it
+		if (!started || !sdl.isActive()) {
+			sdl.start();
+			started = true;
+		}
+		int requiredSize = buffer.getByteArrayBufferSize(getFormat());
+		if (byteBuffer == null || byteBuffer.length < requiredSize) {
+			byteBuffer = new byte[requiredSize];
+		}
+
+		int length = buffer.convertToByteArray(byteBuffer, 0, getFormat());
+		sdl.write(byteBuffer, 0, length);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
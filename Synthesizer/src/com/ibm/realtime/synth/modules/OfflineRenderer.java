@@ -0,0 +1,682 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.modules;
+
+import static com.ibm.realtime.synth.utils.AudioUtils.*;
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import javax.sound.sampled.AudioFormat;
+
+import com.ibm.realtime.synth.engine.*;
+
+/**
+ * Renders a MIDI sequence to an audio sink, e.g. a wave file, as fast as
+ * possible. Other than playing a MIDI file with SMFMidiIn through the
+ * AudioPullThread, there is no sequencer and no real time clock involved: the
+ * events of the sequence are converted to sample positions (taking tempo
+ * changes into account) and scheduled to the synthesizer immediately before
+ * the block of audio that contains them is rendered. The synthesizer inserts
+ * new notes at the exact sample position. The blocks are rendered with the
+ * synthesizer's asynchronous render threads.
+ * <p>
+ * After the last event, rendering continues until all notes have finished,
+ * or until the maximum tail time is reached.
+ * <p>
+ * An instance can be used for rendering several sequences one after the
+ * other, but not concurrently. Each render() call creates its own
+ * Synthesizer.
+ * 
+ * @author florian
+ */
+public class OfflineRenderer {
+
+	public static boolean DEBUG_OFFLINE = false;
+
+	/**
+	 * The default number of samples rendered in one block
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+	/**
+	 * The default maximum time that is rendered after the last MIDI event
+	 */
+	public static final double DEFAULT_MAX_TAIL_SECONDS = 10.0;
+
+	/**
+	 * The default tempo of a MIDI file, in microseconds per quarter note
+	 */
+	private static final int DEFAULT_TEMPO_MPQ = 500000;
+
+	/**
+	 * The meta event type of the tempo change event
+	 */
+	private static final int META_TEMPO = 0x51;
+
+	private Soundbank soundbank;
+
+	private AudioFormat format;
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private int renderThreadCount;
+
+	private boolean floatRendering = false;
+
+	private double maxTailSeconds = DEFAULT_MAX_TAIL_SECONDS;
+
+	private int maxPolyphony = 0;
+
+	private int controlBlockSize = Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE;
+
+	private boolean sampleAccurateEvents = true;
+
+	private double silenceThreshold =
+			Synthesizer.Params.DEFAULT_SILENCE_THRESHOLD;
+
+	/**
+	 * Create an offline renderer.
+	 * 
+	 * @param soundbank the soundbank used for rendering
+	 * @param format the format of the rendered audio. Only PCM formats are
+	 *            supported.
+	 */
+	public OfflineRenderer(Soundbank soundbank, AudioFormat format) {
+		if (soundbank == null) {
+			throw new IllegalArgumentException("soundbank must not be null");
+		}
+		this.soundbank = soundbank;
+		this.format = format;
+		renderThreadCount = AsynchronousRenderer.getDefaultThreadCount();
+		if (renderThreadCount < 2) {
+			renderThreadCount = 0;
+		}
+	}
+
+	/**
+	 * Create an offline renderer with the soundbank, format and all settings
+	 * of the given renderer.
+	 * 
+	 * @param template the renderer to copy the settings from
+	 */
+	public OfflineRenderer(OfflineRenderer template) {
+		this.soundbank = template.soundbank;
+		this.format = template.format;
+		this.blockSize = template.blockSize;
+		this.renderThreadCount = template.renderThreadCount;
+		this.floatRendering = template.floatRendering;
+		this.maxTailSeconds = template.maxTailSeconds;
+		this.maxPolyphony = template.maxPolyphony;
+		this.controlBlockSize = template.controlBlockSize;
+		this.sampleAccurateEvents = template.sampleAccurateEvents;
+		this.silenceThreshold = template.silenceThreshold;
+	}
+
+	/**
+	 * @return the soundbank used for rendering
+	 */
+	public Soundbank getSoundbank() {
+		return soundbank;
+	}
+
+	/**
+	 * @return the format of the rendered audio
+	 */
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the number of samples rendered in one block
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Set the number of samples rendered in one block. Large blocks reduce
+	 * the overhead per block. New notes are always inserted at their exact
+	 * sample position. With sample accurate events (the default), note offs,
+	 * controllers and pitch wheel changes take effect at their exact sample,
+	 * too; otherwise they take effect at block boundaries. In both cases,
+	 * changes of the channel volume (CC7) and pan (CC10) are ramped over the
+	 * block, so a large block smears them.
+	 * 
+	 * @param blockSize the block size in samples
+	 * @see #setSampleAccurateEvents(boolean)
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("illegal block size: "
+					+ blockSize);
+		}
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @return the number of render threads, or 0 if all notes are rendered
+	 *         in the calling thread
+	 */
+	public int getRenderThreadCount() {
+		return renderThreadCount;
+	}
+
+	/**
+	 * Set the number of render threads. The calling thread always renders,
+	 * too. The default is the same as for the Synthesizer: the number of
+	 * processors, or 0 on single processor machines.
+	 * 
+	 * @param count the number of render threads, or 0 to render all notes in
+	 *            the calling thread
+	 */
+	public void setRenderThreadCount(int count) {
+		if (count < 0) {
+			count = 0;
+		}
+		this.renderThreadCount = count;
+	}
+
+	/**
+	 * @return true if the notes are rendered in single precision
+	 */
+	public boolean isFloatRendering() {
+		return floatRendering;
+	}
+
+	/**
+	 * @param floatRendering true for rendering in single precision
+	 */
+	public void setFloatRendering(boolean floatRendering) {
+		this.floatRendering = floatRendering;
+	}
+
+	/**
+	 * @return the maximum time rendered after the last MIDI event, in seconds
+	 */
+	public double getMaxTailSeconds() {
+		return maxTailSeconds;
+	}
+
+	/**
+	 * Set the maximum time that is rendered after the last MIDI event to let
+	 * the notes finish. Rendering stops earlier if no notes are playing
+	 * anymore.
+	 * 
+	 * @param seconds the maximum tail time in seconds
+	 */
+	public void setMaxTailSeconds(double seconds) {
+		this.maxTailSeconds = seconds;
+	}
+
+	/**
+	 * @return the maximum polyphony, or 0 for the synthesizer's default
+	 */
+	public int getMaxPolyphony() {
+		return maxPolyphony;
+	}
+
+	/**
+	 * @param maxPolyphony the maximum polyphony, or 0 for the synthesizer's
+	 *            default
+	 */
+	public void setMaxPolyphony(int maxPolyphony) {
+		this.maxPolyphony = maxPolyphony;
+	}
+
+	/**
+	 * @return the control block size in samples, or 0 if the articulation
+	 *         is calculated once per block
+	 */
+	public int getControlBlockSize() {
+		return controlBlockSize;
+	}
+
+	/**
+	 * Set the control block size. With a control block size, the block size
+	 * can be large without audible steps in modulation.
+	 * 
+	 * @param samples the control block size in samples, or 0 to calculate
+	 *            the articulation once per block
+	 * @see Synthesizer.Params#setControlBlockSize(int)
+	 */
+	public void setControlBlockSize(int samples) {
+		this.controlBlockSize = samples;
+	}
+
+	/**
+	 * @return true if events are rendered at their exact sample
+	 */
+	public boolean isSampleAccurateEvents() {
+		return sampleAccurateEvents;
+	}
+
+	/**
+	 * Enable or disable sample accurate events. If enabled, blocks are split
+	 * at the time of note offs, controllers and pitch wheel changes, so that
+	 * the block size does not affect the timing of events.
+	 * 
+	 * @see Synthesizer#setSampleAccurateEvents(boolean)
+	 */
+	public void setSampleAccurateEvents(boolean value) {
+		this.sampleAccurateEvents = value;
+	}
+
+	/**
+	 * @return the level below which notes are retired, in decibel
+	 */
+	public double getSilenceThreshold() {
+		return silenceThreshold;
+	}
+
+	/**
+	 * Set the level below which notes are retired early.
+	 * 
+	 * @param decibel the threshold in decibel, or Double.NEGATIVE_INFINITY
+	 *            to render all notes to their end
+	 * @see Synthesizer.Params#setSilenceThreshold(double)
+	 */
+	public void setSilenceThreshold(double decibel) {
+		this.silenceThreshold = decibel;
+	}
+
+	/**
+	 * Render a standard MIDI file to a wave file.
+	 * 
+	 * @param midiFile the MIDI file to render
+	 * @param waveFile the wave file to be (over)written
+	 * @return the report of the rendering process
+	 */
+	public Report render(File midiFile, File waveFile) throws Exception {
+		Sequence sequence = MidiSystem.getSequence(midiFile);
+		Report report = render(sequence, waveFile);
+		report.name = midiFile.getName();
+		return report;
+	}
+
+	/**
+	 * Render a sequence to a wave file.
+	 * 
+	 * @param sequence the MIDI sequence to render
+	 * @param waveFile the wave file to be (over)written
+	 * @return the report of the rendering process
+	 */
+	public Report render(Sequence sequence, File waveFile) throws Exception {
+		DiskWriterSink sink = new DiskWriterSink();
+		sink.open(waveFile, format);
+		try {
+			return render(sequence, sink);
+		} finally {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Render a sequence to the given sink. The sink must be open and have
+	 * the same sample rate and number of channels as this renderer's format.
+	 * 
+	 * @param sequence the MIDI sequence to render
+	 * @param sink the sink receiving the rendered audio
+	 * @return the report of the rendering process
+	 */
+	public Report render(Sequence sequence, AudioSink sink) {
+		long startNanos = System.nanoTime();
+		double sampleRate = format.getSampleRate();
+		int channels = format.getChannels();
+		Events events = new Events(sequence, sampleRate);
+
+		AudioMixer mixer = new AudioMixer();
+		RenderMetrics metrics = mixer.getMetrics();
+		Synthesizer synth = new Synthesizer(soundbank, mixer);
+		synth.setFixedDelayNanos(0);
+		synth.setNoteDispatcherMode(Synthesizer.NOTE_DISPATCHER_SYNCHRONOUS);
+		synth.setFloatRendering(floatRendering);
+		synth.getParams().setControlBlockSize(controlBlockSize);
+		synth.setSampleAccurateEvents(sampleAccurateEvents);
+		synth.getParams().setSilenceThreshold(silenceThreshold);
+		if (maxPolyphony > 0) {
+			synth.setMaxPolyphony(maxPolyphony);
+		}
+		synth.setRenderThreadCount(renderThreadCount);
+		synth.start();
+
+		Report report = new Report();
+		report.events = events.count;
+		boolean useFloat = floatRendering && (sink instanceof FloatAudioSink);
+		AudioBuffer buffer = null;
+		FloatAudioBuffer floatBuffer = null;
+		if (useFloat) {
+			floatBuffer = new FloatAudioBuffer(channels, blockSize, sampleRate);
+		} else {
+			buffer = new AudioBuffer(channels, blockSize, sampleRate);
+		}
+		long maxTailSamples = (long) (maxTailSeconds * sampleRate);
+		long endSamples = events.getEndSamples();
+		long voiceSamples = 0;
+		long samples = 0;
+		int nextEvent = 0;
+		try {
+			while (true) {
+				long blockEnd = samples + blockSize;
+				// schedule the events of this block
+				while (nextEvent < events.count
+						&& events.samplePos[nextEvent] < blockEnd) {
+					int msg = events.messages[nextEvent];
+					int status = msg & 0xF0;
+					int data2 = (msg >> 16) & 0xFF;
+					synth.midiInReceived(null, samples2nanos(
+							events.samplePos[nextEvent], sampleRate),
+							msg & 0x0F, status, (msg >> 8) & 0xFF, data2);
+					if (status == 0x90 && data2 > 0) {
+						report.noteOns++;
+					}
+					nextEvent++;
+				}
+				long time = samples2nanos(samples, sampleRate);
+				long duration = samples2nanos(blockEnd, sampleRate) - time;
+				long sliceStart = System.nanoTime();
+				synth.newAudioSlice(time, duration);
+				if (useFloat) {
+					mixer.read(time, floatBuffer, 0, blockSize);
+					metrics.recordSlice(System.nanoTime() - sliceStart,
+							duration);
+					((FloatAudioSink) sink).write(floatBuffer);
+					floatBuffer.makeSilence();
+				} else {
+					mixer.read(time, buffer, 0, blockSize);
+					metrics.recordSlice(System.nanoTime() - sliceStart,
+							duration);
+					sink.write(buffer);
+					buffer.makeSilence();
+				}
+				samples = blockEnd;
+				mixer.cleanUp();
+				int polyphony = mixer.getCount();
+				if (polyphony > report.peakPolyphony) {
+					report.peakPolyphony = polyphony;
+				}
+				voiceSamples += ((long) polyphony) * blockSize;
+				if (nextEvent >= events.count && samples >= endSamples
+						&& (polyphony == 0
+								|| samples - endSamples >= maxTailSamples)) {
+					break;
+				}
+			}
+		} finally {
+			report.stolenVoices = synth.getStolenVoiceCount();
+			report.silentVoices = synth.getSilentVoiceCount();
+			report.metrics = metrics.snapshot();
+			synth.close();
+		}
+		report.renderedSamples = samples;
+		report.audioSeconds = samples / sampleRate;
+		report.voiceSeconds = voiceSamples / sampleRate;
+		report.wallSeconds = (System.nanoTime() - startNanos) / 1000000000.0;
+		if (DEBUG_OFFLINE) {
+			debug("OfflineRenderer: " + report);
+		}
+		return report;
+	}
+
+	/**
+	 * The statistics of one render process.
+	 */
+	public static class Report {
+		String name = "";
+		int events;
+		int noteOns;
+		int peakPolyphony;
+		int stolenVoices;
+		int silentVoices;
+		long renderedSamples;
+		double audioSeconds;
+		double voiceSeconds;
+		double wallSeconds;
+		RenderMetrics.Snapshot metrics;
+
+		/**
+		 * @return the name of the rendered file, or an empty string
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the number of scheduled MIDI events
+		 */
+		public int getEventCount() {
+			return events;
+		}
+
+		/**
+		 * @return the number of Note On events
+		 */
+		public int getNoteOnCount() {
+			return noteOns;
+		}
+
+		/**
+		 * @return the maximum number of voices that played at a block
+		 *         boundary
+		 */
+		public int getPeakPolyphony() {
+			return peakPolyphony;
+		}
+
+		/**
+		 * @return the average number of voices per block
+		 */
+		public double getAveragePolyphony() {
+			if (audioSeconds == 0.0) {
+				return 0.0;
+			}
+			return voiceSeconds / audioSeconds;
+		}
+
+		/**
+		 * @return the number of voices stopped because of maximum polyphony
+		 */
+		public int getStolenVoiceCount() {
+			return stolenVoices;
+		}
+
+		/**
+		 * @return the number of voices retired early because they were
+		 *         inaudible
+		 */
+		public int getSilentVoiceCount() {
+			return silentVoices;
+		}
+
+		/**
+		 * @return the render metrics of the rendering process, with the
+		 *         block size as slice time
+		 */
+		public RenderMetrics.Snapshot getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * @return the number of rendered sample frames
+		 */
+		public long getRenderedSamples() {
+			return renderedSamples;
+		}
+
+		/**
+		 * @return the duration of the rendered audio in seconds
+		 */
+		public double getAudioSeconds() {
+			return audioSeconds;
+		}
+
+		/**
+		 * @return the time it took to render, in seconds
+		 */
+		public double getWallSeconds() {
+			return wallSeconds;
+		}
+
+		/**
+		 * @return how many times faster than real time the rendering was
+		 */
+		public double getRealtimeFactor() {
+			if (wallSeconds == 0.0) {
+				return 0.0;
+			}
+			return audioSeconds / wallSeconds;
+		}
+
+		/**
+		 * @return the voice throughput: the number of seconds of voices
+		 *         rendered per second, i.e. the number of voices that could
+		 *         be played in real time at this rate
+		 */
+		public double getVoicesPerSecond() {
+			if (wallSeconds == 0.0) {
+				return 0.0;
+			}
+			return voiceSeconds / wallSeconds;
+		}
+
+		public String toString() {
+			return (name.length() > 0 ? name + ": " : "")
+					+ format3(audioSeconds) + "s audio in "
+					+ format3(wallSeconds) + "s, realtime factor "
+					+ format1(getRealtimeFactor()) + "x, " + noteOns
+					+ " notes, peak polyphony " + peakPolyphony
+					+ ", avg polyphony " + format1(getAveragePolyphony())
+					+ ", voices/sec " + format1(getVoicesPerSecond())
+					+ (stolenVoices > 0 ? ", stolen voices " + stolenVoices : "")
+					+ (silentVoices > 0 ? ", silent voices " + silentVoices : "");
+		}
+	}
+
+	/**
+	 * The short messages of a sequence, sorted by time, with their time as a
+	 * sample position. Tempo changes are evaluated and removed.
+	 */
+	private static class Events {
+		int count;
+		long[] samplePos;
+		/**
+		 * the messages: status byte in bits 0-7, data1 in bits 8-15, data2 in
+		 * bits 16-23
+		 */
+		int[] messages;
+
+		Events(Sequence sequence, double sampleRate) {
+			// collect all short messages and tempo changes of all tracks
+			List<javax.sound.midi.MidiEvent> all =
+					new ArrayList<javax.sound.midi.MidiEvent>();
+			for (Track track : sequence.getTracks()) {
+				int size = track.size();
+				for (int i = 0; i < size; i++) {
+					javax.sound.midi.MidiEvent event = track.get(i);
+					MidiMessage msg = event.getMessage();
+					if (msg instanceof ShortMessage
+							|| (msg instanceof MetaMessage && ((MetaMessage) msg).getType() == META_TEMPO)) {
+						all.add(event);
+					}
+				}
+			}
+			// sort by tick: the sort is stable, so events with the same tick
+			// keep the order of the tracks
+			Collections.sort(all, new Comparator<javax.sound.midi.MidiEvent>() {
+				public int compare(javax.sound.midi.MidiEvent e1,
+						javax.sound.midi.MidiEvent e2) {
+					long t1 = e1.getTick();
+					long t2 = e2.getTick();
+					return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+				}
+			});
+
+			samplePos = new long[all.size()];
+			messages = new int[all.size()];
+			boolean ppq = (sequence.getDivisionType() == Sequence.PPQ);
+			double resolution = sequence.getResolution();
+			// for SMPTE timing: ticks per second
+			double ticksPerSecond = sequence.getDivisionType() * resolution;
+			long lastTick = 0;
+			double lastMicros = 0.0;
+			int tempoMPQ = DEFAULT_TEMPO_MPQ;
+			for (javax.sound.midi.MidiEvent event : all) {
+				long tick = event.getTick();
+				double micros;
+				if (ppq) {
+					micros = lastMicros + (tick - lastTick) * tempoMPQ
+							/ resolution;
+					lastMicros = micros;
+					lastTick = tick;
+				} else {
+					micros = tick * 1000000.0 / ticksPerSecond;
+				}
+				MidiMessage msg = event.getMessage();
+				if (msg instanceof MetaMessage) {
+					byte[] data = ((MetaMessage) msg).getData();
+					if (data.length >= 3) {
+						tempoMPQ = ((data[0] & 0xFF) << 16)
+								| ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+					}
+					continue;
+				}
+				ShortMessage sm = (ShortMessage) msg;
+				if (sm.getStatus() >= 0xF0) {
+					// system common and real time messages are not rendered
+					continue;
+				}
+				samplePos[count] = (long) (micros * sampleRate / 1000000.0 + 0.5);
+				messages[count] = sm.getStatus()
+						| (sm.getData1() << 8) | (sm.getData2() << 16);
+				count++;
+			}
+			if (DEBUG_OFFLINE) {
+				debug("OfflineRenderer: " + count + " events, duration "
+						+ format3(getEndSamples() / sampleRate) + "s");
+			}
+		}
+
+		/**
+		 * @return the sample position of the last event
+		 */
+		long getEndSamples() {
+			if (count == 0) {
+				return 0;
+			}
+			return samplePos[count - 1];
+		}
+	}
+}
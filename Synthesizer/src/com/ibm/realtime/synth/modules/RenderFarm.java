@@ -0,0 +1,604 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.modules;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.ibm.realtime.synth.engine.*;
+import com.ibm.realtime.synth.soundfont2.SoundFontSoundbank;
+
+/**
+ * Renders a list of MIDI files to wave files with several OfflineRenderer
+ * jobs in parallel. All jobs share the same soundbank instance: the sample
+ * data and the preset tables are loaded only once and are never copied. Every
+ * job has its own Synthesizer and mixer, and every worker thread renders one
+ * file at a time, so there is no synchronization between the jobs other than
+ * the object pools of the engine.
+ * <p>
+ * The soundbank must support concurrent calls to createNoteInput() from
+ * different synthesizers. SoundFontSoundbank does; its region lookup tables
+ * are built before the first job starts.
+ * <p>
+ * The settings of the jobs are taken from a template OfflineRenderer, see
+ * getTemplate(). By default, the jobs do not use render threads, because the
+ * worker threads already keep the processors busy.
+ * 
+ * @author florian
+ */
+public class RenderFarm {
+
+	public static boolean DEBUG_RENDER_FARM = false;
+
+	private OfflineRenderer template;
+
+	private int workerCount;
+
+	private File outputDir;
+
+	private List<Listener> listeners = new ArrayList<Listener>();
+
+	/**
+	 * Create a render farm with one worker per processor.
+	 * 
+	 * @param soundbank the soundbank shared by all jobs
+	 * @param format the format of the rendered wave files
+	 */
+	public RenderFarm(Soundbank soundbank, AudioFormat format) {
+		this(soundbank, format, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a render farm. The jobs do not use render threads.
+	 * 
+	 * @param soundbank the soundbank shared by all jobs
+	 * @param format the format of the rendered wave files
+	 * @param workerCount the number of files rendered in parallel
+	 */
+	public RenderFarm(Soundbank soundbank, AudioFormat format,
+			int workerCount) {
+		this(new OfflineRenderer(soundbank, format), workerCount);
+		template.setRenderThreadCount(0);
+	}
+
+	/**
+	 * Create a render farm with the settings of the given renderer. The
+	 * template is used as is, i.e. later changes to it affect subsequent
+	 * calls to render().
+	 * 
+	 * @param template the renderer whose soundbank, format and settings are
+	 *            used by every job
+	 * @param workerCount the number of files rendered in parallel
+	 */
+	public RenderFarm(OfflineRenderer template, int workerCount) {
+		if (template == null) {
+			throw new IllegalArgumentException("template must not be null");
+		}
+		this.template = template;
+		setWorkerCount(workerCount);
+	}
+
+	/**
+	 * Return the renderer that holds the settings of every job, e.g. the
+	 * block size and the number of render threads. Every job renders with
+	 * its own copy, created when the job starts.
+	 * 
+	 * @return the template renderer of the jobs
+	 */
+	public OfflineRenderer getTemplate() {
+		return template;
+	}
+
+	/**
+	 * @return the soundbank shared by all jobs
+	 */
+	public Soundbank getSoundbank() {
+		return template.getSoundbank();
+	}
+
+	/**
+	 * @return the format of the rendered wave files
+	 */
+	public AudioFormat getFormat() {
+		return template.getFormat();
+	}
+
+	/**
+	 * @return the number of files rendered in parallel
+	 */
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	/**
+	 * @param count the number of files rendered in parallel, at least 1
+	 */
+	public void setWorkerCount(int count) {
+		if (count < 1) {
+			count = 1;
+		}
+		this.workerCount = count;
+	}
+
+	/**
+	 * @return the directory for the wave files, or null if every wave file
+	 *         is written to the directory of its MIDI file
+	 */
+	public File getOutputDir() {
+		return outputDir;
+	}
+
+	/**
+	 * Set the output directory. MIDI files with the same name from different
+	 * directories get distinct wave files: the index of the job is appended
+	 * to the name of every wave file that is already used by a previous job.
+	 * 
+	 * @param dir the directory for the wave files, or null to write every
+	 *            wave file to the directory of its MIDI file
+	 */
+	public void setOutputDir(File dir) {
+		this.outputDir = dir;
+	}
+
+	/**
+	 * Add a listener for the progress of the jobs.
+	 */
+	public void addListener(Listener L) {
+		synchronized (listeners) {
+			listeners.add(L);
+		}
+	}
+
+	/**
+	 * Remove a progress listener.
+	 */
+	public void removeListener(Listener L) {
+		synchronized (listeners) {
+			listeners.remove(L);
+		}
+	}
+
+	/**
+	 * Render all MIDI files and wait until all jobs are finished. A file
+	 * that cannot be rendered does not stop the other jobs, the error is
+	 * returned in the file's Job object.
+	 * 
+	 * @param midiFiles the MIDI files to render
+	 * @return the summary with the results of all jobs
+	 * @throws InterruptedException if the calling thread is interrupted
+	 *             while waiting for the jobs. The running jobs are
+	 *             interrupted, too.
+	 * @throws IllegalArgumentException if 2 jobs would write the same wave
+	 *             file, even with the job index appended
+	 */
+	public Summary render(List<File> midiFiles) throws InterruptedException {
+		Soundbank soundbank = template.getSoundbank();
+		if (soundbank instanceof SoundFontSoundbank) {
+			// build the lookup tables now so that the jobs only read them
+			((SoundFontSoundbank) soundbank).buildRegionIndexes();
+		}
+		Summary summary = new Summary(midiFiles.size(), workerCount);
+		List<Job> jobs = summary.jobs;
+		// the workers must not write to the same wave file
+		Set<File> waveFiles = new HashSet<File>();
+		for (int i = 0; i < midiFiles.size(); i++) {
+			File midiFile = midiFiles.get(i);
+			File waveFile = getWaveFile(midiFile, outputDir, "");
+			if (!waveFiles.add(waveFile.getAbsoluteFile())) {
+				waveFile = getWaveFile(midiFile, outputDir, "-" + i);
+				if (!waveFiles.add(waveFile.getAbsoluteFile())) {
+					throw new IllegalArgumentException("cannot create a "
+							+ "distinct wave file name for " + midiFile);
+				}
+				if (DEBUG_RENDER_FARM) {
+					debug("RenderFarm: " + midiFile + " is rendered to "
+							+ waveFile + ", because the default name is used "
+							+ "by another job");
+				}
+			}
+			jobs.add(new Job(i, midiFile, waveFile));
+		}
+		if (DEBUG_RENDER_FARM) {
+			debug("RenderFarm: rendering " + jobs.size() + " files with "
+					+ workerCount + " workers");
+		}
+		// at most one queued job per worker, so that cancelation is quick
+		final Semaphore slots = new Semaphore(2 * workerCount);
+		ExecutorService executor = createExecutor();
+		// the settings in effect when render() was called
+		final OfflineRenderer settings = new OfflineRenderer(template);
+		long startNanos = System.nanoTime();
+		try {
+			for (final Job job : jobs) {
+				slots.acquire();
+				final Summary fSummary = summary;
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							runJob(job, settings, fSummary);
+						} finally {
+							slots.release();
+						}
+					}
+				});
+			}
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait
+			}
+		} catch (InterruptedException ie) {
+			executor.shutdownNow();
+			throw ie;
+		} finally {
+			summary.wallSeconds = (System.nanoTime() - startNanos) / 1000000000.0;
+		}
+		if (DEBUG_RENDER_FARM) {
+			debug("RenderFarm: " + summary);
+		}
+		return summary;
+	}
+
+	private ExecutorService createExecutor() {
+		return new ThreadPoolExecutor(workerCount, workerCount, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new java.util.concurrent.ThreadFactory() {
+					private int count = 0;
+
+					public synchronized Thread newThread(Runnable r) {
+						count++;
+						Thread t = new Thread(r, "RenderFarm worker " + count);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Render one file in the worker thread.
+	 */
+	private void runJob(Job job, OfflineRenderer settings, Summary summary) {
+		job.worker = Thread.currentThread().getName();
+		fireJobStarted(job);
+		long startNanos = System.nanoTime();
+		try {
+			OfflineRenderer renderer = new OfflineRenderer(settings);
+			job.report = renderer.render(job.midiFile, job.waveFile);
+		} catch (Throwable t) {
+			job.error = t;
+			if (DEBUG_RENDER_FARM) {
+				debug("RenderFarm: " + job.midiFile + ": " + t);
+			}
+		}
+		job.wallSeconds = (System.nanoTime() - startNanos) / 1000000000.0;
+		int finished = summary.addFinished(job);
+		fireJobFinished(job, finished, summary.fileCount);
+	}
+
+	private void fireJobStarted(Job job) {
+		synchronized (listeners) {
+			for (Listener L : listeners) {
+				L.jobStarted(job);
+			}
+		}
+	}
+
+	private void fireJobFinished(Job job, int finishedCount, int totalCount) {
+		synchronized (listeners) {
+			for (Listener L : listeners) {
+				L.jobFinished(job, finishedCount, totalCount);
+			}
+		}
+	}
+
+	/**
+	 * @return the wave file for the MIDI file: the same name with .wav
+	 *         extension, in outDir or in the directory of the MIDI file
+	 */
+	public static File getWaveFile(File midiFile, File outDir) {
+		return getWaveFile(midiFile, outDir, "");
+	}
+
+	/**
+	 * @return the wave file for the MIDI file, with suffix appended to the
+	 *         name before the .wav extension
+	 */
+	private static File getWaveFile(File midiFile, File outDir, String suffix) {
+		String name = midiFile.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		name += suffix + ".wav";
+		if (outDir == null) {
+			return new File(midiFile.getAbsoluteFile().getParentFile(), name);
+		}
+		return new File(outDir, name);
+	}
+
+	/**
+	 * The listener interface for the progress of the jobs. The methods are
+	 * called from the worker threads, but never concurrently.
+	 */
+	public interface Listener {
+		/**
+		 * Called when a worker starts rendering a file.
+		 */
+		public void jobStarted(Job job);
+
+		/**
+		 * Called when a file is rendered, or when rendering failed.
+		 * 
+		 * @param job the finished job
+		 * @param finishedCount the number of jobs finished so far
+		 * @param totalCount the number of files to render
+		 */
+		public void jobFinished(Job job, int finishedCount, int totalCount);
+	}
+
+	/**
+	 * One file to be rendered and the result of rendering it.
+	 */
+	public static class Job {
+		private int index;
+		private File midiFile;
+		private File waveFile;
+		private volatile String worker = "";
+		private volatile OfflineRenderer.Report report;
+		private volatile Throwable error;
+		private volatile double wallSeconds;
+
+		Job(int index, File midiFile, File waveFile) {
+			this.index = index;
+			this.midiFile = midiFile;
+			this.waveFile = waveFile;
+		}
+
+		/**
+		 * @return the index of this job in the list of files
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the MIDI file to render
+		 */
+		public File getMidiFile() {
+			return midiFile;
+		}
+
+		/**
+		 * @return the rendered wave file
+		 */
+		public File getWaveFile() {
+			return waveFile;
+		}
+
+		/**
+		 * @return the name of the worker thread rendering this job
+		 */
+		public String getWorker() {
+			return worker;
+		}
+
+		/**
+		 * @return the report of the renderer, or null if rendering failed or
+		 *         is not finished
+		 */
+		public OfflineRenderer.Report getReport() {
+			return report;
+		}
+
+		/**
+		 * @return the error that stopped rendering, or null
+		 */
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * @return true if this job failed
+		 */
+		public boolean isFailed() {
+			return error != null;
+		}
+
+		/**
+		 * @return the time from starting the job to its end, including
+		 *         loading the MIDI file, in seconds
+		 */
+		public double getWallSeconds() {
+			return wallSeconds;
+		}
+
+		public String toString() {
+			if (error != null) {
+				return midiFile.getName() + ": failed: " + error;
+			}
+			if (report != null) {
+				return report.toString();
+			}
+			return midiFile.getName();
+		}
+	}
+
+	/**
+	 * The aggregate statistics of all jobs of one render() call.
+	 */
+	public static class Summary {
+		private int fileCount;
+		private int workerCount;
+		private List<Job> jobs;
+		private int finishedCount;
+		private int failedCount;
+		private int peakPolyphony;
+		private double audioSeconds;
+		private double voiceSeconds;
+		private double jobSeconds;
+		private double wallSeconds;
+
+		Summary(int fileCount, int workerCount) {
+			this.fileCount = fileCount;
+			this.workerCount = workerCount;
+			this.jobs = new ArrayList<Job>(fileCount);
+		}
+
+		/**
+		 * Add the results of a finished job.
+		 * 
+		 * @return the number of finished jobs
+		 */
+		synchronized int addFinished(Job job) {
+			finishedCount++;
+			jobSeconds += job.wallSeconds;
+			OfflineRenderer.Report report = job.report;
+			if (job.error != null || report == null) {
+				failedCount++;
+			} else {
+				audioSeconds += report.audioSeconds;
+				voiceSeconds += report.voiceSeconds;
+				if (report.peakPolyphony > peakPolyphony) {
+					peakPolyphony = report.peakPolyphony;
+				}
+			}
+			return finishedCount;
+		}
+
+		/**
+		 * @return all jobs, in the order of the files
+		 */
+		public List<Job> getJobs() {
+			return jobs;
+		}
+
+		/**
+		 * @return the number of files
+		 */
+		public int getFileCount() {
+			return fileCount;
+		}
+
+		/**
+		 * @return the number of workers
+		 */
+		public int getWorkerCount() {
+			return workerCount;
+		}
+
+		/**
+		 * @return the number of finished jobs
+		 */
+		public synchronized int getFinishedCount() {
+			return finishedCount;
+		}
+
+		/**
+		 * @return the number of jobs that failed
+		 */
+		public synchronized int getFailedCount() {
+			return failedCount;
+		}
+
+		/**
+		 * @return the highest peak polyphony of all files
+		 */
+		public synchronized int getPeakPolyphony() {
+			return peakPolyphony;
+		}
+
+		/**
+		 * @return the total duration of the rendered audio in seconds
+		 */
+		public synchronized double getAudioSeconds() {
+			return audioSeconds;
+		}
+
+		/**
+		 * @return the time from starting the first job to the end of the
+		 *         last job, in seconds
+		 */
+		public synchronized double getWallSeconds() {
+			return wallSeconds;
+		}
+
+		/**
+		 * @return the aggregate throughput: seconds of audio rendered per
+		 *         second
+		 */
+		public synchronized double getRealtimeFactor() {
+			if (wallSeconds == 0.0) {
+				return 0.0;
+			}
+			return audioSeconds / wallSeconds;
+		}
+
+		/**
+		 * @return the aggregate voice throughput: seconds of voices rendered
+		 *         per second
+		 */
+		public synchronized double getVoicesPerSecond() {
+			if (wallSeconds == 0.0) {
+				return 0.0;
+			}
+			return voiceSeconds / wallSeconds;
+		}
+
+		/**
+		 * @return the sum of the job times divided by the wall time and the
+		 *         number of workers: 1.0 if all workers were busy all the
+		 *         time
+		 */
+		public synchronized double getWorkerUtilization() {
+			if (wallSeconds == 0.0) {
+				return 0.0;
+			}
+			return jobSeconds / (wallSeconds * workerCount);
+		}
+
+		public synchronized String toString() {
+			return "Rendered " + (finishedCount - failedCount) + " of "
+					+ fileCount + " files (" + failedCount + " failed) with "
+					+ workerCount + " workers: " + format3(audioSeconds)
+					+ "s audio in " + format3(wallSeconds)
+					+ "s, realtime factor " + format1(getRealtimeFactor())
+					+ "x, peak polyphony " + peakPolyphony + ", voices/sec "
+					+ format1(getVoicesPerSecond()) + ", worker utilization "
+					+ format1(getWorkerUtilization() * 100.0) + "%";
+		}
+	}
+}
@@ -72,7 +72,7 @@ public class StaticPianoSoundbank implements Soundbank {
 
 		StaticPatch patch = patches[note];
 		if (patch != null) {
-			return new NoteInput(params, time, channel, patch,
+			return NoteInput.obtain(params, time, channel, patch,
 					new StaticOscillator(patch.getFormat(),
 							patch.getAudioData()), new StaticArticulation(time,
 							patch, channel), note, vel);
@@ -255,6 +255,10 @@ public class StaticPianoSoundbank implements Soundbank {
 			init();
 		}
 
+		public void release(long nanoTime) {
+			endReleaseLoop();
+		}
+
 		protected void convertOneBlock(AudioBuffer buffer, int offset, int count) {
 			// only use the left channel
 			ConversionTool.byte2doubleGenericLSRC(nativeSamples, 0,
@@ -272,6 +276,14 @@ public class StaticPianoSoundbank implements Soundbank {
 			 * inByteOffset += nativeSampleSize / nativeChannels; }
 			 */
 		}
+
+		protected void convertOneBlock(FloatAudioBuffer buffer, int offset,
+				int count) {
+			// only use the left channel
+			ConversionTool.byte2floatGenericLSRC(nativeSamples, 0,
+					nativeSampleSize, nativePos, nativePosDelta,
+					buffer.getChannel(0), offset, count, nativeFormatCode);
+		}
 	}
 
 	private static class StaticArticulation extends Articulation {
@@ -288,7 +300,11 @@ public class StaticPianoSoundbank implements Soundbank {
 		}
 
 		public void calculate(AudioTime time) {
-			eg.calculate(time);
+			calculate(time.getNanoTime());
+		}
+
+		public void calculate(long nanoTime) {
+			eg.calculate(nanoTime);
 			calcEffectiveVolumeFactor();
 		}
 
@@ -296,6 +312,10 @@ public class StaticPianoSoundbank implements Soundbank {
 			// nothing to do
 		}
 
+		public void process(FloatAudioBuffer buffer) {
+			// nothing to do
+		}
+
 		protected void calcEffectiveVolumeFactor() {
 			for (int i = 0; i < effectiveLinearVolume.length; i++) {
 				effectiveLinearVolume[i] = eg.getCurrentValue();
@@ -307,7 +327,11 @@ public class StaticPianoSoundbank implements Soundbank {
 		}
 
 		public void release(AudioTime time) {
-			eg.release(time);
+			eg.release(time.getNanoTime());
+		}
+
+		public void release(long nanoTime) {
+			eg.release(nanoTime);
 		}
 
 		public boolean endReached() {
@@ -344,9 +368,10 @@ public class StaticPianoSoundbank implements Soundbank {
 		 * specified <code>time</code>. The time should increase in a monotonic
 		 * fashion.
 		 * 
-		 * @param time the current time to calculate this envelope's value for
+		 * @param nanoTime the current time in nanoseconds to calculate this
+		 *            envelope's value for
 		 */
-		public void calculate(AudioTime time);
+		public void calculate(long nanoTime);
 
 		/**
 		 * This is the current value of the envelope. During the life time of the
@@ -367,9 +392,9 @@ public class StaticPianoSoundbank implements Soundbank {
 		/**
 		 * Enter the release segment
 		 * 
-		 * @param time
+		 * @param nanoTime the current time in nanoseconds
 		 */
-		public void release(AudioTime time);
+		public void release(long nanoTime);
 	}
 
 	/**
@@ -414,13 +439,13 @@ public class StaticPianoSoundbank implements Soundbank {
 		/*
 		 * (non-Javadoc)
 		 * 
-		 * @see com.ibm.realtime.synth.engine.Envelope#calculate(com.ibm.realtime.synth.engine.AudioTime)
+		 * @see com.ibm.realtime.synth.engine.Envelope#calculate(long)
 		 */
-		public void calculate(AudioTime time) {
+		public void calculate(long nanoTime) {
 			if (currSegment == SEGMENT_RELEASE) {
 				// for now, every 100 milliseconds, reduce by 10 decibel
 				long millisSinceReleaseStart =
-						(time.getNanoTime() - currSegmentStartTime) / 1000000L;
+						(nanoTime - currSegmentStartTime) / 1000000L;
 				currDecibelValue = -10.0 * millisSinceReleaseStart / 200;
 				currLinearValue = decibel2linear(currDecibelValue);
 			}
@@ -444,8 +469,12 @@ public class StaticPianoSoundbank implements Soundbank {
 		}
 
 		public void release(AudioTime time) {
+			release(time.getNanoTime());
+		}
+
+		public void release(long nanoTime) {
 			if (currSegment < SEGMENT_RELEASE) {
-				currSegmentStartTime = time.getNanoTime();
+				currSegmentStartTime = nanoTime;
 				currSegment = SEGMENT_RELEASE;
 			}
 		}
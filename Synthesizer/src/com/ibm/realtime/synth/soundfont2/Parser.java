@@ -25,6 +25,10 @@ package com.ibm.realtime.synth.soundfont2;
 
 import java.util.*;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import static com.ibm.realtime.synth.utils.Debug.*;
 
@@ -93,6 +97,29 @@ public class Parser {
 	 */
 	private long readPos = 0;
 
+	/**
+	 * If true, the pdta sub-chunks are read as one block and the records are
+	 * decoded from chunkBuffer.
+	 */
+	private boolean bulkRead = true;
+
+	/**
+	 * If non-null, the readXXX methods decode from this buffer rather than
+	 * from the stream. The buffer's content is already accounted for in
+	 * readPos.
+	 */
+	private ByteBuffer chunkBuffer = null;
+
+	/**
+	 * The backing array of chunkBuffer, reused for all sub-chunks.
+	 */
+	private byte[] chunkBytes = null;
+
+	/**
+	 * The number of records read from the pdta sub-chunks.
+	 */
+	private int presetRecordCount = 0;
+
 	/**
 	 * A temporary class used during reading to temporarily store all data as
 	 * found in the file.
@@ -114,12 +141,116 @@ public class Parser {
 	 */
 	private List<SoundFontBank> banks = null;
 
+	/**
+	 * How to decode the sample data after loading, one of the
+	 * SoundFontSampleData.DECODE_* constants.
+	 */
+	private int sampleDecoding = SoundFontSampleData.DECODE_NONE;
+
+	/**
+	 * If true, load(File) maps the sample data instead of reading it.
+	 */
+	private boolean mapSampleData = false;
+
+	/**
+	 * The channel used for mapping the sample data, only set during
+	 * load(File).
+	 */
+	private FileChannel mapChannel = null;
+
 	/**
 	 * Create a SoundFont 2 parser
 	 */
 	public Parser() {
 	}
 
+	/**
+	 * @return the sample decoding mode, one of the
+	 *         SoundFontSampleData.DECODE_* constants
+	 */
+	public int getSampleDecoding() {
+		return sampleDecoding;
+	}
+
+	/**
+	 * Set how the sample data is decoded after loading. Decoding to short or
+	 * float takes the byte assembly out of the oscillator's inner loop.
+	 * 
+	 * @param sampleDecoding one of the SoundFontSampleData.DECODE_* constants
+	 */
+	public void setSampleDecoding(int sampleDecoding) {
+		this.sampleDecoding = sampleDecoding;
+	}
+
+	/**
+	 * @return true if load(File) memory maps the sample data
+	 */
+	public boolean isMapSampleData() {
+		return mapSampleData;
+	}
+
+	/**
+	 * If set to true, load(File) will not read the sample data into memory,
+	 * but map it from the file. Only the INFO and pdta chunks are parsed. The
+	 * sample decoding mode is ignored for mapped sample data.
+	 * 
+	 * @param mapSampleData true to memory map the sample data
+	 */
+	public void setMapSampleData(boolean mapSampleData) {
+		this.mapSampleData = mapSampleData;
+	}
+
+	/**
+	 * @return the number of records read from the preset data (pdta)
+	 *         sub-chunks during the last load.
+	 */
+	public int getPresetRecordCount() {
+		return presetRecordCount;
+	}
+
+	/**
+	 * @return true if the preset data is read in bulk
+	 */
+	public boolean isBulkRead() {
+		return bulkRead;
+	}
+
+	/**
+	 * If set to true (the default), each sub-chunk of the preset data (pdta)
+	 * is read from the stream as one block, and the fixed size records are
+	 * decoded from a little endian ByteBuffer. Otherwise, every field is read
+	 * byte by byte from the stream.
+	 * 
+	 * @param bulkRead true to enable bulk reading
+	 */
+	public void setBulkRead(boolean bulkRead) {
+		this.bulkRead = bulkRead;
+	}
+
+	/**
+	 * Read the soundbank from the given file. Depending on
+	 * <code>isMapSampleData()</code>, the sample data is read into memory or
+	 * memory mapped.
+	 * 
+	 * @param file the soundfont file
+	 * @throws IOException on file read error
+	 * @throws SoundFont2ParserException if the file is not a well-structured
+	 *             SoundFont 2 file.
+	 */
+	public void load(File file) throws IOException,
+			SoundFont2ParserException {
+		FileInputStream fis = new FileInputStream(file);
+		if (mapSampleData) {
+			mapChannel = fis.getChannel();
+		}
+		try {
+			load(new BufferedInputStream(fis));
+		} finally {
+			mapChannel = null;
+			fis.close();
+		}
+	}
+
 	/**
 	 * @return Returns the SoundFont meta data (only valid after load).
 	 */
@@ -157,6 +288,11 @@ public class Parser {
 		sampleData = null;
 		banks = null;
 		this.inputStream = in;
+		readPos = 0;
+		scheduledSkip = 0;
+		chunkBuffer = null;
+		presetRecordCount = 0;
+		pdtaChunksRead = 0;
 		tempData = new PresetTempData();
 		if (TRACE) debug("Parsing...");
 		readChunks(0xFFFFFFFFFFFFFFFL, FOURCC_OUTERCHUNK);
@@ -164,6 +300,9 @@ public class Parser {
 		if (TRACE) debug("Processing...");
 		tempData.process();
 		tempData = null;
+		if (sampleData != null) {
+			sampleData.decode(sampleDecoding);
+		}
 		if (TRACE) debug("end parsing soundfont.");
 	}
 
@@ -175,6 +314,9 @@ public class Parser {
 	 */
 	public int readIntLE() throws IOException {
 		assert (scheduledSkip == 0);
+		if (chunkBuffer != null) {
+			return chunkBuffer.getInt();
+		}
 		int b0 = inputStream.read();
 		int b1 = inputStream.read();
 		int b2 = inputStream.read();
@@ -195,6 +337,9 @@ public class Parser {
 	 */
 	public short readShortLE() throws IOException {
 		assert (scheduledSkip == 0);
+		if (chunkBuffer != null) {
+			return chunkBuffer.getShort();
+		}
 		int b0 = inputStream.read();
 		int b1 = inputStream.read();
 		if ((b0 | b1) < 0) {
@@ -213,6 +358,9 @@ public class Parser {
 	 */
 	public int readWordLE() throws IOException {
 		assert (scheduledSkip == 0);
+		if (chunkBuffer != null) {
+			return chunkBuffer.getShort() & 0xFFFF;
+		}
 		int b0 = inputStream.read();
 		int b1 = inputStream.read();
 		if ((b0 | b1) < 0) {
@@ -230,6 +378,9 @@ public class Parser {
 	 */
 	public int readIntBE() throws IOException {
 		assert (scheduledSkip == 0);
+		if (chunkBuffer != null) {
+			return Integer.reverseBytes(chunkBuffer.getInt());
+		}
 		int b3 = inputStream.read();
 		int b2 = inputStream.read();
 		int b1 = inputStream.read();
@@ -249,6 +400,9 @@ public class Parser {
 	 */
 	public short readShortBE() throws IOException {
 		assert (scheduledSkip == 0);
+		if (chunkBuffer != null) {
+			return Short.reverseBytes(chunkBuffer.getShort());
+		}
 		int b1 = inputStream.read();
 		int b0 = inputStream.read();
 		if ((b0 | b1) < 0) {
@@ -262,6 +416,9 @@ public class Parser {
 	 * Read an unsigned Byte from the stream
 	 */
 	public int readUnsignedByte() throws IOException {
+		if (chunkBuffer != null) {
+			return chunkBuffer.get() & 0xFF;
+		}
 		int ret = inputStream.read();
 		if (ret < 0) {
 			throw new EOFException();
@@ -274,6 +431,9 @@ public class Parser {
 	 * Read a signed Byte from the stream
 	 */
 	public byte readSignedByte() throws IOException {
+		if (chunkBuffer != null) {
+			return chunkBuffer.get();
+		}
 		int ret = inputStream.read();
 		if (ret < 0) {
 			throw new EOFException();
@@ -288,6 +448,10 @@ public class Parser {
 
 	public void readFully(byte bytes[], int offset, int length)
 			throws IOException {
+		if (chunkBuffer != null) {
+			chunkBuffer.get(bytes, offset, length);
+			return;
+		}
 		readPos += length;
 		while (length > 0) {
 			int read = inputStream.read(bytes, offset, length);
@@ -355,6 +519,13 @@ public class Parser {
 	}
 
 	protected void skip(long bytes) throws IOException {
+		if (chunkBuffer != null) {
+			if (bytes > chunkBuffer.remaining()) {
+				throw new EOFException();
+			}
+			chunkBuffer.position(chunkBuffer.position() + (int) bytes);
+			return;
+		}
 		while (bytes > 0) {
 			long skipped = inputStream.skip(bytes);
 			if (skipped > 0) {
@@ -706,11 +877,17 @@ public class Parser {
 		switch (chunkID) {
 		case FOURCC_smpl:
 			// check consistency
-			if (sampleData.getData() != null) {
+			if (sampleData.getData() != null || sampleData.isMapped()) {
 				throw new SoundFont2ParserException(
 						"corrupt soundfont: multiple smpl chunk");
 			}
 			checkSize(chunkID, chunkLength, 2, 1, -1);
+			if (mapChannel != null) {
+				// the chunk is skipped by the caller
+				sampleData.setMappedData(mapChannel, readPos, chunkLength);
+				if (TRACE) debug(" mapped " + chunkLength + " bytes of audio data");
+				break;
+			}
 			// read data
 			byte[] data = new byte[(int) chunkLength];
 			readFully(data);
@@ -737,7 +914,34 @@ public class Parser {
 
 	private void readPresetData(int chunkID, long chunkLength)
 			throws IOException, SoundFont2ParserException {
-		int blockCount;
+		if (!bulkRead) {
+			readPresetRecords(chunkID, chunkLength);
+			return;
+		}
+		if (chunkLength > Integer.MAX_VALUE) {
+			throw new SoundFont2ParserException("corrupt soundfont: chunk "
+					+ key2string(chunkID) + " is too large");
+		}
+		// read the entire sub-chunk into the chunk buffer
+		int length = (int) chunkLength;
+		if (chunkBytes == null || chunkBytes.length < length) {
+			chunkBytes = new byte[length];
+		}
+		readFully(chunkBytes, 0, length);
+		chunkBuffer = ByteBuffer.wrap(chunkBytes, 0, length);
+		chunkBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			readPresetRecords(chunkID, chunkLength);
+		} catch (BufferUnderflowException bue) {
+			throw new EOFException();
+		} finally {
+			chunkBuffer = null;
+		}
+	}
+
+	private void readPresetRecords(int chunkID, long chunkLength)
+			throws IOException, SoundFont2ParserException {
+		int blockCount = 0;
 
 		switch (chunkID) {
 		case FOURCC_phdr:
@@ -799,6 +1003,7 @@ public class Parser {
 			debug("ignored pdta element " + key2string(chunkID) + " with size "
 					+ chunkLength + " bytes");
 		}
+		presetRecordCount += blockCount;
 	}
 
 	public static class SoundFont2ParserException extends Exception {
@@ -141,6 +141,11 @@ public class SoundFontArticulation extends Articulation {
 	 */
 	private SoundFontFilter lowPass;
 
+	/**
+	 * If true, the low pass filter is not calculated and not applied.
+	 */
+	private boolean filterBypass = false;
+
 	/**
 	 * For optimization, only compute a new pitch and filter values every
 	 * PITCH_CHANGE_INTERVAL nanoseconds. This is the next audio time at which a
@@ -163,6 +168,13 @@ public class SoundFontArticulation extends Articulation {
 	 */
 	private double scaleTuning = 1.0;
 
+	/**
+	 * The pool of recycled articulation objects
+	 */
+	private static final ObjectPool<SoundFontArticulation> pool =
+			new ObjectPool<SoundFontArticulation>("SoundFontArticulation",
+					ObjectPool.DEFAULT_CAPACITY);
+
 	/**
 	 * Create an articulation object for SoundFont2 voices
 	 * 
@@ -180,12 +192,79 @@ public class SoundFontArticulation extends Articulation {
 		// the modifiers for the lowpass are calculated in the Articulation
 		// objects, so it is owned by Articulation.
 		lowPass = new SoundFontFilter(this);
+		setDefaultNames();
+		// set eg1 as the volume envelope.
+		eg1.setVolume(96); // 96dB is the maximum attenuation
+	}
+
+	/**
+	 * Return an articulation object, either a recycled instance from the pool
+	 * with its LFO's, envelopes, and filter reset, or a new instance.
+	 */
+	static SoundFontArticulation obtain(AudioTime time, Patch patch,
+			MidiChannel channel) {
+		SoundFontArticulation result = pool.obtain();
+		if (result == null) {
+			return new SoundFontArticulation(time, patch, channel);
+		}
+		result.reset(time, patch, channel);
+		return result;
+	}
+
+	/**
+	 * @return the pool of recycled articulation objects
+	 */
+	public static ObjectPool<SoundFontArticulation> getPool() {
+		return pool;
+	}
+
+	/**
+	 * Reset this instance to the state of a newly constructed instance.
+	 */
+	private final void reset(AudioTime time, Patch patch, MidiChannel channel) {
+		init(time, patch, channel);
+		linearPan = 0.0;
+		linearVolume = 1.0;
+		initialAttenuation = 0.0;
+		initialVolumeFactor[0] = 0.0;
+		initialVolumeFactor[1] = 0.0;
+		runtimeVolumeFactor[0] = 0.0;
+		runtimeVolumeFactor[1] = 0.0;
+		fineTune = 0.0;
+		LFO_EG_VolumeFactor = 1.0;
+		modulationToPitchLFO = 0.5;
+		channelPressureToPitchLFO = 0.5;
+		nextPitchChange = 0;
+		chorusSend = 0.0;
+		reverbSend = 0.0;
+		scaleTuning = 1.0;
+		lfo1.reset(time);
+		lfo2.reset(time);
+		eg1.reset(time);
+		eg2.reset(time);
+		lowPass.reset();
+		filterBypass = false;
+		setDefaultNames();
+		eg1.setVolume(96);
+	}
+
+	private final void setDefaultNames() {
+		name = "";
 		lfo1.name = "LFO 1"; // vibrato LFO: only pitch
 		lfo2.name = "LFO 2"; // modulation LFO: pitch, volume, cutoff
 		eg1.name = "EG 1"; // volume envelope
 		eg2.name = "EG 2"; // modulation envelope: pitch and/or cutoff
-		// set eg1 as the volume envelope.
-		eg1.setVolume(96); // 96dB is the maximum attenuation
+	}
+
+	/**
+	 * Give this articulation and its patch back to their pools.
+	 */
+	public void recycle() {
+		Patch patch = getPatch();
+		if (patch instanceof SoundFontPatch) {
+			((SoundFontPatch) patch).recycle();
+		}
+		pool.recycle(this);
 	}
 
 	// TODO: move the concept of initial and runtime factors to the base class.
@@ -217,21 +296,94 @@ public class SoundFontArticulation extends Articulation {
 	 * Override from super class: calculate envelopes and LFO's.
 	 */
 	public void calculate(AudioTime time) {
-		long nanoTime = time.getNanoTime();
+		calculate(time.getNanoTime());
+	}
+
+	/**
+	 * Override from super class: calculate envelopes and LFO's without
+	 * creating an AudioTime object.
+	 */
+	public void calculate(long nanoTime) {
 		if (nanoTime >= nextPitchChange) {
 			// calculate pitch/filter only
-			lfo1.calculate(time);
-			eg2.calculate(time);
-			lowPass.calculate(lfo2.getCurrentCutoff() + eg2.getCurrentCutoff());
+			lfo1.calculate(nanoTime);
+			eg2.calculate(nanoTime);
+			if (!filterBypass) {
+				lowPass.calculate(lfo2.getCurrentCutoff()
+						+ eg2.getCurrentCutoff());
+			}
 			nextPitchChange = nanoTime + PITCH_CHANGE_INTERVAL;
 		}
-		eg1.calculate(time);
-		lfo2.calculate(time);
+		eg1.calculate(nanoTime);
+		lfo2.calculate(nanoTime);
+		calcLFO_EG_VolumeFactor();
+	}
+
+	/**
+	 * Override from super class: calculate envelopes and LFO's at the
+	 * beginning of a control block, and let the filter ramp to the new
+	 * cutoff over the control block.
+	 */
+	public void calculate(long nanoTime, int controlSamples) {
+		lfo1.calculate(nanoTime);
+		eg2.calculate(nanoTime);
+		if (!filterBypass) {
+			lowPass.calculate(lfo2.getCurrentCutoff()
+					+ eg2.getCurrentCutoff(), controlSamples);
+		}
+		eg1.calculate(nanoTime);
+		lfo2.calculate(nanoTime);
 		calcLFO_EG_VolumeFactor();
 	}
 
 	public void process(AudioBuffer buffer) {
-		lowPass.process(buffer);
+		if (!filterBypass) {
+			lowPass.process(buffer);
+		}
+	}
+
+	public void process(FloatAudioBuffer buffer) {
+		if (!filterBypass) {
+			lowPass.process(buffer);
+		}
+	}
+
+	public void process(AudioBuffer buffer, int offset, int count) {
+		if (!filterBypass) {
+			lowPass.process(buffer, offset, count);
+		}
+	}
+
+	public void process(FloatAudioBuffer buffer, int offset, int count) {
+		if (!filterBypass) {
+			lowPass.process(buffer, offset, count);
+		}
+	}
+
+	/**
+	 * Override from super class: bypass the low pass filter. When the filter
+	 * is enabled again, it starts with a cleared state.
+	 */
+	public void setFilterBypass(boolean bypass) {
+		if (filterBypass && !bypass) {
+			lowPass.clearState();
+		}
+		filterBypass = bypass;
+	}
+
+	/**
+	 * The volume envelope and the modulation LFO are applied at control
+	 * rate.
+	 */
+	public double getControlVolumeFactor() {
+		return LFO_EG_VolumeFactor;
+	}
+
+	public double getChannelVolumeFactor(int channel) {
+		if (channel < 2) {
+			return initialVolumeFactor[channel] * runtimeVolumeFactor[channel];
+		}
+		return 0.0;
 	}
 
 	protected double getRuntimePitchOffset() {
@@ -557,8 +709,12 @@ public class SoundFontArticulation extends Articulation {
 	}
 
 	public void release(AudioTime time) {
-		eg1.release(time);
-		eg2.release(time);
+		release(time.getNanoTime());
+	}
+
+	public void release(long nanoTime) {
+		eg1.release(nanoTime);
+		eg2.release(nanoTime);
 	}
 
 	public boolean endReached() {
@@ -566,6 +722,31 @@ public class SoundFontArticulation extends Articulation {
 		return eg1.endReached();
 	}
 
+	/**
+	 * A note is inaudible once the volume envelope has passed the attack and
+	 * hold segments, and the current level, including the initial volume
+	 * factor and the maximum amplification by the modulation LFO, is below
+	 * the threshold. The volume and expression controllers are not taken
+	 * into account: they never amplify, and they may be raised again.
+	 */
+	public boolean isInaudible(double threshold) {
+		if (eg1.getSegment() < SoundFontEnvelope.DECAY) {
+			return false;
+		}
+		double maxDB = eg1.getCurrentVolume() + Math.abs(lfo2.getVolume());
+		double initialFactor =
+				Math.max(initialVolumeFactor[0], initialVolumeFactor[1]);
+		return maxDB < 0.0
+				&& initialFactor * AudioUtils.decibel2linear(maxDB) < threshold;
+	}
+
+	/**
+	 * @return the current value of the volume envelope
+	 */
+	public double getCurrentLevel() {
+		return eg1.getCurrentValue();
+	}
+
 	/**
 	 * Set the initial linear chorus send.
 	 * 
@@ -660,6 +841,12 @@ public class SoundFontArticulation extends Articulation {
 	 * @param s the name to give this instance
 	 */
 	void setName(String s) {
+		// the names are only used for debug output, so prevent the string
+		// concatenation on every note on.
+		if (!DEBUG_ART && !DEBUG_ART_VOLUME && !SoundFontEnvelope.DEBUG_EG
+				&& !SoundFontLFO.DEBUG_LFO) {
+			return;
+		}
 		name = s + ":";
 		eg1.name = s + "." + eg1.name;
 		eg2.name = s + "." + eg2.name;
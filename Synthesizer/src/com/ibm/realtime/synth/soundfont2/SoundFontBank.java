@@ -97,7 +97,14 @@ public class SoundFontBank implements Comparable<SoundFontBank>, Soundbank.Bank
 	 */
 	public static int findBank(List<SoundFontBank> banks, int thisBank) {
 		// TODO: if more than 5 banks, use binary search
-		return banks.indexOf(new SoundFontBank(thisBank));
+		// do not use indexOf(): it would allocate a new SoundFontBank object
+		int size = banks.size();
+		for (int i = 0; i < size; i++) {
+			if (banks.get(i).bank == thisBank) {
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	public boolean equals(SoundFontBank sfb) {
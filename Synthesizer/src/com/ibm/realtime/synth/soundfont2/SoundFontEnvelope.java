@@ -139,6 +139,24 @@ public class SoundFontEnvelope {
 	 * Create an envelope without any influence on pitch, volume, or cutoff.
 	 */
 	public SoundFontEnvelope(AudioTime time) {
+		reset(time);
+	}
+
+	/**
+	 * Reset all settings and the runtime state to the values of a new
+	 * instance, so that this envelope can be reused for a new voice.
+	 */
+	void reset(AudioTime time) {
+		pitch = 0.0;
+		volume = 0.0;
+		cutoff = 0.0;
+		keyNumToHoldTimeCents = 0;
+		keyNumToDecayTimeCents = 0;
+		key = 0;
+		nextSegmentStartTime = 0.0;
+		value = 0.0;
+		releaseLevel = 0.0;
+		segment = DELAY;
 		startTime = time.getNanoTime();
 		segmentStartTime = 0.0;
 		// set default values
@@ -163,7 +181,7 @@ public class SoundFontEnvelope {
 		advanceSegment(DELAY, 0.0);
 		if (DEBUG_EG) {
 			// process this segment's start in case delay==0
-			calculate(new AudioTime(startTime));
+			calculate(startTime);
 		}
 	}
 
@@ -173,10 +191,19 @@ public class SoundFontEnvelope {
 	 * @see com.ibm.realtime.synth.engine.Envelope#calculate(com.ibm.realtime.synth.engine.AudioTime)
 	 */
 	public void calculate(AudioTime time) {
+		calculate(time.getNanoTime());
+	}
+
+	/**
+	 * Calculate the value of this envelope at the given time.
+	 * 
+	 * @param nanoTime the current time in nanoseconds
+	 */
+	public void calculate(long nanoTime) {
 		if (segment > RELEASE) {
 			return;
 		}
-		double thisTime = getRelativeTime(time);
+		double thisTime = getRelativeTime(nanoTime);
 		// first check if we need to go to next segment
 		while (segment != SUSTAIN && thisTime >= nextSegmentStartTime) {
 			// advance to next segment
@@ -189,6 +216,14 @@ public class SoundFontEnvelope {
 		double segmentDone =
 				(thisTime - segmentStartTime)
 						/ (nextSegmentStartTime - segmentStartTime);
+		// the envelope may be calculated for a time before the start of the
+		// current segment, e.g. when the note was released later in the
+		// same slice or control block.
+		if (segmentDone < 0.0) {
+			segmentDone = 0.0;
+		} else if (segmentDone > 1.0) {
+			segmentDone = 1.0;
+		}
 		switch (segment) {
 		case DELAY:
 			value = 0.0;
@@ -253,12 +288,12 @@ public class SoundFontEnvelope {
 	/**
 	 * Calculate the duration from start of this voice until the specified time.
 	 * 
-	 * @param time the time to convert to relative time
+	 * @param nanoTime the time to convert to relative time
 	 * @return the time, in seconds, that have passed since the start time of
 	 *         this instrument
 	 */
-	private final double getRelativeTime(AudioTime time) {
-		return (time.getNanoTime() - startTime) / 1000000000.0;
+	private final double getRelativeTime(long nanoTime) {
+		return (nanoTime - startTime) / 1000000000.0;
 	}
 
 	/**
@@ -316,10 +351,19 @@ public class SoundFontEnvelope {
 	 * @see com.ibm.realtime.synth.engine.Envelope#release(com.ibm.realtime.synth.engine.AudioTime)
 	 */
 	public void release(AudioTime time) {
+		release(time.getNanoTime());
+	}
+
+	/**
+	 * Enter the release segment at the given time.
+	 * 
+	 * @param nanoTime the current time in nanoseconds
+	 */
+	public void release(long nanoTime) {
 		if (segment < RELEASE) {
-			calculate(time);
+			calculate(nanoTime);
 			releaseLevel = value;
-			advanceSegment(RELEASE, getRelativeTime(time));
+			advanceSegment(RELEASE, getRelativeTime(nanoTime));
 		}
 	}
 
@@ -332,6 +376,14 @@ public class SoundFontEnvelope {
 		return value;
 	}
 
+	/**
+	 * @return the current segment: DELAY, ATTACK, HOLD, DECAY, SUSTAIN,
+	 *         RELEASE, or a larger value if the end is reached
+	 */
+	public int getSegment() {
+		return segment;
+	}
+
 	// SETUP of the segment parameters
 
 	/**
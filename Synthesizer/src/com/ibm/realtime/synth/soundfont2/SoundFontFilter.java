@@ -107,6 +107,45 @@ public class SoundFontFilter {
 		this.owner = owner;
 	}
 
+	/**
+	 * Reset all settings and the filter state to the values of a new
+	 * instance, so that this filter can be reused for a new voice.
+	 */
+	void reset() {
+		enabled = false;
+		initialCutoffCents = 13500;
+		initialNormalizedCutoff = 1.0;
+		cutoffController = 0.0;
+		initialResonanceCB = 0;
+		initialNormalizedResonance = 0.0;
+		resonanceController = 0.0;
+		currentSampleRate = 0.0;
+		currentCutOffOffset = 0.0;
+		F1 = 0.0;
+		Q1 = 0.0;
+		lastLP = 0.0;
+		lastBP = 0.0;
+		lastCutoffOffset = -100000.0;
+		lastCutoff = 1.0;
+		lastResonanceOffset = -100000.0;
+		lastResonance = 0.0;
+		rampF1 = 0.0;
+		rampF1Inc = 0.0;
+		rampSamples = 0;
+	}
+
+	/**
+	 * Clear the filter state, e.g. after the filter was bypassed. The cutoff
+	 * is not ramped from a previous value.
+	 */
+	void clearState() {
+		lastLP = 0.0;
+		lastBP = 0.0;
+		rampF1 = F1;
+		rampF1Inc = 0.0;
+		rampSamples = 0;
+	}
+
 	/**
 	 * Must be called after initializing the initial cutoff and resonance.
 	 */
@@ -135,6 +174,27 @@ public class SoundFontFilter {
 		}
 	}
 
+	/**
+	 * Called at the beginning of a control block to calculate internal
+	 * variables. The frequency coefficient is ramped from its current value
+	 * to the new value over the next <code>rampSamples</code> samples
+	 * processed with the process() methods with offset and count.
+	 * 
+	 * @param cutOffOffset - an increase/decrease of the initial cutoff in
+	 *            semitones
+	 * @param rampSamples - the length of the control block in samples
+	 */
+	public void calculate(double cutOffOffset, int rampSamples) {
+		calculate(cutOffOffset);
+		if (rampSamples > 0 && F1 != rampF1) {
+			rampF1Inc = (F1 - rampF1) / rampSamples;
+			this.rampSamples = rampSamples;
+		} else {
+			rampF1Inc = 0.0;
+			this.rampSamples = 0;
+		}
+	}
+
 	/**
 	 * Apply the low pass filter to the specified buffer. If the effective cut
 	 * off frequency is near the nyquist frequency, no processing is done.
@@ -155,6 +215,61 @@ public class SoundFontFilter {
 		}
 	}
 
+	/**
+	 * Apply the low pass filter to the specified float buffer. The filter
+	 * state is kept in double precision.
+	 * 
+	 * @param buffer - the audio buffer to filter
+	 */
+	public void process(FloatAudioBuffer buffer) {
+		// check if the samplerate has changed
+		if (buffer.getSampleRate() != currentSampleRate) {
+			setSampleRate(buffer.getSampleRate());
+			calcFilter();
+		}
+		if (enabled) {
+			process(buffer.getChannel(0), buffer.getSampleCount());
+		}
+	}
+
+	/**
+	 * Apply the low pass filter to a part of the specified buffer, ramping
+	 * the cutoff as set up by calculate(double, int).
+	 * 
+	 * @param buffer - the audio buffer to filter
+	 * @param offset - the first sample to filter
+	 * @param count - the number of samples to filter
+	 */
+	public void process(AudioBuffer buffer, int offset, int count) {
+		if (buffer.getSampleRate() != currentSampleRate) {
+			setSampleRate(buffer.getSampleRate());
+			calcFilter();
+			// do not ramp from the coefficient of another sample rate
+			rampF1 = F1;
+			rampSamples = 0;
+		}
+		if (enabled) {
+			process(buffer.getChannel(0), offset, count);
+		}
+	}
+
+	/**
+	 * Apply the low pass filter to a part of the specified float buffer.
+	 * 
+	 * @see #process(AudioBuffer, int, int)
+	 */
+	public void process(FloatAudioBuffer buffer, int offset, int count) {
+		if (buffer.getSampleRate() != currentSampleRate) {
+			setSampleRate(buffer.getSampleRate());
+			calcFilter();
+			rampF1 = F1;
+			rampSamples = 0;
+		}
+		if (enabled) {
+			process(buffer.getChannel(0), offset, count);
+		}
+	}
+
 	private MidiChannel getChannel() {
 		return owner.getChannel();
 	}
@@ -299,6 +414,13 @@ public class SoundFontFilter {
 													// init
 	private double lastResonance = 0.0;
 
+	/** the frequency coefficient used by the ramping process() methods */
+	private double rampF1;
+	/** the increment of rampF1 per sample */
+	private double rampF1Inc;
+	/** the number of samples to increment rampF1 */
+	private int rampSamples;
+
 	/**
 	 * Calculate the state variables of the filter
 	 */
@@ -392,4 +514,88 @@ public class SoundFontFilter {
 		lastLP = localLastLP;
 		lastBP = localLastBP;
 	}
+
+	private void process(float[] samples, int count) {
+		// use local variables for more efficient access
+		double localLastLP = lastLP;
+		double localLastBP = lastBP;
+		double localF1 = F1;
+		double localQ1 = Q1;
+		
+		for (int i = 0; i < count; i++) {
+			localLastBP += localF1 * (samples[i] - localLastLP - localQ1 * localLastBP);
+			localLastLP += localF1 * localLastBP;
+			samples[i] = (float) localLastLP;
+		}
+		
+		lastLP = localLastLP;
+		lastBP = localLastBP;
+	}
+
+	private void process(double[] samples, int offset, int count) {
+		double localLastLP = lastLP;
+		double localLastBP = lastBP;
+		double localF1 = rampF1;
+		double localQ1 = Q1;
+		int end = offset + count;
+		int i = offset;
+
+		if (rampSamples > 0) {
+			int rampEnd = offset + ((count < rampSamples) ? count : rampSamples);
+			double localF1Inc = rampF1Inc;
+			for (; i < rampEnd; i++) {
+				localF1 += localF1Inc;
+				localLastBP += localF1 * (samples[i] - localLastLP - localQ1 * localLastBP);
+				localLastLP += localF1 * localLastBP;
+				samples[i] = (float) localLastLP;
+			}
+			rampSamples -= rampEnd - offset;
+			if (rampSamples == 0) {
+				// prevent accumulation of rounding errors
+				localF1 = F1;
+			}
+		}
+		for (; i < end; i++) {
+			localLastBP += localF1 * (samples[i] - localLastLP - localQ1 * localLastBP);
+			localLastLP += localF1 * localLastBP;
+			samples[i] = (float) localLastLP;
+		}
+
+		rampF1 = localF1;
+		lastLP = localLastLP;
+		lastBP = localLastBP;
+	}
+
+	private void process(float[] samples, int offset, int count) {
+		double localLastLP = lastLP;
+		double localLastBP = lastBP;
+		double localF1 = rampF1;
+		double localQ1 = Q1;
+		int end = offset + count;
+		int i = offset;
+
+		if (rampSamples > 0) {
+			int rampEnd = offset + ((count < rampSamples) ? count : rampSamples);
+			double localF1Inc = rampF1Inc;
+			for (; i < rampEnd; i++) {
+				localF1 += localF1Inc;
+				localLastBP += localF1 * (samples[i] - localLastLP - localQ1 * localLastBP);
+				localLastLP += localF1 * localLastBP;
+				samples[i] = (float) localLastLP;
+			}
+			rampSamples -= rampEnd - offset;
+			if (rampSamples == 0) {
+				localF1 = F1;
+			}
+		}
+		for (; i < end; i++) {
+			localLastBP += localF1 * (samples[i] - localLastLP - localQ1 * localLastBP);
+			localLastLP += localF1 * localLastBP;
+			samples[i] = (float) localLastLP;
+		}
+
+		rampF1 = localF1;
+		lastLP = localLastLP;
+		lastBP = localLastBP;
+	}
 }
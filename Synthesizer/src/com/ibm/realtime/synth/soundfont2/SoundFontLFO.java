@@ -40,6 +40,11 @@ public class SoundFontLFO {
 
 	public static boolean DEBUG_LFO = false;
 
+	/**
+	 * The default frequency, in hertz
+	 */
+	private final static double DEFAULT_FREQUENCY = cents2hertzLFO(0);
+
 	// for debugging
 	String name;
 
@@ -77,7 +82,7 @@ public class SoundFontLFO {
 	/**
 	 * The frequency, in hertz.
 	 */
-	private double frequency = cents2hertzLFO(0);
+	private double frequency = DEFAULT_FREQUENCY;
 
 	// runtime variables
 
@@ -104,6 +109,22 @@ public class SoundFontLFO {
 		startTime = time.getMicroTime();
 	}
 
+	/**
+	 * Reset all settings and the runtime state to the values of a new
+	 * instance, so that this LFO can be reused for a new voice.
+	 */
+	void reset(AudioTime time) {
+		pitch = 0.0;
+		runtimePitchOffset = 0.0;
+		volume = 0.0;
+		cutoff = 0.0;
+		delay = DEFAULT_ARTICULATION_DELAY;
+		frequency = DEFAULT_FREQUENCY;
+		startTime = time.getMicroTime();
+		period = 0.0;
+		value = 0.0;
+	}
+
 	/**
 	 * Initialize internal runtime variables. Must be called after pitch,
 	 * volume, cutoff, delay, and frequency are finalized.
@@ -128,7 +149,14 @@ public class SoundFontLFO {
 	 * retrieve the current LFO values in the respective unit.
 	 */
 	public void calculate(AudioTime time) {
-		double curr = (double) (time.getMicroTime() - startTime);
+		calculate(time.getNanoTime());
+	}
+
+	/**
+	 * Calculate the current value for the given time in nanoseconds.
+	 */
+	public void calculate(long nanoTime) {
+		double curr = (double) ((nanoTime / 1000L) - startTime);
 		if (curr < 0.0) {
 			value = 0.0;
 		} else {
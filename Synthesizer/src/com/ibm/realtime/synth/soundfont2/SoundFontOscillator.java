@@ -29,10 +29,66 @@ import com.ibm.realtime.synth.engine.*;
 
 public class SoundFontOscillator extends Oscillator {
 
+	/**
+	 * The pre-decoded samples, or null
+	 */
+	private short[] shortSamples;
+
+	/**
+	 * The pre-decoded normalized samples, or null
+	 */
+	private float[] floatSamples;
+
+	/**
+	 * The sample data, if memory mapped, or null
+	 */
+	private SoundFontSampleData mappedSamples;
+
+	/**
+	 * The pool of recycled oscillators
+	 */
+	private static final ObjectPool<SoundFontOscillator> pool =
+			new ObjectPool<SoundFontOscillator>("SoundFontOscillator",
+					ObjectPool.DEFAULT_CAPACITY);
+
 	public SoundFontOscillator(SoundFontSample sample,
 			SoundFontSampleData sampleData) {
+		setSample(sample, sampleData);
+	}
+
+	/**
+	 * Return an oscillator for the sample, either a recycled instance from the
+	 * pool, or a new instance.
+	 */
+	static SoundFontOscillator obtain(SoundFontSample sample,
+			SoundFontSampleData sampleData) {
+		SoundFontOscillator result = pool.obtain();
+		if (result == null) {
+			return new SoundFontOscillator(sample, sampleData);
+		}
+		result.reset();
+		result.setSample(sample, sampleData);
+		return result;
+	}
+
+	/**
+	 * @return the pool of recycled oscillators
+	 */
+	public static ObjectPool<SoundFontOscillator> getPool() {
+		return pool;
+	}
+
+	private final void setSample(SoundFontSample sample,
+			SoundFontSampleData sampleData) {
 		setNativeAudioFormat(sample.getSampleRate(), 16, 2, 1, true, false);
 		this.nativeSamples = sampleData.getData();
+		this.shortSamples = sampleData.getShortData();
+		this.floatSamples = sampleData.getFloatData();
+		if (sampleData.isMapped()) {
+			this.mappedSamples = sampleData;
+		} else {
+			this.mappedSamples = null;
+		}
 		this.nativeSamplesStartPos = sample.getStart();
 		this.nativeSamplesEndPos = sample.getEnd();
 
@@ -40,12 +96,83 @@ public class SoundFontOscillator extends Oscillator {
 		this.loopEnd = sample.getEndLoop();
 	}
 
+	public void recycle() {
+		pool.recycle(this);
+	}
+
+	public void release(long nanoTime) {
+		endReleaseLoop();
+	}
+
 	protected void convertOneBlock(AudioBuffer buffer, int offset, int count) {
 		assert(buffer.getChannelCount()==1);
-		ConversionTool.byte2doubleGenericLSRC(nativeSamples,
+		if (interpolation == INTERPOLATION_DROP_SAMPLE
+				&& mappedSamples == null) {
+			if (shortSamples != null) {
+				ConversionTool.short2doubleDSRC(shortSamples, nativePos,
+						nativePosDelta, buffer.getChannel(0), offset, count);
+			} else if (floatSamples != null) {
+				ConversionTool.float2doubleDSRC(floatSamples, nativePos,
+						nativePosDelta, buffer.getChannel(0), offset, count);
+			} else {
+				// the native samples are always 16-bit mono, see setSample()
+				ConversionTool.byte16SL2doubleDSRC(nativeSamples, 0,
+						nativePos, nativePosDelta, buffer.getChannel(0),
+						offset, count);
+			}
+			return;
+		}
+		if (shortSamples != null) {
+			ConversionTool.short2doubleLSRC(shortSamples, nativePos,
+					nativePosDelta, buffer.getChannel(0), offset, count);
+		} else if (floatSamples != null) {
+			ConversionTool.float2doubleLSRC(floatSamples, nativePos,
+					nativePosDelta, buffer.getChannel(0), offset, count);
+		} else if (mappedSamples != null) {
+			mappedSamples.convertMapped(nativePos, nativePosDelta,
+					buffer.getChannel(0), offset, count);
+		} else {
+			ConversionTool.byte2doubleGenericLSRC(nativeSamples,
+					0, nativeSampleSize, nativePos,
+					nativePosDelta, buffer.getChannel(0), offset,
+					count, nativeFormatCode);
+		}
+	}
+
+	protected void convertOneBlock(FloatAudioBuffer buffer, int offset,
+			int count) {
+		assert(buffer.getChannelCount()==1);
+		if (interpolation == INTERPOLATION_DROP_SAMPLE
+				&& mappedSamples == null) {
+			if (shortSamples != null) {
+				ConversionTool.short2floatDSRC(shortSamples, nativePos,
+						nativePosDelta, buffer.getChannel(0), offset, count);
+			} else if (floatSamples != null) {
+				ConversionTool.float2floatDSRC(floatSamples, nativePos,
+						nativePosDelta, buffer.getChannel(0), offset, count);
+			} else {
+				// the native samples are always 16-bit mono, see setSample()
+				ConversionTool.byte16SL2floatDSRC(nativeSamples, 0,
+						nativePos, nativePosDelta, buffer.getChannel(0),
+						offset, count);
+			}
+			return;
+		}
+		if (shortSamples != null) {
+			ConversionTool.short2floatLSRC(shortSamples, nativePos,
+					nativePosDelta, buffer.getChannel(0), offset, count);
+		} else if (floatSamples != null) {
+			ConversionTool.float2floatLSRC(floatSamples, nativePos,
+					nativePosDelta, buffer.getChannel(0), offset, count);
+		} else if (mappedSamples != null) {
+			mappedSamples.convertMapped(nativePos, nativePosDelta,
+					buffer.getChannel(0), offset, count);
+		} else {
+			ConversionTool.byte2floatGenericLSRC(nativeSamples,
 					0, nativeSampleSize, nativePos,
 					nativePosDelta, buffer.getChannel(0), offset,
 					count, nativeFormatCode);
+		}
 	}
 
 	/**
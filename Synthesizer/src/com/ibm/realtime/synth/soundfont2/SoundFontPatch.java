@@ -32,12 +32,54 @@ public class SoundFontPatch extends Patch {
 	private int note;
 	private int velocity;
 
+	/**
+	 * The pool of recycled patches
+	 */
+	private static final ObjectPool<SoundFontPatch> pool =
+			new ObjectPool<SoundFontPatch>("SoundFontPatch",
+					ObjectPool.DEFAULT_CAPACITY);
+
 	public SoundFontPatch(int note, int velocity, int bank, int program, SoundFontSample sample) {
+		init(note, velocity, bank, program, sample);
+	}
+
+	/**
+	 * Return a patch, either a recycled instance from the pool, or a new
+	 * instance.
+	 */
+	static SoundFontPatch obtain(int note, int velocity, int bank,
+			int program, SoundFontSample sample) {
+		SoundFontPatch result = pool.obtain();
+		if (result == null) {
+			return new SoundFontPatch(note, velocity, bank, program, sample);
+		}
+		result.init(note, velocity, bank, program, sample);
+		return result;
+	}
+
+	/**
+	 * @return the pool of recycled patches
+	 */
+	public static ObjectPool<SoundFontPatch> getPool() {
+		return pool;
+	}
+
+	private final void init(int note, int velocity, int bank, int program,
+			SoundFontSample sample) {
 		this.note = note;
 		this.velocity = velocity;
 		this.bank = bank;
 		this.program = program;
 		this.rootKey = sample.getOriginalPitch();
+		this.selfExclusive = true;
+		this.exclusiveLevel = 0;
+	}
+
+	/**
+	 * Give this patch back to the pool. It must not be used anymore.
+	 */
+	void recycle() {
+		pool.recycle(this);
 	}
 	
 	/**
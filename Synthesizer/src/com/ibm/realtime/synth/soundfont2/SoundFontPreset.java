@@ -26,8 +26,11 @@
 package com.ibm.realtime.synth.soundfont2;
 
 import com.ibm.realtime.synth.engine.Soundbank;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * Class to hold all data for a Preset in a soundfont file.
@@ -43,6 +46,12 @@ public class SoundFontPreset implements Soundbank.Instrument {
 
 	private SoundFontPresetZone[] zones;
 
+	/**
+	 * The lookup table of regions, indexed by note*128+velocity. Cells with
+	 * the same regions share the same array instance. Created on first use.
+	 */
+	private volatile SoundFontRegion[][] regionIndex;
+
 	public SoundFontPreset(String name, int program, int bank) {
 		this.name = name;
 		this.program = program;
@@ -82,6 +91,90 @@ public class SoundFontPreset implements Soundbank.Instrument {
 	 */
 	protected void setZones(SoundFontPresetZone[] zones) {
 		this.zones = zones;
+		this.regionIndex = null;
+	}
+
+	/**
+	 * Return the precompiled regions to be played for the given note and
+	 * velocity. This is a table lookup which does not allocate memory, except
+	 * on the first call, when the lookup table is built.
+	 * 
+	 * @return the matching regions in the order of the zones, or null if none
+	 *         found
+	 * @see #buildRegionIndex()
+	 */
+	public SoundFontRegion[] getRegions(int note, int vel) {
+		if (note < 0 || note > 127 || vel < 0 || vel > 127) {
+			return null;
+		}
+		SoundFontRegion[][] index = regionIndex;
+		if (index == null) {
+			index = buildRegionIndex();
+		}
+		return index[(note << 7) + vel];
+	}
+
+	/**
+	 * Build the 128x128 (key x velocity) lookup table of regions used by
+	 * getRegions(). This is done automatically on first use, but can be called
+	 * in advance, e.g. on program change, to keep the cost away from the
+	 * first note.
+	 * 
+	 * @return the lookup table
+	 */
+	public SoundFontRegion[][] buildRegionIndex() {
+		SoundFontRegion[][] index = regionIndex;
+		if (index != null) {
+			return index;
+		}
+		// create all regions once, in the order of the zones
+		List<SoundFontRegion> all = new ArrayList<SoundFontRegion>();
+		if (zones != null) {
+			for (SoundFontPresetZone pZone : zones) {
+				SoundFontInstrument inst = pZone.getInstrument();
+				if (inst == null || inst.getZones() == null) {
+					continue;
+				}
+				for (SoundFontInstrumentZone iZone : inst.getZones()) {
+					if (iZone.getSample() != null && iZone.isValid()) {
+						all.add(new SoundFontRegion(this, pZone, iZone, true));
+					}
+				}
+			}
+		}
+		// fill the table, sharing equal cells
+		index = new SoundFontRegion[128 * 128][];
+		Map<List<SoundFontRegion>, SoundFontRegion[]> cells =
+				new HashMap<List<SoundFontRegion>, SoundFontRegion[]>();
+		List<SoundFontRegion> cell = new ArrayList<SoundFontRegion>();
+		for (int note = 0; note < 128; note++) {
+			for (int vel = 0; vel < 128; vel++) {
+				cell.clear();
+				for (SoundFontRegion region : all) {
+					if (region.matches(note, vel)) {
+						cell.add(region);
+					}
+				}
+				if (cell.isEmpty()) {
+					continue;
+				}
+				SoundFontRegion[] regions = cells.get(cell);
+				if (regions == null) {
+					regions = cell.toArray(new SoundFontRegion[cell.size()]);
+					cells.put(Arrays.asList(regions), regions);
+				}
+				index[(note << 7) + vel] = regions;
+			}
+		}
+		regionIndex = index;
+		return index;
+	}
+
+	/**
+	 * @return true if the region lookup table is built
+	 */
+	public boolean hasRegionIndex() {
+		return regionIndex != null;
 	}
 
 	/**
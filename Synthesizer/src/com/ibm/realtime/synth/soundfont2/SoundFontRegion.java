@@ -0,0 +1,287 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.soundfont2;
+
+import static com.ibm.realtime.synth.soundfont2.SoundFontGenerator.*;
+
+import com.ibm.realtime.synth.engine.MidiChannel;
+
+/**
+ * A precompiled combination of a preset zone and an instrument zone, i.e. one
+ * sample to be played for a given key and velocity of a preset. The generators
+ * of the global and local zones are merged once, so that creating a note only
+ * needs to execute a flat list of generators.
+ * <p>
+ * The merged lists are equivalent to executing the zones as done originally:
+ * on instrument level, the global zone's generators are overridden by the
+ * local zone's generators; only the sample address offsets are accumulated.
+ * On preset level, the generators of the global zone which also exist in the
+ * local zone are ignored.
+ * 
+ * @author florian
+ */
+public class SoundFontRegion {
+
+	private static final SoundFontGenerator[] NO_GENERATORS =
+			new SoundFontGenerator[0];
+
+	private SoundFontPreset preset;
+	private SoundFontPresetZone pZone;
+	private SoundFontPresetZone pZoneGlobal;
+	private SoundFontInstrument inst;
+	private SoundFontInstrumentZone iZone;
+	private SoundFontInstrumentZone iZoneGlobal;
+
+	/**
+	 * The merged instrument level generators, executed as absolute values
+	 */
+	private SoundFontGenerator[] absoluteGenerators;
+
+	/**
+	 * The merged preset level generators, executed as relative values
+	 */
+	private SoundFontGenerator[] relativeGenerators;
+
+	/**
+	 * The region of the linked (stereo) sample, or null
+	 */
+	private SoundFontRegion link;
+
+	/**
+	 * The name of the articulation for debugging, e.g. preset.instrument
+	 */
+	private String name;
+
+	/**
+	 * Create a region for the given zones.
+	 * 
+	 * @param preset the preset
+	 * @param pZone the local preset zone, which refers to inst
+	 * @param iZone the local instrument zone, which refers to the sample
+	 * @param followLink if true, also create the region for the zone linked
+	 *            to iZone, if any
+	 */
+	SoundFontRegion(SoundFontPreset preset, SoundFontPresetZone pZone,
+			SoundFontInstrumentZone iZone, boolean followLink) {
+		this.preset = preset;
+		this.pZone = pZone;
+		this.pZoneGlobal = preset.getGlobalZone();
+		this.inst = pZone.getInstrument();
+		this.iZone = iZone;
+		this.iZoneGlobal = inst.getGlobalZone();
+		this.absoluteGenerators = merge(iZoneGlobal, iZone, false);
+		this.relativeGenerators = merge(pZoneGlobal, pZone, true);
+		this.name = preset.getName() + "." + inst.getName();
+		if (followLink && iZone.getZoneLink() != null) {
+			link = new SoundFontRegion(preset, pZone, iZone.getZoneLink(),
+					false);
+		}
+	}
+
+	/**
+	 * Merge the generators of the global and local zone into one list.
+	 * 
+	 * @param global the global zone, or null
+	 * @param local the local zone
+	 * @param isRelative if the generators are executed as relative values
+	 * @return the merged list of generators, in order of execution
+	 */
+	private static SoundFontGenerator[] merge(SoundFontZone global,
+			SoundFontZone local, boolean isRelative) {
+		SoundFontGenerator[] localGens = local.getGenerators();
+		SoundFontGenerator[] globalGens =
+				(global != null) ? global.getGenerators() : NO_GENERATORS;
+		SoundFontGenerator[] result =
+				new SoundFontGenerator[globalGens.length + localGens.length];
+		int count = 0;
+		for (SoundFontGenerator gen : globalGens) {
+			if (isIndexGenerator(gen.getOp())) {
+				continue;
+			}
+			// the sample offsets are accumulated on instrument level
+			if ((isRelative || !isOffsetGenerator(gen.getOp()))
+					&& overrides(localGens, gen.getOp(), isRelative)) {
+				continue;
+			}
+			result[count++] = gen;
+		}
+		for (SoundFontGenerator gen : localGens) {
+			if (!isIndexGenerator(gen.getOp())
+					&& !SoundFontZone.isIgnoredGenerator(gen.getOp(),
+							gen.getAmount(), isRelative)) {
+				result[count++] = gen;
+			}
+		}
+		if (count < result.length) {
+			SoundFontGenerator[] newResult = new SoundFontGenerator[count];
+			System.arraycopy(result, 0, newResult, 0, count);
+			result = newResult;
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if gens contains a generator with the given op which is
+	 *         not ignored when executed, e.g. an overriding root key of -1
+	 *         does not replace the global zone's root key
+	 */
+	private static boolean overrides(SoundFontGenerator[] gens, int op,
+			boolean isRelative) {
+		for (SoundFontGenerator gen : gens) {
+			if (gen.getOp() == op
+					&& !SoundFontZone.isIgnoredGenerator(op, gen.getAmount(),
+							isRelative)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if op is handled at load time and has no effect on the
+	 *         articulation
+	 */
+	private static boolean isIndexGenerator(int op) {
+		return op == INSTRUMENT || op == SAMPLE_ID || op == KEY_RANGE
+				|| op == VEL_RANGE;
+	}
+
+	/**
+	 * @return true if op is added to the oscillator's sample addresses
+	 */
+	private static boolean isOffsetGenerator(int op) {
+		switch (op) {
+		case START_ADDRS_OFFSET:
+		case END_ADDRS_OFFSET:
+		case START_LOOP_ADDRS_OFFSET:
+		case END_LOOP_ADDRS_OFFSET:
+		case START_ADDRS_COARSE_OFFSET:
+		case ENDADDRSCOARSE_OFFSET:
+		case START_LOOP_ADDRS_COARSE_OFFSET:
+		case END_LOOP_ADDRS_COARSE_OFFSET:
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Execute the merged generators: first the instrument level generators as
+	 * absolute values, then the preset level generators as relative values.
+	 */
+	public final void executeGenerators(SoundFontPatch patch,
+			SoundFontArticulation art, SoundFontOscillator osc) {
+		SoundFontGenerator[] gens = absoluteGenerators;
+		for (int i = 0; i < gens.length; i++) {
+			SoundFontZone.executeGenerator(gens[i].getOp(),
+					gens[i].getAmount(), false, art, osc, patch);
+		}
+		gens = relativeGenerators;
+		for (int i = 0; i < gens.length; i++) {
+			SoundFontZone.executeGenerator(gens[i].getOp(),
+					gens[i].getAmount(), true, art, osc, patch);
+		}
+	}
+
+	/**
+	 * Execute the modulators of the instrument and preset zones.
+	 * 
+	 * @param note the effective note (after executing the generators)
+	 * @param vel the effective velocity
+	 */
+	public final void executeModulators(int note, int vel,
+			MidiChannel channel, SoundFontArticulation art) {
+		if (iZoneGlobal != null) {
+			iZoneGlobal.parseModulators(note, vel, channel, art, iZone);
+		}
+		iZone.parseModulators(note, vel, channel, art, null);
+		if (pZoneGlobal != null) {
+			pZoneGlobal.parseModulators(note, vel, channel, art, pZone);
+		}
+		pZone.parseModulators(note, vel, channel, art, null);
+	}
+
+	/**
+	 * @return the sample to be played
+	 */
+	public SoundFontSample getSample() {
+		return iZone.getSample();
+	}
+
+	/**
+	 * @return the region of the linked sample, or null
+	 */
+	public SoundFontRegion getLink() {
+		return link;
+	}
+
+	/**
+	 * @return the name of this region, in the form preset.instrument
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the preset
+	 */
+	public SoundFontPreset getPreset() {
+		return preset;
+	}
+
+	/**
+	 * @return the local preset zone
+	 */
+	public SoundFontPresetZone getPresetZone() {
+		return pZone;
+	}
+
+	/**
+	 * @return the instrument
+	 */
+	public SoundFontInstrument getInstrument() {
+		return inst;
+	}
+
+	/**
+	 * @return the local instrument zone
+	 */
+	public SoundFontInstrumentZone getInstrumentZone() {
+		return iZone;
+	}
+
+	/**
+	 * @return true if this region is used for the given key and velocity
+	 */
+	final boolean matches(int note, int vel) {
+		return pZone.matches(note, vel) && iZone.matches(note, vel);
+	}
+
+	public String toString() {
+		return "Region " + name + ": " + iZone + ", "
+				+ absoluteGenerators.length + " absolute and "
+				+ relativeGenerators.length + " relative generators";
+	}
+}
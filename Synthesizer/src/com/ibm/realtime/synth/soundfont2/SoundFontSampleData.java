@@ -25,17 +25,82 @@
  */
 package com.ibm.realtime.synth.soundfont2;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.ibm.realtime.synth.engine.ConversionTool;
+
 /**
  * A class to store the actual audio sample data of a SoundFont file.
+ * <p>
+ * By default, the sample data is kept in the raw 16-bit little endian byte
+ * format of the smpl chunk. Optionally, it can be decoded once to a short or
+ * float array with <code>decode()</code>, so that the oscillators can
+ * interpolate directly from the primitive array.
+ * <p>
+ * Alternatively, the sample data can be memory mapped from the soundfont file.
+ * Then it does not occupy heap memory, and only the pages that are actually
+ * played are read from disk. Use <code>touch()</code> to page in the samples
+ * of a preset ahead of time.
  * 
  * @author florian
  * 
  */
 public class SoundFontSampleData {
+
+	/**
+	 * Sample decoding mode: keep the raw byte data
+	 */
+	public static final int DECODE_NONE = 0;
+
+	/**
+	 * Sample decoding mode: decode to 16-bit short array
+	 */
+	public static final int DECODE_SHORT = 1;
+
+	/**
+	 * Sample decoding mode: decode to normalized float array
+	 */
+	public static final int DECODE_FLOAT = 2;
+
 	private byte[] data;
 
+	private short[] shortData;
+
+	private float[] floatData;
+
+	/**
+	 * The number of samples in one mapped segment, as a power of 2: 1GB.
+	 */
+	private static final int SEGMENT_SHIFT = 29;
+
+	/**
+	 * The size of one memory page for pre-touching.
+	 */
+	private static final int PAGE_SIZE = 4096;
+
+	/**
+	 * The memory mapped segments, or null if not mapped. Each segment is
+	 * mapped with one additional sample so that interpolation never needs to
+	 * cross a segment boundary.
+	 */
+	private ByteBuffer[] mappedData;
+
+	/**
+	 * The number of samples in the mapped data
+	 */
+	private long mappedSampleCount;
+
 	/**
-	 * @return Returns the data.
+	 * Only for preventing the pre-touch loop from being optimized away
+	 */
+	private volatile int touchChecksum;
+
+	/**
+	 * @return Returns the raw 16-bit little endian data, or null if the data
+	 *         has been decoded.
 	 */
 	public byte[] getData() {
 		return data;
@@ -46,12 +111,210 @@ public class SoundFontSampleData {
 	 */
 	protected void setData(byte[] data) {
 		this.data = data;
+		this.shortData = null;
+		this.floatData = null;
+		this.mappedData = null;
+		this.mappedSampleCount = 0;
+	}
+
+	/**
+	 * Map the sample data from the given file channel instead of reading it
+	 * into memory. The mapping remains valid after closing the channel.
+	 * 
+	 * @param channel the channel of the soundfont file
+	 * @param position the file offset of the smpl chunk data
+	 * @param size the size of the smpl chunk data in bytes
+	 * @throws IOException if the file cannot be mapped
+	 */
+	protected void setMappedData(FileChannel channel, long position, long size)
+			throws IOException {
+		setData(null);
+		long segmentBytes = 2L << SEGMENT_SHIFT;
+		int segmentCount = (int) ((size + segmentBytes - 1) / segmentBytes);
+		ByteBuffer[] segments = new ByteBuffer[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			long segmentStart = i * segmentBytes;
+			long segmentSize = Math.min(segmentBytes + 2, size - segmentStart);
+			segments[i] =
+					channel.map(FileChannel.MapMode.READ_ONLY, position
+							+ segmentStart, segmentSize);
+			segments[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		mappedData = segments;
+		mappedSampleCount = size / 2;
+	}
+
+	/**
+	 * @return true if the sample data is memory mapped
+	 */
+	public boolean isMapped() {
+		return mappedData != null;
+	}
+
+	/**
+	 * Linear interpolation from the memory mapped sample data.
+	 * 
+	 * @see ConversionTool#byteBuffer16SL2doubleLSRC(ByteBuffer, double,
+	 *      double, double[], int, int)
+	 */
+	public void convertMapped(double inSamplePos, double inSampleStep,
+			double[] output, int outOffset, int sampleCount) {
+		while (sampleCount > 0) {
+			int segment = (int) (((long) inSamplePos) >> SEGMENT_SHIFT);
+			long segmentStart = ((long) segment) << SEGMENT_SHIFT;
+			int thisCount = getSegmentCount(inSamplePos, inSampleStep,
+					segmentStart, sampleCount);
+			ConversionTool.byteBuffer16SL2doubleLSRC(mappedData[segment],
+					inSamplePos - segmentStart, inSampleStep, output,
+					outOffset, thisCount);
+			inSamplePos += thisCount * inSampleStep;
+			outOffset += thisCount;
+			sampleCount -= thisCount;
+		}
+	}
+
+	/**
+	 * Linear interpolation from the memory mapped sample data to a float
+	 * array.
+	 * 
+	 * @see ConversionTool#byteBuffer16SL2floatLSRC(ByteBuffer, double, double,
+	 *      float[], int, int)
+	 */
+	public void convertMapped(double inSamplePos, double inSampleStep,
+			float[] output, int outOffset, int sampleCount) {
+		while (sampleCount > 0) {
+			int segment = (int) (((long) inSamplePos) >> SEGMENT_SHIFT);
+			long segmentStart = ((long) segment) << SEGMENT_SHIFT;
+			int thisCount = getSegmentCount(inSamplePos, inSampleStep,
+					segmentStart, sampleCount);
+			ConversionTool.byteBuffer16SL2floatLSRC(mappedData[segment],
+					inSamplePos - segmentStart, inSampleStep, output,
+					outOffset, thisCount);
+			inSamplePos += thisCount * inSampleStep;
+			outOffset += thisCount;
+			sampleCount -= thisCount;
+		}
+	}
+
+	/**
+	 * @return how many of sampleCount output samples can be interpolated from
+	 *         the segment starting at segmentStart, at least 1
+	 */
+	private static int getSegmentCount(double inSamplePos,
+			double inSampleStep, long segmentStart, int sampleCount) {
+		double segmentEnd = segmentStart + (1L << SEGMENT_SHIFT);
+		if (inSamplePos + (sampleCount - 1) * inSampleStep < segmentEnd) {
+			return sampleCount;
+		}
+		int count = (int) Math.ceil((segmentEnd - inSamplePos) / inSampleStep);
+		if (count < 1) {
+			return 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Page in the memory mapped sample data in the given range by reading one
+	 * sample per memory page. Does nothing if the data is not mapped.
+	 * 
+	 * @param startSample the first sample to touch
+	 * @param endSample the sample after the last one to touch
+	 */
+	public void touch(long startSample, long endSample) {
+		if (mappedData == null) {
+			return;
+		}
+		if (endSample > mappedSampleCount) {
+			endSample = mappedSampleCount;
+		}
+		int sum = 0;
+		long pageSamples = PAGE_SIZE / 2;
+		for (long i = startSample; i < endSample; i += pageSamples) {
+			int segment = (int) (i >> SEGMENT_SHIFT);
+			long index = i - (((long) segment) << SEGMENT_SHIFT);
+			sum += mappedData[segment].getShort((int) (index << 1));
+		}
+		touchChecksum += sum;
+	}
+
+	/**
+	 * @return the decoded 16-bit samples, or null if not decoded to short
+	 */
+	public short[] getShortData() {
+		return shortData;
+	}
+
+	/**
+	 * @return the decoded normalized samples, or null if not decoded to float
+	 */
+	public float[] getFloatData() {
+		return floatData;
+	}
+
+	/**
+	 * @return the current decoding mode, one of the DECODE_* constants
+	 */
+	public int getDecodeMode() {
+		if (shortData != null) {
+			return DECODE_SHORT;
+		}
+		if (floatData != null) {
+			return DECODE_FLOAT;
+		}
+		return DECODE_NONE;
+	}
+
+	/**
+	 * Decode the raw sample data to a short or float array. The raw byte data
+	 * is released afterwards. Oscillators created before calling this method
+	 * keep using the previous representation. Memory mapped data is not
+	 * decoded.
+	 * 
+	 * @param mode one of the DECODE_* constants
+	 * @throws IllegalStateException if the data is already decoded to a
+	 *             different format
+	 */
+	public void decode(int mode) {
+		int current = getDecodeMode();
+		if (mode == current) {
+			return;
+		}
+		if (current != DECODE_NONE) {
+			throw new IllegalStateException("sample data already decoded");
+		}
+		if (data == null) {
+			// nothing loaded, or memory mapped
+			return;
+		}
+		int count = getSampleCount();
+		switch (mode) {
+		case DECODE_SHORT:
+			shortData = new short[count];
+			ConversionTool.byte16SL2short(data, 0, shortData, 0, count);
+			break;
+		case DECODE_FLOAT:
+			floatData = new float[count];
+			ConversionTool.byte16SL2float(data, 0, floatData, 0, count);
+			break;
+		default:
+			throw new IllegalArgumentException("illegal decode mode: " + mode);
+		}
+		data = null;
 	}
 
 	/**
 	 * @return the number of sample data points
 	 */
 	public int getSampleCount() {
+		if (shortData != null) {
+			return shortData.length;
+		}
+		if (floatData != null) {
+			return floatData.length;
+		}
+		if (mappedData != null) {
+			return (int) Math.min(mappedSampleCount, Integer.MAX_VALUE);
+		}
 		if (data == null) {
 			return 0;
 		}
@@ -35,6 +35,12 @@ import static com.ibm.realtime.synth.utils.Debug.*;
 
 /**
  * Soundbank that reads from Creative Lab's SoundFont 2 files.
+ * <p>
+ * Once loaded, the soundbank is not modified anymore, so one instance can be
+ * shared by several synthesizers, e.g. by the jobs of a RenderFarm, and
+ * createNoteInput() can be called concurrently. The only lazily built data
+ * are the region lookup tables of the presets, which are published safely;
+ * call buildRegionIndexes() to build them in advance.
  * 
  * @author florian
  * 
@@ -68,8 +74,42 @@ public class SoundFontSoundbank implements Soundbank {
 	 */
 	public SoundFontSoundbank(File inputFile) throws IOException,
 			Parser.SoundFont2ParserException {
+		this(inputFile, SoundFontSampleData.DECODE_NONE);
+	}
+
+	/**
+	 * Create a new instance of SoundFont2Soundbank by parsing the specified
+	 * file, and decode the sample data with the given mode.
+	 * 
+	 * @param inputFile
+	 * @param sampleDecoding one of the SoundFontSampleData.DECODE_* constants
+	 * @throws IOException
+	 * @throws Parser.SoundFont2ParserException
+	 */
+	public SoundFontSoundbank(File inputFile, int sampleDecoding)
+			throws IOException, Parser.SoundFont2ParserException {
+		this(inputFile, sampleDecoding, false);
+	}
+
+	/**
+	 * Create a new instance of SoundFont2Soundbank by parsing the specified
+	 * file. If mapSampleData is true, the sample data is memory mapped from the
+	 * file rather than read into memory, and sampleDecoding is ignored.
+	 * 
+	 * @param inputFile
+	 * @param sampleDecoding one of the SoundFontSampleData.DECODE_* constants
+	 * @param mapSampleData if true, memory map the sample data
+	 * @throws IOException
+	 * @throws Parser.SoundFont2ParserException
+	 * @see #touch(int, int)
+	 */
+	public SoundFontSoundbank(File inputFile, int sampleDecoding,
+			boolean mapSampleData) throws IOException,
+			Parser.SoundFont2ParserException {
 		Parser parser = new Parser();
-		parser.load(new FileInputStream(inputFile));
+		parser.setSampleDecoding(sampleDecoding);
+		parser.setMapSampleData(mapSampleData);
+		parser.load(inputFile);
 		sampleData = parser.getSampleData();
 		info = parser.getInfo();
 		banks = parser.getPresetBanks();
@@ -97,6 +137,62 @@ public class SoundFontSoundbank implements Soundbank {
 		return new ArrayList<Soundbank.Bank>(banks);
 	}
 
+	/**
+	 * Prepare the given preset for playing, e.g. on program change: build its
+	 * region lookup table, and page in the memory mapped sample data of all
+	 * its samples, so that the first notes do not stall on disk access. Does
+	 * nothing if the preset does not exist.
+	 * 
+	 * @param bank the MIDI bank number
+	 * @param program the MIDI program number
+	 * @return true if the preset was found
+	 */
+	public boolean touch(int bank, int program) {
+		int index = SoundFontBank.findBank(banks, bank);
+		if (index < 0) {
+			return false;
+		}
+		SoundFontPreset preset = banks.get(index).getPreset(program);
+		if (preset == null) {
+			return false;
+		}
+		preset.buildRegionIndex();
+		if (!sampleData.isMapped()) {
+			return true;
+		}
+		SoundFontPresetZone[] pZones = preset.getZones();
+		if (pZones == null) {
+			return true;
+		}
+		for (SoundFontPresetZone pZone : pZones) {
+			SoundFontInstrument inst = pZone.getInstrument();
+			if (inst == null || inst.getZones() == null) {
+				continue;
+			}
+			for (SoundFontInstrumentZone iZone : inst.getZones()) {
+				SoundFontSample sample = iZone.getSample();
+				if (sample != null) {
+					sampleData.touch(sample.getStart(), sample.getEnd() + 1);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Build the region lookup tables of all presets, so that no note-on needs
+	 * to build one. This takes some time and memory for large soundbanks.
+	 */
+	public void buildRegionIndexes() {
+		for (SoundFontBank bank : banks) {
+			for (SoundFontPreset preset : bank.getPresets()) {
+				if (preset != null) {
+					preset.buildRegionIndex();
+				}
+			}
+		}
+	}
+
 	public NoteInput createNoteInput(Synthesizer.Params params, AudioTime time,
 			MidiChannel channel, int note, int vel) {
 		if (TRACE_SB2SB) {
@@ -111,62 +207,30 @@ public class SoundFontSoundbank implements Soundbank {
 			SoundFontBank bank = banks.get(index);
 			SoundFontPreset preset = bank.getPreset(channel.getProgram());
 			if (preset != null) {
-				// we found a preset! now find a fitting zone
+				// we found a preset! now look up the regions for this key
 				if (TRACE_SB2SB) {
 					debug("-matching preset: " + preset);
 				}
-				List<SoundFontPresetZone> pZones = preset.getZones(note, vel);
-				if (pZones != null) {
-					for (SoundFontPresetZone pZone : pZones) {
-						if (TRACE_SB2SB) {
-							debug(" -matching preset zone: " + pZone);
-						}
-						SoundFontPresetZone pZoneGlobal =
-								preset.getGlobalZone();
-						if (TRACE_SB2SB) {
-							if (pZoneGlobal != null) {
-								debug(" -matching global preset zone: "
-										+ pZoneGlobal);
-							}
-						}
-
-						SoundFontInstrument inst = pZone.getInstrument();
+				SoundFontRegion[] regions = preset.getRegions(note, vel);
+				if (regions != null) {
+					for (SoundFontRegion region : regions) {
 						if (TRACE_SB2SB) {
-							debug("  -matching inst: " + inst);
+							debug(" -matching " + region);
 						}
-						List<SoundFontInstrumentZone> iZones =
-								inst.getZones(note, vel);
-						if (iZones != null) {
-							for (SoundFontInstrumentZone iZone : iZones) {
-								if (TRACE_SB2SB) {
-									debug("   -matching inst Zone: " + iZone);
-								}
-								NoteInput ni =
-										createNoteInput(params, time, channel,
-												note, vel, preset, pZone,
-												pZoneGlobal, inst, iZone);
-								result = addNoteInputToResult(result, ni);
-								if (ni != null) {
-									// do we need to set up a linked sample?
-									SoundFontInstrumentZone iZoneLink =
-											iZone.getZoneLink();
-									if (iZoneLink != null) {
-										if (TRACE_SB2SB) {
-											debug("    -creating phase-locked NoteInput with "
-													+ "inst Zone: " + iZoneLink);
-										}
-										NoteInput linkedNI =
-												createNoteInput(params, time,
-														channel, note, vel,
-														preset, pZone,
-														pZoneGlobal, inst,
-														iZoneLink);
-										result =
-												addNoteInputToResult(result,
-														linkedNI);
-									}
-								}
+						NoteInput ni =
+								createNoteInput(params, time, channel, note,
+										vel, region);
+						result = addNoteInputToResult(result, ni);
+						// do we need to set up a linked sample?
+						if (ni != null && region.getLink() != null) {
+							if (TRACE_SB2SB) {
+								debug("  -creating phase-locked NoteInput with "
+										+ region.getLink());
 							}
+							NoteInput linkedNI =
+									createNoteInput(params, time, channel,
+											note, vel, region.getLink());
+							result = addNoteInputToResult(result, linkedNI);
 						}
 					}
 				}
@@ -206,64 +270,34 @@ public class SoundFontSoundbank implements Soundbank {
 
 	private final NoteInput createNoteInput(Synthesizer.Params params,
 			AudioTime time, MidiChannel channel, int note, int vel,
-			SoundFontPreset preset, SoundFontPresetZone pZone,
-			SoundFontPresetZone pZoneGlobal, SoundFontInstrument inst,
-			SoundFontInstrumentZone iZone) {
-
-		SoundFontInstrumentZone iZoneGlobal = inst.getGlobalZone();
-		if (TRACE_SB2SB) {
-			if (iZoneGlobal != null) {
-				debug("     -matching global inst Zone: " + iZoneGlobal);
-			}
-		}
+			SoundFontRegion region) {
 
-		SoundFontSample sample = iZone.getSample();
+		SoundFontSample sample = region.getSample();
 		if (TRACE_SB2SB) {
 			debug("     -matching sample: " + sample);
 		}
 		SoundFontPatch patch =
-				new SoundFontPatch(note, vel, channel.getBank(),
+				SoundFontPatch.obtain(note, vel, channel.getBank(),
 						channel.getProgram(), sample);
 		SoundFontArticulation art =
-				new SoundFontArticulation(time, patch, channel);
-		art.setName(preset.getName() + "." + inst.getName());
-		SoundFontOscillator osc = new SoundFontOscillator(sample, sampleData);
+				SoundFontArticulation.obtain(time, patch, channel);
+		art.setName(region.getName());
+		SoundFontOscillator osc = SoundFontOscillator.obtain(sample, sampleData);
 
 		// GENERATORS
 
 		// the generators may change the values in Patch, also the note!
-
-		// first parse the instrument zone for absolute values
-		if (iZoneGlobal != null) {
-			// don't need to specify a forbidden list, since the global values
-			// will be overriden anyway by the local zone
-			iZoneGlobal.parseZone(false, patch, art, osc, null);
-		}
-		iZone.parseZone(false, patch, art, osc, null);
-
-		// then parse the preset zone for relative values
-		if (pZoneGlobal != null) {
-			pZoneGlobal.parseZone(true, patch, art, osc, pZone);
-		}
-		pZone.parseZone(true, patch, art, osc, null);
+		// The region executes the instrument zones' generators as absolute
+		// values, and then the preset zones' generators as relative values.
+		region.executeGenerators(patch, art, osc);
 
 		// MODULATORS
 
 		// use "patch.getNote()", because the generators may change the note in Patch.
 		note = patch.getNote();
 		vel = patch.getVelocity();
-		// first parse the instrument zone for absolute values
-		if (iZoneGlobal != null) {
-			iZoneGlobal.parseModulators(note, vel, channel, art, iZone);
-		}
-		iZone.parseModulators(note, vel, channel, art, null);
+		region.executeModulators(note, vel, channel, art);
 
-		// then parse the preset zone's modulators
-		if (pZoneGlobal != null) {
-			pZoneGlobal.parseModulators(note, vel, channel, art, pZone);
-		}
-		pZone.parseModulators(note, vel, channel, art, null);
-		
 		// eventually, execute the default modulators (if not overriden by 
 		// zone modulators)
 		executeDefaultModulators(note, vel, channel, art);
@@ -278,7 +312,7 @@ public class SoundFontSoundbank implements Soundbank {
 		// initialize the oscillator
 		osc.init();
 
-		return new NoteInput(params, time, channel, patch, osc, art, note, vel);
+		return NoteInput.obtain(params, time, channel, patch, osc, art, note, vel);
 	}
 
 	private final void executeDefaultModulators(int note, int vel, 
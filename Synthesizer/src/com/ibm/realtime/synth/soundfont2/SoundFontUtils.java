@@ -27,6 +27,7 @@ package com.ibm.realtime.synth.soundfont2;
 
 import java.io.*;
 import com.ibm.realtime.synth.utils.AudioUtils;
+import com.ibm.realtime.synth.utils.ConversionTables;
 
 /**
  * A class with utility methods for the SoundFont synth.
@@ -110,8 +111,7 @@ public class SoundFontUtils {
 		if (timecents <= -32768) {
 			return 0.0;
 		}
-		// TODO: use a table
-		return Math.pow(2.0, timecents / 1200.0);
+		return ConversionTables.timecents2seconds(timecents);
 	}
 
 	/**
@@ -135,8 +135,7 @@ public class SoundFontUtils {
 	 * @return the converted frequency, in Hz
 	 */
 	public static final double cents2hertzLFO(int cents) {
-		// TODO: use a table
-		return Math.pow(2.0, cents / 1200.0) * 8.176;
+		return ConversionTables.cents2ratio(cents) * 8.176;
 	}
 
 	/**
@@ -146,8 +145,7 @@ public class SoundFontUtils {
 	 * @return the converted frequency, in Hz
 	 */
 	public static final double cents2hertzCutoff(int cents) {
-		// TODO: use a table
-		return Math.pow(2.0, (cents - 6900) / 1200.0) * 440.0;
+		return ConversionTables.absoluteCents2hertz(cents);
 	}
 
 	/**
@@ -143,6 +143,25 @@ public abstract class SoundFontZone {
 		executeGenerator(generator, amount, true, art, null, null); 
 	}
 
+	/**
+	 * Check if executeGenerator() ignores the given generator value. Such a
+	 * generator does not override the generator with the same op in the
+	 * global zone.
+	 * 
+	 * @param generator the numerical generator
+	 * @param amount the value of the generator
+	 * @param isRelative if the generator is executed as relative value
+	 * @return true if executing the generator has no effect
+	 */
+	static final boolean isIgnoredGenerator(int generator, int amount,
+			boolean isRelative) {
+		if (generator == OVERRIDING_ROOTKEY && !isRelative) {
+			// -1 means: use the sample's original pitch
+			return amount < 0 || amount > 127;
+		}
+		return false;
+	}
+
 	/**
 	 * Executes this generator and sets or adds the corresponding value
 	 * in <code>art</code>,<code>osc</code>, or <code>patch</code>.  
@@ -517,7 +536,7 @@ public abstract class SoundFontZone {
 
 		case OVERRIDING_ROOTKEY:
 			if (!isRelative) {
-				if (amount >= 0 && amount <= 127) {
+				if (!isIgnoredGenerator(generator, amount, isRelative)) {
 					patch.setRootKey(amount);
 				}
 			}
@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.test;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+
+import com.ibm.realtime.synth.engine.AsynchronousRenderer;
+import com.ibm.realtime.synth.engine.Synthesizer;
+import com.ibm.realtime.synth.modules.*;
+import com.ibm.realtime.synth.soundfont2.*;
+import com.ibm.realtime.synth.utils.Debug;
+
+/**
+ * Render a list of MIDI files to wave files as fast as possible with the
+ * RenderFarm, and print a report for each file and a summary. With -jobs,
+ * several files are rendered in parallel with the same soundbank.
+ * 
+ * @author florian
+ */
+public class BatchRenderer {
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		String soundbankFile = "";
+		String outputDir = null;
+		double sampleRate = 44100.0;
+		int bits = 16;
+		int renderThreads = -1;
+		int jobs = 1;
+		int blockSize = OfflineRenderer.DEFAULT_BLOCK_SIZE;
+		double tail = OfflineRenderer.DEFAULT_MAX_TAIL_SECONDS;
+		boolean floatRendering = false;
+		int controlBlockSize = Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE;
+		List<File> midiFiles = new ArrayList<File>();
+
+		// parse arguments
+		int argi = 0;
+		while (argi < args.length) {
+			String arg = args[argi];
+			if (arg.equals("-h")) {
+				printUsageAndExit();
+			} else if (arg.equals("-sb")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				soundbankFile = args[argi];
+			} else if (arg.equals("-od")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				outputDir = args[argi];
+			} else if (arg.equals("-sr")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				sampleRate = Double.parseDouble(args[argi]);
+			} else if (arg.equals("-bits")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				bits = Integer.parseInt(args[argi]);
+			} else if (arg.equals("-p")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				renderThreads = Integer.parseInt(args[argi]);
+			} else if (arg.equals("-jobs")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				jobs = Integer.parseInt(args[argi]);
+			} else if (arg.equals("-b")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				blockSize = Integer.parseInt(args[argi]);
+			} else if (arg.equals("-cb")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				controlBlockSize = Integer.parseInt(args[argi]);
+			} else if (arg.equals("-tail")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				tail = Double.parseDouble(args[argi]);
+			} else if (arg.equals("-float")) {
+				floatRendering = true;
+			} else if (arg.startsWith("-")) {
+				printUsageAndExit();
+			} else {
+				midiFiles.add(new File(arg));
+			}
+			argi++;
+		}
+
+		File sbFile = new File(soundbankFile);
+		if (sbFile.isDirectory() || !sbFile.exists()) {
+			out("Invalid soundfont file: " + sbFile);
+			out("Please specify an existing soundbank file with the -sb command line parameter.");
+			out("");
+			printUsageAndExit();
+		}
+		if (midiFiles.size() == 0) {
+			out("No MIDI files specified.");
+			out("");
+			printUsageAndExit();
+		}
+		File outDir = null;
+		if (outputDir != null) {
+			outDir = new File(outputDir);
+			if (!outDir.isDirectory()) {
+				out("Invalid output directory: " + outDir);
+				out("");
+				printUsageAndExit();
+			}
+		}
+		Debug.DEBUG_MASTER_SWITCH = false;
+
+		out("Loading soundbank " + sbFile + "...");
+		SoundFontSoundbank soundbank = new SoundFontSoundbank(sbFile);
+		AudioFormat format =
+				new AudioFormat((float) sampleRate, bits, 2, true, false);
+		RenderFarm farm = new RenderFarm(soundbank, format, jobs);
+		if (renderThreads < 0) {
+			// only use render threads if the files are rendered one by one
+			renderThreads = 0;
+			if (jobs == 1
+					&& AsynchronousRenderer.getDefaultThreadCount() > 1) {
+				renderThreads = AsynchronousRenderer.getDefaultThreadCount();
+			}
+		}
+		OfflineRenderer settings = farm.getTemplate();
+		settings.setRenderThreadCount(renderThreads);
+		settings.setBlockSize(blockSize);
+		settings.setControlBlockSize(controlBlockSize);
+		settings.setMaxTailSeconds(tail);
+		settings.setFloatRendering(floatRendering);
+		farm.setOutputDir(outDir);
+		farm.addListener(new RenderFarm.Listener() {
+			public void jobStarted(RenderFarm.Job job) {
+				// nothing to do
+			}
+
+			public void jobFinished(RenderFarm.Job job, int finishedCount,
+					int totalCount) {
+				out("[" + finishedCount + "/" + totalCount + "] " + job);
+			}
+		});
+		out("Rendering " + midiFiles.size() + " files with "
+				+ farm.getWorkerCount() + " jobs, "
+				+ settings.getRenderThreadCount() + " render threads per job, block size "
+				+ blockSize + " samples, control block size "
+				+ controlBlockSize + " samples...");
+		RenderFarm.Summary summary = farm.render(midiFiles);
+		out(summary.toString());
+	}
+
+	private static void printUsageAndExit() {
+		out("BatchRenderer: Render MIDI files to wave files as fast as possible.");
+		out("Usage:");
+		out("java BatchRenderer -sb <soundbank> [-od <output dir>] [-sr <rate>]");
+		out("                   [-bits <bits>] [-jobs N] [-p N] [-b <samples>]");
+		out("                   [-cb <samples>] [-tail <sec>] [-float] [-h]");
+		out("                   <MIDI file> [<MIDI file>...]");
+		out("-sb: specify the soundbank in .sf2 format to be used");
+		out("-od: the directory for the wave files (default: the directory");
+		out("     of the respective MIDI file)");
+		out("-sr: the sample rate (default: 44100)");
+		out("-bits: the sample size in bits (default: 16)");
+		out("-jobs N: render N files in parallel (default: 1)");
+		out("-p N: use N render threads per file (default: number of");
+		out("      processors with -jobs 1, otherwise 0)");
+		out("-b: the block size in samples (default: "
+				+ OfflineRenderer.DEFAULT_BLOCK_SIZE + ")");
+		out("-cb: the control block size in samples, 0 to calculate the");
+		out("     articulation once per block (default: "
+				+ Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE + ")");
+		out("-tail: maximum time rendered after the last event, in seconds");
+		out("       (default: " + OfflineRenderer.DEFAULT_MAX_TAIL_SECONDS
+				+ ")");
+		out("-float: render in single precision (float) instead of double");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.test;
+
+import com.ibm.realtime.synth.engine.Synthesizer;
+import com.ibm.realtime.synth.utils.ConversionTables;
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.util.Random;
+
+/**
+ * A micro benchmark for the conversions of ConversionTables. Every
+ * conversion is executed on an array of random input values in its typical
+ * range, once with the tables, and once calculated with Math.pow() like
+ * ConversionTables does when the tables are disabled. The time per
+ * conversion, the speedup, and the maximum relative deviation of the tables
+ * from Math.pow() are printed. Finally, the cost of calculating the pitch of
+ * every voice for every control block is estimated.
+ * <p>
+ * The tables are not switched with ConversionTables.setEnabled() during the
+ * measurements, because the JIT compiler would then have to recompile the
+ * conversions for every measurement.
+ * 
+ * @author florian
+ */
+public class ConversionBenchmark {
+
+	/**
+	 * The number of input values per conversion
+	 */
+	private static final int VALUE_COUNT = 4096;
+
+	/**
+	 * The minimum time that each conversion is executed for one measurement
+	 */
+	private static long minTimeNanos = 200000000L;
+
+	/**
+	 * The number of conversions for warm up
+	 */
+	private static int warmupCount = 4000000;
+
+	private static final String[] CONVERSIONS = {
+			"cents2ratio", "timecents2seconds", "centibels2linear",
+			"decibel2linear", "absoluteCents2hertz"
+	};
+
+	/**
+	 * The range of the input values of every conversion: min, max
+	 */
+	private static final double[][] RANGES = {
+			{ -4800.0, 4800.0 }, { -12000.0, 8000.0 }, { -1440.0, 0.0 },
+			{ -100.0, 12.0 }, { 1500.0, 13500.0 }
+	};
+
+	private static double[][] values;
+
+	/**
+	 * Convert one value with Math.pow().
+	 */
+	private static double convertPow(int conversion, double v) {
+		switch (conversion) {
+		case 0:
+			return Math.pow(2.0, v / 1200.0);
+		case 1:
+			return Math.pow(2.0, v / 1200.0);
+		case 2:
+			return Math.pow(10.0, v / 200.0);
+		case 3:
+			return Math.pow(10.0, v / 20.0);
+		default:
+			return 440.0 * Math.pow(2.0, (v - 6900.0) / 1200.0);
+		}
+	}
+
+	/**
+	 * Convert one value with ConversionTables.
+	 */
+	private static double convertTable(int conversion, double v) {
+		switch (conversion) {
+		case 0:
+			return ConversionTables.cents2ratio(v);
+		case 1:
+			return ConversionTables.timecents2seconds(v);
+		case 2:
+			return ConversionTables.centibels2linear(v);
+		case 3:
+			return ConversionTables.decibel2linear(v);
+		default:
+			return ConversionTables.absoluteCents2hertz(v);
+		}
+	}
+
+	/**
+	 * Execute one conversion on all input values.
+	 * 
+	 * @return the sum of the results, so that the loop cannot be eliminated
+	 */
+	private static double execute(int conversion, boolean tables) {
+		double[] v = values[conversion];
+		double sum = 0.0;
+		if (tables) {
+			for (int i = 0; i < v.length; i++) {
+				sum += convertTable(conversion, v[i]);
+			}
+		} else {
+			for (int i = 0; i < v.length; i++) {
+				sum += convertPow(conversion, v[i]);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the maximum relative deviation of the table based conversion
+	 *         from Math.pow()
+	 */
+	private static double getMaxDeviation(int conversion) {
+		double max = 0.0;
+		for (int i = 0; i < VALUE_COUNT; i++) {
+			double v = values[conversion][i];
+			double exact = convertPow(conversion, v);
+			double table = convertTable(conversion, v);
+			max = Math.max(max, Math.abs(table - exact) / exact);
+		}
+		return max;
+	}
+
+	/**
+	 * Measure the conversion with the tables or with Math.pow(). The fastest
+	 * of 3 measurements is used.
+	 * 
+	 * @return the time in nanoseconds per conversion
+	 */
+	private static double measure(int conversion, boolean tables) {
+		double sum = 0.0;
+		// warm up
+		int loops = warmupCount / VALUE_COUNT + 1;
+		for (int i = 0; i < loops; i++) {
+			sum += execute(conversion, tables);
+		}
+		// measure in rounds, doubling the loop count until the minimum time
+		// is reached
+		double best = Double.MAX_VALUE;
+		loops = 16;
+		for (int round = 0; round < 3;) {
+			long start = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				sum += execute(conversion, tables);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (elapsed >= minTimeNanos) {
+				best = Math.min(best, ((double) elapsed)
+						/ (((double) loops) * VALUE_COUNT));
+				round++;
+			} else {
+				loops *= 2;
+			}
+		}
+		if (sum == 0.0) {
+			// never happens, but uses the sum
+			out("sum=0");
+		}
+		return best;
+	}
+
+	/**
+	 * Create the random input values of all conversions.
+	 */
+	private static void createValues() {
+		Random random = new Random(1);
+		values = new double[CONVERSIONS.length][VALUE_COUNT];
+		for (int c = 0; c < CONVERSIONS.length; c++) {
+			double min = RANGES[c][0];
+			double range = RANGES[c][1] - min;
+			for (int i = 0; i < VALUE_COUNT; i++) {
+				values[c][i] = min + random.nextDouble() * range;
+			}
+		}
+	}
+
+	private static String pad(String s, int len) {
+		StringBuffer sb = new StringBuffer(s);
+		while (sb.length() < len) {
+			sb.insert(0, ' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int voices = 128;
+		double sampleRate = 44100.0;
+
+		// parse arguments
+		int argi = 0;
+		while (argi < args.length) {
+			String arg = args[argi];
+			if (arg.equals("-h")) {
+				printUsageAndExit();
+			} else if (arg.equals("-t")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				minTimeNanos = Long.parseLong(args[argi]) * 1000000L;
+			} else if (arg.equals("-v")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				voices = Integer.parseInt(args[argi]);
+			} else {
+				printUsageAndExit();
+			}
+			argi++;
+		}
+		createValues();
+		// measure the table lookup, not Math.pow()
+		ConversionTables.setEnabled(true);
+
+		out("ConversionBenchmark: table resolution "
+				+ ConversionTables.TABLE_RESOLUTION
+				+ " entries per octave, max. relative error "
+				+ ConversionTables.MAX_RELATIVE_ERROR);
+		out("VM: " + System.getProperty("java.vm.name") + " "
+				+ System.getProperty("java.vm.version") + " ("
+				+ System.getProperty("java.vm.info") + ")");
+		StringBuffer header = new StringBuffer();
+		header.append(pad("conversion", 20));
+		header.append(pad("pow ns/op", 12));
+		header.append(pad("table ns/op", 12));
+		header.append(pad("speedup", 10));
+		header.append(pad("max.rel.dev.", 15));
+		out(header.toString());
+
+		double[][] nanos = new double[CONVERSIONS.length][2];
+		for (int c = 0; c < CONVERSIONS.length; c++) {
+			nanos[c][0] = measure(c, false);
+			nanos[c][1] = measure(c, true);
+			StringBuffer line = new StringBuffer();
+			line.append(pad(CONVERSIONS[c], 20));
+			line.append(pad(format3(nanos[c][0]), 12));
+			line.append(pad(format3(nanos[c][1]), 12));
+			line.append(pad(format2(nanos[c][0] / nanos[c][1]) + "x", 10));
+			line.append(pad(Float.toString((float) getMaxDeviation(c)), 15));
+			out(line.toString());
+		}
+
+		// the pitch of every voice is converted once per control block
+		double perSecond =
+				voices * sampleRate
+						/ Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE;
+		out("Pitch calculation for " + voices + " voices every "
+				+ Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE
+				+ " samples at " + format1(sampleRate) + "Hz: "
+				+ format1(perSecond) + " conversions per second");
+		out("  pow:   " + format3(perSecond * nanos[0][0] / 1.0E7)
+				+ "% CPU");
+		out("  table: " + format3(perSecond * nanos[0][1] / 1.0E7)
+				+ "% CPU");
+	}
+
+	private static void printUsageAndExit() {
+		out("ConversionBenchmark: measure the table based conversions.");
+		out("Usage:");
+		out("java ConversionBenchmark [-t <ms>] [-v <voices>] [-h]");
+		out("-t: minimum measurement time per conversion in milliseconds");
+		out("    (default: " + (minTimeNanos / 1000000L) + ")");
+		out("-v: number of voices for the pitch calculation estimate");
+		out("    (default: 128)");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,682 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.test;
+
+import com.ibm.realtime.synth.engine.*;
+import com.ibm.realtime.synth.soundfont2.*;
+import com.ibm.realtime.synth.utils.Debug;
+import static com.ibm.realtime.synth.utils.AudioUtils.*;
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A benchmark suite for the hot paths of the synthesizer. Other than
+ * SoundFont2Benchmark, it does not need a soundbank file or a MIDI file: all
+ * sample data is generated in memory, and a soundbank is built from it like
+ * in Looper. Each benchmark is warmed up, then measured in a number of
+ * iterations of fixed duration. The result is the average time per
+ * operation, the time per sample (or per event), and the variation between
+ * the iterations, so that runs on the same machine can be compared to detect
+ * regressions.
+ * 
+ * @author florian
+ */
+public class HotPathBenchmark {
+
+	private static double sampleRate = 44100.0;
+
+	/**
+	 * The number of samples processed by one operation
+	 */
+	private static int blockSize = 256;
+
+	private static long warmupMillis = 1000;
+	private static long iterationMillis = 500;
+	private static int iterations = 5;
+
+	/**
+	 * The number of MIDI events per operation of the midiInReceived benchmark
+	 */
+	private static final int EVENTS_PER_OP = 64;
+
+	/**
+	 * The voice counts for the mixer benchmarks
+	 */
+	private static final int[] VOICE_COUNTS = {
+			1, 32, 256
+	};
+
+	/**
+	 * The program numbers of the synthetic soundbank, one for each loop mode.
+	 * The index corresponds to the Oscillator.LOOPMODE_* constants.
+	 */
+	private static final int[] LOOP_MODE_PROGRAMS = {
+			0, 1, 2
+	};
+
+	private static final String[] LOOP_MODE_NAMES = {
+			"none", "continuously", "until release"
+	};
+
+	/**
+	 * The values of the SAMPLE_MODES generator for the loop modes
+	 */
+	private static final short[] SAMPLE_MODES = {
+			0, 1, 3
+	};
+
+	private static SoundFontSoundbank soundbank;
+	private static SoundFontSampleData sampleData;
+	private static Synthesizer.Params params;
+
+	/**
+	 * A benchmark: the run() method executes one operation.
+	 */
+	private static abstract class Benchmark {
+		private String name;
+		private int unitsPerOp;
+		private String unit;
+
+		/**
+		 * @param name the name of this benchmark
+		 * @param unitsPerOp how many units (samples or events) are processed
+		 *            by one operation
+		 * @param unit the name of the unit
+		 */
+		public Benchmark(String name, int unitsPerOp, String unit) {
+			this.name = name;
+			this.unitsPerOp = unitsPerOp;
+			this.unit = unit;
+		}
+
+		/**
+		 * Prepare the benchmark, called before warm up.
+		 */
+		public void setUp() throws Exception {
+			// nothing by default
+		}
+
+		/**
+		 * Execute one operation.
+		 */
+		public abstract void run();
+
+		/**
+		 * Release the resources, called after the measurement.
+		 */
+		public void tearDown() {
+			// nothing by default
+		}
+	}
+
+	// SYNTHETIC SOUNDBANK
+
+	/**
+	 * Create 1 second of a 16-bit mono tone with some harmonics and a little
+	 * noise, and build a soundbank with one preset for every loop mode. The
+	 * data is always the same, so that the results are repeatable.
+	 */
+	private static void createSoundbank() {
+		int sampleCount = (int) sampleRate;
+		byte[] data = new byte[sampleCount * 2];
+		Random random = new Random(1);
+		// 440Hz at 44.1kHz: ~100 samples per period
+		double period = sampleRate / 440.0;
+		for (int i = 0; i < sampleCount; i++) {
+			double phase = 2.0 * Math.PI * i / period;
+			double value =
+					0.5 * Math.sin(phase) + 0.2 * Math.sin(2.0 * phase)
+							+ 0.1 * Math.sin(3.0 * phase)
+							+ 0.02 * (random.nextDouble() - 0.5);
+			short s = (short) (value * 32767.0);
+			data[i * 2] = (byte) s;
+			data[i * 2 + 1] = (byte) (s >> 8);
+		}
+		sampleData = new Looper.MySoundFontSampleData(data, data.length);
+		// loop over whole periods in the second half
+		int loopStart = (int) (period * 200);
+		int loopEnd = (int) (period * 400);
+		SoundFontSample sample =
+				new SoundFontSample("synthetic", 0, sampleCount - 1,
+						loopStart, loopEnd, sampleRate, 69, 0, 0,
+						SoundFontSample.MONO_SAMPLE);
+
+		SoundFontBank bank = new SoundFontBank(0);
+		for (int mode = 0; mode < SAMPLE_MODES.length; mode++) {
+			List<SoundFontGenerator> generators =
+					new ArrayList<SoundFontGenerator>();
+			generators.add(new SoundFontGenerator(SoundFontGenerator.SAMPLE_ID,
+					(short) 0));
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.KEY_RANGE, (short) (0x7F00)));
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.VEL_RANGE, (short) (0x7F00)));
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.SAMPLE_MODES, SAMPLE_MODES[mode]));
+			// audible low pass filter: ~2kHz, some resonance
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.INITIALFILTER_FC, (short) 9000));
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.INITIALFILTER_Q, (short) 60));
+			// volume envelope: 125ms attack, 1s decay to -10dB
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.ATTACK_VOL_ENV, (short) -3600));
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.DECAY_VOL_ENV, (short) 0));
+			generators.add(new SoundFontGenerator(
+					SoundFontGenerator.SUSTAIN_VOL_ENV, (short) 100));
+			SoundFontInstrumentZone[] instZones = {
+				new SoundFontInstrumentZone(
+						generators.toArray(new SoundFontGenerator[generators.size()]),
+						new SoundFontModulator[0], sample)
+			};
+			SoundFontInstrument instrument =
+					new Looper.MySoundFontInstrument("synthetic "
+							+ LOOP_MODE_NAMES[mode], instZones);
+
+			SoundFontGenerator[] presetGenerators = {
+					new SoundFontGenerator(SoundFontGenerator.KEY_RANGE,
+							(short) (0x7F00)),
+					new SoundFontGenerator(SoundFontGenerator.VEL_RANGE,
+							(short) (0x7F00))
+			};
+			SoundFontPresetZone[] presetZones = {
+				new SoundFontPresetZone(presetGenerators,
+						new SoundFontModulator[0], instrument)
+			};
+			bank.setPreset(LOOP_MODE_PROGRAMS[mode],
+					new Looper.MySoundFontPreset(instrument.getName(),
+							LOOP_MODE_PROGRAMS[mode], 0, presetZones));
+		}
+		List<SoundFontBank> banks = new ArrayList<SoundFontBank>(1);
+		banks.add(bank);
+		soundbank =
+				new SoundFontSoundbank(sampleData,
+						new Looper.MySoundFontInfo("synthetic"), banks);
+		params = new Synthesizer(soundbank).getParams();
+	}
+
+	/**
+	 * Create a voice of the synthetic soundbank.
+	 * 
+	 * @param loopMode one of the Oscillator.LOOPMODE_* constants
+	 * @param note the MIDI note number
+	 */
+	private static NoteInput createVoice(int loopMode, int note) {
+		MidiChannel channel = new MidiChannel(0);
+		channel.parseProgramChange(LOOP_MODE_PROGRAMS[loopMode]);
+		NoteInput ni =
+				soundbank.createNoteInput(params, new AudioTime(0), channel,
+						note, 100);
+		if (ni == null) {
+			throw new IllegalStateException("no voice for loop mode "
+					+ LOOP_MODE_NAMES[loopMode]);
+		}
+		return ni;
+	}
+
+	private static void fillNoise(double[] data, long seed) {
+		Random random = new Random(seed);
+		for (int i = 0; i < data.length; i++) {
+			data[i] = random.nextDouble() - 0.5;
+		}
+	}
+
+	// BENCHMARKS
+
+	private static List<Benchmark> createBenchmarks() {
+		List<Benchmark> result = new ArrayList<Benchmark>();
+		final int n = blockSize;
+		final long blockNanos = samples2nanos(n, sampleRate);
+		final byte[] bytes = sampleData.getData();
+		// pitch factor of a semitone
+		final double step = 1.0594630943592953;
+
+		// ConversionTool
+		result.add(new Benchmark("ConversionTool.byte2double 16-bit stereo",
+				n, "frame") {
+			AudioFormat format =
+					new AudioFormat((float) sampleRate, 16, 2, true, false);
+			Object[] out = {
+					new double[n], new double[n]
+			};
+			int offset = 0;
+
+			public void run() {
+				ConversionTool.byte2double(bytes, offset, out, 0, n, format);
+				offset += n * 4;
+				if (offset + n * 4 > bytes.length) {
+					offset = 0;
+				}
+			}
+		});
+		result.add(new Benchmark("ConversionTool.short2doubleLSRC", n, "sample") {
+			short[] in = new short[sampleData.getSampleCount()];
+			double[] out = new double[n];
+			double pos = 0.0;
+
+			public void setUp() {
+				ConversionTool.byte16SL2short(bytes, 0, in, 0, in.length);
+			}
+
+			public void run() {
+				ConversionTool.short2doubleLSRC(in, pos, step, out, 0, n);
+				pos = advance(pos, step * n, in.length - 2);
+			}
+		});
+		result.add(new Benchmark("ConversionTool.float2floatLSRC", n, "sample") {
+			float[] in = new float[sampleData.getSampleCount()];
+			float[] out = new float[n];
+			double pos = 0.0;
+
+			public void setUp() {
+				ConversionTool.byte16SL2float(bytes, 0, in, 0, in.length);
+			}
+
+			public void run() {
+				ConversionTool.float2floatLSRC(in, pos, step, out, 0, n);
+				pos = advance(pos, step * n, in.length - 2);
+			}
+		});
+		result.add(new Benchmark("ConversionTool.double2byte 16-bit stereo",
+				n, "frame") {
+			AudioFormat format =
+					new AudioFormat((float) sampleRate, 16, 2, true, false);
+			Object[] in = {
+					new double[n], new double[n]
+			};
+			byte[] out = new byte[n * 4];
+
+			public void setUp() {
+				fillNoise((double[]) in[0], 1);
+				fillNoise((double[]) in[1], 2);
+			}
+
+			public void run() {
+				ConversionTool.double2byte(in, 0, out, 0, n, format, 0.0);
+			}
+		});
+
+		// Oscillator
+		for (int mode = 0; mode < LOOP_MODE_PROGRAMS.length; mode++) {
+			final int loopMode = mode;
+			result.add(new Benchmark("Oscillator.convert loop "
+					+ LOOP_MODE_NAMES[mode], n, "sample") {
+				Oscillator osc;
+				AudioBuffer buffer = new AudioBuffer(1, n, sampleRate);
+
+				public void setUp() {
+					osc = createVoice(loopMode, 72).getOscillator();
+				}
+
+				public void run() {
+					osc.convert(buffer, 0, n, step);
+					if (osc.endReached()) {
+						// start over, e.g. for non-looping samples
+						osc.init();
+					}
+				}
+			});
+		}
+
+		// SoundFontFilter
+		result.add(new Benchmark("SoundFontFilter.process", n, "sample") {
+			SoundFontFilter filter;
+			AudioBuffer buffer = new AudioBuffer(1, n, sampleRate);
+
+			public void setUp() {
+				SoundFontArticulation art =
+						(SoundFontArticulation) createVoice(
+								Oscillator.LOOPMODE_CONTINOUSLY, 60).getArticulation();
+				filter = art.getLowPassFilter();
+				fillNoise(buffer.getChannel(0), 3);
+			}
+
+			public void run() {
+				filter.process(buffer);
+			}
+		});
+
+		// SoundFontEnvelope
+		result.add(new Benchmark("SoundFontEnvelope.calculate", 1, "call") {
+			SoundFontEnvelope env;
+			long time;
+
+			public void setUp() {
+				SoundFontArticulation art =
+						(SoundFontArticulation) createVoice(
+								Oscillator.LOOPMODE_CONTINOUSLY, 60).getArticulation();
+				env = art.getVolumeEnvelope();
+				time = 0;
+			}
+
+			public void run() {
+				env.calculate(time);
+				time += blockNanos;
+			}
+		});
+
+		// NoteInput
+		result.add(new Benchmark("NoteInput.render", n, "sample") {
+			NoteInput ni;
+			AudioBuffer buffer = new AudioBuffer(2, n, sampleRate);
+			long time;
+
+			public void setUp() {
+				ni = createVoice(Oscillator.LOOPMODE_CONTINOUSLY, 60);
+				// the first read sets up the render sample count
+				ni.read(0, buffer, 0, n);
+				time = blockNanos;
+			}
+
+			public void run() {
+				ni.render(time);
+				time += blockNanos;
+			}
+		});
+		result.add(new Benchmark("NoteInput.read", n, "sample") {
+			NoteInput ni;
+			AudioBuffer buffer = new AudioBuffer(2, n, sampleRate);
+			long time;
+
+			public void setUp() {
+				ni = createVoice(Oscillator.LOOPMODE_CONTINOUSLY, 60);
+				time = 0;
+			}
+
+			public void run() {
+				ni.read(time, buffer, 0, n);
+				time += blockNanos;
+			}
+		});
+
+		// AudioMixer
+		for (final int voices : VOICE_COUNTS) {
+			result.add(new Benchmark("AudioMixer.read " + voices + " voices",
+					n, "sample") {
+				AudioMixer mixer;
+				AudioBuffer buffer = new AudioBuffer(2, n, sampleRate);
+				long time;
+
+				public void setUp() {
+					mixer = new AudioMixer();
+					for (int i = 0; i < voices; i++) {
+						mixer.addAudioStream(createVoice(
+								Oscillator.LOOPMODE_CONTINOUSLY, 36 + (i % 60)));
+					}
+					time = 0;
+				}
+
+				public void run() {
+					mixer.read(time, buffer, 0, n);
+					time += blockNanos;
+				}
+
+				public void tearDown() {
+					mixer.clear();
+				}
+			});
+		}
+
+		// Synthesizer
+		result.add(new Benchmark("Synthesizer.midiInReceived", EVENTS_PER_OP,
+				"event") {
+			Synthesizer synth;
+			long time;
+
+			public void setUp() {
+				synth = new Synthesizer(soundbank);
+				synth.setFixedDelayNanos(0);
+				time = blockNanos;
+			}
+
+			public void run() {
+				// queue controller and pitch wheel events spread over the
+				// next block, then dispatch them
+				long eventDelta = blockNanos / EVENTS_PER_OP;
+				long eventTime = time;
+				for (int i = 0; i < EVENTS_PER_OP; i++) {
+					if ((i & 1) == 0) {
+						synth.midiInReceived(null, eventTime, i & 0x0F, 0xB0,
+								MidiChannel.MODULATION, i & 0x7F);
+					} else {
+						synth.midiInReceived(null, eventTime, i & 0x0F, 0xE0,
+								0, 0x40);
+					}
+					eventTime += eventDelta;
+				}
+				synth.newAudioSlice(time, blockNanos);
+				time += blockNanos;
+			}
+
+			public void tearDown() {
+				synth.close();
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Advance the position, wrapping around at max.
+	 */
+	private static double advance(double pos, double delta, double max) {
+		pos += delta;
+		if (pos + delta >= max) {
+			pos = 0.0;
+		}
+		return pos;
+	}
+
+	// MEASUREMENT
+
+	/**
+	 * Execute the benchmark for the given time.
+	 * 
+	 * @return the number of operations executed
+	 */
+	private static long execute(Benchmark b, long durationNanos) {
+		long ops = 0;
+		long start = System.nanoTime();
+		long end = start + durationNanos;
+		// only check the time every 16 operations
+		do {
+			for (int i = 0; i < 16; i++) {
+				b.run();
+			}
+			ops += 16;
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	private static void measure(Benchmark b, boolean csv) throws Exception {
+		b.setUp();
+		try {
+			execute(b, warmupMillis * 1000000L);
+			double[] nanosPerOp = new double[iterations];
+			double sum = 0.0;
+			double min = Double.MAX_VALUE;
+			for (int i = 0; i < iterations; i++) {
+				long start = System.nanoTime();
+				long ops = execute(b, iterationMillis * 1000000L);
+				long elapsed = System.nanoTime() - start;
+				nanosPerOp[i] = ((double) elapsed) / ops;
+				sum += nanosPerOp[i];
+				if (nanosPerOp[i] < min) {
+					min = nanosPerOp[i];
+				}
+			}
+			double mean = sum / iterations;
+			double variance = 0.0;
+			for (int i = 0; i < iterations; i++) {
+				double diff = nanosPerOp[i] - mean;
+				variance += diff * diff;
+			}
+			double stdDevPercent =
+					Math.sqrt(variance / iterations) * 100.0 / mean;
+			double perUnit = mean / b.unitsPerOp;
+			if (csv) {
+				out(b.name + "," + b.unitsPerOp + "," + b.unit + ","
+						+ format3(mean) + "," + format3(min) + ","
+						+ format3(perUnit) + "," + format2(stdDevPercent));
+			} else {
+				out(padRight(b.name, 44) + pad(format1(mean), 12)
+						+ pad(format1(min), 12) + pad(format3(perUnit), 10)
+						+ " ns/" + padRight(b.unit, 6) + "  +/-"
+						+ format1(stdDevPercent) + "%");
+			}
+		} finally {
+			b.tearDown();
+		}
+	}
+
+	private static String pad(String s, int len) {
+		StringBuffer sb = new StringBuffer(s);
+		while (sb.length() < len) {
+			sb.insert(0, ' ');
+		}
+		return sb.toString();
+	}
+
+	private static String padRight(String s, int len) {
+		StringBuffer sb = new StringBuffer(s);
+		while (sb.length() < len) {
+			sb.append(' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		String filter = null;
+		boolean csv = false;
+		boolean list = false;
+
+		// parse arguments
+		int argi = 0;
+		while (argi < args.length) {
+			String arg = args[argi];
+			if (arg.equals("-h")) {
+				printUsageAndExit();
+			} else if (arg.equals("-b")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				filter = args[argi];
+			} else if (arg.equals("-n")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				blockSize = Integer.parseInt(args[argi]);
+				if (blockSize <= 0) {
+					printUsageAndExit();
+				}
+			} else if (arg.equals("-w")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				warmupMillis = Long.parseLong(args[argi]);
+			} else if (arg.equals("-t")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				iterationMillis = Long.parseLong(args[argi]);
+			} else if (arg.equals("-i")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				iterations = Integer.parseInt(args[argi]);
+				if (iterations <= 0) {
+					printUsageAndExit();
+				}
+			} else if (arg.equals("-csv")) {
+				csv = true;
+			} else if (arg.equals("-list")) {
+				list = true;
+			} else {
+				printUsageAndExit();
+			}
+			argi++;
+		}
+		Debug.DEBUG_MASTER_SWITCH = false;
+
+		createSoundbank();
+		List<Benchmark> benchmarks = createBenchmarks();
+		if (list) {
+			for (Benchmark b : benchmarks) {
+				out(b.name);
+			}
+			return;
+		}
+		if (csv) {
+			out("benchmark,units/op,unit,ns/op,min ns/op,ns/unit,stddev%");
+		} else {
+			out("HotPathBenchmark: block size " + blockSize + " samples, "
+					+ iterations + " iterations of " + iterationMillis
+					+ "ms after " + warmupMillis + "ms warm up");
+			out("VM: " + System.getProperty("java.vm.name") + " "
+					+ System.getProperty("java.vm.version") + ", kernels: "
+					+ MixKernels.get().getName());
+			out(padRight("benchmark", 44) + pad("ns/op", 12) + pad("min", 12)
+					+ pad("per unit", 10));
+		}
+		for (Benchmark b : benchmarks) {
+			if (filter == null || b.name.indexOf(filter) >= 0) {
+				measure(b, csv);
+			}
+		}
+	}
+
+	private static void printUsageAndExit() {
+		out("HotPathBenchmark: measure the hot paths of the synthesizer with");
+		out("synthetic sample data.");
+		out("Usage:");
+		out("java HotPathBenchmark [-b <name>] [-n <samples>] [-w <ms>] [-t <ms>]");
+		out("                      [-i <iterations>] [-csv] [-list] [-h]");
+		out("-b: only run the benchmarks whose name contains the given string");
+		out("-n: the number of samples per operation (default: " + blockSize
+				+ ")");
+		out("-w: warm up time per benchmark in milliseconds (default: "
+				+ warmupMillis + ")");
+		out("-t: duration of one iteration in milliseconds (default: "
+				+ iterationMillis + ")");
+		out("-i: number of measured iterations (default: " + iterations + ")");
+		out("-csv: print the results as comma separated values");
+		out("-list: only list the names of the benchmarks");
+		System.exit(1);
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.test;
+
+import com.ibm.realtime.synth.engine.*;
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+import java.util.Random;
+
+/**
+ * A micro benchmark for the mixing and interpolation kernels. Every kernel is
+ * executed with all available implementations for a range of buffer sizes on
+ * synthetic sample data. The time per sample, the speedup relative to the
+ * scalar kernels, and the maximum deviation from the scalar result are
+ * printed.
+ * 
+ * @author florian
+ */
+public class KernelBenchmark {
+
+	private static final int[] DEFAULT_SIZES = {
+			32, 64, 128, 256, 512, 1024, 4096
+	};
+
+	/**
+	 * The minimum time that each kernel is executed for one measurement
+	 */
+	private static long minTimeNanos = 200000000L;
+
+	/**
+	 * The number of samples to process for warm up of every kernel
+	 */
+	private static int warmupSamples = 4000000;
+
+	private static final String[] KERNELS = {
+			"mix double", "mix float", "mix double->float",
+			"ramp double", "ramp float->double", "ramp double->float",
+			"ramp float", "ramp stereo double", "ramp stereo float",
+			"interp short->double", "interp short->float",
+			"interp float->double", "interp float->float",
+			"interp 16SL->double", "interp 16SL->float"
+	};
+
+	/**
+	 * The pitch factor for the interpolation kernels
+	 */
+	private static final double STEP = 1.0594630943592953;
+
+	// synthetic sample data
+	private static short[] shortData;
+	private static float[] floatData;
+	private static byte[] byteData;
+	private static double[] doubleSrc;
+	private static float[] floatSrc;
+
+	// output buffers
+	private static double[] doubleDest1;
+	private static double[] doubleDest2;
+	private static float[] floatDest1;
+	private static float[] floatDest2;
+
+	/**
+	 * Execute one kernel on the buffers.
+	 */
+	private static void execute(MixKernels k, int kernel, int size) {
+		switch (kernel) {
+		case 0:
+			k.mix(doubleSrc, 0, doubleDest1, 0, size);
+			break;
+		case 1:
+			k.mix(floatSrc, 0, floatDest1, 0, size);
+			break;
+		case 2:
+			k.mix(doubleSrc, 0, floatDest1, 0, size);
+			break;
+		case 3:
+			k.mixRamp(doubleSrc, doubleDest1, 0, size, 0.2, 0.0001);
+			break;
+		case 4:
+			k.mixRamp(floatSrc, doubleDest1, 0, size, 0.2, 0.0001);
+			break;
+		case 5:
+			k.mixRamp(doubleSrc, floatDest1, 0, size, 0.2, 0.0001);
+			break;
+		case 6:
+			k.mixRamp(floatSrc, floatDest1, 0, size, 0.2f, 0.0001f);
+			break;
+		case 7:
+			k.mixRampStereo(doubleSrc, doubleDest1, doubleDest2, 0, size, 0.2,
+					0.0001, 0.7, -0.0001);
+			break;
+		case 8:
+			k.mixRampStereo(floatSrc, floatDest1, floatDest2, 0, size, 0.2f,
+					0.0001f, 0.7f, -0.0001f);
+			break;
+		case 9:
+			k.interpolate(shortData, 0.25, STEP, doubleDest1, 0, size);
+			break;
+		case 10:
+			k.interpolate(shortData, 0.25, STEP, floatDest1, 0, size);
+			break;
+		case 11:
+			k.interpolate(floatData, 0.25, STEP, doubleDest1, 0, size);
+			break;
+		case 12:
+			k.interpolate(floatData, 0.25, STEP, floatDest1, 0, size);
+			break;
+		case 13:
+			k.interpolate16SL(byteData, 0, 0.25, STEP, doubleDest1, 0, size);
+			break;
+		case 14:
+			k.interpolate16SL(byteData, 0, 0.25, STEP, floatDest1, 0, size);
+			break;
+		}
+	}
+
+	/**
+	 * Clear the output buffers, so that mixing always starts from the same
+	 * state.
+	 */
+	private static void clearOutput(int size) {
+		for (int i = 0; i < size; i++) {
+			doubleDest1[i] = 0.0;
+			doubleDest2[i] = 0.0;
+			floatDest1[i] = 0.0f;
+			floatDest2[i] = 0.0f;
+		}
+	}
+
+	/**
+	 * @return the maximum absolute difference of the output buffers after
+	 *         executing the kernel once with test and once with reference
+	 */
+	private static double getMaxDeviation(MixKernels test,
+			MixKernels reference, int kernel, int size) {
+		clearOutput(size);
+		execute(reference, kernel, size);
+		double[] refDouble1 = new double[size];
+		double[] refDouble2 = new double[size];
+		float[] refFloat1 = new float[size];
+		float[] refFloat2 = new float[size];
+		System.arraycopy(doubleDest1, 0, refDouble1, 0, size);
+		System.arraycopy(doubleDest2, 0, refDouble2, 0, size);
+		System.arraycopy(floatDest1, 0, refFloat1, 0, size);
+		System.arraycopy(floatDest2, 0, refFloat2, 0, size);
+		clearOutput(size);
+		execute(test, kernel, size);
+		double max = 0.0;
+		for (int i = 0; i < size; i++) {
+			max = Math.max(max, Math.abs(refDouble1[i] - doubleDest1[i]));
+			max = Math.max(max, Math.abs(refDouble2[i] - doubleDest2[i]));
+			max = Math.max(max, Math.abs(refFloat1[i] - floatDest1[i]));
+			max = Math.max(max, Math.abs(refFloat2[i] - floatDest2[i]));
+		}
+		return max;
+	}
+
+	/**
+	 * Measure the kernel.
+	 * 
+	 * @return the time in nanoseconds per sample
+	 */
+	private static double measure(MixKernels k, int kernel, int size) {
+		// warm up
+		int loops = warmupSamples / size + 1;
+		for (int i = 0; i < loops; i++) {
+			execute(k, kernel, size);
+		}
+		// measure in rounds, doubling the loop count until the minimum time
+		// is reached
+		loops = 16;
+		while (true) {
+			clearOutput(size);
+			long start = System.nanoTime();
+			for (int i = 0; i < loops; i++) {
+				execute(k, kernel, size);
+			}
+			long elapsed = System.nanoTime() - start;
+			if (elapsed >= minTimeNanos) {
+				return ((double) elapsed) / (((double) loops) * size);
+			}
+			loops *= 2;
+		}
+	}
+
+	/**
+	 * Create the synthetic sample data: a mix of sine waves and noise.
+	 */
+	private static void createData(int maxSize) {
+		// the interpolation kernels read up to STEP*size+2 samples
+		int inputSize = ((int) (maxSize * STEP)) + 4;
+		Random random = new Random(1);
+		shortData = new short[inputSize];
+		floatData = new float[inputSize];
+		byteData = new byte[inputSize * 2];
+		for (int i = 0; i < inputSize; i++) {
+			double value =
+					0.5 * Math.sin(i * 0.031) + 0.3 * Math.sin(i * 0.27)
+							+ 0.1 * (random.nextDouble() - 0.5);
+			short s = (short) (value * 32767.0);
+			shortData[i] = s;
+			floatData[i] = (float) (s / 32768.0);
+			byteData[i * 2] = (byte) s;
+			byteData[i * 2 + 1] = (byte) (s >> 8);
+		}
+		doubleSrc = new double[maxSize];
+		floatSrc = new float[maxSize];
+		for (int i = 0; i < maxSize; i++) {
+			doubleSrc[i] = floatData[i];
+			floatSrc[i] = floatData[i];
+		}
+		doubleDest1 = new double[maxSize];
+		doubleDest2 = new double[maxSize];
+		floatDest1 = new float[maxSize];
+		floatDest2 = new float[maxSize];
+	}
+
+	private static String pad(String s, int len) {
+		StringBuffer sb = new StringBuffer(s);
+		while (sb.length() < len) {
+			sb.insert(0, ' ');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] sizes = DEFAULT_SIZES;
+		String kernelFilter = null;
+
+		// parse arguments
+		int argi = 0;
+		while (argi < args.length) {
+			String arg = args[argi];
+			if (arg.equals("-h")) {
+				printUsageAndExit();
+			} else if (arg.equals("-sizes")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				String[] s = args[argi].split(",");
+				sizes = new int[s.length];
+				for (int i = 0; i < s.length; i++) {
+					sizes[i] = Integer.parseInt(s[i].trim());
+					if (sizes[i] <= 0) {
+						printUsageAndExit();
+					}
+				}
+			} else if (arg.equals("-k")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				kernelFilter = args[argi];
+			} else if (arg.equals("-t")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				minTimeNanos = Long.parseLong(args[argi]) * 1000000L;
+			} else {
+				printUsageAndExit();
+			}
+			argi++;
+		}
+		int maxSize = 0;
+		for (int size : sizes) {
+			if (size > maxSize) maxSize = size;
+		}
+		createData(maxSize);
+
+		MixKernels[] all = MixKernels.getAll();
+		out("KernelBenchmark: default kernels: " + MixKernels.get().getName());
+		out("VM: " + System.getProperty("java.vm.name") + " "
+				+ System.getProperty("java.vm.version") + " ("
+				+ System.getProperty("java.vm.info") + ")");
+		StringBuffer header = new StringBuffer();
+		header.append(pad("kernel", 22));
+		header.append(pad("size", 6));
+		for (MixKernels k : all) {
+			header.append(pad(k.getName() + " ns/smp", 18));
+		}
+		for (int i = 1; i < all.length; i++) {
+			header.append(pad(all[i].getName() + " speedup", 18));
+			header.append(pad("max.dev.", 15));
+		}
+		out(header.toString());
+
+		for (int kernel = 0; kernel < KERNELS.length; kernel++) {
+			if (kernelFilter != null && KERNELS[kernel].indexOf(kernelFilter) < 0) {
+				continue;
+			}
+			for (int size : sizes) {
+				double[] nanos = new double[all.length];
+				StringBuffer line = new StringBuffer();
+				line.append(pad(KERNELS[kernel], 22));
+				line.append(pad(Integer.toString(size), 6));
+				for (int i = 0; i < all.length; i++) {
+					nanos[i] = measure(all[i], kernel, size);
+					line.append(pad(format3(nanos[i]), 18));
+				}
+				for (int i = 1; i < all.length; i++) {
+					line.append(pad(format2(nanos[0] / nanos[i]) + "x", 18));
+					double dev = getMaxDeviation(all[i], all[0], kernel, size);
+					line.append(pad(dev == 0.0 ? "0" : Float.toString((float) dev), 15));
+				}
+				out(line.toString());
+			}
+		}
+	}
+
+	private static void printUsageAndExit() {
+		out("KernelBenchmark: measure the mixing and interpolation kernels.");
+		out("Usage:");
+		out("java KernelBenchmark [-sizes <n1,n2,...>] [-k <kernel>] [-t <ms>] [-h]");
+		out("-sizes: comma separated list of buffer sizes in samples");
+		out("        (default: 32,64,128,256,512,1024,4096)");
+		out("-k: only run the kernels whose name contains the given string,");
+		out("    e.g. \"ramp\" or \"interp\"");
+		out("-t: minimum measurement time per kernel and size in milliseconds");
+		out("    (default: " + (minTimeNanos / 1000000L) + ")");
+		System.exit(1);
+	}
+}
@@ -93,8 +93,7 @@ public class SMFPusher {
 					int channel = msg[0] & 0xF;
 					int status = msg[0] & 0xF0;
 					if (synth!=null) {
-						MidiEvent me = new MidiEvent(null, nanoTime, channel, status, msg[1], data2);
-						synth.midiInReceived(me);
+						synth.midiInReceived(null, nanoTime, channel, status, msg[1], data2);
 					}
 					if (status == 0x90 && data2 > 0) {
 						events++;
@@ -77,6 +77,12 @@ public class SoundFont2Benchmark {
 		String outputFile = "";
 		String inputFile = "disco.mid";
 		boolean polyphonyTest = false;
+		boolean floatRendering = false;
+		boolean pooling = true;
+		long spinMicros = -1;
+		boolean joinRendering = true;
+		int sampleDecoding = SoundFontSampleData.DECODE_NONE;
+		boolean mapSampleData = false;
 
 		Debug.DEBUG_MASTER_SWITCH = false;
 
@@ -130,6 +136,44 @@ public class SoundFont2Benchmark {
 				asynchronousRenderThreads = Integer.parseInt(args[argi]);
 			} else if (arg.equals("-polyphony")) {
 				polyphonyTest = true;
+			} else if (arg.equals("-float")) {
+				floatRendering = true;
+			} else if (arg.equals("-mmap")) {
+				mapSampleData = true;
+			} else if (arg.equals("-nopool")) {
+				pooling = false;
+			} else if (arg.equals("-spin")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				spinMicros = Long.parseLong(args[argi]);
+			} else if (arg.equals("-nojoin")) {
+				joinRendering = false;
+			} else if (arg.equals("-decode")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				if (args[argi].equals("short")) {
+					sampleDecoding = SoundFontSampleData.DECODE_SHORT;
+				} else if (args[argi].equals("float")) {
+					sampleDecoding = SoundFontSampleData.DECODE_FLOAT;
+				} else if (args[argi].equals("none")) {
+					sampleDecoding = SoundFontSampleData.DECODE_NONE;
+				} else {
+					printUsageAndExit();
+				}
+			} else if (arg.equals("-kernels")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				MixKernels kernels = MixKernels.forName(args[argi]);
+				if (kernels == null) {
+					printUsageAndExit();
+				}
+				MixKernels.set(kernels);
 			} else {
 				printUsageAndExit();
 			}
@@ -192,11 +236,26 @@ public class SoundFont2Benchmark {
 		if (asynchronousRenderThreads > 0) {
 			addRT =
 					" using " + asynchronousRenderThreads
-							+ " asynchronous render threads.";
+							+ " asynchronous render threads, spin="
+							+ (spinMicros >= 0 ? spinMicros
+									: AsynchronousRenderer.DEFAULT_SPIN_NANOS / 1000)
+							+ "us" + (joinRendering ? "" : ", no join") + ".";
 		}
 		out("Render spec: Latency=" + latencyInMillis + "ms, slice time="
 				+ sliceTimeMillis + "ms" + addRT);
 		out("Format:      " + format);
+		out("Precision:   " + (floatRendering ? "float" : "double"));
+		String samples = "raw bytes";
+		if (mapSampleData) {
+			samples = "memory mapped";
+		} else if (sampleDecoding == SoundFontSampleData.DECODE_SHORT) {
+			samples = "decoded to short";
+		} else if (sampleDecoding == SoundFontSampleData.DECODE_FLOAT) {
+			samples = "decoded to float";
+		}
+		out("Samples:     " + samples);
+		ObjectPool.setEnabled(pooling);
+		out("Voice pools: " + (pooling ? "enabled" : "disabled"));
 		if (inProfiler) {
 			out("Profiling:   " + inProfiler);
 		}
@@ -214,11 +273,23 @@ public class SoundFont2Benchmark {
 		}
 
 		try {
-			SoundFontSoundbank sb = new SoundFontSoundbank(sbFile);
+			SoundFontSoundbank sb =
+					new SoundFontSoundbank(sbFile, sampleDecoding,
+							mapSampleData);
 			sink = new NullSink();
 			synth = new Synthesizer(sb);
 			synth.setFixedDelayNanos(2 * latencyInMillis * 1000000L);
 			synth.setRenderThreadCount(asynchronousRenderThreads);
+			AsynchronousRenderer renderer = synth.getAsynchronousRenderer();
+			if (renderer != null) {
+				if (spinMicros >= 0) {
+					renderer.setSpinNanos(spinMicros * 1000L);
+				}
+				renderer.setJoinEnabled(joinRendering);
+			}
+			// the benchmark controls the number of voices itself
+			synth.setMaxPolyphony(0);
+			synth.setFloatRendering(floatRendering);
 			synth.start();
 			pullThread = new AudioPullThread(synth.getMixer(), sink);
 			pullThread.setSliceTimeMillis(sliceTimeMillis);
@@ -239,6 +310,9 @@ public class SoundFont2Benchmark {
 		} finally {
 			// clean-up
 			if (waveSink != null) {
+				if (pullThread != null) {
+					pullThread.setSlaveSink(null);
+				}
 				waveSink.close();
 			}
 			if (synth != null) {
@@ -293,10 +367,12 @@ public class SoundFont2Benchmark {
 					+ msPerNote + "rendered " + format3(writtenSeconds) + "s, "
 					+ format3(writtenSeconds / (durationMillis / 1000.0))
 					+ "x realtime." + add);
+			printPoolStatistics();
+			printRenderThreadStatistics();
 			if (waveSink != null) {
+				pullThread.setSlaveSink(null);
 				waveSink.close();
 				waveSink = null;
-				pullThread.setSlaveSink(null);
 			}
 			if (inProfiler) {
 				if (waitProfiling) {
@@ -309,6 +385,29 @@ public class SoundFont2Benchmark {
 		}
 	}
 
+	/**
+	 * Print and reset the statistics of the voice object pools.
+	 */
+	private static void printPoolStatistics() {
+		for (ObjectPool<?> pool : ObjectPool.getPools()) {
+			out("            " + pool);
+		}
+		ObjectPool.resetAllStatistics();
+	}
+
+	/**
+	 * Print and reset the statistics of the render threads.
+	 */
+	private static void printRenderThreadStatistics() {
+		AsynchronousRenderer renderer = synth.getAsynchronousRenderer();
+		if (renderer != null && renderer.isStarted()) {
+			for (String line : renderer.getStatistics().split("\n")) {
+				out("            " + line);
+			}
+			renderer.resetStatistics();
+		}
+	}
+
 	private final static int[] DELTA_TRIALS = {
 			500, 100, 50, 20, 5, 1
 	};
@@ -455,7 +554,9 @@ public class SoundFont2Benchmark {
 		out("Usage:");
 		out("java SoundFont2Benchmark [-if <MIDI file>] [-s <slice time>]");
 		out("                     [-sb <soundbank>] [-of output_wave] [-profile] ");
-		out("                     [-polyphony] [-debug] [-p N][-h]");
+		out("                     [-polyphony] [-float] [-decode none|short|float]");
+		out("                     [-mmap] [-nopool] [-debug] [-p N]");
+		out("                     [-spin <us>] [-nojoin] [-kernels <name>] [-h]");
 		out("-if: specify the MIDI file to be rendered");
 		out("-s: specify the quantum time in milliseconds (quantum time < buffer size)");
 		out("-sb: specify the soundbank in .sf2 format to be used");
@@ -463,8 +564,20 @@ public class SoundFont2Benchmark {
 		out("     with the rendered audio output.");
 		out("-profile: for use with a profiler: waits twice for a keypress");
 		out("-p N: use asynchronous rendering using N threads (default: not asynchronous)");
+		out("-spin: time in microseconds that idle render threads spin before");
+		out("       parking (default: "
+				+ (AsynchronousRenderer.DEFAULT_SPIN_NANOS / 1000) + ")");
+		out("-nojoin: the pull thread does not help the render threads");
 		out("-polyphony: iteratively find out the maximum polypony of one instrument.");
 		out("            -if and -of are ignored.");
+		out("-float: render in single precision (float) instead of double");
+		out("-decode: pre-decode the sample data to short or float arrays");
+		out("         (default: none, i.e. interpolate from the raw bytes)");
+		out("-mmap: memory map the sample data instead of loading it");
+		out("-nopool: allocate new voice objects for every note instead of");
+		out("         recycling them");
+		out("-kernels: the mixing and interpolation kernels: scalar or unrolled");
+		out("          (default: " + MixKernels.get().getName() + ")");
 		out("");
 		out("Results can only be compared if there is no DEBUG output!");
 		out("This is a single-thread benchmark with the goal of improving");
@@ -472,7 +585,7 @@ public class SoundFont2Benchmark {
 		System.exit(1);
 	}
 
-	private static class NullSink implements AudioSink {
+	private static class NullSink implements FloatAudioSink {
 
 		private long writtenSamples = 0;
 		private long clockOffsetSamples = 0;
@@ -517,7 +630,15 @@ public class SoundFont2Benchmark {
 		}
 		
 		public void write(AudioBuffer buffer) {
-			writtenSamples += buffer.getSampleCount();
+			written(buffer.getSampleCount());
+		}
+
+		public void write(FloatAudioBuffer buffer) {
+			written(buffer.getSampleCount());
+		}
+
+		private void written(int sampleCount) {
+			writtenSamples += sampleCount;
 			// if we passed stopTime, stop the PullThread
 			if (writtenSamples > stopTimeSamples) {
 				// be careful with synchronization!
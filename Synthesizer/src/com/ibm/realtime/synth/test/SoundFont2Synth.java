@@ -169,8 +169,10 @@ public class SoundFont2Synth {
 		int dmidiDevCount = 0;
 		int audioDev = -2; // use default device
 		String directAudioDev = "";
+		int directAudioTransfer = DirectAudioSink.TRANSFER_DIRECT_BUFFER;
 		String eventronAudioDev = "";
 		double sliceTimeMillis = DEFAULT_SLICE_TIME;
+		int controlBlockSize = Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE;
 		String outputFile = "";
 		double sampleRate = 44100.0;
 		int channels = 2;
@@ -184,6 +186,7 @@ public class SoundFont2Synth {
 		int noteDispatcherMode= Synthesizer.NOTE_DISPATCHER_REQUEST_ASYNCHRONOUS;
 		double playWaitTime = 0.5;
 		boolean preload = true;
+		boolean useGovernor = false;
 
 		// parse arguments
 		int argi = 0;
@@ -221,6 +224,20 @@ public class SoundFont2Synth {
 					printUsageAndExit();
 				}
 				directAudioDev = args[argi];
+			} else if (arg.equals("-datransfer")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				if (args[argi].equals("array")) {
+					directAudioTransfer = DirectAudioSink.TRANSFER_ARRAY;
+				} else if (args[argi].equals("direct")) {
+					directAudioTransfer = DirectAudioSink.TRANSFER_DIRECT_BUFFER;
+				} else if (args[argi].equals("mmap")) {
+					directAudioTransfer = DirectAudioSink.TRANSFER_MMAP;
+				} else {
+					printUsageAndExit();
+				}
 			} else if (arg.equals("-ea")) {
 				argi++;
 				if (argi >= args.length) {
@@ -239,6 +256,12 @@ public class SoundFont2Synth {
 					printUsageAndExit();
 				}
 				sliceTimeMillis = Double.parseDouble(args[argi]);
+			} else if (arg.equals("-cb")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				controlBlockSize = Integer.parseInt(args[argi]);
 			} else if (arg.equals("-sb")) {
 				argi++;
 				if (argi >= args.length) {
@@ -297,6 +320,8 @@ public class SoundFont2Synth {
 				interactive = false;
 			} else if (arg.equals("-noPreload")) {
 				preload = false;
+			} else if (arg.equals("-governor")) {
+				useGovernor = true;
 			} else if (arg.equals("-w")) {
 				argi++;
 				if (argi >= args.length) {
@@ -416,6 +441,8 @@ public class SoundFont2Synth {
 			pullThread = new AudioPullThread();
 			pullThread.setSliceTimeMillis(sliceTimeMillis);
 			pullThread.setInput(mixer);
+			// allow monitoring the render timing with JMX
+			mixer.getMetrics().registerMBean("SoundFont2Synth");
 
 			// set up soundcard (sink)
 			int bufferSizeSamples = pullThread.getPreferredSinkBufferSizeSamples(
@@ -431,6 +458,7 @@ public class SoundFont2Synth {
 			} else if (directAudioDev != "") {
 				debug("creating DirectAudioSink: " + directAudioDev);
 				DirectAudioSink daSink = new DirectAudioSink();
+				daSink.setTransferMode(directAudioTransfer);
 				daSink.open(directAudioDev, format, bufferSizeSamples);
 				sink = daSink;
 				format = daSink.getFormat();
@@ -444,7 +472,8 @@ public class SoundFont2Synth {
 						+ "ms, ALSA buffer: "
 						+ daSink.getALSABufferSizeSamples() + " samples = "
 						+ format3(daSink.getALSABufferTimeNanos() / 1000000.0)
-						+ "ms");
+						+ "ms, transfer: "
+						+ DirectAudioSink.transferMode2Str(daSink.getTransferMode()));
 
 			}
 			debug("- audio format: " + format.getChannels() + " channels, "
@@ -464,6 +493,7 @@ public class SoundFont2Synth {
 			synth.setFixedDelayNanos((long) (((2.0 * latencyMillis)) * 1000000.0));
 			synth.setMasterClock(sink);
 			synth.getParams().setMasterTuning(443);
+			synth.getParams().setControlBlockSize(controlBlockSize);
 			synth.setNoteDispatcherMode(noteDispatcherMode);
 			debugNoNewLine(format1(synth.getParams().getMasterTuning())
 					+ "Hz tuning, ");
@@ -476,6 +506,17 @@ public class SoundFont2Synth {
 			if (lowlatencyMode) {
 				synth.setSchedulingOfRealtimeEvents(false);
 			}
+			if (useGovernor) {
+				LoadGovernor governor = new LoadGovernor(synth);
+				governor.addListener(new LoadGovernor.Listener() {
+					public void qualityChanged(LoadGovernor gov,
+							LoadGovernor.Event event) {
+						out("Load governor " + event);
+					}
+				});
+				synth.setLoadGovernor(governor);
+				debugNoNewLine("load governor, ");
+			}
 			synth.getParams().setMasterVolume(
 					AudioUtils.decibel2linear(volumeDB));
 			if (volumeDB != 0.0) {
@@ -678,6 +719,9 @@ public class SoundFont2Synth {
 			}
 		}
 		if (waveSink != null) {
+			if (pullThread != null) {
+				pullThread.setSlaveSink(null);
+			}
 			waveSink.close();
 		}
 		if (maintenance != null) {
@@ -686,6 +730,10 @@ public class SoundFont2Synth {
 		if (pullThread != null) {
 			pullThread.stop();
 			out("Resynchronizations of audio device: " + pullThread.getResynchCounter());
+			RenderMetrics metrics = pullThread.getMetrics();
+			out("Render metrics:");
+			out(metrics.snapshot().toString());
+			metrics.unregisterMBean();
 		}
 		for (int i = 0; i < midiDevCount; i++) {
 			if (midis[i] != null) {
@@ -698,6 +746,12 @@ public class SoundFont2Synth {
 			}
 		}
 		if (synth != null) {
+			LoadGovernor governor = synth.getLoadGovernor();
+			if (governor != null) {
+				out(governor.toString());
+				synth.setLoadGovernor(null);
+				governor.close();
+			}
 			synth.close();
 		}
 		if (sink != null) {
@@ -840,6 +894,8 @@ public class SoundFont2Synth {
 			if (directSinks.size() == 0) {
 				out("            [no direct audio output devices available]");
 			}
+			out("-datransfer {array|direct|mmap}: transfer mode for direct audio");
+			out("                  (default: direct)");
 		}
 		if (DirectAudioSink.isAvailable()) {
 			out("NOTE: -da, -a, -ea cannot be used simultaneously.");
@@ -847,6 +903,9 @@ public class SoundFont2Synth {
 		out("Advanced options:");
 		out("-s  [millis]    : slice time: quantum time in millis (default: "
 				+ (((int) DEFAULT_SLICE_TIME * 10) / 10.0) + ")");
+		out("-cb [samples]   : control block size for envelopes and LFO's, 0 for");
+		out("                  once per slice (default: "
+				+ Synthesizer.Params.DEFAULT_CONTROL_BLOCK_SIZE + ")");
 		out("-c  [channels]  : number of output channels, default 2 (stereo)");
 		out("-sr [Hz]        : sample rate in Hz (default 44100.0 Hz)");
 		out("-b  [bits]      : sample resolution in bits (default: 16 bits)");
@@ -859,6 +918,7 @@ public class SoundFont2Synth {
 		out("-ni             : non-interactive, only valid with duration");
 		out("-noPreload      : do not preload the synth rendering classes");
 		out("-nd:{async|sync|auto}: mode for note dispatcher (default: auto)");
+		out("-governor       : reduce the render quality under high CPU load");
 
 		out("-allocator <Rate> <Size> <Retention> : run an allocator thread with");
 		out("                  the goal of causing GC activity.");
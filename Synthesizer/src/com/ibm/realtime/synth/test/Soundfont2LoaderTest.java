@@ -31,6 +31,9 @@ import com.ibm.realtime.synth.soundfont2.*;
 /**
  * Test program to load a SoundFont 2 file and to dump information while parsing
  * the file. See Parser.java for trace options.
+ * <p>
+ * With the -bench option, the file is loaded repeatedly without tracing, and
+ * the load throughput of the different parser modes is reported.
  * 
  * @author florian
  * 
@@ -48,10 +51,33 @@ public class Soundfont2LoaderTest {
 
 	public static long initialMem = 0;
 
+	private static String file = filename;
+
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) throws Exception {
+		int benchRuns = 0;
+		int argi = 0;
+		while (argi < args.length) {
+			if (args[argi].equals("-bench")) {
+				argi++;
+				if (argi >= args.length) {
+					printUsageAndExit();
+				}
+				benchRuns = Integer.parseInt(args[argi]);
+			} else if (args[argi].equals("-h")) {
+				printUsageAndExit();
+			} else {
+				file = args[argi];
+			}
+			argi++;
+		}
+		if (benchRuns > 0) {
+			benchmark(new File(file), benchRuns);
+			return;
+		}
+
 		Parser.TRACE = true;
 		Parser.TRACE_INFO = true;
 		Parser.TRACE_RIFF = true;
@@ -64,30 +90,90 @@ public class Soundfont2LoaderTest {
 
 
 		if (!MEM_TEST) {
-			new Parser().load(new FileInputStream(new File(filename)));
+			new Parser().load(new FileInputStream(new File(file)));
 		} else {
 			// Memory test
 			initialMem = printMemory("before", false);
 			Parser p = new Parser();
-			p.load(new FileInputStream(new File(filename)));
+			p.load(new FileInputStream(new File(file)));
 			printMemory("after 1st run", true);
 			p = new Parser();
-			p.load(new FileInputStream(new File(filename)));
+			p.load(new FileInputStream(new File(file)));
 			printMemory("after 2nd run", true);
 			p = new Parser();
-			p.load(new FileInputStream(new File(filename)));
+			p.load(new FileInputStream(new File(file)));
 			printMemory("after 3rd run", true);
 
 		}
 	}
 
+	private static void printUsageAndExit() {
+		System.out.println("Usage: java Soundfont2LoaderTest [-bench <runs>] [<soundfont file>]");
+		System.out.println("-bench: load the file <runs> times in every parser mode and");
+		System.out.println("        report the load throughput");
+		System.exit(1);
+	}
+
+	/**
+	 * Load the file <code>runs</code> times with the original unbuffered,
+	 * field by field parsing, with a buffered stream, and with bulk reading of
+	 * the preset data, and print MB/s and preset records/s.
+	 */
+	private static void benchmark(File file, int runs) throws Exception {
+		double fileMB = file.length() / (1024.0 * 1024.0);
+		System.out.println("File: " + file.getName() + ", "
+				+ Math.round(fileMB * 10) / 10.0 + " MB");
+		for (int mode = 0; mode < 3; mode++) {
+			String name;
+			switch (mode) {
+			case 0:
+				name = "unbuffered, field by field";
+				break;
+			case 1:
+				name = "buffered, field by field  ";
+				break;
+			default:
+				name = "buffered, bulk read       ";
+				break;
+			}
+			// warm up
+			loadOnce(file, mode);
+			long totalNanos = 0;
+			int records = 0;
+			for (int i = 0; i < runs; i++) {
+				long start = System.nanoTime();
+				records = loadOnce(file, mode);
+				totalNanos += System.nanoTime() - start;
+			}
+			double seconds = totalNanos / (runs * 1000000000.0);
+			System.out.println(name + ": " + Math.round(seconds * 100000) / 100.0
+					+ " ms per load, " + Math.round(fileMB / seconds) + " MB/s, "
+					+ Math.round(records / seconds) + " records/s ("
+					+ records + " records)");
+		}
+	}
+
+	/**
+	 * @return the number of preset records read
+	 */
+	private static int loadOnce(File file, int mode) throws Exception {
+		Parser p = new Parser();
+		p.setBulkRead(mode == 2);
+		if (mode == 0) {
+			p.load(new FileInputStream(file));
+		} else {
+			p.load(file);
+		}
+		return p.getPresetRecordCount();
+	}
+
 	private static long printMemory(String text, boolean printOverhead) {
 		Runtime rt = Runtime.getRuntime();
 		System.gc();
 		System.runFinalization();
 		System.gc();
 		long mem = (rt.totalMemory() - rt.freeMemory()) / 1024;
-		long fileSize = (new File(filename)).length() / 1024;
+		long fileSize = (new File(file)).length() / 1024;
 		System.out.println("--------------------------------------");
 		System.out.print("Used memory " + text + ": " + mem + " KB");
 		if (printOverhead) {
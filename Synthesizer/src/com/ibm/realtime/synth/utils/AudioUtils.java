@@ -40,27 +40,6 @@ public class AudioUtils {
 	private final static double EPSILON = 1.0e-9;
 	private final static double MINUS_INFINITY = -1.0 / EPSILON;
 	
-	// TABLE-BASED CONVERSION
-	
-	private final static boolean USE_TABLES = true;
-	private final static double DECIBEL_TABLE_MAX_BANDWITH = 120; // in dB
-	
-	/** how many entries in the table per decibel */
-	private final static double DECIBEL_TABLE_SCALING_FACTOR = 32;
-	
-	private final static double NOTE_TABLE_MIN = -80; // in semitones
-	private final static double NOTE_TABLE_MAX = 80; // in semitones
-	
-	/** how many entries in the table per semitone */
-	private final static double NOTE_TABLE_SCALING_FACTOR = 64;
-
-	static {
-		if (USE_TABLES) {
-			generateTables();
-		}
-	}
-
-	
 	// CONVERSION TIME <-> BYTES
 	
 	public final static long bytes2millis(long bytes, AudioFormat format) {
@@ -139,41 +118,18 @@ public class AudioUtils {
 	// CONVERSION DECIBEL <-> LINEAR FACTOR 
 	
 	/**
-	 * Get the linear factor corresponding to the given decibel value.
+	 * Get the linear factor corresponding to the given decibel value. Only
+	 * practically infinite attenuation returns 0.0, e.g. -120 dB returns
+	 * 1.0E-6.
 	 * 
 	 * @param decibels the gain in dB, [-inf...0...inf]
 	 * @return the corresponding value as a linear factor [0...1...inf]
 	 */
 	public final static double decibel2linear(double decibels) {
-		if (USE_TABLES) {
-			if (decibels == 0.0) {
-				return 1.0;
-			} else if (decibels < 0) {
-				if (decibels <= -DECIBEL_TABLE_MAX_BANDWITH) {
-					return 0.0;
-				}
-				return decibel2table_table[(int) (decibels * -DECIBEL_TABLE_SCALING_FACTOR)];
-			} else {
-				if (decibels >= DECIBEL_TABLE_MAX_BANDWITH) {
-					decibels = DECIBEL_TABLE_MAX_BANDWITH;
-				}
-				return 1.0/decibel2table_table[(int) (decibels * DECIBEL_TABLE_SCALING_FACTOR)];
-			}
-		} else {
-			if (decibels <= MINUS_INFINITY) {
-				return 0.0;
-			}
-			return calcDecibel2linear(decibels);
+		if (decibels <= MINUS_INFINITY) {
+			return 0.0;
 		}
-	}
-
-	/**
-	 * Calculate the linear factor corresponding to the specified decibel level.
-	 * @param decibels [-inf...0...inf]
-	 * @return linear factor [0...1...inf]
-	 */
-	private final static double calcDecibel2linear(double decibels) {
-		return Math.pow(10.0, decibels * 0.05);
+		return ConversionTables.decibel2linear(decibels);
 	}
 
 	/**
@@ -211,53 +167,9 @@ public class AudioUtils {
 	 */
 	public final static double getSamplerateFactorFromRelativeNote(
 			double relativeNote) {
-		
-		if (USE_TABLES) {
-			if (relativeNote < NOTE_TABLE_MIN) {
-				relativeNote = NOTE_TABLE_MIN;
-			} else if (relativeNote > NOTE_TABLE_MAX) {
-				relativeNote = NOTE_TABLE_MAX;
-			}
-			return note2factor_table[(int) ((relativeNote - NOTE_TABLE_MIN) * NOTE_TABLE_SCALING_FACTOR)];
-		} else {
-			return calcSamplerateFactorFromRelativeNote(relativeNote);
-		}
-	}
-	
-	private final static double calcSamplerateFactorFromRelativeNote(
-			double relativeNote) {
-		// optimize by substituting a division by a multiplication
-		// = relativeNote / 12.0
-		return Math.pow(2.0, relativeNote * 0.0833333333333333333333);
+		return ConversionTables.cents2ratio(relativeNote * 100.0);
 	}
 
-	// TABLE SUPPORT
-	
-	private static double[] decibel2table_table;
-	private static double[] note2factor_table;
-	
-	/**
-	 * Creates tables for linear<->decibel and relativeNote->samplerateFactor conversion 
-	 */
-	private static void generateTables() {
-		// generate decibel2linear table
-		int max = (int) (DECIBEL_TABLE_MAX_BANDWITH * DECIBEL_TABLE_SCALING_FACTOR);
-		decibel2table_table = new double[max + 1];
-		for (int i = 0; i <= max; i++) {
-			double dB = ((double) i) / -DECIBEL_TABLE_SCALING_FACTOR;
-			decibel2table_table[i] = calcDecibel2linear(dB);
-		}
-		// generate note2factor table
-		int min = (int) (NOTE_TABLE_MIN * NOTE_TABLE_SCALING_FACTOR);
-		max = (int) (NOTE_TABLE_MAX * NOTE_TABLE_SCALING_FACTOR);
-		note2factor_table = new double[max - min + 1];
-		for (int i = min; i <= max; i++) {
-			double note = ((double) i) / NOTE_TABLE_SCALING_FACTOR;
-			note2factor_table[i - min] = calcSamplerateFactorFromRelativeNote(note);
-		}
-		
-	}
-	
 	// UNIT TEST
 
 	/**
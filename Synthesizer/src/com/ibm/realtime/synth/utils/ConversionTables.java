@@ -0,0 +1,258 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.utils;
+
+import static com.ibm.realtime.synth.utils.Debug.*;
+
+/**
+ * Table based conversions of the logarithmic units used by the synthesizer
+ * to linear values: cents to frequency ratio, timecents to seconds,
+ * centibels and decibels to linear factor, and absolute cents to Hertz.
+ * <p>
+ * All conversions are powers of 2 and are calculated with exp2(). It splits
+ * the exponent into its integer part, which is applied exactly to the
+ * exponent of the floating point result, and its fraction, which is looked
+ * up in a table of 2^x for x in [0...1) with TABLE_RESOLUTION entries, with
+ * linear interpolation between the entries. The table is 8KB large and is
+ * valid for any exponent, so the conversions are not clamped to a range.
+ * <p>
+ * Error bounds: the relative error of linear interpolation of 2^x with a
+ * step of h is at most (h*ln(2))^2/8, i.e. 5.8E-8 for h=1/1024, plus the
+ * rounding error of the double arithmetic. This is MAX_RELATIVE_ERROR. The
+ * result is never below the exact value, because 2^x is convex. Expressed
+ * in the logarithmic units, the error is less than 0.0001 cents (and
+ * timecents), 0.000005 centibels, and 0.0000005 decibels.
+ * <p>
+ * The tables are enabled by default. With the system property
+ * <code>synth.tables=false</code>, or with setEnabled(false), the
+ * conversions are calculated with Math.pow() instead.
+ * 
+ * @author florian
+ */
+public class ConversionTables {
+
+	public static boolean DEBUG_TABLES = false;
+
+	/**
+	 * The name of the system property to enable or disable the tables.
+	 */
+	public static final String PROPERTY_NAME = "synth.tables";
+
+	/**
+	 * The number of table entries per octave, i.e. per integer exponent.
+	 */
+	public static final int TABLE_RESOLUTION = 1024;
+
+	/**
+	 * The maximum relative error of the table based conversions.
+	 */
+	public static final double MAX_RELATIVE_ERROR = 6.0E-8;
+
+	/**
+	 * log2(10)
+	 */
+	private static final double LOG2_10 = 3.321928094887362;
+
+	private static final double CENTS_TO_EXP2 = 1.0 / 1200.0;
+
+	private static final double CENTIBELS_TO_EXP2 = LOG2_10 / 200.0;
+
+	private static final double DECIBELS_TO_EXP2 = LOG2_10 / 20.0;
+
+	/**
+	 * 2^x for x in [0...1], TABLE_RESOLUTION+1 entries so that the last
+	 * entry can be interpolated.
+	 */
+	private static final double[] EXP2_TABLE = createTable();
+
+	private static volatile boolean enabled = isEnabledByProperty();
+
+	private static double[] createTable() {
+		double[] table = new double[TABLE_RESOLUTION + 1];
+		for (int i = 0; i <= TABLE_RESOLUTION; i++) {
+			table[i] = Math.pow(2.0, ((double) i) / TABLE_RESOLUTION);
+		}
+		return table;
+	}
+
+	private static boolean isEnabledByProperty() {
+		String prop = null;
+		try {
+			prop = System.getProperty(PROPERTY_NAME);
+		} catch (SecurityException se) {
+			// use the default
+		}
+		boolean result = (prop == null) || !prop.equals("false");
+		if (DEBUG_TABLES) {
+			debug("ConversionTables: tables are "
+					+ (result ? "enabled" : "disabled"));
+		}
+		return result;
+	}
+
+	/**
+	 * @return true if the conversions use the tables
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Enable or disable the tables. If disabled, the conversions are
+	 * calculated with Math.pow().
+	 */
+	public static void setEnabled(boolean value) {
+		enabled = value;
+	}
+
+	/**
+	 * Calculate 2^x with the table, regardless if the tables are enabled.
+	 * 
+	 * @param x the exponent
+	 * @return 2 to the power of x, with a relative error of at most
+	 *         MAX_RELATIVE_ERROR
+	 */
+	public static final double exp2(double x) {
+		if (!(x > -1075.0)) {
+			// also catches NaN
+			return (x != x) ? x : 0.0;
+		} else if (x >= 1024.0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		// floor(x), faster than Math.floor() for the limited range of x
+		int exponent = (int) x;
+		if (x < exponent) {
+			exponent--;
+		}
+		double pos = (x - exponent) * TABLE_RESOLUTION;
+		int index = (int) pos;
+		if (index >= TABLE_RESOLUTION) {
+			// x - floor is rounded to 1.0 for tiny negative x
+			index = TABLE_RESOLUTION - 1;
+		}
+		double value = EXP2_TABLE[index];
+		value += (pos - index) * (EXP2_TABLE[index + 1] - value);
+		if (exponent >= -1022 && exponent <= 1023) {
+			// construct 2^exponent directly
+			return value
+					* Double.longBitsToDouble(((long) (exponent + 1023)) << 52);
+		}
+		return Math.scalb(value, exponent);
+	}
+
+	/**
+	 * Calculate 2^x with the table, or with Math.pow() if the tables are
+	 * disabled.
+	 */
+	private static final double pow2(double x) {
+		if (enabled) {
+			return exp2(x);
+		}
+		return Math.pow(2.0, x);
+	}
+
+	/**
+	 * Convert cents to a frequency ratio, e.g. 1200 cents to 2.0.
+	 * 
+	 * @param cents the interval in cents
+	 * @return the frequency ratio
+	 */
+	public static final double cents2ratio(double cents) {
+		return pow2(cents * CENTS_TO_EXP2);
+	}
+
+	/**
+	 * Convert timecents to seconds, e.g. 0 timecents to 1 second.
+	 * 
+	 * @param timecents the time in timecents
+	 * @return the time in seconds
+	 */
+	public static final double timecents2seconds(double timecents) {
+		return pow2(timecents * CENTS_TO_EXP2);
+	}
+
+	/**
+	 * Convert centibels to a linear factor, e.g. -60 centibels to 0.5012.
+	 * 
+	 * @param centibels the gain in centibels, negative values attenuate
+	 * @return the linear factor
+	 */
+	public static final double centibels2linear(double centibels) {
+		return pow2(centibels * CENTIBELS_TO_EXP2);
+	}
+
+	/**
+	 * Convert decibels to a linear factor, e.g. -6 decibels to 0.5012.
+	 * 
+	 * @param decibels the gain in decibels, negative values attenuate
+	 * @return the linear factor
+	 */
+	public static final double decibel2linear(double decibels) {
+		return pow2(decibels * DECIBELS_TO_EXP2);
+	}
+
+	/**
+	 * Convert absolute cents to Hertz. 6900 absolute cents are 440Hz, and 0
+	 * absolute cents are the frequency of MIDI note 0, 8.176Hz.
+	 * 
+	 * @param cents the frequency in absolute cents
+	 * @return the frequency in Hertz
+	 */
+	public static final double absoluteCents2hertz(double cents) {
+		return 440.0 * pow2((cents - 6900.0) * CENTS_TO_EXP2);
+	}
+
+	/**
+	 * Test: print the maximum relative error of exp2() for a range of
+	 * exponents. Exits with status 1 if the error exceeds
+	 * MAX_RELATIVE_ERROR.
+	 */
+	public static void main(String[] args) {
+		double maxError = 0.0;
+		double maxErrorX = 0.0;
+		for (double x = -40.0; x <= 40.0; x += 0.0001237) {
+			if (x > -0.0001 && x < 0.0) {
+				// tiny negative exponents are an edge case of the lookup
+				x = -1.0E-20;
+			}
+			double exact = Math.pow(2.0, x);
+			double error = Math.abs(exp2(x) - exact) / exact;
+			if (error > maxError) {
+				maxError = error;
+				maxErrorX = x;
+			}
+		}
+		out("exp2: max relative error " + maxError + " at x=" + maxErrorX
+				+ " (bound: " + MAX_RELATIVE_ERROR + ")");
+		out("  = " + (1200.0 * Math.log(1.0 + maxError) / Math.log(2.0))
+				+ " cents, " + (20.0 * Math.log10(1.0 + maxError))
+				+ " decibels");
+		if (maxError > MAX_RELATIVE_ERROR) {
+			error("exp2: the relative error exceeds the bound");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * (C) Copyright IBM Corp. 2005, 2008
+ * All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.ibm.realtime.synth.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with log-linear buckets, in the manner
+ * of an HDR histogram: values below 2*SUB_BUCKET_COUNT are counted exactly,
+ * larger values are counted in SUB_BUCKET_COUNT linear buckets per power of
+ * 2, so that the relative error of a bucket is below 1/SUB_BUCKET_COUNT over
+ * the entire range of long.
+ * <p>
+ * Recording a value is lock free and does not allocate, so it can be used
+ * from realtime threads. Reading is not atomic: a copy taken while other
+ * threads record may be off by the values recorded concurrently.
+ * 
+ * @author florian
+ */
+public class Histogram {
+
+	/**
+	 * The number of bits for the linear sub buckets.
+	 */
+	private final static int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * The number of linear sub buckets per power of 2.
+	 */
+	public final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The total number of buckets, enough for Long.MAX_VALUE.
+	 */
+	public final static int BUCKET_COUNT = getBucket(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong total = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Add a value to this histogram. Negative values are counted as 0.
+	 * 
+	 * @param value the value to record
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long localMax = max.get();
+		while (value > localMax) {
+			if (max.compareAndSet(localMax, value)) {
+				break;
+			}
+			localMax = max.get();
+		}
+	}
+
+	/**
+	 * @return the bucket index for the given non-negative value
+	 */
+	public static int getBucket(long value) {
+		if (value < (SUB_BUCKET_COUNT << 1)) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	/**
+	 * @return the lowest value that is counted in the given bucket
+	 */
+	public static long getBucketLowerValue(int bucket) {
+		if (bucket < (SUB_BUCKET_COUNT << 1)) {
+			return bucket;
+		}
+		int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+		long sub = (bucket & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+		return sub << shift;
+	}
+
+	/**
+	 * @return the highest value that is counted in the given bucket
+	 */
+	public static long getBucketUpperValue(int bucket) {
+		if (bucket >= BUCKET_COUNT - 1) {
+			return Long.MAX_VALUE;
+		}
+		return getBucketLowerValue(bucket + 1) - 1;
+	}
+
+	/**
+	 * @return the number of values recorded in the given bucket
+	 */
+	public long getCount(int bucket) {
+		return buckets.get(bucket);
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getTotalCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of all recorded values
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return the average of the recorded values, or 0 if nothing was
+	 *         recorded
+	 */
+	public double getAverage() {
+		long localCount = count.get();
+		if (localCount == 0) {
+			return 0.0;
+		}
+		return ((double) total.get()) / ((double) localCount);
+	}
+
+	/**
+	 * @return the largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Return the upper bound of the bucket that contains the given
+	 * percentile, but not more than the largest recorded value. E.g. for
+	 * percentile 99.0, at least 99% of the values are lower than or equal to
+	 * the returned value.
+	 * 
+	 * @param percentile the percentile [0..100]
+	 * @return the percentile value, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long localCount = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			localCount += buckets.get(i);
+		}
+		if (localCount == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(localCount * percentile / 100.0);
+		if (threshold < 1) {
+			threshold = 1;
+		}
+		long localMax = max.get();
+		long sum = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			sum += buckets.get(i);
+			if (sum >= threshold) {
+				long result = getBucketUpperValue(i);
+				return (result > localMax) ? localMax : result;
+			}
+		}
+		return localMax;
+	}
+
+	/**
+	 * Return the number of recorded values that are larger than the given
+	 * value. Values in the bucket that contains the given value are not
+	 * counted.
+	 * 
+	 * @param value the threshold value
+	 * @return the number of values above the bucket of value
+	 */
+	public long getCountAbove(long value) {
+		long result = 0;
+		for (int i = getBucket(value < 0 ? 0 : value) + 1; i < BUCKET_COUNT; i++) {
+			result += buckets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the recorded values of this histogram to the given histogram,
+	 * replacing its content. The target should not be recorded to at the
+	 * same time.
+	 * 
+	 * @param target the histogram receiving the copy
+	 */
+	public void copyTo(Histogram target) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			target.buckets.set(i, buckets.get(i));
+		}
+		target.count.set(count.get());
+		target.total.set(total.get());
+		target.max.set(max.get());
+	}
+
+	/**
+	 * @return a copy of this histogram
+	 */
+	public Histogram copy() {
+		Histogram result = new Histogram();
+		copyTo(result);
+		return result;
+	}
+
+	/**
+	 * Clear all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Return a one-line summary of this histogram, with all values divided
+	 * by the given divisor, e.g. 1000 for displaying nanoseconds in
+	 * microseconds.
+	 * 
+	 * @param divisor the divisor for the values
+	 * @param unit the unit to append to the values, e.g. "us"
+	 * @return the summary string
+	 */
+	public String toString(double divisor, String unit) {
+		return "n=" + getTotalCount() + " avg="
+				+ Debug.format3(getAverage() / divisor) + unit + " 50%<="
+				+ Debug.format3(getPercentile(50.0) / divisor) + unit
+				+ " 99%<=" + Debug.format3(getPercentile(99.0) / divisor)
+				+ unit + " 99.9%<="
+				+ Debug.format3(getPercentile(99.9) / divisor) + unit
+				+ " max=" + Debug.format3(getMax() / divisor) + unit;
+	}
+
+	/**
+	 * @return a one-line summary of this histogram
+	 */
+	public String toString() {
+		return toString(1.0, "");
+	}
+}
@@ -78,6 +78,9 @@ typedef struct {
 	jlong currentPeriod;
 	snd_pcm_uframes_t periodSize;
 	snd_async_handler_t* asyncHandler; /* what do we need this for? */
+	int mmapAccess; // 1 if the device is opened with mmap access
+	char* directBuffer; // address of the direct ByteBuffer shared with Java
+	jlong directBufferSize; // capacity of the direct buffer in bytes
 } DirectAlsaHandle;
 
 void debugError(char* method, int errorCode) {
@@ -278,11 +281,11 @@ int fillFormatMask(snd_pcm_t* pcm, snd_pcm_hw_params_t* hwParams, int* formatMas
 /*
  * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
  * Method:    nOpen
- * Signature: (Ljava/lang/String;IIIIIZ)J
+ * Signature: (Ljava/lang/String;IIIIIZZ)J
  */
 JNIEXPORT jlong JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nOpen
 (JNIEnv *env, jclass clazz, jstring devName, jint sampleRate, jint channels, jint
- bitsPerSample, jint bufferSize, jint periodSize, jboolean blocking) {
+ bitsPerSample, jint bufferSize, jint periodSize, jboolean blocking, jboolean mmap) {
 	int ret = 0;
 	const char* sDevName;
 	snd_pcm_format_t alsaFormat;
@@ -308,8 +311,17 @@ JNIEXPORT jlong JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nOpe
 		/* Fill it in with hardware default values. */
 		ACHECK(snd_pcm_hw_params_any(da->alsaHandle, da->params));
 		/* Set the desired hardware parameters. */
-		/* Interleaved mode */
-		ACHECK(snd_pcm_hw_params_set_access(da->alsaHandle, da->params, SND_PCM_ACCESS_RW_INTERLEAVED));
+		/* Interleaved mode, if requested and possible with mmap access */
+		if (ret >= 0 && mmap) {
+			if (snd_pcm_hw_params_set_access(da->alsaHandle, da->params, SND_PCM_ACCESS_MMAP_INTERLEAVED) >= 0) {
+				da->mmapAccess = 1;
+			} else {
+				DBG("mmap access not supported, using read/write access.");
+			}
+		}
+		if (!da->mmapAccess) {
+			ACHECK(snd_pcm_hw_params_set_access(da->alsaHandle, da->params, SND_PCM_ACCESS_RW_INTERLEAVED));
+		}
 		// need to query device which PCM format is available for the requested bits per sample
 		ACHECK(retrieveAlsaFormat(da, bitsPerSample, channels, &alsaFormat));
 		ACHECK(snd_pcm_hw_params_set_format(da->alsaHandle, da->params, alsaFormat));
@@ -461,29 +473,20 @@ int xrun_recovery(snd_pcm_t *handle, int err, int* underrun) {
 
 
 /*
- * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
- * Method:    nWrite
- * Signature: (JLjava/lang/Object;II)I
+ * Write length bytes from nData to the device, with read/write or mmap
+ * access. Returns the number of written bytes, eventually with the
+ * UNDERRUN_FLAG set, or a negative error code.
  */
-JNIEXPORT jint JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nWrite
-(JNIEnv *env, jclass clazz, jlong handle, jobject data, jint offset, jint length) {
-	char* originalNData;
-	char* nData;
+int writeFrames(DirectAlsaHandle* da, char* nData, int length) {
 	int ret;
 	int underrun = 0;
 	int maxTrials = 20;
-	DirectAlsaHandle* da = (DirectAlsaHandle*) (INT_PTR) handle;
-	if (handle == 0) return -1;
-	if (length < da->frameSize) {
-		//printf("Tried to write %d bytes!\n", length);
-		return 0;
-	}
-	nData = (char*) ((*env)->GetByteArrayElements(env, data, NULL));
-	originalNData = nData;
-	// apply the offset
-	nData += offset;
 	do {
-		ret = snd_pcm_writei(da->alsaHandle, nData, length / da->frameSize);
+		if (da->mmapAccess) {
+			ret = snd_pcm_mmap_writei(da->alsaHandle, nData, length / da->frameSize);
+		} else {
+			ret = snd_pcm_writei(da->alsaHandle, nData, length / da->frameSize);
+		}
 		//if (ret != length / da->frameSize) {
 		//	printf("tried to write %d samples, result: %d\n", length/da->frameSize, ret);
 		//}
@@ -494,8 +497,6 @@ JNIEXPORT jint JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nWrit
 			break;
 		}
 	} while ((ret == 0) && (--maxTrials > 0));
-	// release the native array
-	(*env)->ReleaseByteArrayElements(env, data, (jbyte*) originalNData, JNI_ABORT);
 
 	if (ret > 0) {
 		ret *= da->frameSize;
@@ -506,6 +507,82 @@ JNIEXPORT jint JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nWrit
 	return ret;
 }
 
+/*
+ * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
+ * Method:    nWrite
+ * Signature: (JLjava/lang/Object;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nWrite
+(JNIEnv *env, jclass clazz, jlong handle, jobject data, jint offset, jint length) {
+	char* nData;
+	int ret;
+	DirectAlsaHandle* da = (DirectAlsaHandle*) (INT_PTR) handle;
+	if (handle == 0) return -1;
+	if (length < da->frameSize) {
+		//printf("Tried to write %d bytes!\n", length);
+		return 0;
+	}
+	nData = (char*) ((*env)->GetByteArrayElements(env, data, NULL));
+	// apply the offset
+	ret = writeFrames(da, nData + offset, length);
+	// release the native array
+	(*env)->ReleaseByteArrayElements(env, data, (jbyte*) nData, JNI_ABORT);
+	return ret;
+}
+
+/*
+ * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
+ * Method:    nSetDirectBuffer
+ * Signature: (JLjava/nio/ByteBuffer;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nSetDirectBuffer
+(JNIEnv *env, jclass clazz, jlong handle, jobject buffer) {
+	DirectAlsaHandle* da = (DirectAlsaHandle*) (INT_PTR) handle;
+	if (handle == 0) return 0;
+	da->directBuffer = NULL;
+	da->directBufferSize = 0;
+	if (buffer != NULL) {
+		da->directBuffer = (char*) (*env)->GetDirectBufferAddress(env, buffer);
+		if (da->directBuffer == NULL) {
+			DBG("Cannot get the address of the direct buffer.");
+			return 0;
+		}
+		da->directBufferSize = (*env)->GetDirectBufferCapacity(env, buffer);
+	}
+	return 1;
+}
+
+/*
+ * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
+ * Method:    nWriteDirect
+ * Signature: (JII)I
+ */
+JNIEXPORT jint JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nWriteDirect
+(JNIEnv *env, jclass clazz, jlong handle, jint offset, jint length) {
+	DirectAlsaHandle* da = (DirectAlsaHandle*) (INT_PTR) handle;
+	if (handle == 0) return -1;
+	if (da->directBuffer == NULL || offset < 0
+		|| ((jlong) offset) + length > da->directBufferSize) {
+		return -1;
+	}
+	if (length < da->frameSize) {
+		return 0;
+	}
+	return writeFrames(da, da->directBuffer + offset, length);
+}
+
+/*
+ * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
+ * Method:    nIsMmap
+ * Signature: (J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_com_ibm_realtime_synth_modules_DirectAudioSink_nIsMmap
+(JNIEnv *env, jclass clazz, jlong handle) {
+	DirectAlsaHandle* da = (DirectAlsaHandle*) (INT_PTR) handle;
+	if (handle == 0) return 0;
+	return da->mmapAccess?1:0;
+}
+
 /*
  * Class:     com_ibm_realtime_synth_modules_DirectAudioSink
  * Method:    nGetPosition